@@ -5,9 +5,23 @@ import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(value=Suite.class)
 @SuiteClasses(value= {TokenTest.class,
+                      KeywordTableTest.class,
+                      BugsLexerTest.class,
+                      MappedFileReaderTest.class,
+                      TokenStreamTest.class,
+                      NodeStackTest.class,
+                      GrammarTest.class,
                       RecognizerTest.class,
                       ParserTest.class,
+                      ParallelParserTest.class,
+                      BatchCompilerTest.class,
+                      ParseCacheTest.class,
+                      TreeFormatTest.class,
+                      IncrementalParserTest.class,
+                      TableParserTest.class,
                       tree.TreeTest.class,
+                      tree.FlatTreeTest.class,
+                      tree.TreeInternerTest.class,
                       TreeParserTest.class})
 public class AllTests {
     // Empty class
@@ -0,0 +1,340 @@
+package bugs;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses many Bugs programs concurrently: every <code>.bugs</code> file
+ * in the given directory trees, and any files named explicitly. Files
+ * are parsed by a fixed number of worker threads; the directories are
+ * walked only as fast as the workers keep up, so no more than a few
+ * files per thread are ever waiting. Each worker keeps its own buffers
+ * for reading and decoding files, its own <code>Parser</code> (see
+ * <code>Parser.forThread</code>), and its own statistics, so the workers
+ * share nothing while they run, and allocate little but the trees.
+ * <p>
+ * Syntax errors are reported, one line per file, as they are found.
+ * At the end, a summary gives the numbers of files, tokens and errors,
+ * the throughput, and the median and 99th percentile time to parse a
+ * file. Run it as an application:
+ * <pre>java bugs.BatchCompiler [-threads n] path...</pre>
+ * The exit status is 1 if any file could not be parsed.
+ */
+public class BatchCompiler {
+    /** The number of files that may wait for each worker thread. */
+    private static final int FILES_PER_THREAD = 4;
+
+    private final int threads;
+    private final PrintStream errorStream;
+
+    /** The buffers and statistics of every thread that has parsed a file. */
+    private final List<ThreadState> states = new ArrayList<>();
+    private final ThreadLocal<ThreadState> threadState = new ThreadLocal<ThreadState>() {
+        @Override
+        protected ThreadState initialValue() {
+            ThreadState state = new ThreadState();
+            synchronized (states) {
+                states.add(state);
+            }
+            return state;
+        }
+    };
+
+    private long elapsedNanos = 0;
+
+    /**
+     * Reads the command line, parses the files, and prints the summary.
+     * @param args An optional "-threads n", then the files and directories.
+     * @throws IOException If a directory cannot be walked.
+     * @throws InterruptedException If interrupted while parsing.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int first = 0;
+        if (args.length > 1 && args[0].equals("-threads")) {
+            threads = Integer.parseInt(args[1]);
+            first = 2;
+        }
+        if (first == args.length) {
+            System.err.println("Usage: java bugs.BatchCompiler [-threads n] path...");
+            System.exit(2);
+        }
+        List<Path> paths = new ArrayList<>();
+        for (int i = first; i < args.length; i++) {
+            paths.add(Paths.get(args[i]));
+        }
+        BatchCompiler compiler = new BatchCompiler(threads, System.err);
+        compiler.compile(paths);
+        compiler.printSummary(System.out);
+        System.exit(compiler.getExitStatus());
+    }
+
+    /**
+     * Constructs a BatchCompiler.
+     * @param threads The number of worker threads.
+     * @param errorStream Where to report the files that cannot be parsed.
+     */
+    public BatchCompiler(int threads, PrintStream errorStream) {
+        if (threads < 1) throw new IllegalArgumentException("Need at least one thread");
+        this.threads = threads;
+        this.errorStream = errorStream;
+    }
+
+    /**
+     * Parses the given files, and the <code>.bugs</code> files in the
+     * given directories and their subdirectories, and waits until all
+     * have been parsed. The statistics accumulate over calls.
+     * @param paths The files and directories.
+     * @throws IOException If a directory cannot be walked.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public void compile(List<Path> paths) throws IOException, InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final Semaphore permits = new Semaphore(threads * FILES_PER_THREAD);
+        long start = System.nanoTime();
+        try {
+            for (Path path : paths) {
+                if (!Files.isDirectory(path)) {
+                    submit(path, executor, permits);
+                    continue;
+                }
+                Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attributes)
+                            throws IOException {
+                        if (attributes.isRegularFile() && file.toString().endsWith(".bugs")) {
+                            try {
+                                submit(file, executor, permits);
+                            }
+                            catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                return FileVisitResult.TERMINATE;
+                            }
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+        }
+        finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            elapsedNanos += System.nanoTime() - start;
+        }
+        if (Thread.interrupted()) throw new InterruptedException();
+    }
+
+    /**
+     * Returns the number of files parsed, with or without errors.
+     * @return The number of files.
+     */
+    public long getFileCount() {
+        long count = 0;
+        for (ThreadState state : states()) count += state.files;
+        return count;
+    }
+
+    /**
+     * Returns the number of files that could not be parsed.
+     * @return The number of files with errors.
+     */
+    public long getErrorCount() {
+        long count = 0;
+        for (ThreadState state : states()) count += state.errors;
+        return count;
+    }
+
+    /**
+     * Returns the number of tokens in the files that were parsed
+     * successfully, counting the EOF at the end of each.
+     * @return The number of tokens.
+     */
+    public long getTokenCount() {
+        long count = 0;
+        for (ThreadState state : states()) count += state.tokens;
+        return count;
+    }
+
+    /**
+     * Returns the exit status for the files parsed so far: 1 if any of
+     * them could not be parsed, otherwise 0.
+     * @return The exit status.
+     */
+    public int getExitStatus() {
+        return getErrorCount() > 0 ? 1 : 0;
+    }
+
+    /**
+     * Returns the time within which the given fraction of the files were
+     * each read and parsed.
+     * @param fraction The fraction, greater than 0 and at most 1; for
+     *        example, 0.5 gives the median.
+     * @return The time, in nanoseconds, or 0 if no files were parsed.
+     */
+    public long getLatency(double fraction) {
+        long[] latencies = new long[(int) getFileCount()];
+        int n = 0;
+        for (ThreadState state : states()) {
+            System.arraycopy(state.latencies, 0, latencies, n, state.files);
+            n += state.files;
+        }
+        if (n == 0) return 0;
+        Arrays.sort(latencies);
+        int index = (int) Math.ceil(fraction * n) - 1;
+        return latencies[Math.max(0, Math.min(n - 1, index))];
+    }
+
+    /**
+     * Prints a summary of the files parsed so far.
+     * @param out Where to print it.
+     */
+    public void printSummary(PrintStream out) {
+        long files = getFileCount();
+        long bytes = 0;
+        for (ThreadState state : states()) bytes += state.bytes;
+        double seconds = Math.max(elapsedNanos, 1) / 1e9;
+        out.printf("files:      %10d (%d with errors), %d threads%n", files, getErrorCount(), threads);
+        out.printf("tokens:     %10d%n", getTokenCount());
+        out.printf("time:       %10.1f ms (%.1f MB)%n", seconds * 1000, bytes / 1e6);
+        out.printf("throughput: %10.1f files/s, %.0f tokens/s, %.1f MB/s%n",
+                   files / seconds, getTokenCount() / seconds, bytes / 1e6 / seconds);
+        out.printf("per file:   %10.3f ms median, %.3f ms 99th percentile%n",
+                   getLatency(0.5) / 1e6, getLatency(0.99) / 1e6);
+    }
+
+    //------------------------- Private "helper" methods
+
+    /**
+     * Waits until a file may be queued, then queues it for parsing.
+     * @param file The file to parse.
+     * @param executor The worker threads.
+     * @param permits The number of files that may still be queued.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    private void submit(final Path file, ExecutorService executor, final Semaphore permits)
+            throws InterruptedException {
+        permits.acquire();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    threadState.get().compile(file);
+                }
+                finally {
+                    permits.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns a copy of the list of thread states, safe to use once the
+     * threads have finished.
+     * @return The thread states.
+     */
+    private List<ThreadState> states() {
+        synchronized (states) {
+            return new ArrayList<>(states);
+        }
+    }
+
+    /**
+     * The buffers and statistics of one worker thread.
+     */
+    private class ThreadState {
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+        private ByteBuffer byteBuffer = ByteBuffer.allocate(8192);
+        private CharBuffer charBuffer = CharBuffer.allocate(8192);
+
+        int files = 0;
+        int errors = 0;
+        long tokens = 0;
+        long bytes = 0;
+        long[] latencies = new long[64];
+
+        /**
+         * Reads and parses a file, reporting it if it cannot be parsed,
+         * and records the statistics. A file that breaks the Parser, for
+         * example by nesting so deeply that the stack overflows, is
+         * reported as a file with errors too; the file is counted
+         * whatever happens.
+         * @param file The file.
+         */
+        void compile(Path file) {
+            long start = System.nanoTime();
+            String error = null;
+            boolean parsed = false;
+            try {
+                Parser parser = Parser.forThread(read(file));
+                parser.isProgram();
+                tokens += parser.tokenizer.consumedCount();
+                parsed = true;
+            }
+            catch (SyntaxException e) {
+                error = e.getMessage();
+            }
+            catch (IOException | RuntimeException | StackOverflowError e) {
+                error = e.toString();
+            }
+            finally {
+                if (files == latencies.length) latencies = Arrays.copyOf(latencies, 2 * files);
+                latencies[files++] = System.nanoTime() - start;
+                if (!parsed) {
+                    errors++;
+                    errorStream.println(file + ": " + (error != null ? error : "Parser failed"));
+                }
+            }
+        }
+
+        /**
+         * Reads a UTF-8 encoded file into this worker's character buffer.
+         * @param file The file.
+         * @return The buffer, holding the text of the file.
+         * @throws IOException If the file cannot be read or is not UTF-8.
+         */
+        private CharBuffer read(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file)) {
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE / 2) throw new IOException("File too large");
+                if (size >= byteBuffer.capacity()) {
+                    byteBuffer = ByteBuffer.allocate(Integer.highestOneBit((int) size) * 2);
+                }
+                byteBuffer.clear();
+                while (channel.read(byteBuffer) >= 0 && byteBuffer.hasRemaining()) {
+                    // keep reading until the end of the file
+                }
+                bytes += byteBuffer.position();
+            }
+            byteBuffer.flip();
+            if (byteBuffer.remaining() > charBuffer.capacity()) {
+                charBuffer = CharBuffer.allocate(byteBuffer.capacity());
+            }
+            charBuffer.clear();
+            decoder.reset();
+            CoderResult result = decoder.decode(byteBuffer, charBuffer, true);
+            if (!result.isUnderflow()) result.throwException();
+            decoder.flush(charBuffer);
+            charBuffer.flip();
+            return charBuffer;
+        }
+    }
+}
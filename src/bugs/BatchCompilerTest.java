@@ -0,0 +1,126 @@
+package bugs;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchCompilerTest {
+    private Path directory;
+    private ByteArrayOutputStream errors;
+    private BatchCompiler compiler;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("bugs");
+        errors = new ByteArrayOutputStream();
+        compiler = new BatchCompiler(3, new PrintStream(errors, true, "UTF-8"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes)
+                    throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Test
+    public void testCompile() throws Exception {
+        String program = "Bug a {\n    move 1\n}\n";       // 9 tokens
+        long tokens = 0;
+        for (int i = 0; i < 40; i++) {
+            Path dir = Files.createDirectories(directory.resolve("d" + i % 3).resolve("e" + i % 2));
+            StringBuilder text = new StringBuilder("Allbugs {\n}\n");
+            for (int j = 0; j <= i; j++) text.append(program.replace("a", "a" + j));
+            write(dir.resolve("p" + i + ".bugs"), text.toString());
+            tokens += 5 + 9 * (i + 1) + 1;          // and EOF
+        }
+        write(directory.resolve("d0/bad.bugs"), "Bug a {\n    move 1\n    turn\n}\n");
+        write(directory.resolve("d1/e0/ignored.txt"), "not a program");
+        Path named = write(directory.resolve("named.txt"), "Bug b {\n    turn ,\n}\n");
+
+        compiler.compile(Arrays.asList(directory, named));
+        assertEquals(42, compiler.getFileCount());
+        assertEquals(2, compiler.getErrorCount());
+        assertEquals(tokens, compiler.getTokenCount());
+        String reported = new String(errors.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(reported, reported.contains("bad.bugs: Line 3: No expression after 'turn'"));
+        assertTrue(reported, reported.contains("named.txt: Line 2: No expression after 'turn'"));
+        assertFalse(reported, reported.contains("ignored"));
+
+        assertTrue(compiler.getLatency(0.5) > 0);
+        assertTrue(compiler.getLatency(0.5) <= compiler.getLatency(0.99));
+        assertTrue(compiler.getLatency(0.99) <= compiler.getLatency(1));
+        ByteArrayOutputStream summary = new ByteArrayOutputStream();
+        compiler.printSummary(new PrintStream(summary, true, "UTF-8"));
+        assertTrue(new String(summary.toByteArray(), StandardCharsets.UTF_8)
+                   .contains("(2 with errors)"));
+    }
+
+    @Test
+    public void testCompileUnreadable() throws Exception {
+        Path file = directory.resolve("missing.bugs");
+        Path notUtf8 = directory.resolve("latin1.bugs");
+        Files.write(notUtf8, new byte[] { 'B', 'u', 'g', ' ', (byte) 0xE9, '\n' });
+        compiler.compile(Arrays.asList(file, notUtf8));
+        assertEquals(2, compiler.getFileCount());
+        assertEquals(2, compiler.getErrorCount());
+        String reported = new String(errors.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(reported, reported.contains("missing.bugs: java.nio.file.NoSuchFileException"));
+        assertTrue(reported, reported.contains("latin1.bugs: java.nio.charset.MalformedInputException"));
+    }
+
+    @Test
+    public void testCompileTooDeep() throws Exception {
+        write(directory.resolve("ok.bugs"), "Bug a {\n    move 1\n}\n");
+        StringBuilder text = new StringBuilder("Bug b {\n    move ");
+        for (int i = 0; i < 50000; i++) text.append('(');
+        text.append('1');
+        for (int i = 0; i < 50000; i++) text.append(')');
+        write(directory.resolve("deep.bugs"), text.append("\n}\n").toString());
+        assertEquals(0, compiler.getExitStatus());
+        compiler.compile(Arrays.asList(directory));
+        assertEquals(2, compiler.getFileCount());
+        assertEquals(1, compiler.getErrorCount());
+        assertEquals(1, compiler.getExitStatus());
+        String reported = new String(errors.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(reported, reported.contains("deep.bugs: java.lang.StackOverflowError"));
+        assertTrue(compiler.getLatency(1) > 0);
+    }
+
+//  ----- "Helper" methods
+
+    /**
+     * Writes text to a file, in UTF-8.
+     * @param file The file.
+     * @param text The text.
+     * @return The file.
+     * @throws IOException If the file cannot be written.
+     */
+    private static Path write(Path file, String text) throws IOException {
+        return Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+}
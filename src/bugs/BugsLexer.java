@@ -0,0 +1,643 @@
+package bugs;
+
+import java.io.IOError;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A hand-written lexer for the Bugs language. It scans the source text
+ * directly, one character at a time, and records each token it finds in
+ * a set of parallel primitive arrays (type, start offset, end offset,
+ * line and column numbers, and numeric value). <code>Token</code> objects are only
+ * created when someone actually asks for one, so a parser that merely
+ * tests the type or spelling of the next token, and then pushes it back,
+ * creates no garbage at all.
+ * <p>
+ * The source is read through a character buffer, and only the most
+ * recent tokens are remembered, so the memory used by the lexer does not
+ * depend on the size of the source. A lexer can read from a
+ * <code>CharSequence</code>, a <code>Reader</code>, a
+ * <code>ReadableByteChannel</code> (UTF-8), or a file (UTF-8), which is
+ * memory-mapped and decoded a piece at a time.
+ * <p>
+ * The lexical rules are those of the <code>StreamTokenizer</code>
+ * configuration formerly used by the <code>Parser</code> and
+ * <code>Recognizer</code>:
+ * <ul>
+ *   <li>A name is an ASCII letter, an underscore, or any character from
+ *       <code>\u00a0</code> up, followed by any number of those and
+ *       digits. So a name may hold accented letters, but also, say, a
+ *       no-break space or a line separator. Names found in
+ *       <code>Token.KEYWORDS</code> are keywords.</li>
+ *   <li>A number is a sequence of digits, optionally containing a
+ *       single decimal point.</li>
+ *   <li>Newlines (<code>\n</code>, <code>\r</code>, or
+ *       <code>\r\n</code>) are returned as EOL tokens; other whitespace
+ *       is skipped.</li>
+ *   <li><code>//</code> and <code>/* ... *&#47;</code> comments are
+ *       skipped.</li>
+ *   <li>A quotation mark is a SYMBOL token of its own, and the text
+ *       after it, up to the closing quotation mark or the end of the
+ *       line, is skipped. A backslash escapes the character after it,
+ *       even a quotation mark or a newline.</li>
+ *   <li>Any other character is a single-character symbol.</li>
+ * </ul>
+ */
+public class BugsLexer {
+    private static final Token.Type[] TYPES = Token.Type.values();
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int BUFFER_SIZE = 8192;
+
+    /** The number of tokens that can always be pushed back. */
+    static final int MAX_PUSHBACK = 16;
+
+    /** The source of the characters to be scanned. */
+    private Reader reader;
+    /** <code>true</code> if the reader was opened by this lexer. */
+    private boolean ownsReader;
+    /** The reader used for text given as a CharSequence, kept for reuse. */
+    private TextReader textReader = null;
+    /** <code>true</code> once the reader has no more characters. */
+    private boolean endOfInput = false;
+
+    /** Characters read from the source but not yet discarded. */
+    private char[] buffer;
+    /** The number of valid characters in the buffer. */
+    private int limit = 0;
+    /** The buffer index of the next character to be scanned. */
+    private int position = 0;
+    /** The buffer index of the first character of the token being scanned. */
+    private int tokenStart = 0;
+    /** The line number of the next character to be scanned. */
+    private int line = 1;
+    /**
+     * The buffer index of the first character of the current line; it is
+     * negative if that character has already been discarded.
+     */
+    private int lineStart = 0;
+    /** The number of characters discarded from the front of the buffer. */
+    private int discarded = 0;
+
+    // Each remembered token occupies one slot in each of these arrays.
+    // Start and end offsets are indices into the buffer.
+    private byte[] types = new byte[INITIAL_CAPACITY];
+    private int[] starts = new int[INITIAL_CAPACITY];
+    private int[] ends = new int[INITIAL_CAPACITY];
+    private int[] lines = new int[INITIAL_CAPACITY];
+    private int[] columns = new int[INITIAL_CAPACITY];
+    private double[] numbers = new double[INITIAL_CAPACITY];
+    /** The number of tokens remembered. */
+    private int count = 0;
+    /** The index of the next token to be returned. */
+    private int current = 0;
+
+    /**
+     * Constructs a lexer for the given text. The text is read as it is
+     * needed, so it must not be changed while it is being lexed.
+     * @param text The characters to be broken into tokens.
+     */
+    public BugsLexer(CharSequence text) {
+        this(null, false, Math.max(16, Math.min(BUFFER_SIZE, text.length())));
+        reset(text);
+    }
+
+    /**
+     * Constructs a lexer for text that begins on the given line of some
+     * larger text, so that its tokens have the line numbers they have
+     * there. The text must begin at the start of that line.
+     * @param text The characters to be broken into tokens.
+     * @param firstLine The line number of the first line of the text.
+     */
+    BugsLexer(CharSequence text, int firstLine) {
+        this(text);
+        line = firstLine;
+    }
+
+    /**
+     * Constructs a lexer that reads characters from the given Reader.
+     * The Reader is not closed by the lexer.
+     * @param reader The source of the characters to be broken into tokens.
+     */
+    public BugsLexer(Reader reader) {
+        this(reader, false, BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs a lexer that reads UTF-8 encoded text from the given
+     * channel. The channel is not closed by the lexer.
+     * @param channel The source of the text to be broken into tokens.
+     */
+    public BugsLexer(ReadableByteChannel channel) {
+        this(Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), -1),
+             false, BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs a lexer for the UTF-8 encoded text in the given file.
+     * The file is memory-mapped rather than read into memory, and is
+     * closed when the end of the text is reached.
+     * @param path The file containing the text to be broken into tokens.
+     * @throws IOException If the file cannot be opened.
+     */
+    public BugsLexer(Path path) throws IOException {
+        this(new MappedFileReader(path), true, BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs a lexer that reads characters from the given Reader.
+     * @param reader The source of the characters.
+     * @param ownsReader Whether to close the reader at the end of the text.
+     * @param bufferSize The initial size of the character buffer.
+     */
+    private BugsLexer(Reader reader, boolean ownsReader, int bufferSize) {
+        this.reader = reader;
+        this.ownsReader = ownsReader;
+        this.buffer = new char[bufferSize];
+    }
+
+    /**
+     * Starts over, breaking the given text into tokens, as a new lexer
+     * for that text would, but keeping the buffers this lexer has
+     * already allocated. If this lexer opened its source, that is
+     * closed. The text is read as it is needed, so it must not be
+     * changed while it is being lexed.
+     * @param text The characters to be broken into tokens.
+     */
+    public void reset(CharSequence text) {
+        if (ownsReader && !endOfInput) {
+            try {
+                reader.close();
+            }
+            catch (IOException e) {
+                throw new IOError(e);
+            }
+        }
+        if (textReader == null) textReader = new TextReader();
+        textReader.reset(text);
+        reader = textReader;
+        ownsReader = false;
+        endOfInput = false;
+        limit = 0;
+        position = 0;
+        tokenStart = 0;
+        line = 1;
+        lineStart = 0;
+        discarded = 0;
+        count = 0;
+        current = 0;
+    }
+
+    /**
+     * Advances to the next token and returns its type. The token itself
+     * is not created; use <code>token()</code> if it is needed.
+     * @return The type of the next token.
+     */
+    public Token.Type nextType() {
+        if (current == count) scan();
+        return TYPES[types[current++]];
+    }
+
+    /**
+     * Advances to the next token and returns it.
+     * @return The next Token.
+     */
+    public Token nextToken() {
+        nextType();
+        return token();
+    }
+
+    /**
+     * Returns the most recently returned token to the lexer, so that it
+     * will be returned again by the next call to <code>nextType()</code>
+     * or <code>nextToken()</code>. At least <code>MAX_PUSHBACK</code>
+     * tokens can be pushed back in a row.
+     */
+    public void pushBack() {
+        if (current > 0) current--;
+    }
+
+    /**
+     * Returns a Token for the most recently returned token. Keywords,
+     * symbols, EOL and EOF are shared Tokens (see <code>Token.of</code>);
+     * names and numbers are newly created.
+     * @return The most recent token.
+     */
+    public Token token() {
+        int i = current - 1;
+        Token.Type type = TYPES[types[i]];
+        switch (type) {
+            case NUMBER:
+                return new Token(numbers[i]);
+            case KEYWORD:
+                return Token.keyword(Token.KEYWORD_TABLE.ordinal(buffer, starts[i], ends[i]));
+            case SYMBOL:
+                Token symbol = Token.symbol(buffer[starts[i]]);
+                if (symbol != null && ends[i] - starts[i] == 1) return symbol;
+                break;
+            case EOL:
+                return Token.EOL_TOKEN;
+            case EOF:
+                return Token.EOF_TOKEN;
+            default:
+                break;
+        }
+        return new Token(type, new String(buffer, starts[i], ends[i] - starts[i]));
+    }
+
+    /**
+     * Returns the numeric value of the most recently returned token,
+     * without creating a Token. This is only meaningful for NUMBER tokens.
+     * @return The value of the most recent number.
+     */
+    public double number() {
+        return numbers[current - 1];
+    }
+
+    /**
+     * Returns the ordinal in <code>Token.KEYWORD_TABLE</code> of the most
+     * recently returned token, without creating a Token. This is only
+     * meaningful for KEYWORD tokens.
+     * @return The ordinal of the most recent keyword.
+     */
+    int keywordOrdinal() {
+        int i = current - 1;
+        return Token.KEYWORD_TABLE.ordinal(buffer, starts[i], ends[i]);
+    }
+
+    /**
+     * Returns the character of the most recently returned token, without
+     * creating a Token. This is only meaningful for SYMBOL tokens.
+     * @return The most recent symbol.
+     */
+    char symbolChar() {
+        return buffer[starts[current - 1]];
+    }
+
+    /**
+     * Returns the column in which the most recently returned token
+     * starts, the first character of a line being in column 1. Tabs
+     * count as a single character.
+     * @return The column number of the most recent token.
+     */
+    public int columnNumber() {
+        return columns[current - 1];
+    }
+
+    /**
+     * Returns the offset in the source of the first character of the
+     * most recently returned token, the first character of the source
+     * being at offset 0.
+     * @return The start offset of the most recent token.
+     */
+    public int startOffset() {
+        return discarded + starts[current - 1];
+    }
+
+    /**
+     * Returns the offset in the source just past the last character of
+     * the most recently returned token. For an EOL token, that is past
+     * the whole line separator.
+     * @return The end offset of the most recent token.
+     */
+    public int endOffset() {
+        return discarded + ends[current - 1];
+    }
+
+    /**
+     * Tests whether the characters of the most recently returned token
+     * are exactly those of the given string, without creating a Token.
+     * This is not meaningful for NUMBER, EOL and EOF tokens.
+     * @param value The expected characters.
+     * @return <code>true</code> if the token is spelled as expected.
+     */
+    public boolean textEquals(String value) {
+        int i = current - 1;
+        int start = starts[i];
+        int length = ends[i] - start;
+        if (length != value.length()) return false;
+        for (int j = 0; j < length; j++) {
+            if (buffer[start + j] != value.charAt(j)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of the line currently being processed, that is,
+     * one more than the number of EOL tokens returned (and not pushed
+     * back) so far.
+     * @return The current line number.
+     */
+    public int lineNumber() {
+        if (current == 0) return count == 0 ? line : lines[0];
+        int i = current - 1;
+        return types[i] == Token.Type.EOL.ordinal() ? lines[i] + 1 : lines[i];
+    }
+
+    //------------------------- Private "helper" methods
+
+    /**
+     * Scans the next token from the source and appends it to the token
+     * arrays.
+     */
+    private void scan() {
+        tokenStart = position;
+        if (count == types.length) makeRoom();
+        Token.Type type = null;
+        double value = 0;
+        int tokenLine = line;
+        boolean quote = false;
+        while (type == null) {
+            tokenStart = position;
+            tokenLine = line;
+            int ch = read();
+            if (ch < 0) {
+                type = Token.Type.EOF;
+            }
+            else if (ch == '\n') {
+                type = Token.Type.EOL;
+            }
+            else if (ch == '\r') {
+                if (peek() == '\n') position++;
+                type = Token.Type.EOL;
+            }
+            else if (ch <= ' ') {
+                // skip whitespace
+            }
+            else if (ch == '/' && peek() == '/') {
+                int next = peek();
+                while (next >= 0 && next != '\n' && next != '\r') {
+                    position++;
+                    next = peek();
+                }
+            }
+            else if (ch == '/' && peek() == '*') {
+                position++;
+                skipBlockComment();
+            }
+            else if (ch >= '0' && ch <= '9') {
+                type = Token.Type.NUMBER;
+                value = scanNumber(ch);
+            }
+            else if (ch == '"') {
+                // the quotation mark is a token by itself, whatever it skips
+                quote = true;
+                skipQuotedText();
+                type = Token.Type.SYMBOL;
+            }
+            else if (isNameStart(ch)) {
+                while (isNamePart(peek())) position++;
+                type = Token.isKeyword(buffer, tokenStart, position) ? Token.Type.KEYWORD
+                                                                     : Token.Type.NAME;
+            }
+            else {
+                type = Token.Type.SYMBOL;
+            }
+        }
+        types[count] = (byte) type.ordinal();
+        starts[count] = tokenStart;
+        ends[count] = quote ? tokenStart + 1 : position;
+        lines[count] = tokenLine;
+        columns[count] = tokenStart - lineStart + 1;
+        numbers[count] = value;
+        if (type == Token.Type.EOL) {
+            line++;
+            lineStart = position;
+        }
+        count++;
+    }
+
+    /**
+     * Skips over a <code>/* ... *&#47;</code> comment, whose opening
+     * slash and asterisk have already been consumed, counting the lines
+     * within it. An unclosed comment extends to the end of the text.
+     */
+    private void skipBlockComment() {
+        int previous = 0;
+        int ch = read();
+        while (ch >= 0) {
+            if (ch == '/' && previous == '*') return;
+            if (ch == '\n' || (ch == '\r' && peek() != '\n')) {
+                line++;
+                lineStart = position;
+            }
+            previous = ch;
+            ch = read();
+        }
+    }
+
+    /**
+     * Skips the text after a quotation mark, as the StreamTokenizer did:
+     * up to and including the closing quotation mark, or up to but not
+     * including the end of the line. A backslash escapes the character
+     * after it, so an escaped quotation mark does not end the text, and
+     * an escaped newline neither ends it nor counts as a line.
+     */
+    private void skipQuotedText() {
+        int ch = peek();
+        while (ch >= 0 && ch != '"' && ch != '\n' && ch != '\r') {
+            position++;
+            if (ch == '\\' && peek() >= 0) position++;
+            ch = peek();
+        }
+        if (ch == '"') position++;
+    }
+
+    /**
+     * Scans the rest of a number whose first digit has already been
+     * consumed, and returns its value. The value is computed exactly as
+     * <code>StreamTokenizer</code> computes it.
+     * @param first The first digit of the number.
+     * @return The value of the number.
+     */
+    private double scanNumber(int first) {
+        double value = first - '0';
+        int decimals = 0;
+        boolean seenDot = false;
+        while (true) {
+            int ch = peek();
+            if (ch >= '0' && ch <= '9') {
+                value = value * 10 + (ch - '0');
+                if (seenDot) decimals++;
+            }
+            else if (ch == '.' && !seenDot) {
+                seenDot = true;
+            }
+            else {
+                break;
+            }
+            position++;
+        }
+        if (decimals > 0) {
+            double denominator = 10;
+            while (--decimals > 0) denominator *= 10;
+            value = value / denominator;
+        }
+        return value;
+    }
+
+    /**
+     * Consumes and returns the next character, or returns -1 if there
+     * are no more characters.
+     * @return The next character, or -1.
+     */
+    private int read() {
+        if (position == limit && !fill()) return -1;
+        return buffer[position++];
+    }
+
+    /**
+     * Returns the next character without consuming it, or returns -1 if
+     * there are no more characters.
+     * @return The next character, or -1.
+     */
+    private int peek() {
+        if (position == limit && !fill()) return -1;
+        return buffer[position];
+    }
+
+    /**
+     * Reads more characters from the source into the buffer, first
+     * discarding characters that are no longer needed.
+     * @return <code>true</code> if more characters were read.
+     */
+    private boolean fill() {
+        if (endOfInput) return false;
+        discardOldTokens();
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+        }
+        int n;
+        try {
+            do {
+                n = reader.read(buffer, limit, buffer.length - limit);
+            } while (n == 0);
+            if (n < 0) {
+                endOfInput = true;
+                if (ownsReader) reader.close();
+                return false;
+            }
+        }
+        catch (IOException e) {
+            throw new IOError(e);
+        }
+        limit += n;
+        return true;
+    }
+
+    /**
+     * Makes room in the token arrays for another token, by discarding
+     * tokens that can no longer be pushed back, or, if there are none,
+     * by enlarging the arrays.
+     */
+    private void makeRoom() {
+        discardOldTokens();
+        if (count == types.length) {
+            int capacity = 2 * types.length;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            columns = Arrays.copyOf(columns, capacity);
+            numbers = Arrays.copyOf(numbers, capacity);
+        }
+    }
+
+    /**
+     * Forgets the tokens that are too far back to be pushed back, and
+     * moves the remaining tokens, and the characters they (and the token
+     * currently being scanned) are made from, to the start of their
+     * arrays.
+     */
+    private void discardOldTokens() {
+        int oldest = Math.max(0, current - MAX_PUSHBACK);
+        if (oldest > 0) {
+            int remaining = count - oldest;
+            System.arraycopy(types, oldest, types, 0, remaining);
+            System.arraycopy(starts, oldest, starts, 0, remaining);
+            System.arraycopy(ends, oldest, ends, 0, remaining);
+            System.arraycopy(lines, oldest, lines, 0, remaining);
+            System.arraycopy(columns, oldest, columns, 0, remaining);
+            System.arraycopy(numbers, oldest, numbers, 0, remaining);
+            count = remaining;
+            current -= oldest;
+        }
+        int keep = count > 0 ? Math.min(starts[0], tokenStart) : tokenStart;
+        if (keep > 0) {
+            System.arraycopy(buffer, keep, buffer, 0, limit - keep);
+            limit -= keep;
+            position -= keep;
+            tokenStart -= keep;
+            lineStart -= keep;
+            discarded += keep;
+            for (int i = 0; i < count; i++) {
+                starts[i] -= keep;
+                ends[i] -= keep;
+            }
+        }
+    }
+
+    /**
+     * Tests whether the given character can begin a name.
+     * @param ch The character to test, or -1.
+     * @return <code>true</code> if a name can start with this character.
+     */
+    static boolean isNameStart(int ch) {
+        return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || ch == '_' || ch >= 0xA0;
+    }
+
+    /**
+     * Tests whether the given character can continue a name.
+     * @param ch The character to test, or -1.
+     * @return <code>true</code> if this character can be part of a name.
+     */
+    static boolean isNamePart(int ch) {
+        return isNameStart(ch) || (ch >= '0' && ch <= '9');
+    }
+
+    /**
+     * A Reader of the characters of a CharSequence, which can be reused
+     * for another CharSequence.
+     */
+    private static class TextReader extends Reader {
+        private CharSequence text;
+        private int next;
+
+        /**
+         * Starts reading the given text.
+         * @param text The characters to be read.
+         */
+        void reset(CharSequence text) {
+            this.text = text;
+            this.next = 0;
+        }
+
+        @Override
+        public int read(char[] destination, int offset, int length) {
+            int n = Math.min(length, text.length() - next);
+            if (length == 0) return 0;
+            if (n <= 0) {
+                text = "";          // don't hold on to text that has been read
+                next = 0;
+                return -1;
+            }
+            if (text instanceof String) {
+                ((String) text).getChars(next, next + n, destination, offset);
+            }
+            else {
+                for (int i = 0; i < n; i++) destination[offset + i] = text.charAt(next + i);
+            }
+            next += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            // nothing to close
+        }
+    }
+}
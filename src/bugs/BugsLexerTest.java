@@ -0,0 +1,349 @@
+package bugs;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+/**
+ * Test class for the Bugs lexer.
+ */
+public class BugsLexerTest {
+
+    @Test
+    public void testNextToken() {
+        BugsLexer lexer = new BugsLexer("abc move 25 12.5 *\n");
+        assertEquals(new Token(Token.Type.NAME, "abc"), lexer.nextToken());
+        assertEquals(new Token(Token.Type.KEYWORD, "move"), lexer.nextToken());
+        assertEquals(new Token(Token.Type.NUMBER, "25.0"), lexer.nextToken());
+        assertEquals(new Token(Token.Type.NUMBER, "12.5"), lexer.nextToken());
+        assertEquals(new Token(Token.Type.SYMBOL, "*"), lexer.nextToken());
+        assertEquals(new Token(Token.Type.EOL, "\n"), lexer.nextToken());
+        assertEquals(new Token(Token.Type.EOF, "EOF"), lexer.nextToken());
+        assertEquals(new Token(Token.Type.EOF, "EOF"), lexer.nextToken());
+    }
+
+    @Test
+    public void testOffsets() {
+        BugsLexer lexer = new BugsLexer("ab /* c */ 12.5\r\n  }");
+        lexer.nextToken();
+        assertEquals(0, lexer.startOffset());
+        assertEquals(2, lexer.endOffset());
+        lexer.nextToken();
+        assertEquals(11, lexer.startOffset());
+        assertEquals(15, lexer.endOffset());
+        assertEquals(Token.EOL_TOKEN, lexer.nextToken());
+        assertEquals(15, lexer.startOffset());
+        assertEquals(17, lexer.endOffset());
+        lexer.nextToken();
+        assertEquals(19, lexer.startOffset());
+        assertEquals(Token.EOF_TOKEN, lexer.nextToken());
+        assertEquals(20, lexer.startOffset());
+
+        // Offsets count from the start of the text, however much of it
+        // the lexer has discarded
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 5000; i++) text.append("name ");
+        lexer = new BugsLexer(new StringReader(text.toString()));
+        for (int i = 0; i < 5000; i++) {
+            lexer.nextToken();
+            assertEquals(5 * i, lexer.startOffset());
+        }
+    }
+
+    @Test
+    public void testSharedTokens() {
+        BugsLexer lexer = new BugsLexer("move + \n move + x x");
+        Token move = lexer.nextToken();
+        Token plus = lexer.nextToken();
+        assertSame(Token.EOL_TOKEN, lexer.nextToken());
+        assertSame(move, lexer.nextToken());
+        assertSame(plus, lexer.nextToken());
+        assertSame(Token.of("move"), move);
+        assertNotSame(lexer.nextToken(), lexer.nextToken());
+        assertSame(Token.EOF_TOKEN, lexer.nextToken());
+    }
+
+    @Test
+    public void testNames() {
+        BugsLexer lexer = new BugsLexer("foo_bar x2 _y Bug");
+        assertEquals(new Token(Token.Type.NAME, "foo_bar"), lexer.nextToken());
+        assertEquals(new Token(Token.Type.NAME, "x2"), lexer.nextToken());
+        assertEquals(new Token(Token.Type.NAME, "_y"), lexer.nextToken());
+        assertEquals(new Token(Token.Type.KEYWORD, "Bug"), lexer.nextToken());
+    }
+
+    @Test
+    public void testNumbers() {
+        BugsLexer lexer = new BugsLexer("123.456 7. .5 1.2.3");
+        assertEquals(new Token(Token.Type.NUMBER, "123.456"), lexer.nextToken());
+        assertEquals(new Token(Token.Type.NUMBER, "7.0"), lexer.nextToken());
+        assertEquals(new Token(Token.Type.SYMBOL, "."), lexer.nextToken());
+        assertEquals(new Token(Token.Type.NUMBER, "5.0"), lexer.nextToken());
+        assertEquals(new Token(Token.Type.NUMBER, "1.2"), lexer.nextToken());
+        assertEquals(new Token(Token.Type.SYMBOL, "."), lexer.nextToken());
+        assertEquals(new Token(Token.Type.NUMBER, "3.0"), lexer.nextToken());
+    }
+
+    @Test
+    public void testNumber() {
+        BugsLexer lexer = new BugsLexer("12 0.25");
+        assertEquals(Token.Type.NUMBER, lexer.nextType());
+        assertEquals(12.0, lexer.number(), 0.0);
+        Token t = lexer.nextToken();
+        assertEquals(0.25, lexer.number(), 0.0);
+        assertEquals(0.25, t.number, 0.0);
+        assertEquals("0.25", t.getValue());
+    }
+
+    @Test
+    public void testSymbols() {
+        BugsLexer lexer = new BugsLexer("<=(-x)");
+        assertEquals(new Token(Token.Type.SYMBOL, "<"), lexer.nextToken());
+        assertEquals(new Token(Token.Type.SYMBOL, "="), lexer.nextToken());
+        assertEquals(new Token(Token.Type.SYMBOL, "("), lexer.nextToken());
+        assertEquals(new Token(Token.Type.SYMBOL, "-"), lexer.nextToken());
+        assertEquals(new Token(Token.Type.NAME, "x"), lexer.nextToken());
+        assertEquals(new Token(Token.Type.SYMBOL, ")"), lexer.nextToken());
+        assertEquals(Token.Type.EOF, lexer.nextType());
+    }
+
+    @Test
+    public void testComments() {
+        BugsLexer lexer = new BugsLexer("a // comment\nb /* one\ntwo */ c / d");
+        assertEquals(new Token(Token.Type.NAME, "a"), lexer.nextToken());
+        assertEquals(Token.Type.EOL, lexer.nextType());
+        assertEquals(new Token(Token.Type.NAME, "b"), lexer.nextToken());
+        assertEquals(new Token(Token.Type.NAME, "c"), lexer.nextToken());
+        assertEquals(new Token(Token.Type.SYMBOL, "/"), lexer.nextToken());
+        assertEquals(new Token(Token.Type.NAME, "d"), lexer.nextToken());
+        assertEquals(Token.Type.EOF, lexer.nextType());
+    }
+
+    @Test
+    public void testQuotes() {
+        BugsLexer lexer = new BugsLexer("a \"b { c\" d \"e \\\" f\\\ng\" h \"i\nj");
+        assertEquals(new Token(Token.Type.NAME, "a"), lexer.nextToken());
+        assertEquals(new Token(Token.Type.SYMBOL, "\""), lexer.nextToken());
+        assertEquals(2, lexer.startOffset());
+        assertEquals(3, lexer.endOffset());
+        assertEquals(new Token(Token.Type.NAME, "d"), lexer.nextToken());
+        // An escaped quotation mark or newline does not end the text
+        assertEquals(new Token(Token.Type.SYMBOL, "\""), lexer.nextToken());
+        assertEquals(new Token(Token.Type.NAME, "h"), lexer.nextToken());
+        assertEquals(1, lexer.lineNumber());
+        // The end of the line does
+        assertEquals(new Token(Token.Type.SYMBOL, "\""), lexer.nextToken());
+        assertEquals(Token.Type.EOL, lexer.nextType());
+        assertEquals(new Token(Token.Type.NAME, "j"), lexer.nextToken());
+        assertEquals(2, lexer.lineNumber());
+        assertEquals(Token.Type.EOF, lexer.nextType());
+        lexer = new BugsLexer("\"abc \\");
+        assertEquals(new Token(Token.Type.SYMBOL, "\""), lexer.nextToken());
+        assertEquals(Token.Type.EOF, lexer.nextType());
+    }
+
+    @Test
+    public void testNamesAboveLatin1Controls() {
+        // Every character from \u00a0 up is part of a name, letter or not
+        BugsLexer lexer = new BugsLexer("caf\u00e9 a\u00a0b \u2028 x\u00d72 \u0085y");
+        assertEquals(new Token(Token.Type.NAME, "caf\u00e9"), lexer.nextToken());
+        assertEquals(new Token(Token.Type.NAME, "a\u00a0b"), lexer.nextToken());
+        assertEquals(new Token(Token.Type.NAME, "\u2028"), lexer.nextToken());
+        assertEquals(new Token(Token.Type.NAME, "x\u00d72"), lexer.nextToken());
+        // but characters below it that are not letters are symbols
+        assertEquals(new Token(Token.Type.SYMBOL, "\u0085"), lexer.nextToken());
+        assertEquals(new Token(Token.Type.NAME, "y"), lexer.nextToken());
+        assertEquals(Token.Type.EOF, lexer.nextType());
+    }
+
+    @Test
+    public void testLineEndings() {
+        BugsLexer lexer = new BugsLexer("a\r\nb\rc\n");
+        assertEquals(Token.Type.NAME, lexer.nextType());
+        assertEquals(Token.Type.EOL, lexer.nextType());
+        assertEquals(Token.Type.NAME, lexer.nextType());
+        assertEquals(Token.Type.EOL, lexer.nextType());
+        assertEquals(Token.Type.NAME, lexer.nextType());
+        assertEquals(Token.Type.EOL, lexer.nextType());
+        assertEquals(Token.Type.EOF, lexer.nextType());
+    }
+
+    @Test
+    public void testLineNumber() {
+        BugsLexer lexer = new BugsLexer("a\nb /* \n\n */ c\n");
+        assertEquals(1, lexer.lineNumber());
+        lexer.nextType();                       // a
+        assertEquals(1, lexer.lineNumber());
+        lexer.nextType();                       // EOL
+        assertEquals(2, lexer.lineNumber());
+        lexer.pushBack();
+        assertEquals(1, lexer.lineNumber());
+        lexer.nextType();                       // EOL
+        lexer.nextType();                       // b
+        assertEquals(2, lexer.lineNumber());
+        lexer.nextType();                       // c
+        assertEquals(4, lexer.lineNumber());
+        lexer.nextType();                       // EOL
+        assertEquals(5, lexer.lineNumber());
+    }
+
+    @Test
+    public void testColumnNumber() {
+        BugsLexer lexer = new BugsLexer("a  bc\r\n\tx=1.5 /* \n */ y\r+ ");
+        int[] expected = { 1, 4, 6, 2, 3, 4, 5, 6, 1, 3 };
+        for (int column : expected) {
+            lexer.nextType();
+            assertEquals(column, lexer.columnNumber());
+        }
+        assertEquals(Token.Type.EOF, lexer.token().type);
+
+        // Columns survive the buffer being refilled and shifted.
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 5000; i++) text.append("    line").append(i).append(" + x\n");
+        lexer = new BugsLexer(new StringReader(text.toString()));
+        for (int i = 0; i < 5000; i++) {
+            lexer.nextType();
+            assertEquals(5, lexer.columnNumber());
+            lexer.nextType();
+            assertEquals(10 + String.valueOf(i).length(), lexer.columnNumber());
+            lexer.nextType();
+            lexer.nextType();
+        }
+    }
+
+    @Test
+    public void testPushBack() {
+        BugsLexer lexer = new BugsLexer("abc 25 +");
+        assertEquals(new Token(Token.Type.NAME, "abc"), lexer.nextToken());
+        lexer.pushBack();
+        assertEquals(new Token(Token.Type.NAME, "abc"), lexer.nextToken());
+        lexer.nextType();
+        lexer.nextType();
+        lexer.pushBack();
+        lexer.pushBack();
+        assertEquals(new Token(Token.Type.NUMBER, "25.0"), lexer.nextToken());
+        assertEquals(new Token(Token.Type.SYMBOL, "+"), lexer.nextToken());
+    }
+
+    @Test
+    public void testTextEquals() {
+        BugsLexer lexer = new BugsLexer("move mover +");
+        lexer.nextType();
+        assertTrue(lexer.textEquals("move"));
+        assertFalse(lexer.textEquals("mover"));
+        lexer.nextType();
+        assertTrue(lexer.textEquals("mover"));
+        assertFalse(lexer.textEquals("move"));
+        lexer.nextType();
+        assertTrue(lexer.textEquals("+"));
+    }
+
+    @Test
+    public void testReader() {
+        String text = "Bug sally {\r\n  /* a\ncomment */ x = foo_bar + 12.25 // c\n}\n";
+        assertSameTokens(new BugsLexer(text), new BugsLexer(new StringReader(text)));
+        // A reader that delivers one character at a time.
+        Reader trickle = new StringReader(text) {
+            @Override
+            public int read(char[] chars, int offset, int length) throws IOException {
+                return super.read(chars, offset, Math.min(length, 1));
+            }
+        };
+        assertSameTokens(new BugsLexer(text), new BugsLexer(trickle));
+    }
+
+    @Test
+    public void testChannel() {
+        String text = "turnto 90 // \u00e9t\u00e9\n\u00e9t\u00e9 = 3\n";
+        ByteArrayInputStream in =
+            new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+        assertSameTokens(new BugsLexer(text), new BugsLexer(Channels.newChannel(in)));
+    }
+
+    @Test
+    public void testPath() throws IOException {
+        String text = "Allbugs {\n  var x, y\n}\n";
+        Path file = Files.createTempFile("bugs", ".bugs");
+        try {
+            Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+            assertSameTokens(new BugsLexer(text), new BugsLexer(file));
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testLongInput() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            text.append("line").append(i).append(" = ").append(i).append(".5 /* ")
+                .append(i).append(" */ + x\n");
+        }
+        BugsLexer lexer = new BugsLexer(new StringReader(text.toString()));
+        for (int i = 0; i < 20000; i++) {
+            assertEquals(new Token(Token.Type.NAME, "line" + i), lexer.nextToken());
+            assertEquals(i + 1, lexer.lineNumber());
+            assertEquals(Token.Type.SYMBOL, lexer.nextType());
+            assertEquals(i + 0.5, lexer.nextToken().number, 0.0);
+            assertTrue(lexer.nextType() == Token.Type.SYMBOL && lexer.textEquals("+"));
+            assertEquals(new Token(Token.Type.NAME, "x"), lexer.nextToken());
+            assertEquals(Token.Type.EOL, lexer.nextType());
+        }
+        assertEquals(Token.Type.EOF, lexer.nextType());
+    }
+
+    @Test
+    public void testPushBackLimit() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 10000; i++) text.append('a').append(i).append(' ');
+        BugsLexer lexer = new BugsLexer(new StringReader(text.toString()));
+        for (int i = 0; i < 5000; i++) lexer.nextType();
+        for (int i = 0; i < BugsLexer.MAX_PUSHBACK; i++) lexer.pushBack();
+        assertEquals(new Token(Token.Type.NAME, "a" + (5000 - BugsLexer.MAX_PUSHBACK)),
+                     lexer.nextToken());
+    }
+
+    @Test
+    public void testReset() {
+        BugsLexer lexer = new BugsLexer("a b\nc d e");
+        lexer.nextType();
+        lexer.nextType();
+        lexer.nextType();
+        lexer.reset("x\n\ny z");
+        assertSameTokens(new BugsLexer("x\n\ny z"), lexer);
+
+        // A long text, not a String, after a short one
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 5000; i++) text.append("name").append(i).append(" = ").append(i).append("\n");
+        lexer.reset(text);
+        assertSameTokens(new BugsLexer(new StringReader(text.toString())), lexer);
+        assertEquals(5001, lexer.lineNumber());
+        lexer.reset("");
+        assertEquals(1, lexer.lineNumber());
+        assertEquals(Token.Type.EOF, lexer.nextType());
+    }
+
+    /**
+     * Asserts that two lexers return the same tokens, on the same lines.
+     * @param expected A lexer returning the expected tokens.
+     * @param actual The lexer being tested.
+     */
+    private void assertSameTokens(BugsLexer expected, BugsLexer actual) {
+        Token token;
+        do {
+            token = expected.nextToken();
+            assertEquals(token, actual.nextToken());
+            assertEquals(expected.lineNumber(), actual.lineNumber());
+        } while (token.type != Token.Type.EOF);
+    }
+}
@@ -0,0 +1,36 @@
+package bugs;
+
+/**
+ * A syntax error found by a <code>Parser</code> that is recovering from
+ * errors, together with where it was found.
+ */
+public class Diagnostic {
+    /** The line on which the error was found. */
+    public final int line;
+    /** The column in which the error was found. */
+    public final int column;
+    /** A description of the error. */
+    public final String message;
+
+    /**
+     * Constructs a Diagnostic.
+     * @param line The line on which the error was found.
+     * @param column The column in which the error was found.
+     * @param message A description of the error.
+     */
+    public Diagnostic(int line, int column, String message) {
+        this.line = line;
+        this.column = column;
+        this.message = message;
+    }
+
+    /**
+     * Returns a String representation of this Diagnostic, in the form
+     * <code>Line 3, column 7: message</code>.
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "Line " + line + ", column " + column + ": " + message;
+    }
+}
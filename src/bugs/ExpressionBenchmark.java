@@ -0,0 +1,109 @@
+package bugs;
+
+/**
+ * Measures how fast expressions are parsed, by the <code>Parser</code>'s
+ * precedence climbing and by the <code>TableParser</code>. Two kinds of
+ * expression are timed: long ones, with many operators of mixed
+ * precedence, and deep ones, with many nested parentheses. Run it as an
+ * application; the optional arguments are the number of operators in a
+ * long expression (default 200) and the depth of a deep one (default
+ * 200). Each kind of expression is parsed enough times to make about
+ * 4MB of source.
+ */
+public class ExpressionBenchmark {
+    private static final int ROUNDS = 10;
+    private static final int TOTAL_SIZE = 4000000;
+    private static final String[] OPERATORS = { "+", "*", "-", "/", "<", "+", ">=", "*", "!=", "-" };
+
+    /**
+     * Times both parsers on both kinds of expression and prints the results.
+     * @param args The length of the long expression and the depth of the
+     *        deep one, if given.
+     */
+    public static void main(String[] args) {
+        int length = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        String longExpression = longExpression(length);
+        String deepExpression = deepExpression(depth);
+
+        time("long expression", longExpression);
+        time("deep expression", deepExpression);
+    }
+
+    /**
+     * Builds an expression with the given number of binary operators.
+     * @param operators The number of operators.
+     * @return The expression.
+     */
+    private static String longExpression(int operators) {
+        StringBuilder text = new StringBuilder("x");
+        for (int i = 0; i < operators; i++) {
+            text.append(' ').append(OPERATORS[i % OPERATORS.length]).append(' ');
+            text.append(i % 3 == 0 ? "-y" : i % 3 == 1 ? "bug.x" : "2.5");
+        }
+        return text.toString();
+    }
+
+    /**
+     * Builds an expression nested to the given depth, alternating
+     * parentheses and function calls.
+     * @param depth The number of nested levels.
+     * @return The expression.
+     */
+    private static String deepExpression(int depth) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            text.append(i % 2 == 0 ? "(1 + " : "f(x, ");
+        }
+        text.append("y");
+        for (int i = 0; i < depth; i++) {
+            text.append(')');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Times both parsers on an expression and prints the results.
+     * @param name What kind of expression it is.
+     * @param text The expression.
+     */
+    private static void time(String name, String text) {
+        int copies = Math.max(1, TOTAL_SIZE / text.length());
+        parse(text, copies, false);            // warm up
+        parse(text, copies, true);
+        double climbing = Double.MAX_VALUE;
+        double table = Double.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            climbing = Math.min(climbing, parse(text, copies, false));
+            table = Math.min(table, parse(text, copies, true));
+        }
+        double megabytes = (double) text.length() * copies / 1e6;
+        System.out.printf("%s: %d characters, parsed %d times%n", name, text.length(), copies);
+        System.out.printf("    Parser:      %8.1f ms %8.1f MB/s%n", climbing * 1000, megabytes / climbing);
+        System.out.printf("    TableParser: %8.1f ms %8.1f MB/s%n", table * 1000, megabytes / table);
+    }
+
+    /**
+     * Parses an expression a number of times.
+     * @param text The expression.
+     * @param copies How many times to parse it.
+     * @param useTable Whether to use the <code>TableParser</code> rather
+     *        than the <code>Parser</code>.
+     * @return The time taken, in seconds.
+     */
+    private static double parse(String text, int copies, boolean useTable) {
+        long start = System.nanoTime();
+        for (int i = 0; i < copies; i++) {
+            if (useTable) {
+                if (new TableParser(text).parse("expression") == null) {
+                    throw new AssertionError("Not an expression");
+                }
+            }
+            else if (!new Parser(text).isExpression()) {
+                throw new AssertionError("Not an expression");
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        return elapsed / 1e9;
+    }
+}
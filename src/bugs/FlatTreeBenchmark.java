@@ -0,0 +1,95 @@
+package bugs;
+
+import tree.FlatTree;
+import tree.Tree;
+
+/**
+ * Compares a program's tree as a <code>Tree&lt;Token&gt;</code> with the
+ * same tree as a <code>FlatTree&lt;Token&gt;</code>, built directly by
+ * the Parser: the memory each occupies, and the time to visit every node
+ * of it, adding up the numbers, as an interpreter would. The program is
+ * made of copies of the Bug in <code>ParserBenchmark</code>. Run it as
+ * an application; the optional argument is the number of Bugs in the
+ * program (default 2000).
+ */
+public class FlatTreeBenchmark {
+    private static final int ROUNDS = 100;
+    private static final int WARM_UP_ROUNDS = 100;
+
+    /**
+     * Measures the trees, and prints the results.
+     * @param args The number of Bugs in the program, if given.
+     */
+    public static void main(String[] args) {
+        int bugs = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        String text = ParserBenchmark.program(bugs);
+
+        long before = ParserBenchmark.usedMemory();
+        Tree<Token> tree = Parser.parseProgram(text);
+        long treeBytes = ParserBenchmark.usedMemory() - before;
+
+        before = ParserBenchmark.usedMemory();
+        Parser parser = new Parser(text);
+        FlatTree.Builder<Token> builder = new FlatTree.Builder<>();
+        parser.setParseListener(new TreeBuilder(builder));
+        parser.isProgram();
+        FlatTree<Token> flat = builder.build();
+        parser = null;
+        builder = null;
+        long flatBytes = ParserBenchmark.usedMemory() - before;   // also settles both trees in memory
+
+        double treeSum = 0;
+        double flatSum = 0;
+        double bestTree = Double.MAX_VALUE;
+        double bestFlat = Double.MAX_VALUE;
+        for (int i = 0; i < WARM_UP_ROUNDS + ROUNDS; i++) {
+            long start = System.nanoTime();
+            treeSum = sum(tree);
+            double treeTime = (System.nanoTime() - start) / 1e9;
+            start = System.nanoTime();
+            flatSum = sum(flat);
+            double flatTime = (System.nanoTime() - start) / 1e9;
+            if (i >= WARM_UP_ROUNDS) {
+                bestTree = Math.min(bestTree, treeTime);
+                bestFlat = Math.min(bestFlat, flatTime);
+            }
+        }
+        if (treeSum != flatSum) throw new AssertionError();
+
+        System.out.printf("nodes:     %10d (%d distinct tokens)%n", flat.size(), flat.getNumberOfValues());
+        System.out.printf("Tree:      %10.1f MB, %5.1f bytes per node, visited in %6.2f ms%n",
+                          treeBytes / 1e6, (double) treeBytes / flat.size(), bestTree * 1000);
+        System.out.printf("FlatTree:  %10.1f MB, %5.1f bytes per node, visited in %6.2f ms%n",
+                          flatBytes / 1e6, (double) flatBytes / flat.size(), bestFlat * 1000);
+        System.out.printf("ratio:     %10.2f of the memory, %.1fx faster%n",
+                          (double) flatBytes / treeBytes, bestTree / bestFlat);
+    }
+
+    /**
+     * Adds up the numbers in a Tree.
+     * @param tree The tree.
+     * @return The sum of its NUMBER tokens.
+     */
+    private static double sum(Tree<Token> tree) {
+        Token token = tree.getValue();
+        double sum = token.type == Token.Type.NUMBER ? token.number : 0;
+        for (int i = 0; i < tree.getNumberOfChildren(); i++) {
+            sum += sum(tree.getChild(i));
+        }
+        return sum;
+    }
+
+    /**
+     * Adds up the numbers in a FlatTree, visiting its nodes in preorder.
+     * @param tree The tree.
+     * @return The sum of its NUMBER tokens.
+     */
+    private static double sum(FlatTree<Token> tree) {
+        double sum = 0;
+        for (int node = 0; node < tree.size(); node++) {
+            Token token = tree.getValue(node);
+            if (token.type == Token.Type.NUMBER) sum += token.number;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,734 @@
+package bugs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An LL(1) grammar, with the prediction table that drives a
+ * <code>TableParser</code>. The grammar is read from an EBNF description
+ * (see <code>bugs.ebnf</code> for the notation), converted to plain BNF
+ * by giving each group, option and repetition a nonterminal of its own,
+ * and checked: the FIRST and FOLLOW sets of every nonterminal are
+ * computed, and any choice that cannot be made by looking at one token
+ * is reported as an error.
+ * <p>
+ * Everything the parser needs is packed into integers. A production is
+ * an array of <em>items</em>, each holding a kind (terminal,
+ * nonterminal, node, or end of rule), a tree-building mode, and an
+ * index. The prediction table holds, for each nonterminal and each
+ * terminal, the number of the alternative to use, or -1 if the terminal
+ * cannot come next. A nonterminal that can match nothing uses its empty
+ * alternative for every terminal that cannot begin one of its other
+ * alternatives, so errors are reported by the first terminal that fails
+ * to match.
+ */
+final class Grammar {
+    // Item kinds
+    static final int TERMINAL = 0;
+    static final int NONTERMINAL = 1;
+    static final int NODE = 2;
+    static final int END = 3;
+
+    // Tree-building modes
+    static final int KEEP = 0;
+    static final int ROOT = 1;
+    static final int DROP = 2;
+    static final int JOIN = 3;
+
+    // The terminals that stand for a type of token rather than a spelling
+    static final int T_NAME = 0;
+    static final int T_NUMBER = 1;
+    static final int T_EOL = 2;
+    static final int T_EOF = 3;
+    static final int T_COLOR = 4;
+    /** The terminal for keywords and symbols not in the grammar. */
+    static final int T_OTHER = 5;
+    private static final String[] TOKEN_CLASSES = {
+        "NAME", "NUMBER", "EOL", "EOF", "COLOR", "OTHER" };
+
+    /** The names of the terminals, indexed by terminal number. */
+    private final String[] terminals;
+    /** The terminal number of each keyword or symbol in the grammar. */
+    private final Map<String, Integer> literals;
+    /** The names of the nonterminals; generated ones contain a '/'. */
+    private final String[] nonterminals;
+    /** For each nonterminal, the rule it was written as part of. */
+    private final int[] owners;
+    /** The alternatives of each nonterminal, as arrays of items. */
+    private final int[][][] productions;
+    /** The Tokens put in the nodes created by #text items. */
+    private final Token[] nodeTokens;
+    /** The prediction table, indexed by nonterminal * terminals + terminal. */
+    private final short[] table;
+    /** The terminal number of each keyword, by its ordinal in <code>Token.KEYWORD_TABLE</code>. */
+    private final short[] keywordTerminals;
+    /** The terminal number of each single-character ASCII symbol. */
+    private final short[] symbolTerminals = new short[128];
+
+    /**
+     * Builds a grammar from its EBNF description.
+     * @param description The text of the grammar.
+     * @throws IllegalArgumentException If the description is malformed,
+     *         or the grammar is not LL(1).
+     */
+    Grammar(String description) {
+        Builder builder = new Builder(description);
+        terminals = builder.terminals.toArray(new String[builder.terminals.size()]);
+        literals = builder.literals;
+        nonterminals = builder.nonterminals.toArray(new String[builder.nonterminals.size()]);
+        owners = new int[nonterminals.length];
+        productions = new int[nonterminals.length][][];
+        for (int n = 0; n < nonterminals.length; n++) {
+            owners[n] = builder.owners.get(n);
+            List<int[]> alternatives = builder.alternatives.get(n);
+            productions[n] = alternatives.toArray(new int[alternatives.size()][]);
+        }
+        nodeTokens = new Token[builder.nodeTexts.size()];
+        for (int i = 0; i < nodeTokens.length; i++) {
+            nodeTokens[i] = Token.of(builder.nodeTexts.get(i));
+        }
+        table = buildTable();
+        keywordTerminals = new short[Token.KEYWORD_TABLE.size()];
+        for (int i = 0; i < keywordTerminals.length; i++) {
+            keywordTerminals[i] = (short) terminal(Token.keyword(i));
+        }
+        for (char ch = 0; ch < symbolTerminals.length; ch++) {
+            Token symbol = Token.symbol(ch);
+            symbolTerminals[ch] = (short) (symbol == null ? T_OTHER : terminal(symbol));
+        }
+    }
+
+    /**
+     * Returns the grammar of the Bugs language, read from the resource
+     * <code>bugs.ebnf</code> the first time it is needed.
+     * @return The Bugs grammar.
+     */
+    static Grammar bugs() {
+        return BugsGrammarHolder.GRAMMAR;
+    }
+
+    /** Holds the Bugs grammar, so that it is only built when first used. */
+    private static class BugsGrammarHolder {
+        static final Grammar GRAMMAR = new Grammar(readResource("bugs.ebnf"));
+    }
+
+    //------------------------- Item encoding
+
+    /**
+     * Packs an item into an int.
+     * @param kind TERMINAL, NONTERMINAL, NODE or END.
+     * @param mode KEEP, ROOT, DROP or JOIN.
+     * @param index The terminal, nonterminal or node number.
+     * @return The item.
+     */
+    static int item(int kind, int mode, int index) {
+        return kind << 28 | mode << 24 | index;
+    }
+
+    static int kind(int item) {
+        return item >>> 28;
+    }
+
+    static int mode(int item) {
+        return (item >>> 24) & 0xF;
+    }
+
+    static int index(int item) {
+        return item & 0xFFFFFF;
+    }
+
+    //------------------------- Queries
+
+    /**
+     * Returns the terminal number that the given token matches.
+     * @param token The token.
+     * @return Its terminal number.
+     */
+    int terminal(Token token) {
+        switch (token.type) {
+            case NAME:
+                return T_NAME;
+            case NUMBER:
+                return T_NUMBER;
+            case EOL:
+                return T_EOL;
+            case EOF:
+                return T_EOF;
+            default:
+                String value = token.getValue();
+                Integer literal = literals.get(value);
+                if (literal != null) return literal;
+                if (token.type == Token.Type.KEYWORD && Token.isColor(value)) return T_COLOR;
+                return T_OTHER;
+        }
+    }
+
+    /**
+     * Returns the terminal number that the lexer's most recently returned
+     * token matches, without creating a Token for it.
+     * @param type The type of the token, as returned by the lexer.
+     * @param lexer The lexer.
+     * @return Its terminal number.
+     */
+    int terminal(Token.Type type, BugsLexer lexer) {
+        switch (type) {
+            case NAME:
+                return T_NAME;
+            case NUMBER:
+                return T_NUMBER;
+            case EOL:
+                return T_EOL;
+            case EOF:
+                return T_EOF;
+            case KEYWORD:
+                return keywordTerminals[lexer.keywordOrdinal()];
+            case SYMBOL:
+                char ch = lexer.symbolChar();
+                return ch < symbolTerminals.length ? symbolTerminals[ch] : T_OTHER;
+            default:
+                return T_OTHER;
+        }
+    }
+
+    /**
+     * Returns the number of the rule with the given name.
+     * @param name The name of a rule.
+     * @return The rule's nonterminal number.
+     * @throws IllegalArgumentException If there is no such rule.
+     */
+    int nonterminal(String name) {
+        for (int n = 0; n < nonterminals.length; n++) {
+            if (nonterminals[n].equals(name)) return n;
+        }
+        throw new IllegalArgumentException("No rule named " + name);
+    }
+
+    /**
+     * Returns the alternative of the nonterminal to use when the given
+     * terminal is next, or -1 if the terminal cannot come next.
+     * @param nonterminal A nonterminal number.
+     * @param terminal A terminal number.
+     * @return The number of an alternative, or -1.
+     */
+    int predict(int nonterminal, int terminal) {
+        return table[nonterminal * terminals.length + terminal];
+    }
+
+    /**
+     * Returns the items of an alternative of a nonterminal.
+     * @param nonterminal A nonterminal number.
+     * @param alternative The number of one of its alternatives.
+     * @return The items, which must not be changed.
+     */
+    int[] production(int nonterminal, int alternative) {
+        return productions[nonterminal][alternative];
+    }
+
+    /**
+     * Tests whether a nonterminal was generated for a part of a rule,
+     * rather than being a rule itself. The parts of a rule share the
+     * tree that the rule builds.
+     * @param nonterminal A nonterminal number.
+     * @return <code>true</code> if the nonterminal is part of a rule.
+     */
+    boolean isPart(int nonterminal) {
+        return owners[nonterminal] != nonterminal;
+    }
+
+    /**
+     * Returns the name of the rule that a nonterminal is, or belongs to.
+     * @param nonterminal A nonterminal number.
+     * @return The name of the rule.
+     */
+    String ruleName(int nonterminal) {
+        return nonterminals[owners[nonterminal]];
+    }
+
+    /**
+     * Returns a description of a terminal, for error messages.
+     * @param terminal A terminal number.
+     * @return The terminal's name or (quoted) spelling.
+     */
+    String terminalName(int terminal) {
+        return terminals[terminal];
+    }
+
+    /**
+     * Returns the Token to put in the node created by a #text item.
+     * @param node A node number.
+     * @return The shared Token for that node.
+     */
+    Token nodeToken(int node) {
+        return nodeTokens[node];
+    }
+
+    /**
+     * Returns the number of terminals, including the token classes.
+     * @return The number of terminals.
+     */
+    int terminalCount() {
+        return terminals.length;
+    }
+
+    /**
+     * Returns the number of nonterminals, including generated ones.
+     * @return The number of nonterminals.
+     */
+    int nonterminalCount() {
+        return nonterminals.length;
+    }
+
+    /**
+     * Returns the terminals that can begin the given rule.
+     * @param name The name of a rule.
+     * @return The names of the terminals, as in <code>terminalName</code>.
+     */
+    List<String> first(String name) {
+        int n = nonterminal(name);
+        List<String> result = new ArrayList<>();
+        for (int t = 0; t < terminals.length; t++) {
+            int alternative = predict(n, t);
+            if (alternative >= 0 && !isEmpty(productions[n][alternative], t)) {
+                result.add(terminals[t]);
+            }
+        }
+        return result;
+    }
+
+    //------------------------- Private "helper" methods
+
+    /**
+     * Computes the FIRST and FOLLOW sets, and from them the prediction
+     * table.
+     * @return The prediction table.
+     * @throws IllegalArgumentException If the grammar is not LL(1).
+     */
+    private short[] buildTable() {
+        int n = nonterminals.length;
+        int t = terminals.length;
+        boolean[] nullable = new boolean[n];
+        BitSet[] first = new BitSet[n];
+        BitSet[] follow = new BitSet[n];
+        for (int i = 0; i < n; i++) {
+            first[i] = new BitSet(t);
+            follow[i] = new BitSet(t);
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int a = 0; a < n; a++) {
+                for (int[] items : productions[a]) {
+                    int before = first[a].cardinality();
+                    boolean empty = firstOf(items, 0, first[a], first, nullable);
+                    if (first[a].cardinality() != before) changed = true;
+                    if (empty && !nullable[a]) {
+                        nullable[a] = true;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        changed = true;
+        while (changed) {
+            changed = false;
+            for (int a = 0; a < n; a++) {
+                for (int[] items : productions[a]) {
+                    for (int i = 0; i < items.length; i++) {
+                        if (kind(items[i]) != NONTERMINAL) continue;
+                        int b = index(items[i]);
+                        int before = follow[b].cardinality();
+                        if (firstOf(items, i + 1, follow[b], first, nullable)) {
+                            follow[b].or(follow[a]);
+                        }
+                        if (follow[b].cardinality() != before) changed = true;
+                    }
+                }
+            }
+        }
+
+        short[] result = new short[n * t];
+        Arrays.fill(result, (short) -1);
+        for (int a = 0; a < n; a++) {
+            int emptyAlternative = -1;
+            for (int alt = 0; alt < productions[a].length; alt++) {
+                BitSet predicts = new BitSet(t);
+                if (firstOf(productions[a][alt], 0, predicts, first, nullable)) {
+                    if (emptyAlternative >= 0) {
+                        throw new IllegalArgumentException("Not LL(1): " + describe(a)
+                            + " has two alternatives that can be empty");
+                    }
+                    emptyAlternative = alt;
+                    predicts.or(follow[a]);
+                }
+                for (int k = predicts.nextSetBit(0); k >= 0; k = predicts.nextSetBit(k + 1)) {
+                    if (result[a * t + k] >= 0) {
+                        throw new IllegalArgumentException("Not LL(1): in " + describe(a)
+                            + ", " + terminals[k] + " can begin two alternatives");
+                    }
+                    result[a * t + k] = (short) alt;
+                }
+            }
+            if (emptyAlternative >= 0) {
+                for (int k = 0; k < t; k++) {
+                    if (result[a * t + k] < 0) result[a * t + k] = (short) emptyAlternative;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds to <code>set</code> the terminals that can begin the items
+     * from <code>start</code> on, and tells whether those items can
+     * match nothing at all.
+     * @param items The items of a production.
+     * @param start The first item to consider.
+     * @param set The set to add to.
+     * @param first The FIRST sets computed so far.
+     * @param nullable Which nonterminals are known to match nothing.
+     * @return <code>true</code> if the items can match nothing.
+     */
+    private static boolean firstOf(int[] items, int start, BitSet set,
+                                   BitSet[] first, boolean[] nullable) {
+        for (int i = start; i < items.length; i++) {
+            int item = items[i];
+            if (kind(item) == TERMINAL) {
+                set.set(index(item));
+                return false;
+            }
+            if (kind(item) == NONTERMINAL) {
+                set.or(first[index(item)]);
+                if (!nullable[index(item)]) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tests whether an alternative is in the table for a terminal only
+     * because it can match nothing.
+     * @param items The items of the alternative.
+     * @param terminal The terminal.
+     * @return <code>true</code> if the terminal cannot begin the items.
+     */
+    private boolean isEmpty(int[] items, int terminal) {
+        for (int item : items) {
+            if (kind(item) == TERMINAL) return index(item) != terminal;
+            if (kind(item) == NONTERMINAL) {
+                int n = index(item);
+                int alternative = predict(n, terminal);
+                if (alternative < 0) return true;
+                if (!isEmpty(productions[n][alternative], terminal)) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Describes a nonterminal for an error message.
+     * @param nonterminal A nonterminal number.
+     * @return A description.
+     */
+    private String describe(int nonterminal) {
+        return isPart(nonterminal) ? "a part of rule " + ruleName(nonterminal)
+                                   : "rule " + nonterminals[nonterminal];
+    }
+
+    /**
+     * Reads a text resource, encoded in UTF-8, from this package.
+     * @param name The name of the resource.
+     * @return The contents of the resource.
+     */
+    static String readResource(String name) {
+        InputStream in = Grammar.class.getResourceAsStream(name);
+        if (in == null) throw new IllegalStateException("Missing resource " + name);
+        StringBuilder text = new StringBuilder();
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            char[] chars = new char[4096];
+            int n;
+            while ((n = reader.read(chars)) >= 0) text.append(chars, 0, n);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Cannot read resource " + name, e);
+        }
+        return text.toString();
+    }
+
+    //---------------------------------------------------------------------
+
+    /**
+     * Reads an EBNF description and converts it to BNF. The description
+     * is parsed by recursive descent, one character at a time.
+     */
+    private static class Builder {
+        private final String text;
+        private int position = 0;
+
+        final List<String> terminals = new ArrayList<>(Arrays.asList(TOKEN_CLASSES));
+        final Map<String, Integer> literals = new HashMap<>();
+        final List<String> nonterminals = new ArrayList<>();
+        final List<Integer> owners = new ArrayList<>();
+        final List<List<int[]>> alternatives = new ArrayList<>();
+        final List<String> nodeTexts = new ArrayList<>();
+        /** Whether each nonterminal has been defined by a rule. */
+        private final BitSet defined = new BitSet();
+        /** The rule currently being read. */
+        private int rule;
+        /** The number of nonterminals generated for the current rule. */
+        private int parts;
+
+        Builder(String text) {
+            this.text = text;
+            skipSpace();
+            while (position < text.length()) {
+                readRule();
+                skipSpace();
+            }
+            for (int n = 0; n < nonterminals.size(); n++) {
+                if (owners.get(n) == n && !defined.get(n)) {
+                    throw new IllegalArgumentException("No rule for " + nonterminals.get(n));
+                }
+            }
+        }
+
+        /**
+         * Reads   name ::= alternatives ;
+         */
+        private void readRule() {
+            String name = readWord();
+            if (name.isEmpty() || !Character.isLowerCase(name.charAt(0))) {
+                throw error("Expected a rule name");
+            }
+            rule = nonterminal(name);
+            if (defined.get(rule)) throw error("Second rule for " + name);
+            defined.set(rule);
+            parts = 0;
+            expect("::=");
+            alternatives.get(rule).addAll(readAlternatives(";"));
+            expect(";");
+        }
+
+        /**
+         * Reads alternatives separated by '|', up to (not including) the
+         * given closing text.
+         * @param close The text that ends the alternatives.
+         * @return The alternatives, as arrays of items.
+         */
+        private List<int[]> readAlternatives(String close) {
+            List<int[]> result = new ArrayList<>();
+            result.add(readSequence());
+            skipSpace();
+            while (text.startsWith("|", position)) {
+                position++;
+                result.add(readSequence());
+                skipSpace();
+            }
+            if (!text.startsWith(close, position)) throw error("Expected " + close);
+            return result;
+        }
+
+        /**
+         * Reads a sequence of parts, up to a '|' or a closing bracket.
+         * @return The items of the sequence.
+         */
+        private int[] readSequence() {
+            List<Integer> items = new ArrayList<>();
+            skipSpace();
+            while (position < text.length() && "|;)]}".indexOf(text.charAt(position)) < 0) {
+                readPart(items);
+                skipSpace();
+            }
+            int[] result = new int[items.size()];
+            for (int i = 0; i < result.length; i++) result[i] = items.get(i);
+            return result;
+        }
+
+        /**
+         * Reads one part of a sequence and adds its items to the list.
+         * @param items The items of the sequence so far.
+         */
+        private void readPart(List<Integer> items) {
+            char ch = text.charAt(position);
+            if (ch == '\'') {
+                int end = text.indexOf('\'', position + 1);
+                if (end <= position + 1) throw error("Bad quoted text");
+                String literal = text.substring(position + 1, end);
+                position = end + 1;
+                Integer terminal = literals.get(literal);
+                if (terminal == null) {
+                    terminal = terminals.size();
+                    terminals.add("'" + literal + "'");
+                    literals.put(literal, terminal);
+                }
+                items.add(item(TERMINAL, readMode(true), terminal));
+            }
+            else if (ch == '#') {
+                position++;
+                String word = readWord();
+                if (word.isEmpty()) throw error("Expected a word after '#'");
+                int node = nodeTexts.indexOf(word);
+                if (node < 0) {
+                    node = nodeTexts.size();
+                    nodeTexts.add(word);
+                }
+                items.add(item(NODE, readMode(false), node));
+            }
+            else if (ch == '(' || ch == '[' || ch == '{') {
+                position++;
+                String close = ch == '(' ? ")" : ch == '[' ? "]" : "}";
+                List<int[]> inner = readAlternatives(close);
+                position++;
+                if (ch == '(' && inner.size() == 1) {
+                    for (int item : inner.get(0)) items.add(item);
+                    return;
+                }
+                int part = part();
+                if (ch == '[') inner.add(new int[0]);
+                if (ch == '{') {
+                    // Repetition: each alternative is followed by the repetition again.
+                    for (int i = 0; i < inner.size(); i++) {
+                        int[] alternative = Arrays.copyOf(inner.get(i), inner.get(i).length + 1);
+                        alternative[alternative.length - 1] = item(NONTERMINAL, KEEP, part);
+                        inner.set(i, alternative);
+                    }
+                    inner.add(new int[0]);
+                }
+                alternatives.get(part).addAll(inner);
+                items.add(item(NONTERMINAL, KEEP, part));
+            }
+            else {
+                String word = readWord();
+                if (word.isEmpty()) throw error("Unexpected '" + ch + "'");
+                int tokenClass = Arrays.asList(TOKEN_CLASSES).indexOf(word);
+                if (tokenClass >= 0 && tokenClass != T_OTHER) {
+                    items.add(item(TERMINAL, readMode(true), tokenClass));
+                }
+                else if (Character.isLowerCase(word.charAt(0))) {
+                    int mode = readMode(false);
+                    items.add(item(NONTERMINAL, mode, nonterminal(word)));
+                }
+                else {
+                    throw error("Unknown token class " + word);
+                }
+            }
+        }
+
+        /**
+         * Reads the optional mode character after a part.
+         * @param token Whether the part is a token (which may use every mode).
+         * @return The mode.
+         */
+        private int readMode(boolean token) {
+            if (position < text.length()) {
+                char ch = text.charAt(position);
+                if (ch == '^') {
+                    position++;
+                    return ROOT;
+                }
+                if (token && ch == '!') {
+                    position++;
+                    return DROP;
+                }
+                if (token && ch == '+') {
+                    position++;
+                    return JOIN;
+                }
+            }
+            return KEEP;
+        }
+
+        /**
+         * Returns the number of the named rule, adding it if necessary.
+         * @param name The name of the rule.
+         * @return Its nonterminal number.
+         */
+        private int nonterminal(String name) {
+            int n = nonterminals.indexOf(name);
+            if (n < 0) {
+                n = nonterminals.size();
+                nonterminals.add(name);
+                owners.add(n);
+                alternatives.add(new ArrayList<int[]>());
+            }
+            return n;
+        }
+
+        /**
+         * Adds a nonterminal for a part of the current rule.
+         * @return Its nonterminal number.
+         */
+        private int part() {
+            int n = nonterminals.size();
+            nonterminals.add(nonterminals.get(rule) + "/" + ++parts);
+            owners.add(rule);
+            alternatives.add(new ArrayList<int[]>());
+            return n;
+        }
+
+        /**
+         * Reads a word of letters, digits and underscores (possibly empty).
+         * @return The word.
+         */
+        private String readWord() {
+            skipSpace();
+            int start = position;
+            while (position < text.length()
+                    && (Character.isLetterOrDigit(text.charAt(position))
+                        || text.charAt(position) == '_')) {
+                position++;
+            }
+            return text.substring(start, position);
+        }
+
+        /**
+         * Skips the expected text.
+         * @param expected The text that must come next.
+         */
+        private void expect(String expected) {
+            skipSpace();
+            if (!text.startsWith(expected, position)) throw error("Expected " + expected);
+            position += expected.length();
+        }
+
+        /**
+         * Skips whitespace and // comments.
+         */
+        private void skipSpace() {
+            while (position < text.length()) {
+                char ch = text.charAt(position);
+                if (Character.isWhitespace(ch)) {
+                    position++;
+                }
+                else if (text.startsWith("//", position)) {
+                    int end = text.indexOf('\n', position);
+                    position = end < 0 ? text.length() : end;
+                }
+                else {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Makes an exception describing an error in the grammar.
+         * @param message What is wrong.
+         * @return The exception, which is not thrown.
+         */
+        private IllegalArgumentException error(String message) {
+            int line = 1;
+            for (int i = 0; i < position && i < text.length(); i++) {
+                if (text.charAt(i) == '\n') line++;
+            }
+            return new IllegalArgumentException("Grammar line " + line + ": " + message);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package bugs;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Test class for grammars and their prediction tables.
+ */
+public class GrammarTest {
+
+    @Test
+    public void testBugsGrammar() {
+        Grammar grammar = Grammar.bugs();
+        assertSame(grammar, Grammar.bugs());
+        assertEquals(Arrays.asList("'Allbugs'", "'Bug'", "EOL"), sorted(grammar.first("program")));
+        assertEquals(Arrays.asList("'('", "'+'", "'-'", "NAME", "NUMBER"),
+                     sorted(grammar.first("expression")));
+        assertEquals(Arrays.asList("'!'", "'<'", "'='", "'>'"), sorted(grammar.first("comparator")));
+        assertEquals(Arrays.asList("EOL"), grammar.first("eol"));
+    }
+
+    @Test
+    public void testTerminal() {
+        Grammar grammar = Grammar.bugs();
+        assertEquals(Grammar.T_NAME, grammar.terminal(Token.of("sally")));
+        assertEquals(Grammar.T_NUMBER, grammar.terminal(Token.of("12")));
+        assertEquals(Grammar.T_EOL, grammar.terminal(Token.EOL_TOKEN));
+        assertEquals(Grammar.T_EOF, grammar.terminal(Token.EOF_TOKEN));
+        assertEquals(Grammar.T_COLOR, grammar.terminal(Token.of("red")));
+        assertEquals(Grammar.T_OTHER, grammar.terminal(Token.of("$")));
+        assertEquals("'move'", grammar.terminalName(grammar.terminal(Token.of("move"))));
+        assertEquals("'{'", grammar.terminalName(grammar.terminal(Token.of("{"))));
+    }
+
+    @Test
+    public void testPredict() {
+        Grammar grammar = new Grammar("list ::= 'move' { ',' 'move' } | ;");
+        int list = grammar.nonterminal("list");
+        int move = grammar.terminal(Token.of("move"));
+        assertEquals(0, grammar.predict(list, move));
+        // The empty alternative is used for anything else.
+        assertEquals(1, grammar.predict(list, Grammar.T_EOF));
+        assertEquals(1, grammar.predict(list, Grammar.T_NAME));
+        assertEquals(2, grammar.nonterminalCount());      // list and list/1
+        assertTrue(grammar.isPart(1));
+        assertEquals("list", grammar.ruleName(1));
+    }
+
+    @Test
+    public void testItems() {
+        int item = Grammar.item(Grammar.NODE, Grammar.ROOT, 1234);
+        assertEquals(Grammar.NODE, Grammar.kind(item));
+        assertEquals(Grammar.ROOT, Grammar.mode(item));
+        assertEquals(1234, Grammar.index(item));
+        item = Grammar.item(Grammar.END, Grammar.JOIN, 0);
+        assertEquals(Grammar.END, Grammar.kind(item));
+        assertEquals(Grammar.JOIN, Grammar.mode(item));
+    }
+
+    @Test
+    public void testNotLL1() {
+        assertRejected("a ::= NAME 'x' | NAME 'y' ;", "can begin two alternatives");
+        assertRejected("a ::= [ NAME ] NAME ;", "can begin two alternatives");
+        assertRejected("a ::= b | c ; b ::= ; c ::= ;", "two alternatives that can be empty");
+    }
+
+    @Test
+    public void testMalformed() {
+        assertRejected("a ::= b ;", "No rule for b");
+        assertRejected("a ::= NAME", "Expected ;");
+        assertRejected("a ::= ( NAME ;", "Expected )");
+        assertRejected("a ::= NAME ;\na ::= NUMBER ;", "Grammar line 2: Second rule");
+        assertRejected("a ::= NOTHING ;", "Unknown token class");
+    }
+
+    /**
+     * Asserts that building a grammar from the description fails with
+     * a message containing the given text.
+     * @param description The text of the grammar.
+     * @param message Part of the expected message.
+     */
+    private void assertRejected(String description, String message) {
+        try {
+            new Grammar(description);
+            fail("Accepted " + description);
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    /**
+     * Returns a sorted copy of the list.
+     * @param list The list to sort.
+     * @return A sorted copy.
+     */
+    private List<String> sorted(List<String> list) {
+        String[] array = list.toArray(new String[list.size()]);
+        Arrays.sort(array);
+        return Arrays.asList(array);
+    }
+}
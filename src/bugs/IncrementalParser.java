@@ -0,0 +1,571 @@
+package bugs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import tree.Tree;
+
+/**
+ * Keeps the tree of a program up to date as its text is edited, for
+ * instance by a user typing into an editor, without parsing the whole
+ * program again after each edit.
+ * <p>
+ * While parsing, the IncrementalParser notes where in the text each
+ * <em>region</em> (the Allbugs code, a Bug definition, a function
+ * definition, or a block) begins and ends, and which subtree was built
+ * from it. After an edit, only the smallest region that contains the
+ * edit is lexed and parsed again, by itself, and its new subtree takes
+ * the place of the old one in the tree, which is changed in place; every
+ * other subtree is reused as it is. The time taken by an edit thus
+ * depends on the size of the region, hardly at all on the size of the
+ * program.
+ * <p>
+ * A region is only reparsed alone if the result is sure to be the same
+ * as that of parsing the whole program: the edit must lie strictly
+ * within it, and it must still hold exactly one construct of its kind.
+ * Otherwise the next larger region is tried, up to the whole program.
+ * The <code>SyntaxException</code> thrown for an invalid program is also
+ * the one a <code>Parser</code> would throw; after one, later edits
+ * reparse the smallest region containing both them and the error.
+ */
+public class IncrementalParser {
+    /** The productions whose text is remembered, and can be reparsed alone. */
+    private static final Set<String> REGIONS = new HashSet<>(Arrays.asList(
+        "allbugs_code", "bug_definition", "function_definition", "block"));
+
+    private final Text text;
+
+    /** The region for the whole program; its node is the program's tree. */
+    private Region root = null;
+    /**
+     * The region that held a syntax error when last parsed, or
+     * <code>null</code> if the program is valid; its node is out of date.
+     */
+    private Region damaged = null;
+    /** The error found in the damaged region. */
+    private SyntaxException error = null;
+    /** The length of the text reparsed for the last edit. */
+    private int reparsedLength = 0;
+
+    /**
+     * Creates an IncrementalParser for the given text, and parses it. If
+     * the text is not a valid program, <code>getTree</code> throws the
+     * exception, until edits make it valid.
+     * @param text The program.
+     */
+    public IncrementalParser(CharSequence text) {
+        this.text = new Text(text);
+        root = new Region("program");
+        root.length = text.length();
+        try {
+            reparse(root);
+        }
+        catch (SyntaxException e) {
+            // remembered for getTree
+        }
+    }
+
+    /**
+     * Returns the tree of the program, as <code>Parser.isProgram</code>
+     * would build it from the current text.
+     * @return The tree of the program.
+     * @throws SyntaxException If the program is not valid.
+     */
+    public Tree<Token> getTree() {
+        if (damaged != null) throw error;
+        return root.node;
+    }
+
+    /**
+     * Returns the current text of the program.
+     * @return The text.
+     */
+    public String getText() {
+        return text.toString();
+    }
+
+    /**
+     * Replaces some of the text of the program, and reparses as little of
+     * it as possible.
+     * @param offset The offset in the text of the first character to replace.
+     * @param removed The number of characters to replace.
+     * @param inserted The characters to replace them with.
+     * @return The tree of the edited program.
+     * @throws SyntaxException If the edited program is not valid; the
+     *         edit is made nonetheless.
+     * @throws IndexOutOfBoundsException If the characters to replace are
+     *         not all within the text.
+     */
+    public Tree<Token> edit(int offset, int removed, CharSequence inserted) {
+        if (offset < 0 || removed < 0 || offset + removed > text.length()) {
+            throw new IndexOutOfBoundsException("Cannot replace " + removed + " characters at "
+                                                + offset + " in " + text.length());
+        }
+        Region region = enclosingRegion(offset, offset + removed);
+        if (damaged != null) region = commonAncestor(region, damaged);
+
+        // The line numbers change only within the edit and the characters
+        // on either side of it (when "\r" and "\n" are joined or parted).
+        int lines = -countLines(offset - 1, offset + removed + 1);
+        text.replace(offset, offset + removed, inserted);
+        lines += countLines(offset - 1, offset + inserted.length() + 1);
+        resize(region, inserted.length() - removed, lines);
+        return reparse(region);
+    }
+
+    /**
+     * Returns the number of characters reparsed for the last edit (or
+     * for the initial parse).
+     * @return The number of characters reparsed.
+     */
+    int reparsedLength() {
+        return reparsedLength;
+    }
+
+    //------------------------- Private "helper" methods
+
+    /**
+     * Finds the smallest region that contains the given characters of the
+     * text, and does not begin or end with them.
+     * @param start The offset of the first character.
+     * @param end The offset just past the last character.
+     * @return The region.
+     */
+    private Region enclosingRegion(int start, int end) {
+        Region region = root;
+        while (true) {
+            // Find the last child that begins before the start.
+            int i = Arrays.binarySearch(region.starts, 0, region.children.size(), start);
+            i = (i < 0 ? -i - 1 : i) - 1;
+            if (i < 0) return region;
+            Region child = region.children.get(i);
+            if (end >= region.starts[i] + child.length || child.path == null) return region;
+            start -= region.starts[i];
+            end -= region.starts[i];
+            region = child;
+        }
+    }
+
+    /**
+     * Returns the smallest region that contains both of the given regions.
+     * @param a One region.
+     * @param b The other region.
+     * @return Their common ancestor, which may be one of them.
+     */
+    private static Region commonAncestor(Region a, Region b) {
+        for (Region r = a; r != null; r = r.parent) {
+            for (Region s = b; s != null; s = s.parent) {
+                if (r == s) return r;
+            }
+        }
+        throw new IllegalStateException("Regions of different programs");
+    }
+
+    /**
+     * Counts the line separators in the text, as the lexer counts them,
+     * between the given offsets.
+     * @param start The offset at which to start counting.
+     * @param end The offset at which to stop.
+     * @return The number of line separators.
+     */
+    private int countLines(int start, int end) {
+        int length = text.length();
+        start = Math.max(start, 0);
+        end = Math.min(end, length);
+        int lines = 0;
+        for (int i = start; i < end; i++) {
+            char ch = text.charAt(i);
+            if (ch == '\n' || (ch == '\r' && (i + 1 == length || text.charAt(i + 1) != '\n'))) {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Records that a region has changed in length and in number of lines,
+     * moving the regions that follow it.
+     * @param region The region.
+     * @param delta The change in its length.
+     * @param lines The change in the number of lines it spans.
+     */
+    private static void resize(Region region, int delta, int lines) {
+        for (Region r = region; r != null; r = r.parent) {
+            r.length += delta;
+            if (r.parent == null) break;
+            int[] starts = r.parent.starts;
+            int[] firstLines = r.parent.lines;
+            for (int i = r.index + 1; i < r.parent.children.size(); i++) {
+                starts[i] += delta;
+                firstLines[i] += lines;
+            }
+        }
+    }
+
+    /**
+     * Reparses a region, or if the result could differ from that of
+     * parsing the whole program, the smallest region around it for which
+     * it cannot.
+     * @param region The region.
+     * @return The tree of the program.
+     * @throws SyntaxException If the program is not valid.
+     */
+    private Tree<Token> reparse(Region region) {
+        while (region.parent != null) {
+            int start = 0;
+            int line = 1;
+            for (Region r = region; r.parent != null; r = r.parent) {
+                start += r.parent.starts[r.index];
+                line += r.parent.lines[r.index];
+            }
+            Parser parser = new Parser(new BugsLexer(text.subSequence(start, start + region.length),
+                                                     line));
+            reparsedLength = region.length;
+            Region fresh;
+            try {
+                fresh = parse(parser, region.production, line);
+            }
+            catch (SyntaxException e) {
+                // The Parser would have thrown the same exception, unless
+                // it came from reaching the end of the region.
+                if (parser.tokenizer.peek(1).type == Token.Type.EOF) fresh = null;
+                else throw damage(region, e);
+            }
+            if (fresh != null && fresh.length == region.length) {
+                region.node = fresh.node;
+                region.adopt(fresh);
+                Tree<Token> parent = region.parent.node;
+                int[] path = region.path;
+                for (int i = 0; i < path.length - 1; i++) parent = parent.getChild(path[i]);
+                parent.setChild(path[path.length - 1], region.node);
+                damaged = null;
+                error = null;
+                return root.node;
+            }
+            region = region.parent;
+        }
+
+        Parser parser = new Parser(new BugsLexer(text.toString(), 1));
+        reparsedLength = root.length;
+        Recorder recorder = new Recorder(parser, 1);
+        parser.setParseListener(recorder);
+        try {
+            parser.isProgram();
+        }
+        catch (SyntaxException e) {
+            throw damage(root, e);
+        }
+        root.node = parser.stack.pop();
+        root.adopt(recorder.top());
+        Recorder.findPaths(root);
+        damaged = null;
+        error = null;
+        return root.node;
+    }
+
+    /**
+     * Parses the text of a region with the production that built it.
+     * @param parser A Parser for the text of the region.
+     * @param production The production.
+     * @param line The line on which the region begins.
+     * @return A region for all of the text, or <code>null</code> if the
+     *         text is not exactly one construct of the right kind.
+     */
+    private static Region parse(Parser parser, String production, int line) {
+        Recorder recorder = new Recorder(parser, line);
+        parser.setParseListener(recorder);
+        boolean parsed;
+        switch (production) {
+            case "allbugs_code":
+                parsed = parser.isAllbugsCode();
+                break;
+            case "bug_definition":
+                parsed = parser.isBugDefinition();
+                break;
+            case "function_definition":
+                parsed = parser.isFunctionDefinition();
+                break;
+            default:
+                parsed = parser.isBlock();
+                break;
+        }
+        // Text after the construct, even a comment, would not be part of
+        // it in the whole program.
+        if (!parsed || parser.tokenizer.peek(1).type != Token.Type.EOF
+                || parser.tokenizer.startOf(1) != parser.tokenizer.endOfConsumed()) {
+            return null;
+        }
+        Region top = recorder.top();
+        return top.children.size() == 1 ? top.children.get(0) : null;
+    }
+
+    /**
+     * Marks a region as holding a syntax error.
+     * @param region The region.
+     * @param e The exception for the error.
+     * @return The exception.
+     */
+    private SyntaxException damage(Region region, SyntaxException e) {
+        damaged = region;
+        error = e;
+        region.adopt(new Region(null));     // its regions are out of date
+        return e;
+    }
+
+    /**
+     * The text of a program, with the region of it from which some
+     * subtree was built.
+     */
+    private static class Region {
+        final String production;
+        Region parent;
+        /** The number of this region among its parent's children. */
+        int index;
+        int length;
+        /** The numbers of the children leading from the parent's node to this one's. */
+        int[] path;
+        Tree<Token> node;
+        /** The regions within this one, in order. */
+        List<Region> children = new ArrayList<>();
+        /** The offset of each of the children in the text of this region. */
+        int[] starts = new int[4];
+        /** The line on which each of the children begins, less this region's first line. */
+        int[] lines = new int[4];
+
+        Region(String production) {
+            this.production = production;
+        }
+
+        /**
+         * Adds a region after the others within this one.
+         * @param child The region.
+         * @param start Its offset in the text of this region.
+         * @param line Its first line, less this region's first line.
+         */
+        void add(Region child, int start, int line) {
+            int n = children.size();
+            if (n == starts.length) {
+                starts = Arrays.copyOf(starts, 2 * n);
+                lines = Arrays.copyOf(lines, 2 * n);
+            }
+            starts[n] = start;
+            lines[n] = line;
+            child.parent = this;
+            child.index = n;
+            children.add(child);
+        }
+
+        /**
+         * Takes the regions within another region as the regions within
+         * this one, in place of its own.
+         * @param other The other region, which is not used again.
+         */
+        void adopt(Region other) {
+            children = other.children;
+            starts = other.starts;
+            lines = other.lines;
+            for (Region child : children) child.parent = this;
+        }
+    }
+
+    /**
+     * A ParseListener that builds the tree, as a <code>TreeBuilder</code>
+     * does, and records the regions of the text that the parser goes
+     * through.
+     */
+    private static class Recorder implements ParseListener {
+        private final TokenStream tokenizer;
+        private final NodeStack stack;
+        private final TreeBuilder builder;
+        /** The unfinished regions; the first is for the whole text. */
+        private final List<Region> open = new ArrayList<>();
+        /** The offset at which each unfinished region begins. */
+        private int[] starts = new int[8];
+        /** The line on which each unfinished region begins. */
+        private int[] lines = new int[8];
+
+        /**
+         * Creates a Recorder for the given parser.
+         * @param parser The parser.
+         * @param line The line on which its text begins.
+         */
+        Recorder(Parser parser, int line) {
+            tokenizer = parser.tokenizer;
+            stack = parser.stack;
+            builder = new TreeBuilder(stack);
+            open.add(new Region(null));
+            lines[0] = line;
+        }
+
+        /**
+         * Returns a region for the whole text, holding the outermost
+         * regions found, which hold the others.
+         * @return The region for the whole text, without a node.
+         */
+        Region top() {
+            return open.get(0);
+        }
+
+        @Override
+        public void enterProduction(String production) {
+            builder.enterProduction(production);
+            if (!REGIONS.contains(production)) return;
+            int depth = open.size();
+            if (depth == starts.length) {
+                starts = Arrays.copyOf(starts, 2 * depth);
+                lines = Arrays.copyOf(lines, 2 * depth);
+            }
+            starts[depth] = tokenizer.startOf(1);
+            lines[depth] = tokenizer.lineOf(1);
+            open.add(new Region(production));
+        }
+
+        @Override
+        public void exitProduction(String production) {
+            builder.exitProduction(production);
+            if (!REGIONS.contains(production)) return;
+            int depth = open.size() - 1;
+            Region region = open.remove(depth);
+            region.length = tokenizer.endOfConsumed() - starts[depth];
+            region.node = stack.peek();
+            findPaths(region);
+            open.get(depth - 1).add(region, starts[depth] - starts[depth - 1],
+                                    lines[depth] - lines[depth - 1]);
+        }
+
+        @Override
+        public void token(Token token) {
+            builder.token(token);
+        }
+
+        @Override
+        public void syntaxError(String message, int unfinished) {
+            builder.syntaxError(message, unfinished);
+        }
+
+        /**
+         * Finds where the node of each of a region's children is in the
+         * region's node.
+         * @param region The region.
+         */
+        static void findPaths(Region region) {
+            if (region.children.isEmpty()) return;
+            Map<Tree<Token>, Region> regions = new IdentityHashMap<>();
+            for (Region child : region.children) regions.put(child.node, child);
+            findPaths(region.node, new int[0], regions);
+        }
+
+        /**
+         * Finds the nodes of the given regions within a tree, and records
+         * the path to each, stopping at each one found.
+         * @param tree The tree.
+         * @param path The path to the tree.
+         * @param regions The regions, by their nodes.
+         */
+        private static void findPaths(Tree<Token> tree, int[] path, Map<Tree<Token>, Region> regions) {
+            for (int i = 0; i < tree.getNumberOfChildren(); i++) {
+                Tree<Token> child = tree.getChild(i);
+                int[] childPath = Arrays.copyOf(path, path.length + 1);
+                childPath[path.length] = i;
+                Region region = regions.get(child);
+                if (region != null) region.path = childPath;
+                else findPaths(child, childPath, regions);
+            }
+        }
+    }
+
+    /**
+     * Editable text, kept in an array with a gap at the place of the last
+     * edit, so that a run of edits near each other moves few characters.
+     */
+    private static class Text implements CharSequence {
+        private char[] chars;
+        private int gapStart;
+        private int gapEnd;
+
+        /**
+         * Creates a Text holding the given characters.
+         * @param initial The characters.
+         */
+        Text(CharSequence initial) {
+            int length = initial.length();
+            chars = new char[length + 16];
+            initial.toString().getChars(0, length, chars, 0);
+            gapStart = length;
+            gapEnd = chars.length;
+        }
+
+        @Override
+        public int length() {
+            return chars.length - (gapEnd - gapStart);
+        }
+
+        @Override
+        public char charAt(int index) {
+            return chars[index < gapStart ? index : index + gapEnd - gapStart];
+        }
+
+        @Override
+        public String subSequence(int start, int end) {
+            if (end <= gapStart) return new String(chars, start, end - start);
+            int gap = gapEnd - gapStart;
+            if (start >= gapStart) return new String(chars, start + gap, end - start);
+            char[] result = new char[end - start];
+            System.arraycopy(chars, start, result, 0, gapStart - start);
+            System.arraycopy(chars, gapEnd, result, gapStart - start, end - gapStart);
+            return new String(result);
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length());
+        }
+
+        /**
+         * Replaces some of the characters.
+         * @param start The offset of the first character to replace.
+         * @param end The offset just past the last.
+         * @param replacement The characters to put in their place.
+         */
+        void replace(int start, int end, CharSequence replacement) {
+            moveGap(start);
+            gapEnd += end - start;
+            int length = replacement.length();
+            if (length > gapEnd - gapStart) {
+                int capacity = Math.max(2 * chars.length, chars.length + length);
+                char[] larger = new char[capacity];
+                int after = chars.length - gapEnd;
+                System.arraycopy(chars, 0, larger, 0, gapStart);
+                System.arraycopy(chars, gapEnd, larger, capacity - after, after);
+                chars = larger;
+                gapEnd = capacity - after;
+            }
+            replacement.toString().getChars(0, length, chars, gapStart);
+            gapStart += length;
+        }
+
+        /**
+         * Moves the gap to the given offset.
+         * @param offset The offset.
+         */
+        private void moveGap(int offset) {
+            if (offset < gapStart) {
+                int n = gapStart - offset;
+                System.arraycopy(chars, offset, chars, gapEnd - n, n);
+                gapStart -= n;
+                gapEnd -= n;
+            }
+            else if (offset > gapStart) {
+                int n = offset - gapStart;
+                System.arraycopy(chars, gapEnd, chars, gapStart, n);
+                gapStart += n;
+                gapEnd += n;
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package bugs;
+
+import java.util.Arrays;
+
+/**
+ * Measures how long an <code>IncrementalParser</code> takes to bring the
+ * tree of a program up to date after each keystroke, for programs of
+ * increasing size, and compares it with parsing the whole program. The
+ * keystrokes type, and then erase, " * 2 + steps" one character at a
+ * time at the end of a command in the middle Bug, so the program is
+ * sometimes invalid in between. The median and 99th percentile times
+ * per keystroke are printed. The programs are made of copies of the
+ * Bug in <code>ParserBenchmark</code>. Run it as an application.
+ */
+public class IncrementalParserBenchmark {
+    private static final int[] SIZES = { 500, 2000, 8000, 32000 };
+    private static final String TYPED = " * 2 + steps";
+    private static final int ROUNDS = 20;
+
+    /**
+     * Times the parsers and prints the results.
+     * @param args Not used.
+     */
+    public static void main(String[] args) {
+        System.out.printf("%8s %10s %12s %12s %12s%n",
+                          "Bugs", "MB", "full parse", "keystroke", "99th pct.");
+        for (int round = 0; round < 2; round++) {   // the first round warms up
+            for (int bugs : SIZES) {
+                String text = ParserBenchmark.program(bugs);
+
+                double full = Double.MAX_VALUE;
+                for (int i = 0; i < 3; i++) {
+                    long start = System.nanoTime();
+                    Parser.parseProgram(text);
+                    full = Math.min(full, (System.nanoTime() - start) / 1e9);
+                }
+
+                IncrementalParser parser = new IncrementalParser(text);
+                int offset = text.indexOf("move steps + 1", text.indexOf("bug" + bugs / 2 + " "))
+                             + "move steps + 1".length();
+                long[] latencies = new long[2 * TYPED.length() * ROUNDS];
+                int keystrokes = 0;
+                System.gc();
+                for (int i = 0; i < ROUNDS; i++) {
+                    for (int j = 0; j < TYPED.length(); j++) {
+                        latencies[keystrokes++] = keystroke(parser, offset + j, 0, TYPED.substring(j, j + 1));
+                    }
+                    for (int j = TYPED.length() - 1; j >= 0; j--) {
+                        latencies[keystrokes++] = keystroke(parser, offset + j, 1, "");
+                    }
+                }
+                Arrays.sort(latencies);
+                if (!parser.getText().equals(text)) throw new AssertionError();
+                if (round == 1) {
+                    System.out.printf("%8d %10.1f %9.1f ms %9.1f us %9.1f us%n",
+                                      bugs, text.length() / 1e6, full * 1000,
+                                      latencies[keystrokes / 2] / 1e3,
+                                      latencies[keystrokes * 99 / 100] / 1e3);
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes one edit, ignoring any syntax error it causes.
+     * @param parser The parser.
+     * @param offset Where to edit.
+     * @param removed The number of characters to remove.
+     * @param inserted The characters to insert.
+     * @return The time taken, in nanoseconds.
+     */
+    private static long keystroke(IncrementalParser parser, int offset, int removed, String inserted) {
+        long start = System.nanoTime();
+        try {
+            parser.edit(offset, removed, inserted);
+        }
+        catch (SyntaxException e) {
+            // expected in between
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,184 @@
+package bugs;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import tree.Tree;
+
+public class IncrementalParserTest {
+    private static final String PROGRAM =
+        "Allbugs {\n    var total\n    define half using n {\n        return n / 2\n    }\n}\n\n" +
+        "Bug a {\n    var x\n    initially {\n        x = 1\n    }\n" +
+        "    loop {\n        move x\n        exit if x > 10\n    }\n" +
+        "    define f using n {\n        return n <= 3\n    }\n}\n" +
+        "// between the Bugs\n" +
+        "Bug b {\n    turn 90\n}\n";
+
+    @Test
+    public void testParse() {
+        IncrementalParser parser = new IncrementalParser(PROGRAM);
+        assertEquals(Parser.parseProgram(PROGRAM), parser.getTree());
+        assertEquals(PROGRAM, parser.getText());
+        assertEquals(PROGRAM.length(), parser.reparsedLength());
+    }
+
+    @Test
+    public void testEditInBlock() {
+        IncrementalParser parser = new IncrementalParser(PROGRAM);
+        Tree<Token> tree = parser.getTree();
+        Tree<Token> allbugs = tree.getChild(0);
+        Tree<Token> bugA = tree.getChild(1).getChild(0);
+        Tree<Token> bugB = tree.getChild(1).getChild(1);
+        Tree<Token>[] parts = children(bugA);
+        Tree<Token>[] commands = children(parts[3]);
+        Tree<Token> block = commands[0].getChild(0);
+
+        int offset = PROGRAM.indexOf("move x") + "move x".length();
+        assertSame(tree, parser.edit(offset, 0, " + 1"));
+        String text = PROGRAM.replace("move x", "move x + 1");
+        assertEquals(text, parser.getText());
+        assertEquals(Parser.parseProgram(text), tree);
+        int loop = text.indexOf("{", text.indexOf("loop"));
+        assertEquals(text.indexOf("    define f") - loop, parser.reparsedLength());
+
+        // Only the loop's block is new
+        assertSame(allbugs, tree.getChild(0));
+        assertSame(bugA, tree.getChild(1).getChild(0));
+        assertSame(bugB, tree.getChild(1).getChild(1));
+        assertArrayEquals(parts, children(bugA));
+        assertArrayEquals(commands, children(parts[3]));
+        assertNotSame(block, commands[0].getChild(0));
+    }
+
+    @Test
+    public void testEditInDefine() {
+        IncrementalParser parser = new IncrementalParser(PROGRAM);
+        int offset = PROGRAM.indexOf("using n {\n        return n <=");
+        Tree<Token> tree = parser.edit(offset + "using n".length(), 0, ", m");
+        String text = PROGRAM.replace("using n {\n        return n <=", "using n, m {\n        return n <=");
+        assertEquals(Parser.parseProgram(text), tree);
+        assertEquals(text.indexOf("}\n// between") - text.indexOf("define f"), parser.reparsedLength());
+    }
+
+    @Test
+    public void testEditOutsideRegions() {
+        IncrementalParser parser = new IncrementalParser(PROGRAM);
+        // The blank lines (and comments) after a Bug belong to it
+        int offset = PROGRAM.indexOf("between");
+        assertEquals(Parser.parseProgram(PROGRAM), parser.edit(offset, 7, "around"));
+        assertEquals(PROGRAM.indexOf("Bug b") - 1 - PROGRAM.indexOf("Bug a"), parser.reparsedLength());
+        assertEquals(Parser.parseProgram(PROGRAM), parser.edit(0, 0, "\n"));
+        assertEquals(PROGRAM.length(), parser.reparsedLength());
+        // A new Bug
+        String bug = "Bug c {\n    turn 1\n}\n";
+        Tree<Token> tree = parser.edit(parser.getText().length(), 0, bug);
+        assertEquals(Parser.parseProgram(parser.getText()), tree);
+        assertEquals(3, tree.getChild(1).getNumberOfChildren());
+    }
+
+    @Test
+    public void testSyntaxError() {
+        IncrementalParser parser = new IncrementalParser(PROGRAM);
+        int offset = PROGRAM.indexOf("turn 90") + "turn".length();
+        try {
+            parser.edit(offset, 3, "");
+            fail();
+        }
+        catch (SyntaxException e) {
+            assertEquals(message(PROGRAM.replace("turn 90", "turn")), e.getMessage());
+        }
+        try {
+            parser.getTree();
+            fail();
+        }
+        catch (SyntaxException e) {
+            assertTrue(e.getMessage().contains("turn"));
+        }
+        // Another edit, elsewhere, while the error remains
+        try {
+            parser.edit(PROGRAM.indexOf("x = 1"), 0, "\n\n");
+            fail();
+        }
+        catch (SyntaxException e) {
+            assertEquals(message(parser.getText()), e.getMessage());
+        }
+        Tree<Token> tree = parser.edit(parser.getText().indexOf("turn\n") + 4, 0, " 45");
+        assertEquals(Parser.parseProgram(parser.getText()), tree);
+    }
+
+    @Test
+    public void testInvalidAtFirst() {
+        IncrementalParser parser = new IncrementalParser("Bug a {\n    turn\n}\n");
+        try {
+            parser.getTree();
+            fail();
+        }
+        catch (SyntaxException e) {
+            assertEquals("Line 2: No expression after 'turn'", e.getMessage());
+        }
+        assertEquals(Parser.parseProgram("Bug a {\n    turn 5\n}\n"), parser.edit(16, 0, " 5"));
+    }
+
+    @Test
+    public void testRandomEdits() {
+        String[] insertions = { "", "\n", "\r", "\r\n", " ", "1", "x", "}", "{", "{\n", "}\n",
+                                "move 2\n", "define g {\n}\n", "loop {\n turn 1\n}\n",
+                                "Bug z {\n turn 1\n}\n", "/*", "*/", "//", "+", "(", "Bug" };
+        Random random = new Random(17);
+        String text = PROGRAM;
+        IncrementalParser parser = new IncrementalParser(text);
+        for (int i = 0; i < 3000; i++) {
+            int offset = random.nextInt(text.length() + 1);
+            int removed = Math.min(random.nextInt(4), text.length() - offset);
+            String inserted = insertions[random.nextInt(insertions.length)];
+            text = text.substring(0, offset) + inserted + text.substring(offset + removed);
+            String expected = message(text);
+            try {
+                Tree<Token> tree = parser.edit(offset, removed, inserted);
+                assertNull(text, expected);
+                assertEquals(text, Parser.parseProgram(text), tree);
+            }
+            catch (SyntaxException e) {
+                assertEquals(text, expected, e.getMessage());
+            }
+            assertEquals(text, parser.getText());
+            if (i % 50 == 0) {                  // back to a valid program
+                parser.edit(0, text.length(), PROGRAM);
+                text = PROGRAM;
+            }
+        }
+    }
+
+//  ----- "Helper" methods
+
+    /**
+     * Returns the children of a node.
+     * @param tree The node.
+     * @return Its children.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Tree<Token>[] children(Tree<Token> tree) {
+        Tree<Token>[] children = new Tree[tree.getNumberOfChildren()];
+        for (int i = 0; i < children.length; i++) children[i] = tree.getChild(i);
+        return children;
+    }
+
+    /**
+     * Returns the message of the exception a <code>Parser</code> throws
+     * for a program.
+     * @param text The program.
+     * @return The message, or <code>null</code> if the program is valid.
+     */
+    private static String message(String text) {
+        try {
+            Parser.parseProgram(text);
+            return null;
+        }
+        catch (SyntaxException e) {
+            return e.getMessage();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package bugs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A perfect hash table of reserved words. Each word is given a small
+ * ordinal (its position in the lists it was built from, duplicates
+ * removed) and a set of flags telling which of those lists it came from.
+ * <p>
+ * The hash function looks only at the length and at the first, middle
+ * and last characters of a word, so a lookup costs a handful of
+ * arithmetic operations, one array access, and a final comparison of the
+ * characters against the one candidate word. The multiplier used by the
+ * hash function is chosen when the table is built, by trying successive
+ * values until one is found that gives every word its own slot.
+ */
+final class KeywordTable {
+    /** Flag for words from the first list (the keywords). */
+    static final int KEYWORD = 1;
+    /** Flag for words from the second list (the pseudo keywords). */
+    static final int PSEUDO_KEYWORD = 2;
+    /** Flag for words from the third list (the colors). */
+    static final int COLOR = 4;
+
+    /** The words in the table, indexed by ordinal. */
+    private final String[] words;
+    /** The flags of each word, indexed by ordinal. */
+    private final int[] flags;
+    /** For each hash slot, one more than the ordinal of its word, or 0. */
+    private final byte[] slots;
+    /** The multiplier used by the hash function. */
+    private final int multiplier;
+    /** One less than the (power of two) number of slots. */
+    private final int mask;
+
+    /**
+     * Builds a table containing every word of the given lists. Words in
+     * the first list are flagged <code>KEYWORD</code>, words in the
+     * second <code>PSEUDO_KEYWORD</code>, and words in the third
+     * <code>COLOR</code>; a word in several lists gets several flags.
+     *
+     * @param keywords The keywords.
+     * @param pseudoKeywords The pseudo keywords.
+     * @param colors The color names.
+     */
+    KeywordTable(String[] keywords, String[] pseudoKeywords, String[] colors) {
+        List<String> wordList = new ArrayList<>();
+        int[] flagList = new int[keywords.length + pseudoKeywords.length + colors.length];
+        String[][] lists = { keywords, pseudoKeywords, colors };
+        for (int i = 0; i < lists.length; i++) {
+            for (String word : lists[i]) {
+                int ordinal = wordList.indexOf(word);
+                if (ordinal < 0) {
+                    ordinal = wordList.size();
+                    wordList.add(word);
+                }
+                flagList[ordinal] |= 1 << i;
+            }
+        }
+        words = wordList.toArray(new String[wordList.size()]);
+        flags = Arrays.copyOf(flagList, words.length);
+        if (words.length > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many keywords");
+        }
+
+        int size = Integer.highestOneBit(Math.max(words.length, 1)) * 4;
+        byte[] table = null;
+        int m = 1;
+        while (table == null) {
+            table = fill(m, size - 1);
+            if (table == null) {
+                m += 2;
+                if (m > 0xFFFF) {        // give up, and try a larger table
+                    m = 1;
+                    size *= 2;
+                    if (size > 1 << 16) {
+                        throw new IllegalArgumentException("No perfect hash for keywords");
+                    }
+                }
+            }
+        }
+        slots = table;
+        multiplier = m;
+        mask = size - 1;
+    }
+
+    /**
+     * Returns the ordinal of the word spelled by the characters of
+     * <code>s</code> from <code>start</code> (inclusive) to
+     * <code>end</code> (exclusive), or -1 if those characters are not
+     * a word in this table. No String is created.
+     *
+     * @param s The text containing the possible word.
+     * @param start The index of the first character.
+     * @param end The index just past the last character.
+     * @return The ordinal of the word, or -1.
+     */
+    int ordinal(CharSequence s, int start, int end) {
+        int length = end - start;
+        if (length <= 0) return -1;
+        int h = hash(multiplier, length, s.charAt(start),
+                     s.charAt(start + length / 2), s.charAt(end - 1));
+        int ordinal = slots[h & mask] - 1;
+        if (ordinal < 0) return -1;
+        String word = words[ordinal];
+        if (word.length() != length) return -1;
+        for (int i = 0; i < length; i++) {
+            if (word.charAt(i) != s.charAt(start + i)) return -1;
+        }
+        return ordinal;
+    }
+
+    /**
+     * Returns the ordinal of the word spelled by the characters of
+     * <code>s</code> from <code>start</code> (inclusive) to
+     * <code>end</code> (exclusive), or -1 if those characters are not
+     * a word in this table. No String is created.
+     *
+     * @param s The characters containing the possible word.
+     * @param start The index of the first character.
+     * @param end The index just past the last character.
+     * @return The ordinal of the word, or -1.
+     */
+    int ordinal(char[] s, int start, int end) {
+        int length = end - start;
+        if (length <= 0) return -1;
+        int h = hash(multiplier, length, s[start], s[start + length / 2], s[end - 1]);
+        int ordinal = slots[h & mask] - 1;
+        if (ordinal < 0) return -1;
+        String word = words[ordinal];
+        if (word.length() != length) return -1;
+        for (int i = 0; i < length; i++) {
+            if (word.charAt(i) != s[start + i]) return -1;
+        }
+        return ordinal;
+    }
+
+    /**
+     * Returns the ordinal of the given word, or -1 if it is not in
+     * this table.
+     *
+     * @param s The possible word.
+     * @return The ordinal of the word, or -1.
+     */
+    int ordinal(String s) {
+        return ordinal(s, 0, s.length());
+    }
+
+    /**
+     * Returns the word with the given ordinal.
+     * @param ordinal The ordinal of the word.
+     * @return The word.
+     */
+    String word(int ordinal) {
+        return words[ordinal];
+    }
+
+    /**
+     * Returns the flags of the word with the given ordinal, or 0 if the
+     * ordinal is -1 (that is, for a word that is not in the table).
+     * @param ordinal The ordinal of the word.
+     * @return Some combination of <code>KEYWORD</code>,
+     *         <code>PSEUDO_KEYWORD</code> and <code>COLOR</code>.
+     */
+    int flags(int ordinal) {
+        return ordinal < 0 ? 0 : flags[ordinal];
+    }
+
+    /**
+     * Returns the number of words in this table.
+     * @return The number of words.
+     */
+    int size() {
+        return words.length;
+    }
+
+    //------------------------- Private "helper" methods
+
+    /**
+     * Tries to place every word in a table of <code>mask + 1</code>
+     * slots using the given multiplier.
+     *
+     * @param m The multiplier to try.
+     * @param mask One less than the size of the table.
+     * @return The filled table, or <code>null</code> if two words collide.
+     */
+    private byte[] fill(int m, int mask) {
+        byte[] table = new byte[mask + 1];
+        for (int ordinal = 0; ordinal < words.length; ordinal++) {
+            String w = words[ordinal];
+            int n = w.length();
+            int h = hash(m, n, w.charAt(0), w.charAt(n / 2), w.charAt(n - 1)) & mask;
+            if (table[h] != 0) return null;
+            table[h] = (byte) (ordinal + 1);
+        }
+        return table;
+    }
+
+    /**
+     * The hash function. Its result must still be masked to the size of
+     * the table.
+     *
+     * @param m The multiplier.
+     * @param length The length of the word.
+     * @param first The first character of the word.
+     * @param middle The middle character of the word (the one at
+     *        index <code>length / 2</code>).
+     * @param last The last character of the word.
+     * @return The hash code.
+     */
+    private static int hash(int m, int length, char first, char middle, char last) {
+        int h = ((length * m + first) * m + middle) * m + last;
+        return h ^ (h >>> 9);
+    }
+}
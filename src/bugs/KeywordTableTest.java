@@ -0,0 +1,78 @@
+package bugs;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Test class for the perfect hash table of keywords.
+ */
+public class KeywordTableTest {
+    private static final String[] KEYWORDS = { "move", "loop", "red", "black" };
+    private static final String[] PSEUDO_KEYWORDS = { "block", "call" };
+    private static final String[] COLORS = { "red", "black" };
+
+    private KeywordTable table = new KeywordTable(KEYWORDS, PSEUDO_KEYWORDS, COLORS);
+
+    @Test
+    public void testOrdinal() {
+        assertEquals(6, table.size());
+        assertEquals(0, table.ordinal("move"));
+        assertEquals(3, table.ordinal("black"));
+        assertEquals(4, table.ordinal("block"));
+        assertEquals(5, table.ordinal("call"));
+        for (int i = 0; i < table.size(); i++) {
+            assertEquals(i, table.ordinal(table.word(i)));
+        }
+    }
+
+    @Test
+    public void testOrdinalOfNonWords() {
+        assertEquals(-1, table.ordinal("mover"));
+        assertEquals(-1, table.ordinal("mov"));
+        assertEquals(-1, table.ordinal("blook"));
+        assertEquals(-1, table.ordinal("Move"));
+        assertEquals(-1, table.ordinal(""));
+        assertEquals(-1, table.ordinal("x"));
+    }
+
+    @Test
+    public void testOrdinalOfSubsequence() {
+        String text = "x = black + move";
+        assertEquals(3, table.ordinal(text, 4, 9));
+        assertEquals(0, table.ordinal(text, 12, 16));
+        assertEquals(-1, table.ordinal(text, 4, 8));
+        assertEquals(-1, table.ordinal(text, 0, 1));
+        char[] chars = text.toCharArray();
+        assertEquals(3, table.ordinal(chars, 4, 9));
+        assertEquals(0, table.ordinal(chars, 12, 16));
+        assertEquals(-1, table.ordinal(chars, 4, 8));
+        assertEquals(-1, table.ordinal(chars, 0, 1));
+    }
+
+    @Test
+    public void testFlags() {
+        assertEquals(KeywordTable.KEYWORD, table.flags(table.ordinal("move")));
+        assertEquals(KeywordTable.KEYWORD | KeywordTable.COLOR,
+                     table.flags(table.ordinal("red")));
+        assertEquals(KeywordTable.PSEUDO_KEYWORD, table.flags(table.ordinal("call")));
+        assertEquals(0, table.flags(table.ordinal("algebra")));
+    }
+
+    @Test
+    public void testAllBugsKeywords() {
+        for (String keyword : Token.KEYWORDS) {
+            int ordinal = Token.KEYWORD_TABLE.ordinal(keyword);
+            assertEquals(keyword, Token.KEYWORD_TABLE.word(ordinal));
+            assertTrue((Token.KEYWORD_TABLE.flags(ordinal) & KeywordTable.KEYWORD) != 0);
+        }
+        for (String keyword : Token.PSEUDO_KEYWORDS) {
+            int ordinal = Token.KEYWORD_TABLE.ordinal(keyword);
+            assertTrue((Token.KEYWORD_TABLE.flags(ordinal) & KeywordTable.PSEUDO_KEYWORD) != 0);
+        }
+        for (String color : Token.COLORS) {
+            int ordinal = Token.KEYWORD_TABLE.ordinal(color);
+            assertTrue((Token.KEYWORD_TABLE.flags(ordinal) & KeywordTable.COLOR) != 0);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package bugs;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A Reader for UTF-8 encoded text in a file. Rather than being read into
+ * memory, the file is memory-mapped, a region at a time, and decoded
+ * directly into the caller's array as characters are requested. Only the
+ * operating system's page cache holds the contents of the file.
+ */
+class MappedFileReader extends Reader {
+    /** The largest number of bytes mapped at once. */
+    private static final long REGION_SIZE = 1L << 26;
+
+    private final FileChannel channel;
+    private final long size;
+    private final long regionSize;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+    /** The file offset of the start of the mapped region. */
+    private long regionStart;
+    /** The mapped region; <code>null</code> once the text is exhausted. */
+    private MappedByteBuffer region;
+    /**
+     * The low surrogate of a character that did not fit in the caller's
+     * array, or 0.
+     */
+    private char pending;
+
+    /**
+     * Opens the given file for reading.
+     * @param path The file to read.
+     * @throws IOException If the file cannot be opened or mapped.
+     */
+    MappedFileReader(Path path) throws IOException {
+        this(path, REGION_SIZE);
+    }
+
+    /**
+     * Opens the given file for reading, mapping regions of the given size.
+     * @param path The file to read.
+     * @param regionSize The largest number of bytes to map at once; at
+     *        least 4, the length of the longest UTF-8 sequence.
+     * @throws IOException If the file cannot be opened or mapped.
+     */
+    MappedFileReader(Path path, long regionSize) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.regionSize = Math.max(regionSize, 4);
+        map(0);
+    }
+
+    /**
+     * Decodes characters from the file into a portion of an array.
+     * @see java.io.Reader#read(char[], int, int)
+     */
+    @Override
+    public int read(char[] chars, int offset, int length) throws IOException {
+        if (length == 0) return 0;
+        if (pending != 0) {
+            chars[offset] = pending;
+            pending = 0;
+            return 1;
+        }
+        if (region == null) return -1;
+        CharBuffer out = CharBuffer.wrap(chars, offset, length);
+        while (out.position() == offset) {
+            boolean lastRegion = regionStart + region.limit() == size;
+            CoderResult result = decoder.decode(region, out, lastRegion);
+            if (result.isError()) result.throwException();
+            if (result.isOverflow() && out.position() == offset) {
+                // A surrogate pair, but room for only one character.
+                CharBuffer pair = CharBuffer.allocate(2);
+                result = decoder.decode(region, pair, lastRegion);
+                if (result.isError()) result.throwException();
+                chars[offset] = pair.get(0);
+                pending = pair.get(1);
+                return 1;
+            }
+            if (result.isUnderflow() && out.position() == offset) {
+                if (lastRegion) {
+                    decoder.flush(out);
+                    if (out.position() == offset) {
+                        close();
+                        return -1;
+                    }
+                }
+                else {
+                    // Remap, starting with any incomplete character.
+                    map(regionStart + region.position());
+                }
+            }
+        }
+        return out.position() - offset;
+    }
+
+    /**
+     * Closes the file. Mapped regions remain valid until they are
+     * garbage collected.
+     * @see java.io.Reader#close()
+     */
+    @Override
+    public void close() throws IOException {
+        region = null;
+        channel.close();
+    }
+
+    /**
+     * Maps the region of the file beginning at the given offset.
+     * @param start The file offset of the region.
+     * @throws IOException If the region cannot be mapped.
+     */
+    private void map(long start) throws IOException {
+        regionStart = start;
+        long length = Math.min(regionSize, size - start);
+        region = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+    }
+}
@@ -0,0 +1,81 @@
+package bugs;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for the memory-mapped file reader.
+ */
+public class MappedFileReaderTest {
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = Files.createTempFile("bugs", ".bugs");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testRead() throws IOException {
+        String text = "Bug sally {\n    move 10\n}\n";
+        assertEquals(text, readAll(text, 1 << 20, 100));
+    }
+
+    @Test
+    public void testReadSmallRegionsAndArrays() throws IOException {
+        // Multi-byte characters will be split between regions.
+        String text = "caf\u00e9 \u00fcber \u4e2d\u6587 \ud83d\udc1b na\u00efve";
+        for (int regionSize = 4; regionSize < 12; regionSize++) {
+            for (int arraySize = 1; arraySize < 4; arraySize++) {
+                assertEquals(text, readAll(text, regionSize, arraySize));
+            }
+        }
+    }
+
+    @Test
+    public void testReadEmptyFile() throws IOException {
+        assertEquals("", readAll("", 16, 16));
+    }
+
+    @Test(expected=IOException.class)
+    public void testMalformedInput() throws IOException {
+        Files.write(file, new byte[] { 'a', (byte) 0xFF, 'b' });
+        MappedFileReader reader = new MappedFileReader(file);
+        char[] chars = new char[10];
+        while (reader.read(chars, 0, chars.length) >= 0) { }
+    }
+
+    /**
+     * Writes the text to the temporary file, then reads it back.
+     * @param text The text to write.
+     * @param regionSize The number of bytes to map at once.
+     * @param arraySize The number of characters to ask for at once.
+     * @return The text that was read.
+     * @throws IOException If the file cannot be written or read.
+     */
+    private String readAll(String text, int regionSize, int arraySize) throws IOException {
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        MappedFileReader reader = new MappedFileReader(file, regionSize);
+        StringBuilder result = new StringBuilder();
+        char[] chars = new char[arraySize];
+        int n;
+        while ((n = reader.read(chars, 0, arraySize)) >= 0) {
+            result.append(chars, 0, n);
+        }
+        assertEquals(-1, reader.read(chars, 0, arraySize));
+        reader.close();
+        return result.toString();
+    }
+}
@@ -0,0 +1,207 @@
+package bugs;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.EmptyStackException;
+import java.util.List;
+
+import tree.Tree;
+
+/**
+ * The stack of partially built trees used by the <code>Parser</code>.
+ * Unlike <code>java.util.Stack</code>, it is not synchronized, and it
+ * provides fixed-arity <code>reduce</code> operations that assemble the
+ * top few trees into one without allocating anything but the new
+ * children. The reduce operations do not check their arguments; the
+ * parser is trusted to use them correctly.
+ * <p>
+ * Stack positions given to the reduce operations are counted from the
+ * top, the top tree being 1: <code>reduce2(2, 1)</code> makes the top
+ * tree a child of the one below it, and <code>reduce3(2, 3, 1)</code>
+ * makes the trees on either side of the second its children.
+ */
+public class NodeStack {
+    private static final int INITIAL_CAPACITY = 32;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Tree<Token>[] items = new Tree[INITIAL_CAPACITY];
+    private int size = 0;
+
+    /**
+     * Pushes a tree onto this stack.
+     * @param tree The tree to push.
+     * @return The tree that was pushed.
+     */
+    public Tree<Token> push(Tree<Token> tree) {
+        if (size == items.length) items = Arrays.copyOf(items, 2 * size);
+        items[size++] = tree;
+        return tree;
+    }
+
+    /**
+     * Removes and returns the top tree on this stack.
+     * @return The tree that was on top.
+     * @throws EmptyStackException If the stack is empty.
+     */
+    public Tree<Token> pop() {
+        if (size == 0) throw new EmptyStackException();
+        Tree<Token> top = items[--size];
+        items[size] = null;
+        return top;
+    }
+
+    /**
+     * Returns the top tree on this stack, without removing it.
+     * @return The tree on top.
+     * @throws EmptyStackException If the stack is empty.
+     */
+    public Tree<Token> peek() {
+        if (size == 0) throw new EmptyStackException();
+        return items[size - 1];
+    }
+
+    /**
+     * Returns the n-th tree from the top of this stack, counting the top
+     * tree as 1.
+     * @param n Which tree to return.
+     * @return The n-th tree from the top.
+     */
+    public Tree<Token> peek(int n) {
+        return items[size - n];
+    }
+
+    /**
+     * Returns the tree at the given index, counting from the bottom of
+     * the stack, as <code>java.util.Stack.get</code> does.
+     * @param index The index of the tree, the bottom tree being 0.
+     * @return The tree at that index.
+     */
+    public Tree<Token> get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+        return items[index];
+    }
+
+    /**
+     * Returns the number of trees on this stack.
+     * @return The size of the stack.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Tests whether this stack is empty.
+     * @return <code>true</code> if there are no trees on the stack.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes every tree from this stack.
+     */
+    public void clear() {
+        Arrays.fill(items, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Makes the tree at position <code>child</code> a child of the tree
+     * at position <code>root</code>, and replaces both with the root.
+     * @param root The position of the root (1 or 2).
+     * @param child The position of the child (2 or 1).
+     */
+    public void reduce2(int root, int child) {
+        Tree<Token> r = items[size - root];
+        r.addChild(items[size - child]);
+        items[size - 1] = null;
+        items[size - 2] = r;
+        size--;
+    }
+
+    /**
+     * Makes the trees at positions <code>child1</code> and
+     * <code>child2</code>, in that order, children of the tree at
+     * position <code>root</code>, and replaces all three with the root.
+     * For example, <code>reduce3(2, 3, 1)</code> turns
+     * <i>left operator right</i> into a tree for the operator.
+     * @param root The position of the root (1, 2 or 3).
+     * @param child1 The position of the first child.
+     * @param child2 The position of the second child.
+     */
+    public void reduce3(int root, int child1, int child2) {
+        Tree<Token> r = items[size - root];
+        r.addChild(items[size - child1]);
+        r.addChild(items[size - child2]);
+        items[size - 1] = null;
+        items[size - 2] = null;
+        items[size - 3] = r;
+        size -= 2;
+    }
+
+    /**
+     * Makes the top <code>n</code> trees on this stack children of the
+     * tree beneath them, in order from the lowest to the top, and
+     * replaces all of them with that tree.
+     * @param n The number of children.
+     */
+    public void reduce(int n) {
+        int rootIndex = size - n - 1;
+        Tree<Token> r = items[rootIndex];
+        for (int i = rootIndex + 1; i < size; i++) {
+            r.addChild(items[i]);
+            items[i] = null;
+        }
+        size = rootIndex + 1;
+    }
+
+    /**
+     * Makes the trees from the given index (counting from the bottom) to
+     * the top children of a new node holding the given token, in order,
+     * and replaces them with that node. The node is built after its
+     * children, so, unlike <code>addChild</code>, this need not check
+     * for a circular Tree.
+     * @param value The token for the new root.
+     * @param index The index of its first child; if it is the size of
+     *        the stack, the root has no children.
+     */
+    public void collect(Token value, int index) {
+        Tree<Token> root = new Tree<>(value, Arrays.copyOfRange(items, index, size));
+        Arrays.fill(items, index, size, null);
+        size = index;
+        push(root);
+    }
+
+    /**
+     * Returns a read-only view of this stack as a list, from the bottom
+     * of the stack to the top (the order used by
+     * <code>java.util.Stack</code>). The view reflects later changes to
+     * the stack.
+     * @return A list view of this stack.
+     */
+    public List<Tree<Token>> asList() {
+        return new AbstractList<Tree<Token>>() {
+            @Override
+            public Tree<Token> get(int index) {
+                return NodeStack.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Returns a String representation of this stack, bottom first, in
+     * the same form as that of <code>java.util.Stack</code>.
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return asList().toString();
+    }
+}
@@ -0,0 +1,140 @@
+package bugs;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.EmptyStackException;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import tree.Tree;
+
+/**
+ * Test class for the Parser's node stack.
+ */
+public class NodeStackTest {
+    private NodeStack stack;
+    private Tree<Token> a, plus, b;
+
+    @Before
+    public void setUp() throws Exception {
+        stack = new NodeStack();
+        a = new Tree<>(Token.of("a"));
+        plus = new Tree<>(Token.of("+"));
+        b = new Tree<>(Token.of("b"));
+    }
+
+    @Test
+    public void testPushPopPeek() {
+        assertTrue(stack.isEmpty());
+        assertSame(a, stack.push(a));
+        stack.push(b);
+        assertEquals(2, stack.size());
+        assertSame(b, stack.peek());
+        assertSame(b, stack.peek(1));
+        assertSame(a, stack.peek(2));
+        assertSame(a, stack.get(0));
+        assertSame(b, stack.pop());
+        assertSame(a, stack.pop());
+        assertTrue(stack.isEmpty());
+    }
+
+    @Test(expected=EmptyStackException.class)
+    public void testPopEmpty() {
+        stack.pop();
+    }
+
+    @Test(expected=EmptyStackException.class)
+    public void testPeekEmpty() {
+        stack.peek();
+    }
+
+    @Test
+    public void testGrow() {
+        for (int i = 0; i < 1000; i++) stack.push(new Tree<>(new Token((double) i)));
+        assertEquals(1000, stack.size());
+        for (int i = 999; i >= 0; i--) assertEquals(i, stack.pop().getValue().number, 0.0);
+    }
+
+    @Test
+    public void testReduce2() {
+        stack.push(plus);
+        stack.push(a);
+        stack.reduce2(2, 1);
+        assertEquals(1, stack.size());
+        assertEquals(new Tree<>(Token.of("+"), new Tree<>(Token.of("a"))), stack.peek());
+    }
+
+    @Test
+    public void testReduce3() {
+        stack.push(a);
+        stack.push(plus);
+        stack.push(b);
+        stack.reduce3(2, 3, 1);
+        assertEquals(1, stack.size());
+        assertSame(plus, stack.peek());
+        assertSame(a, plus.getChild(0));
+        assertSame(b, plus.getChild(1));
+
+        Tree<Token> call = new Tree<>(Token.of("call"));
+        stack.push(b);
+        stack.push(call);
+        stack.reduce3(1, 3, 2);
+        assertEquals(1, stack.size());
+        assertSame(call, stack.peek());
+        assertSame(plus, call.getChild(0));
+        assertSame(b, call.getChild(1));
+    }
+
+    @Test
+    public void testReduce() {
+        Tree<Token> c = new Tree<>(Token.of("c"));
+        stack.push(a);
+        stack.push(plus);
+        stack.push(b);
+        stack.push(c);
+        stack.reduce(2);
+        assertEquals(2, stack.size());
+        assertSame(plus, stack.peek());
+        assertEquals(Arrays.asList(b, c), Arrays.asList(plus.getChild(0), plus.getChild(1)));
+        stack.reduce(0);
+        assertEquals(2, stack.size());
+        stack.reduce(1);
+        assertSame(a, stack.pop());
+        assertTrue(stack.isEmpty());
+    }
+
+    @Test
+    public void testCollect() {
+        stack.push(a);
+        stack.push(plus);
+        stack.push(b);
+        stack.collect(Token.of("list"), 1);
+        assertEquals(2, stack.size());
+        assertSame(a, stack.get(0));
+        Tree<Token> list = stack.peek();
+        assertEquals(Token.of("list"), list.getValue());
+        assertEquals(Arrays.asList(plus, b), Arrays.asList(list.getChild(0), list.getChild(1)));
+        stack.collect(Token.of("empty"), 2);
+        assertEquals(3, stack.size());
+        assertEquals(0, stack.peek().getNumberOfChildren());
+    }
+
+    @Test
+    public void testAsList() {
+        List<Tree<Token>> list = stack.asList();
+        stack.push(a);
+        stack.push(b);
+        assertEquals(Arrays.asList(a, b), list);
+        assertEquals(list.toString(), stack.toString());
+        stack.clear();
+        assertTrue(list.isEmpty());
+    }
+
+    @Test(expected=UnsupportedOperationException.class)
+    public void testAsListIsReadOnly() {
+        stack.asList().add(a);
+    }
+}
@@ -0,0 +1,288 @@
+package bugs;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import tree.Tree;
+
+/**
+ * Parses a whole program, as <code>Parser.isProgram()</code> does, but
+ * parses its Bug definitions in parallel. A quick scan of the text, which
+ * knows about comments and braces but nothing else of the grammar, finds
+ * each "Bug" that begins a line outside of any braces; the text before
+ * the first of them (the Allbugs code) and each Bug definition are then
+ * parsed separately, by tasks on a <code>ForkJoinPool</code>, and the
+ * trees are put together into the program's tree.
+ * <p>
+ * The result is always the same as that of a <code>Parser</code>: each
+ * piece is lexed with the line numbers it has in the whole text, so
+ * <code>SyntaxException</code>s report the right line, and the exception
+ * thrown for an invalid program is the one the Parser would throw. When
+ * it cannot be sure of that (for instance, when a piece does not hold
+ * exactly one Bug definition), the ParallelParser just parses the whole
+ * text again with a Parser. Error recovery is not supported.
+ */
+public class ParallelParser {
+    /** Pieces of text shorter than this are not split between tasks. */
+    private static final int MIN_TASK_SIZE = 16 * 1024;
+
+    private static ForkJoinPool sharedPool = null;
+
+    private final CharSequence text;
+    private final ForkJoinPool pool;
+
+    // Piece i of the text runs from bounds[i] to bounds[i + 1], and
+    // begins on line firstLines[i]. Piece 0 holds whatever precedes the
+    // first Bug definition; each of the others begins with a "Bug".
+    private int[] bounds = new int[16];
+    private int[] firstLines = new int[16];
+    private int pieceCount = 0;
+
+    /** The tree of each piece, once it has been parsed. */
+    private Tree<Token>[] trees;
+    /** The exception thrown while parsing each piece, if it can be trusted. */
+    private SyntaxException[] errors;
+    /** The lowest number of a piece that could not be parsed. */
+    private final AtomicInteger firstFailure = new AtomicInteger(Integer.MAX_VALUE);
+
+    /**
+     * Constructs a ParallelParser for the given text, using a pool shared
+     * by all ParallelParsers, with one thread per processor.
+     * @param text The program to be parsed.
+     */
+    public ParallelParser(CharSequence text) {
+        this(text, sharedPool());
+    }
+
+    /**
+     * Constructs a ParallelParser for the given text, using the given pool.
+     * @param text The program to be parsed.
+     * @param pool The pool in which to parse the Bug definitions.
+     */
+    public ParallelParser(CharSequence text, ForkJoinPool pool) {
+        this.text = text;
+        this.pool = pool;
+    }
+
+    /**
+     * Parses the program and returns its tree, the same tree that
+     * <code>Parser.isProgram()</code> leaves on the stack.
+     * @return The tree of the program.
+     * @throws SyntaxException If the text is not a valid program.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public Tree<Token> parse() {
+        findPieces();
+        if (pieceCount < 2) return parseSequentially();
+        trees = new Tree[pieceCount];
+        errors = new SyntaxException[pieceCount];
+        pool.invoke(new ParseTask(0, pieceCount));
+
+        int failure = firstFailure.get();
+        if (failure < pieceCount) {
+            if (errors[failure] != null) throw errors[failure];
+            return parseSequentially();
+        }
+        Tree<Token> bugs = new Tree<>(Token.of("list"));
+        for (int i = 1; i < pieceCount; i++) {
+            bugs.addChild(trees[i]);
+        }
+        Tree<Token> program = new Tree<>(Token.of("list"));
+        program.addChild(trees[0]);
+        program.addChild(bugs);
+        return program;
+    }
+
+    /**
+     * Returns the offsets in the text at which the Bug definitions found
+     * by the scan begin.
+     * @return The offsets of the Bug definitions.
+     */
+    int[] bugOffsets() {
+        findPieces();
+        return Arrays.copyOfRange(bounds, 1, pieceCount);
+    }
+
+    //------------------------- Private "helper" methods
+
+    /**
+     * Returns the pool shared by ParallelParsers, creating it if need be.
+     * @return The shared pool.
+     */
+    private static synchronized ForkJoinPool sharedPool() {
+        if (sharedPool == null) sharedPool = new ForkJoinPool();
+        return sharedPool;
+    }
+
+    /**
+     * Parses the whole text with a <code>Parser</code>.
+     * @return The tree of the program.
+     */
+    private Tree<Token> parseSequentially() {
+        return Parser.parseProgram(text);
+    }
+
+    /**
+     * Scans the text for the "Bug" keywords that begin lines outside of
+     * any braces and comments, and divides the text into pieces there.
+     * Comments and quoted text are skipped and lines counted exactly as
+     * the <code>BugsLexer</code> does.
+     */
+    private void findPieces() {
+        pieceCount = 0;
+        addPiece(0, 1);
+        int length = text.length();
+        int depth = 0;
+        int line = 1;
+        int lineStart = 0;
+        boolean blank = true;           // nothing but whitespace since lineStart
+        int i = 0;
+        while (i < length) {
+            char ch = text.charAt(i++);
+            if (ch == '\n' || ch == '\r') {
+                if (ch == '\r' && i < length && text.charAt(i) == '\n') i++;
+                line++;
+                lineStart = i;
+                blank = true;
+                continue;
+            }
+            if (ch <= ' ') continue;
+            blank = blank && BugsLexer.isNameStart(ch);
+            if (ch == '/' && i < length && text.charAt(i) == '/') {
+                while (i < length && text.charAt(i) != '\n' && text.charAt(i) != '\r') i++;
+            }
+            else if (ch == '/' && i < length && text.charAt(i) == '*') {
+                char previous = 0;
+                i++;
+                while (i < length) {
+                    ch = text.charAt(i++);
+                    if (ch == '/' && previous == '*') break;
+                    if (ch == '\n' || (ch == '\r' && (i == length || text.charAt(i) != '\n'))) {
+                        line++;
+                    }
+                    previous = ch;
+                }
+            }
+            else if (ch == '"') {
+                while (i < length && text.charAt(i) != '"'
+                        && text.charAt(i) != '\n' && text.charAt(i) != '\r') {
+                    if (text.charAt(i++) == '\\' && i < length) i++;
+                }
+                if (i < length && text.charAt(i) == '"') i++;
+            }
+            else if (BugsLexer.isNameStart(ch)) {
+                int start = i - 1;
+                while (i < length && BugsLexer.isNamePart(text.charAt(i))) i++;
+                if (blank && depth == 0 && i - start == 3 && text.charAt(start) == 'B'
+                        && text.charAt(start + 1) == 'u' && text.charAt(start + 2) == 'g') {
+                    addPiece(lineStart, line);
+                }
+                blank = false;
+            }
+            else if (ch == '{') {
+                depth++;
+            }
+            else if (ch == '}') {
+                depth--;
+            }
+        }
+        bounds[pieceCount] = length;
+    }
+
+    /**
+     * Records the start of a piece of the text.
+     * @param start The offset of the piece.
+     * @param line The line on which the piece begins.
+     */
+    private void addPiece(int start, int line) {
+        if (pieceCount + 1 == bounds.length) {
+            bounds = Arrays.copyOf(bounds, 2 * bounds.length);
+            firstLines = Arrays.copyOf(firstLines, 2 * firstLines.length);
+        }
+        bounds[pieceCount] = start;
+        firstLines[pieceCount] = line;
+        pieceCount++;
+    }
+
+    /**
+     * Parses one piece of the text: the code before the first Bug (blank
+     * lines and the Allbugs code, if any) for piece 0, a single Bug
+     * definition for the others. If the piece cannot be parsed, the
+     * failure is recorded instead.
+     * @param piece The number of the piece.
+     */
+    private void parsePiece(int piece) {
+        if (piece > firstFailure.get()) return;    // it would make no difference
+        Parser parser = new Parser(new BugsLexer(text.subSequence(bounds[piece], bounds[piece + 1]),
+                                                 firstLines[piece]));
+        Tree<Token> tree = null;
+        try {
+            if (piece == 0) {
+                parser.isEol();
+                if (parser.isAllbugsCode()) {
+                    tree = parser.stack.pop();
+                }
+                else {
+                    tree = new Tree<>(Token.of("Allbugs"));
+                    tree.addChild(new Tree<>(Token.of("list")));
+                    tree.addChild(new Tree<>(Token.of("list")));
+                }
+            }
+            else if (parser.isBugDefinition()) {
+                tree = parser.stack.pop();
+            }
+        }
+        catch (SyntaxException e) {
+            // The Parser would have thrown the same exception, unless it
+            // came from reaching the end of the piece, which the Parser
+            // would not have seen.
+            if (parser.tokenizer.peek(1).type != Token.Type.EOF) errors[piece] = e;
+        }
+        if (tree != null && parser.tokenizer.peek(1).type == Token.Type.EOF) {
+            trees[piece] = tree;
+            return;
+        }
+        int failure = firstFailure.get();
+        while (piece < failure && !firstFailure.compareAndSet(failure, piece)) {
+            failure = firstFailure.get();
+        }
+    }
+
+    /**
+     * The task of parsing some consecutive pieces of the text. It splits
+     * itself in two, of about equal length, until the pieces are too
+     * short to be worth splitting further.
+     */
+    @SuppressWarnings("serial")
+    private class ParseTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+
+        /**
+         * Creates the task of parsing pieces <code>from</code> up to, but
+         * not including, <code>to</code>.
+         * @param from The first piece.
+         * @param to The piece after the last.
+         */
+        ParseTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1 && bounds[to] - bounds[from] > MIN_TASK_SIZE) {
+                int middle = Arrays.binarySearch(bounds, from + 1, to,
+                                                 (bounds[from] + bounds[to]) >>> 1);
+                if (middle < 0) middle = -middle - 1;
+                middle = Math.min(Math.max(middle, from + 1), to - 1);
+                invokeAll(new ParseTask(from, middle), new ParseTask(middle, to));
+            }
+            else {
+                for (int i = from; i < to; i++) parsePiece(i);
+            }
+        }
+    }
+}
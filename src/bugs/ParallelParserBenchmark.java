@@ -0,0 +1,62 @@
+package bugs;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how parse time scales with the number of threads used by a
+ * <code>ParallelParser</code>, parsing the program generated by
+ * <code>ParserBenchmark</code>. The <code>Parser</code> is timed too,
+ * for comparison. Run it as an application; the optional argument is
+ * the number of Bugs in the program (default 20000, about 14MB of
+ * source).
+ */
+public class ParallelParserBenchmark {
+    private static final int ROUNDS = 10;
+
+    /**
+     * Times the parsers and prints the results.
+     * @param args The number of Bugs in the program to parse, if given.
+     */
+    public static void main(String[] args) {
+        int bugs = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        String text = ParserBenchmark.program(bugs);
+        double megabytes = text.length() / 1e6;
+        int processors = Runtime.getRuntime().availableProcessors();
+        System.out.printf("program size: %.1f MB (%d Bugs), %d processors%n",
+                          megabytes, bugs, processors);
+
+        double sequential = Double.MAX_VALUE;
+        for (int i = 0; i <= ROUNDS; i++) {
+            long start = System.nanoTime();
+            Parser.parseProgram(text);
+            sequential = Math.min(sequential, (System.nanoTime() - start) / 1e9);
+        }
+        System.out.printf("Parser:             %8.1f ms %8.1f MB/s%n",
+                          sequential * 1000, megabytes / sequential);
+
+        for (int threads = 1; threads <= processors; threads *= 2) {
+            time(text, threads, sequential);
+            if (threads < processors && 2 * threads > processors) time(text, processors, sequential);
+        }
+    }
+
+    /**
+     * Times a ParallelParser using the given number of threads, and
+     * prints the result.
+     * @param text The program.
+     * @param threads The number of threads.
+     * @param sequential The time taken by the Parser, in seconds.
+     */
+    private static void time(String text, int threads, double sequential) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i <= ROUNDS; i++) {
+            long start = System.nanoTime();
+            new ParallelParser(text, pool).parse();
+            best = Math.min(best, (System.nanoTime() - start) / 1e9);
+        }
+        pool.shutdown();
+        System.out.printf("%2d threads:         %8.1f ms %8.1f MB/s  speedup %.2f%n", threads,
+                          best * 1000, text.length() / 1e6 / best, sequential / best);
+    }
+}
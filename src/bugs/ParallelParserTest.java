@@ -0,0 +1,136 @@
+package bugs;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import tree.Tree;
+
+public class ParallelParserTest {
+    private static ForkJoinPool pool;
+
+    @BeforeClass
+    public static void setUpClass() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testBugOffsets() {
+        String text = "\n// Bug a {\nAllbugs {\n  var Bug_count\n}\n"
+                    + "Bug a {\n  turn 1\n}\n"
+                    + "  Bug b {\n  define f {\n    Bug c\n  }\n}\n"
+                    + "/* Bug d\n */ Bug e {\n}\n"          // not at the start of a line
+                    + "Bugs\n"
+                    + "Bug f {}\r\n"
+                    + "Bug g {{\nBug h\n";                   // within braces
+        int[] expected = { text.indexOf("Bug a {\n  turn"), text.indexOf("  Bug b"),
+                           text.indexOf("Bug f"), text.indexOf("Bug g") };
+        assertArrayEquals(expected, new ParallelParser(text).bugOffsets());
+        assertArrayEquals(new int[0], new ParallelParser("Allbugs {\n}\n").bugOffsets());
+    }
+
+    @Test
+    public void testParse() {
+        assertSameResult(program(200, true));
+        assertSameResult(program(200, false));
+        assertSameResult(program(1, true));
+        assertSameResult("\n\n" + program(3, false).replace("\n", "\r\n"));
+        assertSameResult("Bug a {\n  turn 1\n}");       // no newline at the end
+    }
+
+    @Test
+    public void testParseErrors() {
+        String text = program(200, true);
+        // In one Bug, after a correct one
+        assertSameResult(replaceNth(text, "turnto 90\n", "turnto 90 90\n", 150));
+        // In the Allbugs code
+        assertSameResult(text.replace("var other", "var other,"));
+        // At the end of a Bug, where the piece ends
+        assertSameResult(replaceNth(text, "    }\n}\n", "    }\n", 120));
+        assertSameResult(replaceNth(text, "    }\n}\n", "    }\n}\nmove 1\n", 120));
+        // In several Bugs; the first one counts
+        String twice = replaceNth(text, "move steps + 1\n", "move steps +\n", 170);
+        assertSameResult(replaceNth(twice, "turn angle\n", "turn angle angle\n", 60));
+        // Around the Bugs
+        assertSameResult("Allbugs {\n}\n");
+        assertSameResult("move 1\nBug a {\n  turn 1\n}\n");
+        assertSameResult("Allbugs {\n}\nAllbugs {\n}\nBug a {\n  turn 1\n}\n");
+        assertSameResult(program(3, false).replace("\n", "\r\n").replace("turn angle", "turn +"));
+    }
+
+    @Test
+    public void testErrorLineNumber() {
+        String text = replaceNth(program(100, true), "turnto 90\n", "turnto 90 90\n", 80);
+        int line = 1;
+        for (int i = 0; i < text.indexOf("turnto 90 90"); i++) {
+            if (text.charAt(i) == '\n') line++;
+        }
+        try {
+            new ParallelParser(text, pool).parse();
+            fail();
+        }
+        catch (SyntaxException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Line " + line + ":"));
+        }
+    }
+
+//  ----- "Helper" methods
+
+    /**
+     * Asserts that a ParallelParser gives the same tree as a Parser for
+     * the given text, or throws an exception with the same message.
+     * @param text The text to parse.
+     */
+    private void assertSameResult(String text) {
+        Tree<Token> expected = null;
+        String expectedError = null;
+        try {
+            expected = Parser.parseProgram(text);
+        }
+        catch (SyntaxException e) {
+            expectedError = e.getMessage();
+        }
+        try {
+            Tree<Token> actual = new ParallelParser(text, pool).parse();
+            assertNull("Expected " + expectedError, expectedError);
+            assertEquals(expected, actual);
+        }
+        catch (SyntaxException e) {
+            assertEquals(expectedError, e.getMessage());
+        }
+    }
+
+    /**
+     * Generates a program.
+     * @param bugs The number of Bugs in it.
+     * @param allbugs Whether to begin it with Allbugs code.
+     * @return The program.
+     */
+    private static String program(int bugs, boolean allbugs) {
+        String program = ParserBenchmark.program(bugs);
+        return allbugs ? program : program.substring(ParserBenchmark.ALLBUGS.length());
+    }
+
+    /**
+     * Replaces the n-th occurrence of a string, counting from 0.
+     * @param text The text to change.
+     * @param target The string to replace.
+     * @param replacement The string to replace it with.
+     * @param n Which occurrence to replace.
+     * @return The changed text.
+     */
+    private static String replaceNth(String text, String target, String replacement, int n) {
+        int index = -1;
+        for (int i = 0; i <= n; i++) index = text.indexOf(target, index + 1);
+        return text.substring(0, index) + replacement + text.substring(index + target.length());
+    }
+}
@@ -0,0 +1,510 @@
+package bugs;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import tree.Tree;
+
+/**
+ * A cache, kept in a directory, of the trees of programs already
+ * parsed. A program is looked up by the SHA-256 hash of its source
+ * bytes; if its tree is in the cache, the tree is read back, which is
+ * much faster than parsing, and otherwise the program is parsed with a
+ * <code>Parser</code> and its tree is added to the cache. Programs with
+ * syntax errors are not cached.
+ * <p>
+ * Entries are kept in a subdirectory named for a version, which is a
+ * hash of the format of the entries, the lists of keywords in
+ * <code>Token</code>, and the grammar in <code>bugs.ebnf</code>; a
+ * change to any of them makes a new, empty, subdirectory, and the
+ * subdirectories of other versions are deleted. When the entries take
+ * more than the given number of bytes, the least recently used are
+ * deleted. Several processes may share a cache directory.
+ * <p>
+ * An entry holds each distinct token of the tree once, followed by the
+ * nodes, in postorder, each as the number of its token and (unless it
+ * is a leaf) the number of its children, so it is usually much smaller
+ * than the source.
+ */
+public class ParseCache {
+    /**
+     * The version of the entry format and of the trees the Parser builds;
+     * it must be changed whenever either changes.
+     */
+    static final int FORMAT_VERSION = 1;
+    private static final int MAGIC = 0x42756754;        // "BugT"
+    private static final String SUFFIX = ".tree";
+    private static final Token.Type[] TYPES = Token.Type.values();
+
+    /** The version of the entries in this cache. */
+    static final String VERSION = version();
+
+    private final Path directory;
+    private final long maxBytes;
+
+    // Guarded by this.
+    private long size = -1;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Opens a cache in the given directory, which is created if need be.
+     * @param root The directory.
+     * @param maxBytes The most space the entries may take.
+     * @throws IOException If the directory cannot be created.
+     */
+    public ParseCache(Path root, long maxBytes) throws IOException {
+        this.directory = root.resolve("v" + VERSION);
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> versions = Files.newDirectoryStream(root, "v????????????????")) {
+            for (Path version : versions) {
+                if (!version.equals(directory)
+                        && version.getFileName().toString().matches("v[0-9a-f]{16}")) {
+                    deleteVersion(version);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the tree of the program in the given file, which is
+     * expected to be encoded in UTF-8.
+     * @param file The file.
+     * @return The tree of the program, as <code>Parser.isProgram</code>
+     *         builds it.
+     * @throws IOException If the file cannot be read, or is not UTF-8.
+     * @throws SyntaxException If the program has a syntax error.
+     */
+    public Tree<Token> parse(Path file) throws IOException {
+        return parse(Files.readAllBytes(file));
+    }
+
+    /**
+     * Returns the tree of the program with the given UTF-8 encoded source.
+     * @param source The source of the program.
+     * @return The tree of the program, as <code>Parser.isProgram</code>
+     *         builds it.
+     * @throws IOException If the source is not UTF-8.
+     * @throws SyntaxException If the program has a syntax error.
+     */
+    public Tree<Token> parse(byte[] source) throws IOException {
+        String key = key(source);
+        Path entry = directory.resolve(key + SUFFIX);
+        Tree<Token> tree = read(entry);
+        synchronized (this) {
+            if (tree != null) hits++;
+            else misses++;
+        }
+        if (tree != null) return tree;
+
+        CharSequence text = StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(source));
+        Parser parser = Parser.forThread(text);
+        parser.isProgram();
+        tree = parser.stack.pop();
+        try {
+            write(entry, tree);
+        }
+        catch (IOException e) {
+            // the disk may be full, or a process using another version
+            // may have deleted the directory; the tree is still good
+        }
+        return tree;
+    }
+
+    /**
+     * Returns the number of programs found in the cache.
+     * @return The number of hits.
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of programs not found in the cache.
+     * @return The number of misses.
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Writes a tree in the format of a cache entry.
+     * @param tree The tree.
+     * @return The entry.
+     */
+    static byte[] serialize(Tree<Token> tree) {
+        Map<Token, Integer> numbers = new HashMap<>();
+        List<Token> tokens = new ArrayList<>();
+        Output nodes = new Output();
+        int nodeCount = 0;
+
+        // An iterative postorder walk, as trees may be very deep.
+        List<Tree<Token>> path = new ArrayList<>();
+        int[] nextChild = new int[16];
+        path.add(tree);
+        while (!path.isEmpty()) {
+            int depth = path.size() - 1;
+            Tree<Token> node = path.get(depth);
+            if (nextChild[depth] < node.getNumberOfChildren()) {
+                if (depth + 1 == nextChild.length) nextChild = Arrays.copyOf(nextChild, 2 * nextChild.length);
+                path.add(node.getChild(nextChild[depth]++));
+                nextChild[depth + 1] = 0;
+                continue;
+            }
+            Token token = node.getValue();
+            Integer number = numbers.get(token);
+            if (number == null) {
+                number = tokens.size();
+                numbers.put(token, number);
+                tokens.add(token);
+            }
+            // Most nodes are leaves, so the number of children is left
+            // out for them, and the lowest bit of the token number says so.
+            int childCount = node.getNumberOfChildren();
+            nodes.writeNumber(number << 1 | (childCount == 0 ? 0 : 1));
+            if (childCount > 0) nodes.writeNumber(childCount);
+            nodeCount++;
+            path.remove(depth);
+        }
+
+        Output out = new Output();
+        out.writeLong(((long) MAGIC << 32) | FORMAT_VERSION);
+        out.writeNumber(tokens.size());
+        for (Token token : tokens) {
+            out.writeNumber(token.type.ordinal());
+            if (token.type == Token.Type.NUMBER) {
+                out.writeLong(Double.doubleToRawLongBits(token.number));
+            }
+            else {
+                byte[] value = token.getValue().getBytes(StandardCharsets.UTF_8);
+                out.writeNumber(value.length);
+                out.write(value, value.length);
+            }
+        }
+        out.writeNumber(nodeCount);
+        out.write(nodes.bytes, nodes.size);
+        return Arrays.copyOf(out.bytes, out.size);
+    }
+
+    /**
+     * Reads a tree written by <code>serialize</code>.
+     * @param entry The entry.
+     * @return The tree.
+     * @throws IOException If the entry is not in the right format.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Tree<Token> deserialize(byte[] entry) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(entry);
+        try {
+            if (in.getLong() != (((long) MAGIC << 32) | FORMAT_VERSION)) {
+                throw new IOException("Not a cache entry of version " + FORMAT_VERSION);
+            }
+            int tokenCount = readNumber(in);
+            if (tokenCount > in.remaining()) throw new IOException("Bad token count");
+            Token[] tokens = new Token[tokenCount];
+            for (int i = 0; i < tokens.length; i++) {
+                int type = readNumber(in);
+                if (type >= TYPES.length) throw new IOException("Bad token type " + type);
+                if (TYPES[type] == Token.Type.NUMBER) {
+                    tokens[i] = new Token(Double.longBitsToDouble(in.getLong()));
+                }
+                else {
+                    int length = readNumber(in);
+                    if (length > in.remaining()) throw new IOException("Bad token");
+                    String value = new String(entry, in.position(), length, StandardCharsets.UTF_8);
+                    in.position(in.position() + length);
+                    tokens[i] = Token.of(TYPES[type], value);
+                }
+            }
+            int nodeCount = readNumber(in);
+            Tree<Token>[] stack = new Tree[16];
+            // The Tree constructor copies its children, so one array of
+            // each length is enough to pass them in.
+            Tree<Token>[][] childArrays = new Tree[16][];
+            int size = 0;
+            for (int i = 0; i < nodeCount; i++) {
+                int token = readNumber(in);
+                int childCount = (token & 1) == 0 ? 0 : readNumber(in);
+                token >>>= 1;
+                if (token >= tokens.length || childCount > size) throw new IOException("Bad node");
+                if (childCount >= childArrays.length) {
+                    childArrays = Arrays.copyOf(childArrays, childCount + 1);
+                }
+                Tree<Token>[] children = childArrays[childCount];
+                if (children == null) children = childArrays[childCount] = new Tree[childCount];
+                size -= childCount;
+                System.arraycopy(stack, size, children, 0, childCount);
+                if (size == stack.length) stack = Arrays.copyOf(stack, 2 * size);
+                stack[size++] = new Tree<>(tokens[token], children);
+            }
+            if (size != 1 || in.hasRemaining()) throw new IOException("Bad tree");
+            return stack[0];
+        }
+        catch (BufferUnderflowException e) {
+            throw new IOException("Truncated cache entry");
+        }
+    }
+
+    //------------------------- Private "helper" methods
+
+    /**
+     * Computes the version of the cache entries.
+     * @return The version, as 16 hex digits.
+     */
+    private static String version() {
+        MessageDigest digest = sha256();
+        digest.update(ByteBuffer.allocate(4).putInt(FORMAT_VERSION).array());
+        digest.update(Token.vocabulary().getBytes(StandardCharsets.UTF_8));
+        digest.update(Grammar.readResource("bugs.ebnf").getBytes(StandardCharsets.UTF_8));
+        return hex(digest.digest()).substring(0, 16);
+    }
+
+    /**
+     * Computes the key of a program's entry, the hash of its source.
+     * @param source The source of the program.
+     * @return The key, as 64 hex digits.
+     */
+    private static String key(byte[] source) {
+        return hex(sha256().digest(source));
+    }
+
+    /**
+     * Returns a new SHA-256 digest.
+     * @return The digest.
+     */
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);             // every JVM has SHA-256
+        }
+    }
+
+    /**
+     * Converts bytes to hex digits.
+     * @param bytes The bytes.
+     * @return The hex digits, two per byte.
+     */
+    private static String hex(byte[] bytes) {
+        char[] digits = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            digits[2 * i] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+            digits[2 * i + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+        }
+        return new String(digits);
+    }
+
+    /**
+     * Reads an entry, and marks it as just used.
+     * @param entry The entry's file.
+     * @return The tree in the entry, or <code>null</code> if there is no
+     *         such entry, or it cannot be read.
+     */
+    private Tree<Token> read(Path entry) {
+        try {
+            Tree<Token> tree = deserialize(Files.readAllBytes(entry));
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return tree;
+        }
+        catch (NoSuchFileException e) {
+            return null;
+        }
+        catch (IOException e) {
+            try {
+                Files.deleteIfExists(entry);                 // damaged; replace it
+            }
+            catch (IOException ignored) {
+                // another process may be replacing it too
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Adds an entry to the cache, replacing it as a whole, so that other
+     * threads and processes never see part of an entry. If the cache has
+     * grown too big, the least recently used entries are deleted.
+     * @param entry The entry's file.
+     * @param tree The tree to put in it.
+     * @throws IOException If the entry cannot be written.
+     */
+    private void write(Path entry, Tree<Token> tree) throws IOException {
+        byte[] bytes = serialize(tree);
+        Path temporary = Files.createTempFile(directory, "new", ".tmp");
+        try {
+            Files.write(temporary, bytes);
+            Files.move(temporary, entry, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temporary);
+        }
+        synchronized (this) {
+            if (size < 0) size = measure();
+            else size += bytes.length;
+            if (size > maxBytes) evict();
+        }
+    }
+
+    /**
+     * Returns the space taken by the entries.
+     * @return The number of bytes.
+     * @throws IOException If the directory cannot be read.
+     */
+    private long measure() throws IOException {
+        long total = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path entry : entries) {
+                total += Files.size(entry);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Deletes the least recently used entries, until the entries take at
+     * most three quarters of the space allowed, leaving room for more.
+     * @throws IOException If the directory cannot be read.
+     */
+    private void evict() throws IOException {
+        final Map<Path, BasicFileAttributes> attributes = new HashMap<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path entry : entries) {
+                try {
+                    attributes.put(entry, Files.readAttributes(entry, BasicFileAttributes.class));
+                }
+                catch (NoSuchFileException e) {
+                    // deleted by another process
+                }
+            }
+        }
+        List<Path> entries = new ArrayList<>(attributes.keySet());
+        Collections.sort(entries, new Comparator<Path>() {
+            @Override
+            public int compare(Path a, Path b) {
+                return attributes.get(a).lastModifiedTime().compareTo(attributes.get(b).lastModifiedTime());
+            }
+        });
+        size = 0;
+        for (Path entry : entries) size += attributes.get(entry).size();
+        for (Path entry : entries) {
+            if (size <= maxBytes / 4 * 3) break;
+            Files.deleteIfExists(entry);
+            size -= attributes.get(entry).size();
+        }
+    }
+
+    /**
+     * Deletes the directory of another version of the cache. If a
+     * process using that version is still writing to it, or another
+     * process is deleting it too, it may not be deleted; the next cache
+     * opened tries again.
+     * @param version The directory.
+     */
+    private static void deleteVersion(Path version) {
+        try {
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(version)) {
+                for (Path entry : entries) Files.deleteIfExists(entry);
+            }
+            Files.deleteIfExists(version);
+        }
+        catch (IOException e) {
+            // still in use, or already deleted
+        }
+    }
+
+    /**
+     * Reads a number written by <code>Output.writeNumber</code>.
+     * @param in Where to read the number.
+     * @return The number.
+     * @throws IOException If it is not a valid number.
+     */
+    private static int readNumber(ByteBuffer in) throws IOException {
+        int number = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.get();
+            number |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                if (number < 0) break;
+                return number;
+            }
+        }
+        throw new IOException("Bad number");
+    }
+
+    /**
+     * A growing array of bytes, to which an entry is written. Unlike a
+     * <code>ByteArrayOutputStream</code>, it is not synchronized.
+     */
+    private static class Output {
+        byte[] bytes = new byte[256];
+        int size = 0;
+
+        /**
+         * Writes a non-negative number in as few bytes as it needs,
+         * seven bits to a byte, lowest first; the high bit of each byte
+         * but the last is set.
+         * @param number The number.
+         */
+        void writeNumber(int number) {
+            ensureCapacity(5);
+            while ((number & ~0x7F) != 0) {
+                bytes[size++] = (byte) ((number & 0x7F) | 0x80);
+                number >>>= 7;
+            }
+            bytes[size++] = (byte) number;
+        }
+
+        /**
+         * Writes a long in eight bytes, highest first.
+         * @param value The long.
+         */
+        void writeLong(long value) {
+            ensureCapacity(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[size++] = (byte) (value >>> shift);
+            }
+        }
+
+        /**
+         * Writes the first <code>length</code> bytes of an array.
+         * @param array The bytes.
+         * @param length The number of them to write.
+         */
+        void write(byte[] array, int length) {
+            ensureCapacity(length);
+            System.arraycopy(array, 0, bytes, size, length);
+            size += length;
+        }
+
+        /**
+         * Makes room for at least <code>n</code> more bytes.
+         * @param n The number of bytes.
+         */
+        private void ensureCapacity(int n) {
+            if (size + n > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, size + n));
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package bugs;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import tree.Tree;
+
+/**
+ * Measures what a <code>ParseCache</code> saves: the time to parse a
+ * program with a <code>Parser</code> is compared with the time to read
+ * its tree from the cache. The program is made of copies of the Bug in
+ * <code>ParserBenchmark</code>. Run it as an application; the optional
+ * argument is the number of Bugs in the program (default 2000).
+ */
+public class ParseCacheBenchmark {
+    private static final int ROUNDS = 20;
+    private static final int WARM_UP_ROUNDS = 10;
+
+    /**
+     * Times the parser and the cache, and prints the results.
+     * @param args The number of Bugs in the program, if given.
+     * @throws IOException If the cache cannot be used.
+     */
+    public static void main(String[] args) throws IOException {
+        int bugs = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        String text = ParserBenchmark.program(bugs);
+        byte[] source = text.getBytes(StandardCharsets.UTF_8);
+
+        Path directory = Files.createTempDirectory("bugs");
+        ParseCache cache = new ParseCache(directory, 1L << 30);
+        Tree<Token> tree = cache.parse(source);
+        Path entry = directory.resolve("v" + ParseCache.VERSION);
+        long entryBytes = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(entry)) {
+            for (Path file : files) entryBytes += Files.size(file);
+        }
+
+        double bestParse = Double.MAX_VALUE;
+        double bestHit = Double.MAX_VALUE;
+        for (int i = 0; i < WARM_UP_ROUNDS + ROUNDS; i++) {
+            System.gc();
+            long start = System.nanoTime();
+            Tree<Token> parsed = Parser.parseProgram(text);
+            double parseTime = (System.nanoTime() - start) / 1e9;
+            System.gc();
+            start = System.nanoTime();
+            Tree<Token> cached = cache.parse(source);
+            double hitTime = (System.nanoTime() - start) / 1e9;
+            if (!parsed.equals(tree) || !cached.equals(tree)) throw new AssertionError();
+            if (i >= WARM_UP_ROUNDS) {
+                bestParse = Math.min(bestParse, parseTime);
+                bestHit = Math.min(bestHit, hitTime);
+            }
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(entry)) {
+            for (Path file : files) Files.delete(file);
+        }
+        Files.delete(entry);
+        Files.delete(directory);
+
+        System.out.printf("program size: %8.1f MB (%d Bugs)%n", source.length / 1e6, bugs);
+        System.out.printf("entry size:   %8.1f MB%n", entryBytes / 1e6);
+        System.out.printf("parse time:   %8.1f ms%n", bestParse * 1000);
+        System.out.printf("cache hit:    %8.1f ms (%.1fx faster)%n", bestHit * 1000, bestParse / bestHit);
+    }
+}
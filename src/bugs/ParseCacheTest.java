@@ -0,0 +1,208 @@
+package bugs;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import tree.Tree;
+
+public class ParseCacheTest {
+    private static final String PROGRAM =
+        "Allbugs {\n    var total\n}\n" +
+        "Bug a {\n    var x\n    x = -2.5 * (x + 1)\n    color red\n    move x\n" +
+        "    define f using n {\n        return n <= 3\n    }\n}\n";
+
+    private Path directory;
+    private ParseCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("bugs");
+        cache = new ParseCache(directory, 1 << 20);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes)
+                    throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Test
+    public void testSerialize() throws IOException {
+        Tree<Token> tree = Parser.parseProgram(PROGRAM);
+        byte[] entry = ParseCache.serialize(tree);
+        assertEquals(tree, ParseCache.deserialize(entry));
+        assertEquals(Token.of("Allbugs"), ParseCache.deserialize(entry).getChild(0).getValue());
+        assertSame(Token.of("Allbugs"), ParseCache.deserialize(entry).getChild(0).getValue());
+    }
+
+    @Test
+    public void testParse() throws IOException {
+        byte[] source = PROGRAM.getBytes(StandardCharsets.UTF_8);
+        Tree<Token> tree = cache.parse(source);
+        assertEquals(Parser.parseProgram(PROGRAM), tree);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, entries().length);
+
+        assertEquals(tree, cache.parse(source));
+        assertEquals(tree, new ParseCache(directory, 1 << 20).parse(source));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        Path file = Files.write(directory.resolve("a.bugs"), source);
+        assertEquals(tree, cache.parse(file));
+        assertEquals(2, cache.getHitCount());
+
+        cache.parse(PROGRAM.replace("red", "blue").getBytes(StandardCharsets.UTF_8));
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, entries().length);
+    }
+
+    @Test
+    public void testParseSyntaxError() throws IOException {
+        try {
+            cache.parse("Bug a {\n    turn\n}\n".getBytes(StandardCharsets.UTF_8));
+            fail();
+        }
+        catch (SyntaxException e) {
+            assertEquals("Line 2: No expression after 'turn'", e.getMessage());
+        }
+        assertEquals(0, entries().length);
+    }
+
+    @Test
+    public void testDamagedEntry() throws IOException {
+        byte[] source = PROGRAM.getBytes(StandardCharsets.UTF_8);
+        Tree<Token> tree = cache.parse(source);
+        Path entry = entries()[0];
+        byte[] bytes = Files.readAllBytes(entry);
+        Files.write(entry, Arrays.copyOf(bytes, bytes.length - 3));
+        assertEquals(tree, cache.parse(source));
+        assertEquals(2, cache.getMissCount());
+        assertArrayEquals(bytes, Files.readAllBytes(entry));
+    }
+
+    @Test
+    public void testVersion() throws IOException {
+        Path old = Files.createDirectories(directory.resolve("v0123456789abcdef"));
+        Files.write(old.resolve("x.tree"), new byte[10]);
+        Path other = Files.createDirectories(directory.resolve("other"));
+        new ParseCache(directory, 1 << 20);
+        assertFalse(Files.exists(old));
+        assertTrue(Files.exists(other));
+        assertTrue(Files.isDirectory(directory.resolve("v" + ParseCache.VERSION)));
+    }
+
+    @Test
+    public void testVersionInUse() throws IOException {
+        Path old = Files.createDirectories(directory.resolve("v0123456789abcdef"));
+        Path busy = Files.createDirectories(old.resolve("busy"));
+        Files.write(busy.resolve("x.tree"), new byte[10]);
+        // A directory another process is still writing to is left for later.
+        ParseCache shared = new ParseCache(directory, 1 << 20);
+        assertTrue(Files.exists(busy.resolve("x.tree")));
+        assertEquals(cache.parse(PROGRAM.getBytes(StandardCharsets.UTF_8)),
+                     shared.parse(PROGRAM.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(1, shared.getHitCount());
+    }
+
+    @Test
+    public void testParseUnwritable() throws IOException {
+        Files.delete(directory.resolve("v" + ParseCache.VERSION));
+        byte[] source = PROGRAM.getBytes(StandardCharsets.UTF_8);
+        assertEquals(Parser.parseProgram(PROGRAM), cache.parse(source));
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        int entrySize = ParseCache.serialize(Parser.parseProgram(PROGRAM)).length;
+        cache = new ParseCache(directory, 10 * entrySize);
+        Path[] first = new Path[3];
+        for (int i = 0; i < 3; i++) {
+            cache.parse(variant(i));
+            first[i] = newest();
+            Files.setLastModifiedTime(first[i], FileTime.fromMillis(1000L * i));
+        }
+        cache.parse(variant(0));                        // used again
+        assertTrue(Files.getLastModifiedTime(first[0]).toMillis() > 2000);
+        for (int i = 3; i < 20; i++) {
+            cache.parse(variant(i));
+            long total = 0;
+            for (Path entry : entries()) total += Files.size(entry);
+            assertTrue(total <= 10 * entrySize);
+        }
+        assertFalse(Files.exists(first[1]));
+        assertFalse(Files.exists(first[2]));
+    }
+
+//  ----- "Helper" methods
+
+    /**
+     * Returns the source of a program that differs a little from PROGRAM,
+     * but has an entry of the same size.
+     * @param i Which program, from 0 to 99.
+     * @return The source of the program.
+     */
+    private static byte[] variant(int i) {
+        return PROGRAM.replace("x", String.format("x%02d", i)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the cache entries.
+     * @return The entries' files.
+     * @throws IOException If the directory cannot be read.
+     */
+    private Path[] entries() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream =
+                Files.newDirectoryStream(directory.resolve("v" + ParseCache.VERSION), "*.tree")) {
+            for (Path entry : stream) entries.add(entry);
+        }
+        return entries.toArray(new Path[entries.size()]);
+    }
+
+    /**
+     * Returns the most recently modified cache entry.
+     * @return The entry's file.
+     * @throws IOException If the directory cannot be read.
+     */
+    private Path newest() throws IOException {
+        Path newest = null;
+        for (Path entry : entries()) {
+            if (newest == null || Files.getLastModifiedTime(entry)
+                                       .compareTo(Files.getLastModifiedTime(newest)) > 0) {
+                newest = entry;
+            }
+        }
+        return newest;
+    }
+}
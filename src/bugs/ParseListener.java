@@ -0,0 +1,56 @@
+package bugs;
+
+/**
+ * Receives the events of a parse, as a <code>Parser</code> recognizes
+ * the productions of the Bugs grammar. A listener can build whatever it
+ * needs from them (a <code>TreeBuilder</code> builds the usual
+ * <code>Tree&lt;Token&gt;</code>) or just gather information, in which
+ * case the parse builds no tree at all.
+ * <p>
+ * The productions are named as the rules of <code>bugs.ebnf</code>, for
+ * example "bug_definition", "move_action" and "parameter_list"; the
+ * Parser also reports "binary_operation", "unary_operation",
+ * "dot_reference" and "function_call" within expressions. Each
+ * production is entered before its first token and exited after its
+ * last, so the events nest, except in one respect: the left operand of
+ * a binary operation is only known to be one when the operator is
+ * found, so "binary_operation" is entered after its left operand has
+ * been reported, just before the operator.
+ * <p>
+ * Every token the Parser consumes is reported, in order, including
+ * punctuation and EOLs. A two-character comparator, such as "&lt;=", is
+ * reported as a single token.
+ */
+public interface ParseListener {
+
+    /**
+     * Called when the Parser begins a production.
+     * @param production The name of the production.
+     */
+    void enterProduction(String production);
+
+    /**
+     * Called when the Parser completes a production.
+     * @param production The name of the production.
+     */
+    void exitProduction(String production);
+
+    /**
+     * Called for each token the Parser consumes.
+     * @param token The token.
+     */
+    void token(Token token);
+
+    /**
+     * Called when a Parser that is recovering from errors abandons a
+     * construct because of a syntax error. The innermost
+     * <code>unfinished</code> productions have been entered but will not
+     * be exited; together they are the faulty construct. If
+     * <code>unfinished</code> is 0, the construct was a token that
+     * could not begin anything. Tokens skipped after the error are not
+     * reported.
+     * @param message The description of the error.
+     * @param unfinished The number of productions abandoned.
+     */
+    void syntaxError(String message, int unfinished);
+}
@@ -2,121 +2,674 @@ package bugs;
 
 import java.io.IOException;
 import java.io.Reader;
-import java.io.StreamTokenizer;
-import java.io.StringReader;
-import java.util.*;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import tree.Tree;
 
 /**
- * Parser for numeric expressions. Used as starter code for
- * the Bugs language parser in CIT594, Spring 2015.
+ * Parser for the Bugs language. Each <code>is</code><i>Something</i>
+ * method tries to parse one grammar rule, leaving the resulting tree on
+ * the global stack; <code>isProgram()</code> parses an entire program.
+ * Parsing is a single pass over the tokens, each choice being made by
+ * looking at the next token only, so nothing is ever parsed twice.
+ * <p>
+ * The Parser itself only recognizes the program, telling a
+ * <code>ParseListener</code> of each production and token as it goes.
+ * The default listener is a <code>TreeBuilder</code>, which builds the
+ * trees on the global stack; <code>setParseListener</code> replaces it,
+ * for instance to check or analyze a program without building a tree.
+ * <p>
+ * Normally the first syntax error ends the parse with a
+ * <code>SyntaxException</code>. With <code>setErrorRecovery(true)</code>,
+ * the Parser instead records a <code>Diagnostic</code> for each error,
+ * puts an ERROR node in the tree where the faulty construct would have
+ * been, skips ahead to the next line, closing brace or statement keyword,
+ * and carries on, so that one pass finds every error.
+ * Originally the starter code for the Bugs language parser in CIT594,
+ * Spring 2015.
  * 
  * @author Dave Matuszek
  * @version February 2015
  */
 public class Parser {
     /** The tokenizer used by this Parser. */
-    StreamTokenizer tokenizer = null;
-    /** The number of the line of source code currently being processed. */
-    private int lineNumber = 1;
+    TokenStream tokenizer = null;
 
     /**
      * The stack used for holding Trees as they are created.
      */
-    public Stack<Tree<Token>> stack = new Stack<>();
+    public NodeStack stack = new NodeStack();
+
+    // Binary operator precedences; operators with higher precedence are
+    // applied first. Anything that is not a binary operator has precedence 0.
+    private static final int COMPARISON = 1;
+    private static final int ADDITION = 2;
+    private static final int MULTIPLICATION = 3;
+    /** The precedence of each single-character operator. */
+    private static final byte[] PRECEDENCE = new byte[128];
+    static {
+        for (char ch : "<=>!".toCharArray()) PRECEDENCE[ch] = COMPARISON;
+        PRECEDENCE['+'] = PRECEDENCE['-'] = ADDITION;
+        PRECEDENCE['*'] = PRECEDENCE['/'] = MULTIPLICATION;
+    }
+    /** The error message for a missing right operand, by precedence. */
+    private static final String[] MISSING_OPERAND = {
+        null,
+        "Illegal expression after comparator",
+        "Error in expression after '+' or '-'",
+        "No term after '*' or '/'" };
+
+    /** The Parser of each thread that has asked for one. */
+    private static final ThreadLocal<Parser> THREAD_PARSER = new ThreadLocal<>();
+
+    /** Keywords at which to resume parsing after a syntax error. */
+    private static final Set<String> RESUME_KEYWORDS = new HashSet<>(Arrays.asList(
+        "Allbugs", "Bug", "var", "initially", "define", "move", "moveto", "turn",
+        "turnto", "line", "loop", "exit", "switch", "case", "return", "do", "color"));
+
+    // The constructs that can be recovered from, for isOrRecover.
+    private static final int COMMAND = 0;
+    private static final int CASE_COMMAND = 1;
+    private static final int VAR_DECLARATION = 2;
+    private static final int FUNCTION_DEFINITION = 3;
+    private static final int BUG_DEFINITION = 4;
+    private static final int ALLBUGS_CODE = 5;
+
+    /**
+     * The syntax errors found so far, or <code>null</code> if this Parser
+     * is not recovering from errors.
+     */
+    private List<Diagnostic> diagnostics = null;
+
+    /** The listener that builds trees on the stack. */
+    private final TreeBuilder treeBuilder = new TreeBuilder(stack);
+    /** The listener told of each production and token. */
+    private ParseListener listener = treeBuilder;
+    /** The number of productions entered but not yet exited. */
+    private int openProductions = 0;
 
     /**
      * Constructs a Parser for the given string.
      * @param text The string to be parsed.
      */
     public Parser(String text) {
-        Reader reader = new StringReader(text);
-        tokenizer = new StreamTokenizer(reader);
-        tokenizer.parseNumbers();
-        tokenizer.eolIsSignificant(true);
-        tokenizer.slashStarComments(true);
-        tokenizer.slashSlashComments(true);
-        tokenizer.lowerCaseMode(false);
-        tokenizer.ordinaryChars(33, 47);
-        tokenizer.ordinaryChars(58, 64);
-        tokenizer.ordinaryChars(91, 96);
-        tokenizer.ordinaryChars(123, 126);
-        tokenizer.quoteChar('\"');
-        lineNumber = 1;
+        tokenizer = new TokenStream(new BugsLexer(text));
+    }
+
+    /**
+     * Constructs a Parser for the characters read from the given Reader.
+     * The Reader is not closed by the Parser.
+     * @param reader The source of the text to be parsed.
+     */
+    public Parser(Reader reader) {
+        tokenizer = new TokenStream(new BugsLexer(reader));
+    }
+
+    /**
+     * Constructs a Parser for the UTF-8 encoded text read from the given
+     * channel. The channel is not closed by the Parser.
+     * @param channel The source of the text to be parsed.
+     */
+    public Parser(ReadableByteChannel channel) {
+        tokenizer = new TokenStream(new BugsLexer(channel));
+    }
+
+    /**
+     * Constructs a Parser for the UTF-8 encoded text in the given file.
+     * The file is memory-mapped, not read into memory, so the memory
+     * needed does not depend on the size of the file.
+     * @param path The file containing the text to be parsed.
+     * @throws IOException If the file cannot be opened.
+     */
+    public Parser(Path path) throws IOException {
+        tokenizer = new TokenStream(new BugsLexer(path));
+    }
+
+    /**
+     * Constructs a Parser for the tokens of the given lexer.
+     * @param lexer The source of the tokens to be parsed.
+     */
+    Parser(BugsLexer lexer) {
+        tokenizer = new TokenStream(lexer);
+    }
+
+    /**
+     * Returns the calling thread's own Parser, ready to parse the given
+     * text, with a <code>TreeBuilder</code> and without error recovery.
+     * The same Parser is returned each time, reset to the new text, so
+     * its buffers are reused, and a thread can parse many small texts
+     * without building a new Parser for each. It must not be used after
+     * the thread's next call to this method.
+     * @param text The text to be parsed.
+     * @return The thread's Parser.
+     */
+    public static Parser forThread(CharSequence text) {
+        Parser parser = THREAD_PARSER.get();
+        if (parser == null) {
+            parser = new Parser(new BugsLexer(text));
+            THREAD_PARSER.set(parser);
+            return parser;
+        }
+        parser.listener = parser.treeBuilder;
+        parser.diagnostics = null;
+        parser.reset(text);
+        return parser;
+    }
+
+    /**
+     * Parses the given text as a program, with a new Parser that builds
+     * the tree and does not recover from errors.
+     * @param text The text to be parsed.
+     * @return The tree of the program.
+     * @throws SyntaxException If the text is not a valid program.
+     */
+    public static Tree<Token> parseProgram(CharSequence text) {
+        Parser parser = new Parser(new BugsLexer(text));
+        parser.isProgram();
+        return parser.stack.pop();
+    }
+
+    /**
+     * Starts over, parsing the given text, as a new Parser would, but
+     * keeping the buffers this Parser has already allocated. The stack
+     * is emptied and any errors found are forgotten; the listener and
+     * whether to recover from errors stay as they were.
+     * @param text The text to be parsed.
+     */
+    public void reset(CharSequence text) {
+        tokenizer.restart(text);
+        stack.clear();
+        treeBuilder.reset();
+        openProductions = 0;
+        if (diagnostics != null) diagnostics.clear();
+    }
+
+    /**
+     * Turns error recovery on or off, and forgets any errors already
+     * found. While it is on, syntax errors are recorded rather than
+     * thrown, and <code>isProgram()</code> always builds a tree.
+     * @param recover <code>true</code> to recover from syntax errors.
+     */
+    public void setErrorRecovery(boolean recover) {
+        diagnostics = recover ? new ArrayList<Diagnostic>() : null;
+    }
+
+    /**
+     * Sets the listener to be told of each production and token as they
+     * are parsed. By default a Parser has a <code>TreeBuilder</code>
+     * that builds the program's tree on the global stack; with any other
+     * listener, no tree is built, and the stack is left empty.
+     * @param listener The listener.
+     */
+    public void setParseListener(ParseListener listener) {
+        this.listener = listener;
+        openProductions = 0;
+    }
+
+    /**
+     * Returns the syntax errors found while recovering from errors, in
+     * the order they were found.
+     * @return The errors found; empty if error recovery is off.
+     */
+    public List<Diagnostic> getDiagnostics() {
+        if (diagnostics == null) return Collections.emptyList();
+        return Collections.unmodifiableList(diagnostics);
+    }
+
+    /**
+     * Tries to build a &lt;program&gt; on the global stack.
+     * <pre>&lt;program&gt; ::= [ &lt;allbugs code&gt; ]
+     *               &lt;bug definition&gt;
+     *               { &lt;bug definition&gt; }</pre>
+     * The resultant tree is <code>list(Allbugs list(Bug...))</code>;
+     * if there is no &lt;allbugs code&gt;, an empty
+     * <code>Allbugs(list list)</code> stands in for it. Blank lines may
+     * precede the program, and nothing may follow it.
+     * A <code>SyntaxException</code> will be thrown if the text is not
+     * a valid program, unless this Parser is recovering from errors.
+     * @return <code>true</code> if a program is parsed.
+     */
+    public boolean isProgram() {
+        enter("program");
+        isEol();
+        if (!isOrRecover(ALLBUGS_CODE)) {
+            enter("no_allbugs_code");
+            exit("no_allbugs_code");
+        }
+        enter("bugs");
+        boolean found = false;
+        while (tokenizer.peek(1).type != Token.Type.EOF) {
+            if (!isOrRecover(BUG_DEFINITION)) {
+                recoverableError(found ? "Expected another Bug definition" : "No Bug definition");
+                skipToNextBug();
+            }
+            found = true;
+        }
+        if (!found) recoverableError("No Bug definition");
+        exit("bugs");
+        accept(); // EOF
+        exit("program");
+        return true;
+    }
+
+    /**
+     * Tries to build an &lt;allbugs code&gt; on the global stack.
+     * <pre>&lt;allbugs code&gt; ::= "Allbugs" "{" &lt;eol&gt;
+     *                       { &lt;var declaration&gt; }
+     *                       { &lt;function definition&gt; }
+     *                   "}" &lt;eol&gt;</pre>
+     * The resultant tree is <code>Allbugs(list(var...) list(function...))</code>.
+     * @return <code>true</code> if Allbugs code is parsed.
+     */
+    public boolean isAllbugsCode() {
+        if (!begin("allbugs_code", Token.Type.KEYWORD, "Allbugs")) return false;
+        openBrace("Allbugs");
+        enter("var_declarations");
+        while (isOrRecover(VAR_DECLARATION)) {
+            // keep going
+        }
+        exit("var_declarations");
+        enter("function_definitions");
+        while (isOrRecover(FUNCTION_DEFINITION)) {
+            // keep going
+        }
+        exit("function_definitions");
+        closeBrace("Allbugs");
+        exit("allbugs_code");
+        return true;
+    }
+
+    /**
+     * Tries to build a &lt;bug definition&gt; on the global stack.
+     * <pre>&lt;bug definition&gt; ::= "Bug" &lt;name&gt; "{" &lt;eol&gt;
+     *                         { &lt;var declaration&gt; }
+     *                         [ &lt;initialization block&gt; ]
+     *                         &lt;command&gt;
+     *                         { &lt;command&gt; }
+     *                         { &lt;function definition&gt; }
+     *                      "}" &lt;eol&gt;</pre>
+     * The resultant tree is <code>Bug(name list(var...) initially(block)
+     * block(command...) list(function...))</code>; if there is no
+     * &lt;initialization block&gt;, an empty <code>initially(block)</code>
+     * stands in for it.
+     * @return <code>true</code> if a Bug definition is parsed.
+     */
+    public boolean isBugDefinition() {
+        if (!begin("bug_definition", Token.Type.KEYWORD, "Bug")) return false;
+        if (!name()) error("No name for Bug");
+        openBrace("Bug");
+        enter("var_declarations");
+        while (isOrRecover(VAR_DECLARATION)) {
+            // keep going
+        }
+        exit("var_declarations");
+        if (!isInitializationBlock()) {
+            enter("no_initialization_block");
+            exit("no_initialization_block");
+        }
+        enter("commands");
+        if (!isOrRecover(COMMAND)) recoverableError("Bug has no commands");
+        while (isOrRecover(COMMAND)) {
+            // keep going
+        }
+        exit("commands");
+        enter("function_definitions");
+        while (isOrRecover(FUNCTION_DEFINITION)) {
+            // keep going
+        }
+        exit("function_definitions");
+        closeBrace("Bug");
+        exit("bug_definition");
+        return true;
+    }
+
+    /**
+     * Tries to build a &lt;var declaration&gt; on the global stack.
+     * <pre>&lt;var declaration&gt; ::= "var" NAME { "," NAME } &lt;eol&gt;</pre>
+     * The resultant tree is <code>var(name...)</code>.
+     * @return <code>true</code> if a var declaration is parsed.
+     */
+    public boolean isVarDeclaration() {
+        if (!begin("var_declaration", Token.Type.KEYWORD, "var")) return false;
+        if (!name()) error("No variable name after 'var'");
+        while (symbol(",")) {
+            if (!name()) error("No variable name after ','");
+        }
+        endOfLine("var declaration");
+        exit("var_declaration");
+        return true;
+    }
+
+    /**
+     * Tries to build an &lt;initialization block&gt; on the global stack.
+     * <pre>&lt;initialization block&gt; ::= "initially" &lt;block&gt;</pre>
+     * @return <code>true</code> if an initialization block is parsed.
+     */
+    public boolean isInitializationBlock() {
+        if (!begin("initialization_block", Token.Type.KEYWORD, "initially")) return false;
+        if (!isBlock()) error("No block after 'initially'");
+        exit("initialization_block");
+        return true;
+    }
+
+    /**
+     * Tries to build a &lt;command&gt; on the global stack.
+     * <pre>&lt;command&gt; ::= &lt;action&gt; | &lt;statement&gt;</pre>
+     * @return <code>true</code> if a command is parsed.
+     */
+    public boolean isCommand() {
+        return isAction() || isStatement();
+    }
+
+    /**
+     * Tries to build a &lt;statement&gt; on the global stack.
+     * <pre>&lt;statement&gt; ::= &lt;assignment statement&gt;
+     *               | &lt;loop statement&gt;
+     *               | &lt;exit if statement&gt;
+     *               | &lt;switch statement&gt;
+     *               | &lt;return statement&gt;
+     *               | &lt;do statement&gt;
+     *               | &lt;color statement&gt;</pre>
+     * @return <code>true</code> if a statement is parsed.
+     */
+    public boolean isStatement() {
+        return isAssignmentStatement()
+            || isLoopStatement()
+            || isExitIfStatement()
+            || isSwitchStatement()
+            || isReturnStatement()
+            || isDoStatement()
+            || isColorStatement();
+    }
+
+    /**
+     * Tries to build an &lt;action&gt; on the global stack.
+     * <pre>&lt;action&gt; ::= &lt;move action&gt;
+     *            | &lt;moveto action&gt;
+     *            | &lt;turn action&gt;
+     *            | &lt;turnto action&gt;
+     *            | &lt;line action&gt;</pre>
+     * @return <code>true</code> if an action is parsed.
+     */
+    public boolean isAction() {
+        return isMoveAction()
+            || isMoveToAction()
+            || isTurnAction()
+            || isTurnToAction()
+            || isLineAction();
+    }
+
+    /**
+     * Tries to build a &lt;move action&gt; on the global stack.
+     * <pre>&lt;move action&gt; ::= "move" &lt;expression&gt; &lt;eol&gt;</pre>
+     * @return <code>true</code> if a move action is parsed.
+     */
+    public boolean isMoveAction() {
+        return isKeywordWithExpressions("move_action", "move", 1);
+    }
+
+    /**
+     * Tries to build a &lt;moveto action&gt; on the global stack.
+     * <pre>&lt;moveto action&gt; ::= "moveto" &lt;expression&gt; "," &lt;expression&gt; &lt;eol&gt;</pre>
+     * @return <code>true</code> if a moveto action is parsed.
+     */
+    public boolean isMoveToAction() {
+        return isKeywordWithExpressions("moveto_action", "moveto", 2);
+    }
+
+    /**
+     * Tries to build a &lt;turn action&gt; on the global stack.
+     * <pre>&lt;turn action&gt; ::= "turn" &lt;expression&gt; &lt;eol&gt;</pre>
+     * @return <code>true</code> if a turn action is parsed.
+     */
+    public boolean isTurnAction() {
+        return isKeywordWithExpressions("turn_action", "turn", 1);
+    }
+
+    /**
+     * Tries to build a &lt;turnto action&gt; on the global stack.
+     * <pre>&lt;turnto action&gt; ::= "turnto" &lt;expression&gt; &lt;eol&gt;</pre>
+     * @return <code>true</code> if a turnto action is parsed.
+     */
+    public boolean isTurnToAction() {
+        return isKeywordWithExpressions("turnto_action", "turnto", 1);
+    }
+
+    /**
+     * Tries to build a &lt;line action&gt; on the global stack.
+     * <pre>&lt;line action&gt; ::= "line" &lt;expression&gt; "," &lt;expression&gt; ","
+     *                          &lt;expression&gt; "," &lt;expression&gt; &lt;eol&gt;</pre>
+     * @return <code>true</code> if a line action is parsed.
+     */
+    public boolean isLineAction() {
+        return isKeywordWithExpressions("line_action", "line", 4);
+    }
+
+    /**
+     * Tries to build an &lt;assignment statement&gt; on the global stack.
+     * <pre>&lt;assignment statement&gt; ::= &lt;variable&gt; "=" &lt;expression&gt; &lt;eol&gt;</pre>
+     * The resultant tree is <code>assign(variable expression)</code>.
+     * @return <code>true</code> if an assignment statement is parsed.
+     */
+    public boolean isAssignmentStatement() {
+        if (!begin("assignment_statement", Token.Type.NAME, null)) return false;
+        if (!symbol("=")) error("No '=' after variable in assignment");
+        if (!isExpression()) error("No expression after '='");
+        endOfLine("assignment");
+        exit("assignment_statement");
+        return true;
+    }
+
+    /**
+     * Tries to build a &lt;loop statement&gt; on the global stack.
+     * <pre>&lt;loop statement&gt; ::= "loop" &lt;block&gt;</pre>
+     * @return <code>true</code> if a loop statement is parsed.
+     */
+    public boolean isLoopStatement() {
+        if (!begin("loop_statement", Token.Type.KEYWORD, "loop")) return false;
+        if (!isBlock()) error("No block after 'loop'");
+        exit("loop_statement");
+        return true;
+    }
+
+    /**
+     * Tries to build an &lt;exit if statement&gt; on the global stack.
+     * <pre>&lt;exit if statement&gt; ::= "exit" "if" &lt;expression&gt; &lt;eol&gt;</pre>
+     * The resultant tree is <code>exit(expression)</code>.
+     * @return <code>true</code> if an exit if statement is parsed.
+     */
+    public boolean isExitIfStatement() {
+        if (!begin("exit_if_statement", Token.Type.KEYWORD, "exit")) return false;
+        if (!keyword("if")) error("No 'if' after 'exit'");
+        if (!isExpression()) error("No expression after 'exit if'");
+        endOfLine("exit if statement");
+        exit("exit_if_statement");
+        return true;
+    }
+
+    /**
+     * Tries to build a &lt;switch statement&gt; on the global stack.
+     * <pre>&lt;switch statement&gt; ::= "switch" "{" &lt;eol&gt;
+     *                           { "case" &lt;expression&gt; &lt;eol&gt;
+     *                                 { &lt;command&gt; } }
+     *                        "}" &lt;eol&gt;</pre>
+     * The resultant tree is <code>switch(case(expression block(command...))...)</code>.
+     * @return <code>true</code> if a switch statement is parsed.
+     */
+    public boolean isSwitchStatement() {
+        if (!begin("switch_statement", Token.Type.KEYWORD, "switch")) return false;
+        openBrace("switch");
+        while (begin("case_clause", Token.Type.KEYWORD, "case")) {
+            if (!isExpression()) error("No expression after 'case'");
+            endOfLine("case");
+            enter("commands");
+            while (isOrRecover(CASE_COMMAND)) {
+                // keep going
+            }
+            exit("commands");
+            exit("case_clause");
+        }
+        closeBrace("switch");
+        exit("switch_statement");
+        return true;
+    }
+
+    /**
+     * Tries to build a &lt;return statement&gt; on the global stack.
+     * <pre>&lt;return statement&gt; ::= "return" &lt;expression&gt; &lt;eol&gt;</pre>
+     * @return <code>true</code> if a return statement is parsed.
+     */
+    public boolean isReturnStatement() {
+        return isKeywordWithExpressions("return_statement", "return", 1);
+    }
+
+    /**
+     * Tries to build a &lt;do statement&gt; on the global stack.
+     * <pre>&lt;do statement&gt; ::= "do" &lt;variable&gt; [ &lt;parameter list&gt; ] &lt;eol&gt;</pre>
+     * The resultant tree is the same as for a function call,
+     * <code>call(variable var(expression...))</code>.
+     * @return <code>true</code> if a do statement is parsed.
+     */
+    public boolean isDoStatement() {
+        if (!begin("do_statement", Token.Type.KEYWORD, "do")) return false;
+        if (!isVariable()) error("No function name after 'do'");
+        isParameterList();
+        endOfLine("do statement");
+        exit("do_statement");
+        return true;
+    }
+
+    /**
+     * Tries to build a &lt;color statement&gt; on the global stack.
+     * <pre>&lt;color statement&gt; ::= "color" KEYWORD &lt;eol&gt;</pre>
+     * The KEYWORD must be one of the color names.
+     * @return <code>true</code> if a color statement is parsed.
+     */
+    public boolean isColorStatement() {
+        if (!begin("color_statement", Token.Type.KEYWORD, "color")) return false;
+        Token color = tokenizer.peek(1);
+        if (color.type != Token.Type.KEYWORD || !Token.isColor(color.getValue())) {
+            error("No color name after 'color'");
+        }
+        accept();
+        endOfLine("color statement");
+        exit("color_statement");
+        return true;
+    }
+
+    /**
+     * Tries to build a &lt;block&gt; on the global stack.
+     * <pre>&lt;block&gt; ::= "{" &lt;eol&gt; { &lt;command&gt; } "}" &lt;eol&gt;</pre>
+     * The resultant tree is <code>block(command...)</code>.
+     * @return <code>true</code> if a block is parsed.
+     */
+    public boolean isBlock() {
+        if (!begin("block", Token.Type.SYMBOL, "{")) return false;
+        endOfLine("'{'");
+        while (isOrRecover(COMMAND)) {
+            // keep going
+        }
+        closeBrace("block");
+        exit("block");
+        return true;
+    }
+
+    /**
+     * Tries to build a &lt;function definition&gt; on the global stack.
+     * <pre>&lt;function definition&gt; ::= "define" NAME
+     *                              [ "using" &lt;variable&gt; { "," &lt;variable&gt; } ]
+     *                              &lt;block&gt;</pre>
+     * The resultant tree is <code>function(name var(variable...) block)</code>.
+     * @return <code>true</code> if a function definition is parsed.
+     */
+    public boolean isFunctionDefinition() {
+        if (!begin("function_definition", Token.Type.KEYWORD, "define")) return false;
+        if (!name()) error("No function name after 'define'");
+        enter("parameters");
+        if (keyword("using")) {
+            if (!isVariable()) error("No parameter after 'using'");
+            while (symbol(",")) {
+                if (!isVariable()) error("No parameter after ','");
+            }
+        }
+        exit("parameters");
+        if (!isBlock()) error("No block in function definition");
+        exit("function_definition");
+        return true;
+    }
+
+    /**
+     * Tries to recognize an &lt;eol&gt;; nothing is put on the global stack.
+     * <pre>&lt;eol&gt; ::= EOL { EOL }</pre>
+     * The end of the input also counts as an &lt;eol&gt;, so that the
+     * last line of a program need not end with a newline.
+     * @return <code>true</code> if an eol is recognized.
+     */
+    public boolean isEol() {
+        Token.Type type = tokenizer.peek(1).type;
+        if (type == Token.Type.EOF) return true;
+        if (type != Token.Type.EOL) return false;
+        do {
+            accept();
+        } while (tokenizer.peek(1).type == Token.Type.EOL);
+        return true;
     }
 
     /**
      * Tries to build an &lt;expression&gt; on the global stack.
      * <pre>&lt;expression&gt; ::= &lt;arithmetic expression&gt; {  &lt;comparator&gt; &lt;arithmetic expression&gt; }
 </pre>
-     * A <code>SyntaxException</code> will be thrown if the add_operator
-     * is present but not followed by a valid &lt;expression&gt;.
+     * A <code>SyntaxException</code> will be thrown if the comparator
+     * is present but not followed by a valid &lt;arithmetic expression&gt;.
      * @return <code>true</code> if an expression is parsed.
      */
     public boolean isExpression() {
-        if (!isArithmeticExpression()) return false;
-//        while (isComparator()) {
-//            if (!isArithmeticExpression()) error("Illegal expression after comparator");
-//            makeTree(2, 3, 1);
-//        }
-        return true;
+        return isOperation(COMPARISON);
     }
 
     /**
-     * Tries to build an &lt;expression&gt; on the global stack.
-     * <pre>&lt;expression&gt; ::= &lt;term&gt; { &lt;add_operator&gt; &lt;expression&gt; }</pre>
+     * Tries to build an &lt;arithmetic expression&gt; on the global stack.
+     * <pre>&lt;arithmetic expression&gt; ::= &lt;term&gt; { &lt;add_operator&gt; &lt;term&gt; }</pre>
      * A <code>SyntaxException</code> will be thrown if the add_operator
-     * is present but not followed by a valid &lt;expression&gt;.
-     * @return <code>true</code> if an expression is recognized.
+     * is present but not followed by a valid &lt;term&gt;.
+     * @return <code>true</code> if an arithmetic expression is parsed.
      */
     public boolean isArithmeticExpression() {
-        if (!isTerm())
-            return false;
-        while (isAddOperator()) {
-            if (!isTerm()) error("Error in expression after '+' or '-'");
-            makeTree(2, 3, 1);
-        }
-        return true;
+        return isOperation(ADDITION);
     }
 
     /**
      * Tries to build a &lt;term&gt; on the global stack.
-     * <pre>&lt;term&gt; ::= &lt;factor&gt; { &lt;multiply_operator&gt; &lt;term&gt; }</pre>
+     * <pre>&lt;term&gt; ::= &lt;factor&gt; { &lt;multiply_operator&gt; &lt;factor&gt; }</pre>
      * A <code>SyntaxException</code> will be thrown if the multiply_operator
-     * is present but not followed by a valid &lt;term&gt;.
+     * is present but not followed by a valid &lt;factor&gt;.
      * @return <code>true</code> if a term is parsed.
      */
-
     public boolean isTerm() {
-        if (!isFactor()) {
-            return false;
-        }
-        while (isMultiplyOperator()) {
-            if (!isFactor()) {
-                error("No term after '*' or '/'");
-            }
-            makeTree(2, 3, 1);
-        }
-        return true;
+        return isOperation(MULTIPLICATION);
     }
 
     /**
      * Tries to build a &lt;factor&gt; on the global stack.
-     * <pre>&lt;factor&gt; ::= [ &lt;unsigned factor&gt; ] &lt;name&gt;</pre>
-     * A <code>SyntaxException</code> will be thrown if the opening
-     * parenthesis is present but not followed by a valid
-     * &lt;expression&gt; and a closing parenthesis.
+     * <pre>&lt;factor&gt; ::= [ &lt;add_operator&gt; ] &lt;unsigned factor&gt;</pre>
+     * A <code>SyntaxException</code> will be thrown if the add_operator
+     * is present but not followed by a valid &lt;unsigned factor&gt;.
      * @return <code>true</code> if a factor is parsed.
      */
     public boolean isFactor() {
-        if(symbol("+") || symbol("-")) {
-            if (isUnsignedFactor()) {
-                makeTree(2, 1);
-                return true;
-            }
-            error("No factor following unary plus or minus");
-            return false; // Can't ever get here
+        if (precedence(tokenizer.peek(1)) == ADDITION) {
+            enter("unary_operation");
+            accept();
+            if (!isUnsignedFactor()) error("No factor following unary plus or minus");
+            exit("unary_operation");
+            return true;
         }
         return isUnsignedFactor();
     }
@@ -134,61 +687,75 @@ public class Parser {
      * @return <code>true</code> if a factor is parsed.
      */
     public boolean isUnsignedFactor() {
-        if (name()) {
-            if (symbol(".")) {
-                // reference to another Bug
-                if (name()) {
-                    makeTree(2, 3, 1);
+        Token token = tokenizer.peek(1);
+        switch (token.type) {
+            case NAME:
+                Token next = tokenizer.peek(2);
+                if (next.type == Token.Type.SYMBOL && next.getValue().equals(".")) {
+                    // reference to another Bug
+                    enter("dot_reference");
+                    accept();
+                    accept();
+                    if (!name()) error("Incorrect use of dot notation");
+                    exit("dot_reference");
                 }
-                else error("Incorrect use of dot notation");
-            }
-            else if (isParameterList()) {
-                // function call
-                pushNewNode("call");
-                makeTree(1, 3, 2);
-            }
-            else {
-                // just a variable; leave it on the stack
-            }
-        }
-        else if (number()) {
-            // leave the number on the stack
-        }
-        else if (symbol("(")) {
-            stack.pop();
-            if (!isExpression()) {
-                error("Error in parenthesized expression");
-            }
-            if (!symbol(")")) {
-                error("Unclosed parenthetical expression");
-            }
-            stack.pop();
-        }
-        else {
-            return false;
+                else if (next.type == Token.Type.SYMBOL && next.getValue().equals("(")) {
+                    // function call
+                    enter("function_call");
+                    accept();
+                    isParameterList();
+                    exit("function_call");
+                }
+                else {
+                    // just a variable
+                    accept();
+                }
+                return true;
+            case NUMBER:
+                accept();
+                return true;
+            case SYMBOL:
+                if (!token.getValue().equals("(")) return false;
+                accept();
+                if (!isExpression()) {
+                    error("Error in parenthesized expression");
+                }
+                if (!symbol(")")) {
+                    error("Unclosed parenthetical expression");
+                }
+                return true;
+            default:
+                return false;
         }
-       return true;
     }
-    
+
     /**
      * Tries to recognize a &lt;parameter list&gt;.
      * <pre>&ltparameter list&gt; ::= "(" [ &lt;expression&gt; { "," &lt;expression&gt; } ] ")"
      * @return <code>true</code> if a parameter list is recognized.
      */
     public boolean isParameterList() {
-        if (!symbol("(")) return false;
-        stack.pop(); // remove open paren
-        pushNewNode("var");
+        if (!begin("parameter_list", Token.Type.SYMBOL, "(")) return false;
         if (isExpression()) {
-            makeTree(2, 1);
             while (symbol(",")) {
-                stack.pop(); // remove comma
                 if (!isExpression()) error("No expression after ','");
-                makeTree(2, 1);
             }
         }
         if (!symbol(")")) error("Parameter list doesn't end with ')'");
-        stack.pop(); // remove close paren
+        exit("parameter_list");
+        return true;
+    }
+
+    /**
+     * Tries to recognize a &lt;comparator&gt; and put it on the global stack.
+     * <pre>&lt;comparator&gt; ::= "&lt;" | "&lt;=" | "=" | "!=" | "&gt;=" | "&gt;"</pre>
+     * The two characters of a two-character comparator are separate
+     * tokens; they are combined into a single token on the stack.
+     * @return <code>true</code> if a comparator is recognized.
+     */
+    public boolean isComparator() {
+        if (precedence(tokenizer.peek(1)) != COMPARISON) return false;
+        acceptOperator();
         return true;
     }
 
@@ -222,19 +789,184 @@ public class Parser {
     //------------------------- Private "helper" methods
     
     /**
-     * Creates a new Tree consisting of a single node containing a
-     * Token with the correct type and the given <code>value</code>,
-     * and pushes it onto the global stack. 
+     * Tells the listener that a production is beginning.
+     *
+     * @param production The name of the production.
+     */
+    private void enter(String production) {
+        openProductions++;
+        listener.enterProduction(production);
+    }
+
+    /**
+     * Tells the listener that a production is complete.
+     *
+     * @param production The name of the production.
+     */
+    private void exit(String production) {
+        openProductions--;
+        listener.exitProduction(production);
+    }
+
+    /**
+     * Consumes the next token and reports it to the listener.
+     */
+    private void accept() {
+        listener.token(tokenizer.consume());
+    }
+
+    /**
+     * If the next token has the given type and value, begins the given
+     * production with it; otherwise does nothing.
      *
-     * @param value The value of the token to be pushed onto the global stack.
+     * @param production The name of the production.
+     * @param type The type of token that begins the production.
+     * @param value The value of that token, or <code>null</code> for any.
+     * @return <code>true</code> if the production was begun.
      */
-    private void pushNewNode(String value) {
-        stack.push(new Tree<>(new Token(Token.typeOf(value), value)));
+    private boolean begin(String production, Token.Type type, String value) {
+        Token token = tokenizer.peek(1);
+        if (token.type != type || (value != null && !value.equals(token.getValue()))) {
+            return false;
+        }
+        enter(production);
+        accept();
+        return true;
+    }
+
+    /**
+     * Recognizes the "{" &lt;eol&gt; that begins a brace-enclosed
+     * construct. A <code>SyntaxException</code> is thrown if they are
+     * not there.
+     *
+     * @param construct What the brace begins, for the error message.
+     */
+    private void openBrace(String construct) {
+        if (!symbol("{")) error("No '{' after " + construct);
+        endOfLine("'{'");
+    }
+
+    /**
+     * Recognizes the "}" &lt;eol&gt; that ends a brace-enclosed
+     * construct. A <code>SyntaxException</code> is thrown if they are
+     * not there.
+     *
+     * @param construct What the brace ends, for the error message.
+     */
+    private void closeBrace(String construct) {
+        if (!symbol("}")) {
+            recoverableError("No '}' at end of " + construct);
+            return; // carry on as if it were there
+        }
+        endOfLine("'}'");
+    }
+
+    /**
+     * Recognizes the &lt;eol&gt; that must end a line, throwing a
+     * <code>SyntaxException</code> if it is not there.
+     *
+     * @param construct What should have ended the line, for the error message.
+     */
+    private void endOfLine(String construct) {
+        if (!isEol()) {
+            recoverableError("Unexpected '" + tokenizer.peek(1).getValue()
+                             + "' after " + construct);
+            synchronize();
+        }
+    }
+
+    /**
+     * Tries to build a command consisting of the given keyword followed
+     * by some number of comma-separated expressions and an &lt;eol&gt;.
+     * The resultant tree has the keyword as its root and the
+     * expressions as its children.
+     *
+     * @param production The name of the command's production.
+     * @param keyword The keyword that begins the command.
+     * @param count The number of expressions required.
+     * @return <code>true</code> if the command is parsed.
+     */
+    private boolean isKeywordWithExpressions(String production, String keyword, int count) {
+        if (!begin(production, Token.Type.KEYWORD, keyword)) return false;
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && !symbol(",")) error("Too few expressions after '" + keyword + "'");
+            if (!isExpression()) error("No expression after '" + keyword + "'");
+        }
+        endOfLine(keyword + " command");
+        exit(production);
+        return true;
+    }
+
+    /**
+     * Parses an expression made of factors and the binary operators whose
+     * precedence is at least <code>minPrecedence</code>, by precedence
+     * climbing: each operator's right operand is a factor followed by
+     * any operators that bind more tightly. Operators of equal
+     * precedence associate to the left.
+     *
+     * @param minPrecedence The precedence of the loosest operator allowed.
+     * @return <code>true</code> if an expression is parsed.
+     */
+    private boolean isOperation(int minPrecedence) {
+        if (!isFactor()) return false;
+        climb(minPrecedence);
+        return true;
+    }
+
+    /**
+     * With the left operand already parsed, parses any operators with
+     * at least the given precedence and their right operands, each
+     * operator with its operands being a "binary_operation".
+     *
+     * @param minPrecedence The precedence of the loosest operator allowed.
+     */
+    private void climb(int minPrecedence) {
+        int precedence = precedence(tokenizer.peek(1));
+        while (precedence >= minPrecedence) {
+            enter("binary_operation");
+            acceptOperator();
+            if (!isFactor()) error(MISSING_OPERAND[precedence]);
+            climb(precedence + 1);
+            exit("binary_operation");
+            precedence = precedence(tokenizer.peek(1));
+        }
+    }
+
+    /**
+     * Returns the precedence of a token as a binary operator.
+     *
+     * @param token The token.
+     * @return Its precedence, or 0 if it is not a binary operator.
+     */
+    private static int precedence(Token token) {
+        if (token.type != Token.Type.SYMBOL) return 0;
+        char ch = token.getValue().charAt(0);
+        return ch < PRECEDENCE.length ? PRECEDENCE[ch] : 0;
+    }
+
+    /**
+     * Consumes a binary operator and reports it to the listener. A "&lt;",
+     * "&gt;" or "!" followed by "=" is combined with it into one token.
+     */
+    private void acceptOperator() {
+        Token operator = tokenizer.consume();
+        String value = operator.getValue();
+        if (value.equals("<") || value.equals(">") || value.equals("!")) {
+            Token next = tokenizer.peek(1);
+            if (next.type == Token.Type.SYMBOL && next.getValue().equals("=")) {
+                tokenizer.consume();
+                operator = Token.of(value + "=");
+            }
+            else if (value.equals("!")) {
+                error("'!' is not followed by '='");
+            }
+        }
+        listener.token(operator);
     }
 
     /**
      * Tests whether the next token is a number. If it is, the token
-     * is moved to the stack, otherwise it is not.
+     * is consumed, otherwise it is not.
      * 
      * @return <code>true</code> if the next token is a number.
      */
@@ -244,7 +976,7 @@ public class Parser {
 
     /**
      * Tests whether the next token is a name. If it is, the token
-     * is moved to the stack, otherwise it is not.
+     * is consumed, otherwise it is not.
      * 
      * @return <code>true</code> if the next token is a name.
      */
@@ -254,7 +986,7 @@ public class Parser {
 
     /**
      * Tests whether the next token is the expected name. If it is, the token
-     * is moved to the stack, otherwise it is not.
+     * is consumed, otherwise it is not.
      * 
      * @param expectedName The String value of the expected next token.
      * @return <code>true</code> if the next token is a name with the expected value.
@@ -265,7 +997,7 @@ public class Parser {
 
     /**
      * Tests whether the next token is the expected keyword. If it is, the token
-     * is moved to the stack, otherwise it is not.
+     * is consumed, otherwise it is not.
      *
      * @param expectedKeyword The String value of the expected next token.
      * @return <code>true</code> if the next token is a keyword with the expected value.
@@ -276,7 +1008,7 @@ public class Parser {
 
     /**
      * Tests whether the next token is the expected symbol. If it is,
-     * the token is moved to the stack, otherwise it is not.
+     * the token is consumed, otherwise it is not.
      * 
      * @param expectedSymbol The single-character String that is expected
      *        as the next symbol.
@@ -287,28 +1019,23 @@ public class Parser {
     }
 
     /**
-     * If the next Token has the expected type, it is used as the
-     * value of a new (childless) Tree node, and that node
-     * is then pushed onto the stack. If the next Token does not
+     * If the next Token has the expected type, it is consumed and
+     * reported to the listener. If the next Token does not
      * have the expected type, this method effectively does nothing.
      * 
      * @param type The expected type of the next token.
      * @return <code>true</code> if the next token has the expected type.
      */
     private boolean nextTokenMatches(Token.Type type) {
-        Token t = nextToken();
-        if (t.type == type) {
-            stack.push(new Tree<>(t));
-            return true;
-        }
-        pushBack();
-        return false;
+        Token token = tokenizer.peek(1);
+        if (token.type != type) return false;
+        accept();
+        return true;
     }
 
     /**
-     * If the next Token has the expected type and value, it is used as
-     * the value of a new (childless) Tree node, and that node
-     * is then pushed onto the stack; otherwise, this method does
+     * If the next Token has the expected type and value, it is consumed
+     * and reported to the listener; otherwise, this method does
      * nothing.
      * 
      * @param type The expected type of the next token.
@@ -317,97 +1044,204 @@ public class Parser {
      * @return <code>true</code> if the next token has the expected type.
      */
     private boolean nextTokenMatches(Token.Type type, String value) {
-        Token t = nextToken();
-        if (type == t.type && value.equals(t.value)) {
-            stack.push(new Tree<>(t));
-            return true;
-        }
-        pushBack();
-        return false;
+        Token token = tokenizer.peek(1);
+        if (token.type != type || !value.equals(token.getValue())) return false;
+        accept();
+        return true;
     }
 
     /**
-     * Returns the next Token. Increments the global variable
-     * <code>lineNumber</code> when an EOL is returned.
+     * Returns the next Token.
      * 
      * @return The next Token.
      */
     Token nextToken() {
-        int code;
-        try { code = tokenizer.nextToken(); }
-        catch (IOException e) { throw new Error(e); } // Should never happen
-        switch (code) {
-            case StreamTokenizer.TT_WORD:
-                if (Token.KEYWORDS.contains(tokenizer.sval)) {
-                    return new Token(Token.Type.KEYWORD, tokenizer.sval);
-                }
-                return new Token(Token.Type.NAME, tokenizer.sval);
-            case StreamTokenizer.TT_NUMBER:
-                return new Token(Token.Type.NUMBER, tokenizer.nval + "");
-            case StreamTokenizer.TT_EOL:
-                lineNumber++;
-                return new Token(Token.Type.EOL, "\n");
-            case StreamTokenizer.TT_EOF:
-                return new Token(Token.Type.EOF, "EOF");
-            default:
-                return new Token(Token.Type.SYMBOL, ((char) code) + "");
-        }
+        return tokenizer.consume();
     }
 
     /**
-     * Returns the most recent Token to the tokenizer. Decrements the global
-     * variable <code>lineNumber</code> if an EOL is pushed back.
+     * Returns the most recent Token to the tokenizer.
      */
     void pushBack() {
         tokenizer.pushBack();
-        if (tokenizer.ttype == StreamTokenizer.TT_EOL) lineNumber--;
     }
 
     /**
-     * Assembles some number of elements from the top of the global stack
-     * into a new Tree, and replaces those elements with the new Tree.<p>
-     * <b>Caution:</b> The arguments must be consecutive integers 1..N,
-     * in any order, but with no gaps; for example, makeTree(2,4,1,5)
-     * would cause problems (3 was omitted).
-     * 
-     * @param rootIndex Which stack element (counting from 1) to use as
-     * the root of the new Tree.
-     * @param childIndices Which stack elements to use as the children
-     * of the root.
-     */    
-    void makeTree(int rootIndex, int... childIndices) {
-        // Get root from stack
-        Tree<Token> root = getStackItem(rootIndex);
-        // Get other trees from stack and add them as children of root
-        for (int i = 0; i < childIndices.length; i++) {
-            root.addChild(getStackItem(childIndices[i]));
+     * Utility routine to throw a <code>SyntaxException</code> with the
+     * given message. If this Parser is recovering from errors, the error
+     * is recorded, and the exception thrown is a cheap one for
+     * <code>isOrRecover</code> to catch.
+     * @param message The text to put in the <code>SyntaxException</code>.
+     */
+    private void error(String message) {
+        if (diagnostics == null) {
+            throw new SyntaxException("Line " + tokenizer.lineNumber() + ": " + message);
         }
-        // Pop root and all children from stack
-        for (int i = 0; i <= childIndices.length; i++) {
-            stack.pop();
+        report(message);
+        throw new RecoveryException(message);
+    }
+
+    /**
+     * Reports an error that the parse can continue after without giving
+     * up on the construct being parsed: if this Parser is recovering
+     * from errors, the error is recorded and this method returns;
+     * otherwise a <code>SyntaxException</code> is thrown.
+     * @param message The description of the error.
+     */
+    private void recoverableError(String message) {
+        if (diagnostics == null) error(message);
+        report(message);
+    }
+
+    /**
+     * Records an error, at the position of the next token.
+     * @param message The description of the error.
+     */
+    private void report(String message) {
+        diagnostics.add(new Diagnostic(tokenizer.lineOf(1), tokenizer.columnOf(1), message));
+    }
+
+    /**
+     * Tries to parse one of the constructs that can be recovered from.
+     * @param construct COMMAND, CASE_COMMAND, VAR_DECLARATION,
+     *        FUNCTION_DEFINITION, BUG_DEFINITION or ALLBUGS_CODE.
+     * @return <code>true</code> if the construct is parsed.
+     */
+    private boolean parse(int construct) {
+        switch (construct) {
+            case VAR_DECLARATION:
+                return isVarDeclaration();
+            case FUNCTION_DEFINITION:
+                return isFunctionDefinition();
+            case BUG_DEFINITION:
+                return isBugDefinition();
+            case ALLBUGS_CODE:
+                return isAllbugsCode();
+            default:
+                return isCommand();
         }
-        // Put the root back on the stack
-        stack.push(root);
     }
-    
+
     /**
-     * Returns the n-th item from the top of the global stack (counting the
-     * top element as 1).
-     * 
-     * @param n Which stack element to return.
-     * @return The n-th element in the global stack.
+     * Tries to parse a construct, as <code>parse</code> does. If this
+     * Parser is recovering from errors and the construct contains a
+     * syntax error, the listener is told that the productions begun for
+     * it are abandoned (a TreeBuilder puts whatever was built of it
+     * under an ERROR node in its place), and the tokens up to a point
+     * where parsing can resume are skipped. A token that cannot begin a command, where a
+     * command could be, is treated the same way.
+     * @param construct COMMAND, CASE_COMMAND, VAR_DECLARATION,
+     *        FUNCTION_DEFINITION, BUG_DEFINITION or ALLBUGS_CODE.
+     * @return <code>true</code> if the construct was parsed or
+     *         abandoned.
      */
-    private Tree<Token> getStackItem(int n) {
-        return stack.get(stack.size() - n);
+    private boolean isOrRecover(int construct) {
+        if (diagnostics == null) return parse(construct);
+        int saved = openProductions;
+        int consumed = tokenizer.consumedCount();
+        try {
+            if (parse(construct)) return true;
+            if (construct > CASE_COMMAND || endsCommands(construct == CASE_COMMAND)) {
+                return false;
+            }
+            error("Unexpected '" + tokenizer.peek(1).getValue() + "' where a command was expected");
+        }
+        catch (RecoveryException e) {
+            listener.syntaxError(e.getMessage(), openProductions - saved);
+            openProductions = saved;
+            if (tokenizer.consumedCount() == consumed
+                    && tokenizer.peek(1).type != Token.Type.EOF) {
+                tokenizer.consume(); // always make progress
+            }
+            if (construct >= BUG_DEFINITION) skipToNextBug();
+            else synchronize();
+        }
+        return true;
     }
 
     /**
-     * Utility routine to throw a <code>SyntaxException</code> with the
-     * given message.
-     * @param message The text to put in the <code>SyntaxException</code>.
+     * Tests whether the next token ends a sequence of commands.
+     * @param inSwitch Whether the commands are those of a switch case.
+     * @return <code>true</code> if no more commands can follow.
      */
-    private void error(String message) {
-        throw new SyntaxException("Line " + lineNumber + ": " + message);
+    private boolean endsCommands(boolean inSwitch) {
+        Token token = tokenizer.peek(1);
+        switch (token.type) {
+            case EOF:
+                return true;
+            case SYMBOL:
+                return token.getValue().equals("}");
+            case KEYWORD:
+                String value = token.getValue();
+                return value.equals("define") || value.equals("Bug") || value.equals("Allbugs")
+                    || (inSwitch && value.equals("case"));
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Skips tokens after a syntax error, up to the end of the line (which
+     * is consumed), or up to a closing brace or a keyword that can begin
+     * a line (which are not). Brace-enclosed text is skipped as a whole.
+     */
+    private void synchronize() {
+        int depth = 0;
+        while (true) {
+            Token token = tokenizer.peek(1);
+            switch (token.type) {
+                case EOF:
+                    return;
+                case EOL:
+                    if (depth == 0) {
+                        do {
+                            tokenizer.consume();
+                        } while (tokenizer.peek(1).type == Token.Type.EOL);
+                        return;
+                    }
+                    break;
+                case KEYWORD:
+                    if (depth == 0 && RESUME_KEYWORDS.contains(token.getValue())) return;
+                    break;
+                case SYMBOL:
+                    if (token.getValue().equals("{")) {
+                        depth++;
+                    }
+                    else if (token.getValue().equals("}")) {
+                        if (depth == 0) return;
+                        depth--;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            tokenizer.consume();
+        }
+    }
+
+    /**
+     * Skips tokens up to the next "Bug" keyword or the end of the input.
+     */
+    private void skipToNextBug() {
+        Token token = tokenizer.peek(1);
+        while (token.type != Token.Type.EOF
+                && !(token.type == Token.Type.KEYWORD && token.getValue().equals("Bug"))) {
+            tokenizer.consume();
+            token = tokenizer.peek(1);
+        }
+    }
+
+    /**
+     * The exception thrown for a syntax error while recovering from
+     * errors. It is caught within the Parser, and it records no stack
+     * trace, which would be costly and is never used.
+     */
+    private static class RecoveryException extends SyntaxException {
+        private static final long serialVersionUID = 1L;
+
+        RecoveryException(String message) {
+            super(message, null, false, false);
+        }
     }
 }
 
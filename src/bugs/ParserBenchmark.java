@@ -0,0 +1,175 @@
+package bugs;
+
+import tree.Tree;
+
+/**
+ * Measures how fast the <code>Parser</code> turns the source of a whole
+ * program into a tree. It also times the Parser, recovering from errors,
+ * on a copy of the program with several syntax errors in every Bug, and
+ * with a <code>ParseListener</code> that only counts, to show what the
+ * parse costs when no tree is built. Run
+ * it as an application; the optional argument is the number of Bugs in
+ * the generated program (default 20000, about 14MB of source).
+ */
+public class ParserBenchmark {
+    private static final int ROUNDS = 10;
+
+    /** The Allbugs code that begins each generated program. */
+    static final String ALLBUGS = "Allbugs {\n    var other\n}\n\n";
+
+    /** The text of one Bug; each copy gets its own name. */
+    static final String BUG =
+        "Bug %s {\n" +
+        "    var x, y, steps\n" +
+        "    var angle\n" +
+        "    initially {\n" +
+        "        steps = 0\n" +
+        "        angle = 15.5 * (x - 3) / 2\n" +
+        "        color red\n" +
+        "    }\n" +
+        "    // Walk a spiral until far enough out.\n" +
+        "    loop {\n" +
+        "        move steps + 1\n" +
+        "        turn angle\n" +
+        "        steps = steps + 1\n" +
+        "        exit if distance(x, y) >= 100\n" +
+        "        switch {\n" +
+        "            case steps < 10\n" +
+        "                color blue\n" +
+        "            case steps != 10\n" +
+        "                line x, y, x + 10, -y\n" +
+        "                do report(steps, other.x)\n" +
+        "        }\n" +
+        "    }\n" +
+        "    moveto 0, 0\n" +
+        "    turnto 90\n" +
+        "    define distance using a, b {\n" +
+        "        return a * a + b * b\n" +
+        "    }\n" +
+        "    define report using n, m {\n" +
+        "        /* nothing to do */\n" +
+        "        return n <= m\n" +
+        "    }\n" +
+        "}\n";
+
+    /**
+     * Times the parser and prints the results.
+     * @param args The number of Bugs in the program to parse, if given.
+     */
+    public static void main(String[] args) {
+        int bugs = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        String text = program(bugs);
+        String faulty = text.replace("turnto 90\n", "turnto 90 90\n")
+                            .replace("move steps + 1\n", "move steps +\n")
+                            .replace("exit if distance(x, y)", "exit if distance(x y)");
+        double megabytes = text.length() / 1e6;
+
+        parse(text, false, null);           // warm up
+        parse(faulty, true, null);
+        Counter counter = new Counter();
+        parse(text, false, counter);
+        double best = Double.MAX_VALUE;
+        double bestFaulty = Double.MAX_VALUE;
+        double bestCounting = Double.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            best = Math.min(best, parse(text, false, null));
+            bestFaulty = Math.min(bestFaulty, parse(faulty, true, null));
+            bestCounting = Math.min(bestCounting, parse(text, false, counter));
+        }
+        System.out.printf("program size: %8.1f MB (%d Bugs)%n", megabytes, bugs);
+        System.out.printf("parse time:   %8.1f ms%n", best * 1000);
+        System.out.printf("throughput:   %8.1f MB/s%n", megabytes / best);
+        System.out.printf("with %d errors, recovering:%n", 3 * bugs);
+        System.out.printf("parse time:   %8.1f ms%n", bestFaulty * 1000);
+        System.out.printf("throughput:   %8.1f MB/s%n", faulty.length() / 1e6 / bestFaulty);
+        System.out.printf("counting %d productions, %d tokens, no tree:%n",
+                          counter.productions / (ROUNDS + 1), counter.tokens / (ROUNDS + 1));
+        System.out.printf("parse time:   %8.1f ms%n", bestCounting * 1000);
+        System.out.printf("throughput:   %8.1f MB/s%n", megabytes / bestCounting);
+    }
+
+    /**
+     * Generates a program: Allbugs code, then the given number of copies
+     * of BUG, each with its own name. The other benchmarks use it too.
+     * @param bugs The number of Bugs in the program.
+     * @return The program.
+     */
+    static String program(int bugs) {
+        StringBuilder program = new StringBuilder();
+        program.append(ALLBUGS);
+        for (int i = 0; i < bugs; i++) {
+            program.append(String.format(BUG, "bug" + i));
+        }
+        return program.toString();
+    }
+
+    /**
+     * Returns the memory in use after collecting the garbage.
+     * @return The number of bytes in use.
+     */
+    static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Counts the nodes of a tree, visiting every one of them; a node
+     * shared by several parents is counted as often as it occurs.
+     * @param tree The tree.
+     * @return The number of nodes.
+     */
+    static int count(Tree<Token> tree) {
+        int count = 0;
+        for (Tree<Token> node : tree.preorder()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Parses a program once.
+     * @param text The program.
+     * @param recover Whether to recover from syntax errors.
+     * @param listener The listener to use, or <code>null</code> to
+     *        build the tree.
+     * @return The time taken, in seconds.
+     */
+    private static double parse(String text, boolean recover, ParseListener listener) {
+        long start = System.nanoTime();
+        Parser parser = new Parser(text);
+        parser.setErrorRecovery(recover);
+        if (listener != null) parser.setParseListener(listener);
+        if (!parser.isProgram()) throw new AssertionError("Not a program");
+        long elapsed = System.nanoTime() - start;
+        return elapsed / 1e9;
+    }
+
+    /**
+     * A listener that counts the productions and tokens, and builds nothing.
+     */
+    private static class Counter implements ParseListener {
+        long productions = 0;
+        long tokens = 0;
+
+        @Override
+        public void enterProduction(String production) {
+            productions++;
+        }
+
+        @Override
+        public void exitProduction(String production) {
+            // nothing to do
+        }
+
+        @Override
+        public void token(Token token) {
+            tokens++;
+        }
+
+        @Override
+        public void syntaxError(String message, int unfinished) {
+            // nothing to do
+        }
+    }
+}
@@ -2,13 +2,21 @@ package bugs;
 
 import static org.junit.Assert.*;
 
-import java.io.Reader;
-import java.io.StreamTokenizer;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import tree.FlatTree;
 import tree.Tree;
 
 
@@ -25,6 +33,29 @@ public class ParserTest {
         parser = new Parser("2 + 2");
     }
 
+    @Test
+    public void testParserFromOtherSources() throws IOException {
+        parser = new Parser(new StringReader("2 * (x + 3)"));
+        assertTrue(parser.isExpression());
+        assertStackTopEquals(tree("*", "2.0", tree("+", "x", "3.0")));
+
+        byte[] bytes = "a.b - 1".getBytes(StandardCharsets.UTF_8);
+        parser = new Parser(Channels.newChannel(new ByteArrayInputStream(bytes)));
+        assertTrue(parser.isExpression());
+        assertStackTopEquals(tree("-", tree(".", "a", "b"), "1.0"));
+
+        Path file = Files.createTempFile("bugs", ".bugs");
+        try {
+            Files.write(file, "f(1, y)".getBytes(StandardCharsets.UTF_8));
+            parser = new Parser(file);
+            assertTrue(parser.isExpression());
+            assertStackTopEquals(tree("call", "f", tree("var", "1.0", "y")));
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+
     @Test
     public void testIsExpression() {
         Tree<Token> expected;
@@ -245,6 +276,510 @@ public class ParserTest {
         followedBy(parser, "$");
     }
 
+    @Test
+    public void testIsExpressionWithComparators() {
+        use("a < b\n");
+        assertTrue(parser.isExpression());
+        assertStackTopEquals(tree("<", "a", "b"));
+        followedBy(parser, "\n");
+
+        use("x + 1 <= 2 * y != z = 0 >= -1 > w");
+        assertTrue(parser.isExpression());
+        assertStackTopEquals(parse(">(>=(=(!=(<=(+(x 1.0) *(2.0 y)) z) 0.0) -(1.0)) w)"));
+    }
+
+    @Test
+    public void testIsExpressionPrecedence() {
+        use("a < b + c * -d.x / f(1, 2) - 3\n");
+        assertTrue(parser.isExpression());
+        assertStackTopEquals(parse("<(a -(+(b /(*(c -(.(d x))) call(f var(1.0 2.0)))) 3.0))"));
+        followedBy(parser, "\n");
+
+        use("a - b - c / d / e < f * g");
+        assertTrue(parser.isExpression());
+        assertStackTopEquals(parse("<(-(-(a b) /(/(c d) e)) *(f g))"));
+
+        use("(a < b) * (c - (d - e))");
+        assertTrue(parser.isExpression());
+        assertStackTopEquals(parse("*(<(a b) -(c -(d e)))"));
+
+        // Operators at each level are accepted by the narrower methods
+        // only as far as their own level.
+        use("a * b + c < d");
+        assertTrue(parser.isTerm());
+        assertStackTopEquals(tree("*", "a", "b"));
+        followedBy(parser, "+ c < d");
+        use("a * b + c < d");
+        assertTrue(parser.isArithmeticExpression());
+        assertStackTopEquals(parse("+(*(a b) c)"));
+        followedBy(parser, "< d");
+    }
+
+    @Test
+    public void testIsExpressionLongAndDeep() {
+        StringBuilder text = new StringBuilder("0");
+        Tree<Token> expected = createNode("0.0");
+        for (int i = 1; i <= 500; i++) {
+            text.append(" - ").append(i);
+            expected = tree("-", expected, createNode(i + ".0"));
+        }
+        use(text.toString());
+        assertTrue(parser.isExpression());
+        assertStackTopEquals(expected);
+
+        text.setLength(0);
+        expected = createNode("x");
+        for (int i = 0; i < 500; i++) {
+            text.append("(-");
+            expected = tree("-", expected);
+        }
+        text.append("x");
+        for (int i = 0; i < 500; i++) {
+            text.append(")");
+        }
+        use(text.toString());
+        assertTrue(parser.isExpression());
+        assertStackTopEquals(expected);
+    }
+
+    @Test(expected=SyntaxException.class)
+    public void testIsExpressionMissingOperand() {
+        use("a * b + < c");
+        parser.isExpression();
+    }
+
+    @Test(expected=SyntaxException.class)
+    public void testIsComparatorBadNotEqual() {
+        use("a ! b");
+        parser.isExpression();
+    }
+
+    @Test
+    public void testIsEol() {
+        use("\n\n\nx");
+        assertTrue(parser.isEol());
+        followedBy(parser, "x");
+        use("x");
+        assertFalse(parser.isEol());
+        use("");
+        assertTrue(parser.isEol());
+    }
+
+    @Test
+    public void testIsVarDeclaration() {
+        use("var a, b,c\n\nvar");
+        assertTrue(parser.isVarDeclaration());
+        assertStackTopEquals(tree("var", "a", "b", "c"));
+        followedBy(parser, "var");
+        use("move 5\n");
+        assertFalse(parser.isVarDeclaration());
+        followedBy(parser, "move 5");
+    }
+
+    @Test
+    public void testIsAction() {
+        use("move 10 * x\n");
+        assertTrue(parser.isAction());
+        assertStackTopEquals(parse("move(*(10.0 x))"));
+        use("moveto 1, 2\n");
+        assertTrue(parser.isMoveToAction());
+        assertStackTopEquals(parse("moveto(1.0 2.0)"));
+        use("turn -90\n");
+        assertTrue(parser.isAction());
+        assertStackTopEquals(parse("turn(-(90.0))"));
+        use("turnto a.direction\n");
+        assertTrue(parser.isAction());
+        assertStackTopEquals(parse("turnto(.(a direction))"));
+        use("line 0, 0, x, f(y)\n");
+        assertTrue(parser.isLineAction());
+        assertStackTopEquals(parse("line(0.0 0.0 x call(f var(y)))"));
+        use("x = 5\n");
+        assertFalse(parser.isAction());
+    }
+
+    @Test(expected=SyntaxException.class)
+    public void testIsLineActionTooFewExpressions() {
+        use("line 1, 2, 3\n");
+        parser.isLineAction();
+    }
+
+    @Test(expected=SyntaxException.class)
+    public void testIsMoveActionNoEol() {
+        use("move 1 2\n");
+        parser.isMoveAction();
+    }
+
+    @Test
+    public void testIsStatement() {
+        use("x = y + 1\n");
+        assertTrue(parser.isStatement());
+        assertStackTopEquals(parse("assign(x +(y 1.0))"));
+        use("exit if x > 3\n");
+        assertTrue(parser.isExitIfStatement());
+        assertStackTopEquals(parse("exit(>(x 3.0))"));
+        use("return 2 * n\n");
+        assertTrue(parser.isStatement());
+        assertStackTopEquals(parse("return(*(2.0 n))"));
+        use("do jump\n");
+        assertTrue(parser.isDoStatement());
+        assertStackTopEquals(parse("call(jump var)"));
+        use("do jump(1, h)\n");
+        assertTrue(parser.isStatement());
+        assertStackTopEquals(parse("call(jump var(1.0 h))"));
+        use("color darkGray\n");
+        assertTrue(parser.isColorStatement());
+        assertStackTopEquals(parse("color(darkGray)"));
+        use("move 5\n");
+        assertFalse(parser.isStatement());
+        followedBy(parser, "move 5");
+    }
+
+    @Test(expected=SyntaxException.class)
+    public void testIsColorStatementNotAColor() {
+        use("color move\n");
+        parser.isColorStatement();
+    }
+
+    @Test(expected=SyntaxException.class)
+    public void testIsAssignmentStatementNoEquals() {
+        use("x + 1\n");
+        parser.isAssignmentStatement();
+    }
+
+    @Test(expected=SyntaxException.class)
+    public void testIsExitIfStatementNoIf() {
+        use("exit x\n");
+        parser.isExitIfStatement();
+    }
+
+    @Test
+    public void testIsBlock() {
+        use("{\n}\n");
+        assertTrue(parser.isBlock());
+        assertStackTopEquals(tree("block"));
+        use("{\n  move 1\n\n  turn 2\n}\n");
+        assertTrue(parser.isBlock());
+        assertStackTopEquals(parse("block(move(1.0) turn(2.0))"));
+        use("loop {\n  exit if 1\n}\n");
+        assertTrue(parser.isLoopStatement());
+        assertStackTopEquals(parse("loop(block(exit(1.0)))"));
+    }
+
+    @Test(expected=SyntaxException.class)
+    public void testIsBlockUnclosed() {
+        use("{\n  move 1\n");
+        parser.isBlock();
+    }
+
+    @Test
+    public void testIsSwitchStatement() {
+        use("switch {\n}\n");
+        assertTrue(parser.isSwitchStatement());
+        assertStackTopEquals(tree("switch"));
+        use("switch {\n  case x < 0\n    turn 1\n    move 2\n  case 1\n}\n");
+        assertTrue(parser.isSwitchStatement());
+        assertStackTopEquals(
+            parse("switch(case(<(x 0.0) block(turn(1.0) move(2.0))) case(1.0 block))"));
+    }
+
+    @Test
+    public void testIsFunctionDefinition() {
+        use("define f {\n  return 1\n}\n");
+        assertTrue(parser.isFunctionDefinition());
+        assertStackTopEquals(parse("function(f var block(return(1.0)))"));
+        use("define g using a, b {\n}\n");
+        assertTrue(parser.isFunctionDefinition());
+        assertStackTopEquals(parse("function(g var(a b) block)"));
+    }
+
+    @Test
+    public void testIsBugDefinition() {
+        use("Bug sally {\n  var x\n  var y, z\n  initially {\n    x = 1\n  }\n"
+            + "  move x\n  turn 90\n  define f {\n  }\n}\n");
+        assertTrue(parser.isBugDefinition());
+        assertStackTopEquals(parse("Bug(sally list(var(x) var(y z)) "
+            + "initially(block(assign(x 1.0))) block(move(x) turn(90.0)) "
+            + "list(function(f var block)))"));
+        use("Bug fred {\n  move 1\n}\n");
+        assertTrue(parser.isBugDefinition());
+        assertStackTopEquals(parse("Bug(fred list initially(block) block(move(1.0)) list)"));
+    }
+
+    @Test(expected=SyntaxException.class)
+    public void testIsBugDefinitionNoCommands() {
+        use("Bug empty {\n  var x\n}\n");
+        parser.isBugDefinition();
+    }
+
+    @Test
+    public void testIsAllbugsCode() {
+        use("Allbugs {\n  var a\n  define f using x {\n    return x\n  }\n}\n");
+        assertTrue(parser.isAllbugsCode());
+        assertStackTopEquals(
+            parse("Allbugs(list(var(a)) list(function(f var(x) block(return(x)))))"));
+    }
+
+    @Test
+    public void testIsProgram() {
+        use("// A program\n\nAllbugs {\n  var count\n}\n\n"
+            + "Bug a {\n  move 1\n}\nBug b {\n  turn 1\n}");
+        assertTrue(parser.isProgram());
+        assertStackTopEquals(parse("list(Allbugs(list(var(count)) list) "
+            + "list(Bug(a list initially(block) block(move(1.0)) list) "
+            + "Bug(b list initially(block) block(turn(1.0)) list)))"));
+        assertEquals(1, parser.stack.size());
+
+        use("Bug a {\n  move 1\n}\n");
+        assertTrue(parser.isProgram());
+        assertStackTopEquals(parse("list(Allbugs(list list) "
+            + "list(Bug(a list initially(block) block(move(1.0)) list)))"));
+    }
+
+    @Test
+    public void testIsProgramErrorLine() {
+        use("Bug a {\n  move 1\n  turn\n}\n");
+        try {
+            parser.isProgram();
+            fail();
+        }
+        catch (SyntaxException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Line 3:"));
+        }
+    }
+
+    @Test(expected=SyntaxException.class)
+    public void testIsProgramTrailingText() {
+        use("Bug a {\n  move 1\n}\nmove 2\n");
+        parser.isProgram();
+    }
+
+    @Test(expected=SyntaxException.class)
+    public void testIsProgramNoBugs() {
+        use("Allbugs {\n}\n");
+        parser.isProgram();
+    }
+
+    @Test
+    public void testErrorRecovery() {
+        use("Bug a {\n" +
+            "    move 1 2\n" +
+            "    turn +\n" +
+            "    x = 3 * \n" +
+            "    var y\n" +
+            "    color red\n" +
+            "}\n" +
+            "Bug {\n" +
+            "    move 1\n" +
+            "}\n" +
+            "Bug c {\n" +
+            "    loop {\n" +
+            "        exit if\n" +
+            "        turn 5\n" +
+            "    define f {\n" +
+            "        return 1\n" +
+            "    }\n" +
+            "}\n" +
+            "junk\n");
+        parser.setErrorRecovery(true);
+        assertTrue(parser.isProgram());
+        assertEquals(1, parser.stack.size());
+        assertEquals(Arrays.asList(
+            "Line 2, column 12: Unexpected '2.0' after move command",
+            "Line 3, column 11: No factor following unary plus or minus",
+            "Line 4, column 13: No term after '*' or '/'",
+            "Line 5, column 5: Unexpected 'var' where a command was expected",
+            "Line 8, column 5: No name for Bug",
+            "Line 13, column 16: No expression after 'exit if'",
+            "Line 15, column 5: No '}' at end of block",
+            "Line 19, column 1: Expected another Bug definition"),
+            describe(parser.getDiagnostics()));
+
+        // Each faulty construct is replaced by an ERROR node, whose
+        // children are whatever had been built of it.
+        Tree<Token> bugs = stackTop(1);
+        assertEquals(3, bugs.getNumberOfChildren());
+        Tree<Token> commands = bugs.getChild(0).getChild(3);
+        assertEquals(tree("move", "1.0"), commands.getChild(0));
+        assertEquals(errorNode("No factor following unary plus or minus", "turn", "+"),
+                     commands.getChild(1));
+        assertEquals(errorNode("No term after '*' or '/'", "x", "3.0", "*"),
+                     commands.getChild(2));
+        assertEquals(errorNode("Unexpected 'var' where a command was expected"),
+                     commands.getChild(3));
+        assertEquals(tree("color", "red"), commands.getChild(4));
+        assertEquals(errorNode("No name for Bug", "Bug"), bugs.getChild(1));
+        Tree<Token> loop = bugs.getChild(2).getChild(3).getChild(0);
+        assertEquals(errorNode("No expression after 'exit if'", "exit"),
+                     loop.getChild(0).getChild(0));
+        assertEquals(tree("turn", "5.0"), loop.getChild(0).getChild(1));
+        assertEquals(parse("list(function(f var block(return(1.0))))"),
+                     bugs.getChild(2).getChild(4));
+    }
+
+    @Test
+    public void testErrorRecoveryValidProgram() {
+        String program = "Allbugs {\n  var a\n}\nBug b {\n  move a\n  define f {\n  }\n}\n";
+        use(program);
+        assertTrue(parser.isProgram());
+        Tree<Token> expected = parser.stack.pop();
+        use(program);
+        parser.setErrorRecovery(true);
+        assertTrue(parser.isProgram());
+        assertStackTopEquals(expected);
+        assertTrue(parser.getDiagnostics().isEmpty());
+    }
+
+    @Test
+    public void testErrorRecoveryNoBugs() {
+        use("Allbugs {\n}\n");
+        parser.setErrorRecovery(true);
+        assertTrue(parser.isProgram());
+        assertEquals(Arrays.asList("Line 3, column 1: No Bug definition"),
+                     describe(parser.getDiagnostics()));
+        assertStackTopEquals(parse("list(Allbugs(list list) list)"));
+    }
+
+    @Test
+    public void testErrorRecoveryManyErrors() {
+        StringBuilder text = new StringBuilder("Bug a {\n");
+        for (int i = 0; i < 1000; i++) text.append("  move ) 1\n  turn 2\n");
+        text.append("}\n");
+        use(text.toString());
+        parser.setErrorRecovery(true);
+        assertTrue(parser.isProgram());
+        assertEquals(1000, parser.getDiagnostics().size());
+        assertEquals(2000, parser.getDiagnostics().get(999).line);
+        assertEquals(2000, stackTop(1).getChild(0).getChild(3).getNumberOfChildren());
+    }
+
+    @Test
+    public void testParseListener() {
+        use("Bug a {\n  x = -y + 2 * f(1)\n  turn b.c\n}\n");
+        Recorder recorder = new Recorder();
+        parser.setParseListener(recorder);
+        assertTrue(parser.isBugDefinition());
+        assertEquals(Arrays.asList(
+            "<bug_definition", "Bug", "a", "{", "\n", "<var_declarations", "var_declarations>",
+            "<no_initialization_block", "no_initialization_block>", "<commands",
+            "<assignment_statement", "x", "=", "<unary_operation", "-", "y", "unary_operation>",
+            "<binary_operation", "+", "2.0", "<binary_operation", "*",
+            "<function_call", "f", "<parameter_list", "(", "1.0", ")", "parameter_list>",
+            "function_call>", "binary_operation>", "binary_operation>", "\n",
+            "assignment_statement>",
+            "<turn_action", "turn", "<dot_reference", "b", ".", "c", "dot_reference>", "\n",
+            "turn_action>", "commands>", "<function_definitions", "function_definitions>",
+            "}", "\n", "bug_definition>"), recorder.events);
+        // With another listener, no tree is built.
+        assertTrue(parser.stack.isEmpty());
+    }
+
+    @Test
+    public void testParseListenerComparator() {
+        use("a <= b != c\n");
+        Recorder recorder = new Recorder();
+        parser.setParseListener(recorder);
+        assertTrue(parser.isExpression());
+        assertEquals(Arrays.asList("a", "<binary_operation", "<=", "b", "binary_operation>",
+                                   "<binary_operation", "!=", "c", "binary_operation>"),
+                     recorder.events);
+    }
+
+    @Test
+    public void testParseListenerSyntaxError() {
+        use("Bug a {\n  move 1 +\n  turn 2\n}\n");
+        Recorder recorder = new Recorder();
+        parser.setParseListener(recorder);
+        parser.setErrorRecovery(true);
+        assertTrue(parser.isProgram());
+        int error = recorder.events.indexOf("!Error in expression after '+' or '-' (2)");
+        assertTrue(error > 0);
+        // The skipped end of line is not reported; parsing resumes at "turn".
+        assertEquals(Arrays.asList("<move_action", "move", "1.0", "<binary_operation", "+"),
+                     recorder.events.subList(error - 5, error));
+        assertEquals("<turn_action", recorder.events.get(error + 1));
+        assertTrue(parser.stack.isEmpty());
+    }
+
+    @Test
+    public void testFlatTreeBuilder() {
+        String program = "Allbugs {\n  var a\n}\nBug b {\n  move a + 1\n  define f {\n  }\n}\n";
+        use(program);
+        assertTrue(parser.isProgram());
+        Tree<Token> expected = parser.stack.pop();
+        use(program);
+        FlatTree.Builder<Token> builder = new FlatTree.Builder<>();
+        parser.setParseListener(new TreeBuilder(builder));
+        parser.setErrorRecovery(true);
+        assertTrue(parser.isProgram());
+        assertEquals(1, builder.size());
+        FlatTree<Token> flat = builder.build();
+        assertEquals(expected, flat.toTree());
+        assertTrue(parser.stack.isEmpty());
+    }
+
+    @Test
+    public void testReset() {
+        String program = "Bug a {\n  turn 1\n  x = 2 * y\n}\n";
+        use(program);
+        assertTrue(parser.isProgram());
+        Tree<Token> expected = parser.stack.pop();
+
+        use("Bug a {\n  turn 1\n  x = 2 *\n}\n");
+        try {
+            parser.isProgram();
+            fail();
+        }
+        catch (SyntaxException e) {
+            // the stack and the TreeBuilder are left part way through
+        }
+        parser.reset(program);
+        assertTrue(parser.isProgram());
+        assertEquals(expected, parser.stack.pop());
+        assertTrue(parser.stack.isEmpty());
+
+        // Recovering from errors stays on, but the errors are forgotten.
+        parser.setErrorRecovery(true);
+        parser.reset("Bug a {\n  turn\n}\n");
+        assertTrue(parser.isProgram());
+        assertEquals(1, parser.getDiagnostics().size());
+        parser.reset(program);
+        assertTrue(parser.isProgram());
+        assertEquals(0, parser.getDiagnostics().size());
+        assertEquals(expected, parser.stack.pop());
+    }
+
+    @Test
+    public void testForThread() {
+        parser = Parser.forThread("x + 1");
+        assertTrue(parser.isExpression());
+        assertStackTopEquals(parse("+(x 1.0)"));
+        parser.setParseListener(new Recorder());
+        parser.setErrorRecovery(true);
+
+        StringBuilder program = new StringBuilder();
+        for (int i = 0; i < 500; i++) program.append("Bug b").append(i).append(" {\n  turn 1\n}\n");
+        assertSame(parser, Parser.forThread(program));
+        assertTrue(parser.isProgram());
+        assertEquals(500, stackTop(1).getNumberOfChildren());
+        parser = Parser.forThread("Bug a {\n  turn ,\n}\n");
+        try {
+            parser.isProgram();
+            fail();
+        }
+        catch (SyntaxException e) {
+            assertEquals("Line 2: No expression after 'turn'", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testEachTokenLexedOnce() {
+        use("-(a.b + f(x, 2 * y)) / 3 - -z $");
+        assertTrue(parser.isExpression());
+        // Only the token that stopped the expression was looked at but not used.
+        assertEquals(parser.tokenizer.consumedCount() + 1, parser.tokenizer.lexedCount());
+        followedBy(parser, "$");
+    }
+
     @Test
     public void testNextToken() {
         use("12 12.5 bogus switch + \n");
@@ -258,6 +793,34 @@ public class ParserTest {
     }
     
 //  ----- "Helper" methods
+
+    /**
+     * A ParseListener that records the events, as "&lt;production",
+     * "production&gt;", the token's value, or "!message (unfinished)".
+     */
+    private static class Recorder implements ParseListener {
+        List<String> events = new ArrayList<String>();
+
+        @Override
+        public void enterProduction(String production) {
+            events.add("<" + production);
+        }
+
+        @Override
+        public void exitProduction(String production) {
+            events.add(production + ">");
+        }
+
+        @Override
+        public void token(Token token) {
+            events.add(token.getValue());
+        }
+
+        @Override
+        public void syntaxError(String message, int unfinished) {
+            events.add("!" + message + " (" + unfinished + ")");
+        }
+    }
     
     /**
      * Sets the <code>parser</code> instance to use the given string.
@@ -268,6 +831,41 @@ public class ParserTest {
         parser = new Parser(s);
     }
     
+    /**
+     * Returns the n-th child of the tree on top of the stack.
+     *
+     * @param n Which child to return, counting from 0.
+     * @return The child.
+     */
+    private Tree<Token> stackTop(int n) {
+        return parser.stack.peek().getChild(n);
+    }
+
+    /**
+     * Returns an ERROR node with the given message and children.
+     *
+     * @param message The message in the ERROR node.
+     * @param children The values of the (leaf) children.
+     * @return The ERROR node.
+     */
+    private Tree<Token> errorNode(String message, String... children) {
+        Tree<Token> node = new Tree<>(new Token(Token.Type.ERROR, message));
+        for (String child : children) node.addChild(createNode(child));
+        return node;
+    }
+
+    /**
+     * Returns the String forms of the given Diagnostics.
+     *
+     * @param diagnostics The Diagnostics.
+     * @return Their descriptions.
+     */
+    private List<String> describe(List<Diagnostic> diagnostics) {
+        List<String> descriptions = new ArrayList<>();
+        for (Diagnostic diagnostic : diagnostics) descriptions.add(diagnostic.toString());
+        return descriptions;
+    }
+
     /**
      * Returns the current top of the stack.
      *
@@ -298,42 +896,25 @@ public class ParserTest {
      * @param expectedTokens The Tokens we expect to get from the Tokenizer.
      */
     private void followedBy(Parser parser, String expectedTokens) {
-        int expectedType;
-        int actualType;
-        StreamTokenizer actual = parser.tokenizer;
-
-        Reader reader = new StringReader(expectedTokens);
-        StreamTokenizer expected = new StreamTokenizer(reader);
-
-        try {
-            while (true) {
-                expectedType = expected.nextToken();
-                if (expectedType == StreamTokenizer.TT_EOF) break;
-                actualType = actual.nextToken();
-                assertEquals(typeName(expectedType), typeName(actualType));
-                if (actualType == StreamTokenizer.TT_WORD) {
-                    assertEquals(expected.sval, actual.sval);
-                }
-                else if (actualType == StreamTokenizer.TT_NUMBER) {
-                    assertEquals(expected.nval, actual.nval, 0.001);
-                }
-            }
-        }
-        catch (Exception e) {
-            e.printStackTrace();
+        BugsLexer expected = new BugsLexer(expectedTokens);
+        Token expectedToken = expected.nextToken();
+        while (expectedToken.type != Token.Type.EOF) {
+            assertEquals(expectedToken, parser.nextToken());
+            expectedToken = expected.nextToken();
         }
     }
     
-    private String typeName(int type) {
-        switch(type) {
-            case StreamTokenizer.TT_EOF: return "EOF";
-            case StreamTokenizer.TT_EOL: return "EOL";
-            case StreamTokenizer.TT_WORD: return "WORD";
-            case StreamTokenizer.TT_NUMBER: return "NUMBER";
-            default: return "'" + (char)type + "'";
-        }
+    /**
+     * Returns the Tree described by the given string, using the syntax
+     * of <code>TreeParser</code>.
+     *
+     * @param description The string form of the Tree.
+     * @return The Tree.
+     */
+    private Tree<Token> parse(String description) {
+        return new TreeParser().parse(description);
     }
-    
+
     /**
      * Returns a Tree node consisting of a single leaf; the
      * node will contain a Token with a String as its value. <br>
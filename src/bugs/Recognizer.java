@@ -2,8 +2,12 @@ package bugs;
 
 import java.io.IOException;
 import java.io.Reader;
-import java.io.StreamTokenizer;
-import java.io.StringReader;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 
 /**
  * This class consists of a number of methods that "recognize" strings
@@ -19,134 +23,276 @@ import java.io.StringReader;
  *       unrecoverable error has occurred and throw a
  *       <code>SyntaxException</code></li>.
  * </ul>
+ * <p>
+ * The rules are not written out here: each method recognizes its rule
+ * of <code>bugs.ebnf</code> with a <code>TableParser</code>, which reads
+ * the tokens of this Recognizer and follows the prediction table of the
+ * grammar.
+ * <p>
+ * <code>validate</code> checks a whole program against the Bugs grammar
+ * (as described in <code>bugs.ebnf</code>), reading it as a stream: it
+ * uses a fixed amount of memory however large the program is, and
+ * creates no objects for the tokens it reads. Run as an application, the
+ * Recognizer validates the files named on the command line and reports
+ * how fast it did so.
  * @author David Matuszek
  * @version February 2015
  */
 public class Recognizer {
-    /** The tokenizer used by this Parser. */
-    StreamTokenizer tokenizer = null;
-    /** The number of the line of source code currently being processed. */
-    int lineNumber;
+    /** The tokenizer used by this Recognizer. */
+    TokenStream tokenizer = null;
+
+    /** Recognizes the rules of the grammar, reading from the tokenizer. */
+    private final TableParser table;
+
+    /** The Recognizer of each thread that has asked for one. */
+    private static final ThreadLocal<Recognizer> THREAD_RECOGNIZER = new ThreadLocal<>();
     
     /**
      * Constructs a Recognizer for the given string.
      * @param text The string to be recognized.
      */
     public Recognizer(String text) {
-        Reader reader = new StringReader(text);
-        tokenizer = new StreamTokenizer(reader);
-        tokenizer.parseNumbers();
-        tokenizer.eolIsSignificant(true);
-        tokenizer.slashStarComments(true);
-        tokenizer.slashSlashComments(true);
-        tokenizer.lowerCaseMode(false);
-        tokenizer.ordinaryChars(33, 47);
-        tokenizer.ordinaryChars(58, 64);
-        tokenizer.ordinaryChars(91, 96);
-        tokenizer.ordinaryChars(123, 126);
-        tokenizer.quoteChar('\"');
-        lineNumber = 1;
+        this(new BugsLexer(text));
+    }
+
+    /**
+     * Constructs a Recognizer for the characters read from the given Reader.
+     * The Reader is not closed by the Recognizer.
+     * @param reader The source of the text to be recognized.
+     */
+    public Recognizer(Reader reader) {
+        this(new BugsLexer(reader));
+    }
+
+    /**
+     * Constructs a Recognizer for the UTF-8 encoded text read from the given
+     * channel. The channel is not closed by the Recognizer.
+     * @param channel The source of the text to be recognized.
+     */
+    public Recognizer(ReadableByteChannel channel) {
+        this(new BugsLexer(channel));
+    }
+
+    /**
+     * Constructs a Recognizer for the UTF-8 encoded text in the given file.
+     * The file is memory-mapped, not read into memory, so the memory
+     * needed does not depend on the size of the file.
+     * @param path The file containing the text to be recognized.
+     * @throws IOException If the file cannot be opened.
+     */
+    public Recognizer(Path path) throws IOException {
+        this(new BugsLexer(path));
+    }
+
+    /**
+     * Constructs a Recognizer for the tokens of the given lexer.
+     * @param lexer The source of the tokens to be recognized.
+     */
+    Recognizer(BugsLexer lexer) {
+        tokenizer = new TokenStream(lexer);
+        table = new TableParser(tokenizer, Grammar.bugs());
+    }
+
+    /**
+     * Returns the calling thread's own Recognizer, ready to recognize
+     * the given text. The same Recognizer is returned each time, reset to
+     * the new text, so its buffers are reused. It must not be used after
+     * the thread's next call to this method.
+     * @param text The text to be recognized.
+     * @return The thread's Recognizer.
+     */
+    public static Recognizer forThread(CharSequence text) {
+        Recognizer recognizer = THREAD_RECOGNIZER.get();
+        if (recognizer == null) {
+            recognizer = new Recognizer(new BugsLexer(text));
+            THREAD_RECOGNIZER.set(recognizer);
+        }
+        else {
+            recognizer.reset(text);
+        }
+        return recognizer;
+    }
+
+    /**
+     * Starts over, recognizing the given text, as a new Recognizer
+     * would, but keeping the buffers this Recognizer has already
+     * allocated.
+     * @param text The text to be recognized.
+     */
+    public void reset(CharSequence text) {
+        table.reset(text);
+    }
+
+    /**
+     * Checks that the UTF-8 encoded text read from the given channel is
+     * a valid Bugs program. The text is read as it is checked, using a
+     * fixed amount of memory, and no objects are created for the tokens
+     * (except to describe an error). The channel is not closed.
+     * @param channel The source of the program.
+     * @return The number of tokens in the program, counting the EOF.
+     * @throws SyntaxException If the program is not valid.
+     */
+    public static long validate(ReadableByteChannel channel) {
+        Grammar grammar = Grammar.bugs();
+        BugsLexer lexer = new BugsLexer(channel);
+        int[] items = new int[64];
+        int itemCount = 0;
+        items[itemCount++] = Grammar.item(Grammar.NONTERMINAL, Grammar.KEEP,
+                                          grammar.nonterminal("program"));
+        long tokens = 1;
+        Token.Type type = lexer.nextType();
+        int terminal = grammar.terminal(type, lexer);
+        // The end of the input also ends the last line, so an EOL is
+        // matched before the EOF unless the last token was an EOL.
+        boolean afterEol = true;
+        boolean eolBeforeEof = false;
+        if (terminal == Grammar.T_EOF) {
+            terminal = Grammar.T_EOL;
+            eolBeforeEof = true;
+        }
+        while (itemCount > 0) {
+            int item = items[--itemCount];
+            int index = Grammar.index(item);
+            switch (Grammar.kind(item)) {
+                case Grammar.TERMINAL:
+                    if (terminal != index) {
+                        validationError(lexer, "Expected " + grammar.terminalName(index)
+                                        + " but found " + describe(terminal, lexer));
+                    }
+                    if (eolBeforeEof) {
+                        terminal = Grammar.T_EOF;
+                        eolBeforeEof = false;
+                        afterEol = true;
+                    }
+                    else if (terminal != Grammar.T_EOF) {
+                        afterEol = terminal == Grammar.T_EOL;
+                        type = lexer.nextType();
+                        tokens++;
+                        terminal = grammar.terminal(type, lexer);
+                        if (terminal == Grammar.T_EOF && !afterEol) {
+                            terminal = Grammar.T_EOL;
+                            eolBeforeEof = true;
+                        }
+                    }
+                    break;
+                case Grammar.NONTERMINAL:
+                    int alternative = grammar.predict(index, terminal);
+                    if (alternative < 0) {
+                        validationError(lexer, "Unexpected " + describe(terminal, lexer)
+                                        + " in " + grammar.ruleName(index));
+                    }
+                    int[] production = grammar.production(index, alternative);
+                    if (itemCount + production.length > items.length) {
+                        items = Arrays.copyOf(items, 2 * (itemCount + production.length));
+                    }
+                    for (int i = production.length - 1; i >= 0; i--) {
+                        if (Grammar.kind(production[i]) == Grammar.TERMINAL
+                                || Grammar.kind(production[i]) == Grammar.NONTERMINAL) {
+                            items[itemCount++] = production[i];
+                        }
+                    }
+                    break;
+                default: // nodes and ends of rules only matter when building trees
+                    break;
+            }
+        }
+        return tokens;
     }
 
     /**
-     * TODO You need to fill in the Javadoc here!
+     * Validates each of the files named on the command line, and prints
+     * the result, the number of tokens, and the rate at which the file
+     * was read.
+     * @param args The names of the files to validate.
+     * @throws IOException If a file cannot be read.
+     */
+    public static void main(String[] args) throws IOException {
+        for (String name : args) {
+            Path path = Paths.get(name);
+            double megabytes = Files.size(path) / 1e6;
+            long start = System.nanoTime();
+            String result;
+            try (FileChannel channel = FileChannel.open(path)) {
+                long tokens = validate(channel);
+                result = "valid, " + tokens + " tokens";
+            }
+            catch (SyntaxException e) {
+                result = e.getMessage();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%s: %s (%.1f MB in %.0f ms, %.1f MB/s)%n",
+                              name, result, megabytes, seconds * 1000, megabytes / seconds);
+        }
+    }
+
+    /**
+     * Tries to recognize an &lt;expression&gt;.
+     * <pre>&lt;expression&gt; ::= &lt;arithmetic expression&gt; { &lt;comparator&gt; &lt;arithmetic expression&gt; }</pre>
+     * A <code>SyntaxException</code> will be thrown if the expression
+     * begins but is not complete.
+     * @return <code>true</code> if an expression is recognized.
      */
     public boolean isExpression() {
-        // TODO You need to expand this definition!
-        return isArithmeticExpression();
+        return table.recognize("expression");
     }
 
     /**
      * Tries to recognize an &lt;arithmetic expression&gt;.
-     * <pre>&lt;arithmetic expression&gt; ::= [ &lt;add_operator&gt; ] &lt;term&gt; { &lt;add_operator&gt; &lt;term&gt; }</pre>
+     * <pre>&lt;arithmetic expression&gt; ::= &lt;term&gt; { &lt;add_operator&gt; &lt;term&gt; }</pre>
      * A <code>SyntaxException</code> will be thrown if the add_operator
-     * is present but not followed by a valid &lt;expression&gt;.
-     * @return <code>true</code> if an expression is recognized.
+     * is present but not followed by a valid &lt;term&gt;.
+     * @return <code>true</code> if an arithmetic expression is recognized.
      */
     public boolean isArithmeticExpression() {
-        if (!isTerm())
-            return false;
-        while (isAddOperator()) {
-            if (!isTerm()) error("Error in expression after '+' or '-'");
-        }
-        return true;
+        return table.recognize("arithmetic_expression");
     }
 
     /**
      * Tries to recognize a &lt;term&gt;.
-     * <pre>&lt;term&gt; ::= &lt;factor&gt; { &lt;multiply_operator&gt; &lt;term&gt;}</pre>
+     * <pre>&lt;term&gt; ::= &lt;factor&gt; { &lt;multiply_operator&gt; &lt;factor&gt; }</pre>
      * A <code>SyntaxException</code> will be thrown if the multiply_operator
-     * is present but not followed by a valid &lt;term&gt;.
+     * is present but not followed by a valid &lt;factor&gt;.
      * @return <code>true</code> if a term is recognized.
      */
     public boolean isTerm() {
-        if (!isFactor()) return false;
-        while (isMultiplyOperator()) {
-            if (!isFactor()) error("No term after '*' or '/'");
-        }
-        return true;
+        return table.recognize("term");
     }
 
     /**
      * Tries to recognize a &lt;factor&gt;.
-     * <pre>&lt;factor&gt; ::= [ &lt;add operator&gt; ] &lt;unsigned factor&gt;</pre>
-     * @return <code>true</code> if a factor is parsed.
+     * <pre>&lt;factor&gt; ::= [ &lt;add_operator&gt; ] &lt;unsigned factor&gt;</pre>
+     * A <code>SyntaxException</code> will be thrown if a unary plus or
+     * minus is not followed by a valid &lt;unsigned factor&gt;.
+     * @return <code>true</code> if a factor is recognized.
      */
     public boolean isFactor() {
-        if(symbol("+") || symbol("-")) {
-            if (isUnsignedFactor()) {
-                return true;
-            }
-            error("No factor following unary plus or minus");
-            return false; // Can't ever get here
-        }
-        return isUnsignedFactor();
+        return table.recognize("factor");
     }
 
     /**
      * Tries to recognize an &lt;unsigned factor&gt;.
-     * <pre>&lt;factor&gt; ::= &lt;name&gt; "." &lt;name&gt;
-     *           | &lt;name&gt; "(" &lt;parameter list&gt; ")"
-     *           | &lt;name&gt;
-     *           | &lt;number&gt;
-     *           | "(" &lt;expression&gt; ")"</pre>
-     * A <code>SyntaxException</code> will be thrown if the opening
-     * parenthesis is present but not followed by a valid
-     * &lt;expression&gt; and a closing parenthesis.
-     * @return <code>true</code> if a factor is recognized.
+     * <pre>&lt;unsigned factor&gt; ::= &lt;name&gt; [ "." &lt;name&gt; | &lt;parameter list&gt; ]
+     *                    | &lt;number&gt;
+     *                    | "(" &lt;expression&gt; ")"</pre>
+     * A <code>SyntaxException</code> will be thrown if the factor begins
+     * but is not complete, for example if an opening parenthesis is not
+     * followed by a valid &lt;expression&gt; and a closing parenthesis.
+     * @return <code>true</code> if an unsigned factor is recognized.
      */
     public boolean isUnsignedFactor() {
-        if (isVariable()) {
-            if (symbol(".")) {              // reference to another Bug
-                if (name()) return true;
-                error("Incorrect use of dot notation");
-            }
-            else if (isParameterList()) return true; // function call
-            else return true;                        // just a variable
-        }
-        if (number()) return true;
-        if (symbol("(")) {
-            if (!isExpression()) error("Error in parenthesized expression");
-            if (!symbol(")")) error("Unclosed parenthetical expression");
-            return true;
-       }
-       return false;
+        return table.recognize("unsigned_factor");
     }
 
     /**
      * Tries to recognize a &lt;parameter list&gt;.
-     * <pre>&ltparameter list&gt; ::= "(" [ &lt;expression&gt; { "," &lt;expression&gt; } ] ")"
+     * <pre>&lt;parameter list&gt; ::= "(" [ &lt;expression&gt; { "," &lt;expression&gt; } ] ")"</pre>
+     * A <code>SyntaxException</code> will be thrown if the list begins
+     * but is not complete.
      * @return <code>true</code> if a parameter list is recognized.
      */
     public boolean isParameterList() {
-        if (!symbol("(")) return false;
-        if (isExpression()) {
-            while (symbol(",")) {
-                if (!isExpression()) error("No expression after ','");
-            }
-        }
-        if (!symbol(")")) error("Parameter list doesn't end with ')'");
-        return true;
+        return table.recognize("parameter_list");
     }
 
     /**
@@ -155,7 +301,7 @@ public class Recognizer {
      * @return <code>true</code> if an addop is recognized.
      */
     public boolean isAddOperator() {
-        return symbol("+") || symbol("-");
+        return table.recognize("add_operator");
     }
 
     /**
@@ -164,7 +310,7 @@ public class Recognizer {
      * @return <code>true</code> if a multiply_operator is recognized.
      */
     public boolean isMultiplyOperator() {
-        return symbol("*") || symbol("/");
+        return table.recognize("multiply_operator");
     }
 
     /**
@@ -178,16 +324,6 @@ public class Recognizer {
 
 //----- Private "helper" methods
 
-    /**
-     * Tests whether the next token is a number. If it is, the token
-     * is consumed, otherwise it is not.
-     *
-     * @return <code>true</code> if the next token is a number.
-     */
-    private boolean number() {
-        return nextTokenMatches(Token.Type.NUMBER);
-    }
-
     /**
      * Tests whether the next token is a name. If it is, the token
      * is consumed, otherwise it is not.
@@ -198,28 +334,6 @@ public class Recognizer {
         return nextTokenMatches(Token.Type.NAME);
     }
 
-    /**
-     * Tests whether the next token is the expected name. If it is, the token
-     * is consumed, otherwise it is not.
-     *
-     * @param expectedName The String value of the expected next token.
-     * @return <code>true</code> if the next token is a name with the expected value.
-     */
-    private boolean name(String expectedName) {
-        return nextTokenMatches(Token.Type.NAME, expectedName);
-    }
-
-    /**
-     * Tests whether the next token is the expected keyword. If it is, the token
-     * is moved to the stack, otherwise it is not.
-     *
-     * @param expectedKeyword The String value of the expected next token.
-     * @return <code>true</code> if the next token is a keyword with the expected value.
-     */
-    private boolean keyword(String expectedKeyword) {
-        return nextTokenMatches(Token.Type.KEYWORD, expectedKeyword);
-    }
-
     /**
      * Tests whether the next token is the expected symbol. If it is,
      * the token is consumed, otherwise it is not.
@@ -241,10 +355,9 @@ public class Recognizer {
      * @return <code>true</code> if the next token has the expected type.
      */
     boolean nextTokenMatches(Token.Type type) {
-        Token t = nextToken();
-        if (t.type == type) return true;
-        pushBack();
-        return false;
+        if (tokenizer.peek(1).type != type) return false;
+        tokenizer.consume();
+        return true;
     }
 
     /**
@@ -259,10 +372,10 @@ public class Recognizer {
      * @return <code>true</code> if the next token has the expected type.
      */
     boolean nextTokenMatches(Token.Type type, String value) {
-        Token t = nextToken();
-        if (type == t.type && value.equals(t.value)) return true;
-        pushBack();
-        return false;
+        Token token = tokenizer.peek(1);
+        if (token.type != type || !value.equals(token.getValue())) return false;
+        tokenizer.consume();
+        return true;
     }
 
     /**
@@ -270,41 +383,43 @@ public class Recognizer {
      * @return The next Token.
      */
     Token nextToken() {
-        int code;
-        try { code = tokenizer.nextToken(); }
-        catch (IOException e) { throw new Error(e); } // Should never happen
-        switch (code) {
-            case StreamTokenizer.TT_WORD:
-                if (Token.KEYWORDS.contains(tokenizer.sval)) {
-                    return new Token(Token.Type.KEYWORD, tokenizer.sval);
-                }
-                return new Token(Token.Type.NAME, tokenizer.sval);
-            case StreamTokenizer.TT_NUMBER:
-                return new Token(Token.Type.NUMBER, tokenizer.nval + "");
-            case StreamTokenizer.TT_EOL:
-                lineNumber++;
-                return new Token(Token.Type.EOL, "\n");
-            case StreamTokenizer.TT_EOF:
-                return new Token(Token.Type.EOF, "EOF");
-            default:
-                return new Token(Token.Type.SYMBOL, ((char) code) + "");
-        }
+        return tokenizer.consume();
     }
 
     /**
      * Returns the most recent Token to the tokenizer.
      */
     void pushBack() {
-        tokenizer.pushBack();  
-        if (tokenizer.ttype == tokenizer.TT_EOL) lineNumber--;
+        tokenizer.pushBack();
+    }
+
+    /**
+     * Describes the lexer's most recent token for an error message.
+     * @param terminal The terminal number that the token matched.
+     * @param lexer The lexer.
+     * @return A description.
+     */
+    private static String describe(int terminal, BugsLexer lexer) {
+        switch (terminal) {
+            case Grammar.T_EOL:
+                return "end of line";
+            case Grammar.T_EOF:
+                return "end of input";
+            default:
+                return "'" + lexer.token().getValue() + "'";
+        }
     }
 
     /**
-     * Utility routine to throw a <code>SyntaxException</code> with the
-     * given message.
+     * Throws a <code>SyntaxException</code> for an error found by
+     * <code>validate</code>. The line number is that of the last token
+     * accepted, as for <code>error</code>.
+     * @param lexer The lexer, whose most recent token is in error.
      * @param message The text to put in the <code>SyntaxException</code>.
      */
-    private void error(String message) {
-        throw new SyntaxException("Line " + lineNumber + ": " + message);
+    private static void validationError(BugsLexer lexer, String message) {
+        lexer.pushBack();
+        throw new SyntaxException("Line " + lexer.lineNumber() + ": " + message);
     }
+
 }
@@ -2,9 +2,11 @@ package bugs;
 
 import static org.junit.Assert.*;
 
-import java.io.Reader;
-import java.io.StreamTokenizer;
-import java.io.StringReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -79,6 +81,27 @@ public class RecognizerTest {
         assertTrue(new Recognizer("12+(+5*10)").isArithmeticExpression());
     }
 
+    @Test
+    public void testIsExpression() {
+        assertTrue(r4.isExpression()); followedBy(r4, "");
+        assertFalse(r0.isExpression());
+        assertFalse(r8.isExpression());
+
+        Recognizer r = new Recognizer("x <= f(y) + 1 $");
+        assertTrue(r.isExpression()); followedBy(r, "$");
+        r = new Recognizer("a.b != 2 = c\n");
+        assertTrue(r.isExpression()); followedBy(r, "\n");
+        r = new Recognizer("x < (1 >= 2)");
+        assertTrue(r.isExpression());
+        try {
+            new Recognizer("x <").isExpression();
+            fail();
+        }
+        catch (SyntaxException e) {
+            // expected
+        }
+    }
+
     @Test
     public void testIsTerm() {
         assertFalse(r0.isTerm()); // ""
@@ -222,6 +245,142 @@ public class RecognizerTest {
         assertEquals(new Token(Token.Type.NUMBER, "25.0"), r.nextToken());
     }
     
+    @Test
+    public void testReset() {
+        Recognizer r = Recognizer.forThread("12 * (5 - 3)");
+        assertTrue(r.isArithmeticExpression());
+        assertSame(r, Recognizer.forThread("#"));
+        assertFalse(r.isArithmeticExpression());
+        r.reset("17 +");
+        try {
+            r.isArithmeticExpression();
+            fail();
+        }
+        catch (SyntaxException e) {
+            // expected
+        }
+        r.reset("hello");
+        assertTrue(r.isArithmeticExpression());
+        assertEquals(Token.Type.EOF, r.nextToken().type);
+    }
+
+    @Test
+    public void testValidate() {
+        String program = "Allbugs {\n  var a\n}\n\nBug b {\n  move a * 2\n"
+                         + "  define f using x {\n    return x <= 1\n  }\n}\n";
+        assertEquals(countTokens(program), Recognizer.validate(channel(program)));
+        // The last line need not end with a newline.
+        program = "Bug b {\n  turn -1\n}";
+        assertEquals(countTokens(program), Recognizer.validate(channel(program)));
+    }
+
+    @Test
+    public void testValidateErrors() {
+        assertValidateError("Bug b {\n  move 1 2\n}\n", "Line 2: Unexpected '2.0' in eol");
+        assertValidateError("Bug b {\n}\n", "Line 2: Unexpected '}' in commands");
+        assertValidateError("Allbugs {\n}\n", "Line 3: Unexpected end of input in bugs");
+        assertValidateError("Bug b {\n  x = (1\n}\n", "Line 2: Expected ')' but found end of line");
+    }
+
+    @Test
+    public void testValidateAgreesWithTableParser() {
+        String[] programs = {
+            "Bug b {\n  color red\n}\n",
+            "Bug b {\n  color\n}\n",
+            "Bug b {\n  switch {\n    case x\n      do f\n  }\n}\n",
+            "Bug b {\n  switch {\n    case\n  }\n}\n",
+            "Bug b {\n  loop {\n    exit if a.b != 2\n  }\n}\nBug c {\n  line 1, 2, 3, 4\n}",
+            "Bug b {\n  line 1, 2, 3\n}\n",
+            "\n\nBug b {\n  initially {\n  }\n  moveto 0, 0\n}\n\n",
+            "Bug b {\n  var x y\n  move x\n}\n",
+        };
+        for (String program : programs) {
+            String expected;
+            try {
+                new TableParser(program).recognize("program");
+                expected = "valid";
+            }
+            catch (SyntaxException e) {
+                expected = e.getMessage();
+            }
+            String actual;
+            try {
+                Recognizer.validate(channel(program));
+                actual = "valid";
+            }
+            catch (SyntaxException e) {
+                actual = e.getMessage();
+            }
+            assertEquals(program, expected, actual);
+        }
+    }
+
+    @Test
+    public void testValidateLongStream() {
+        final byte[] bug = ("Bug b {\n  var x\n  loop {\n    x = x + 1.5 * f(x, y.z)\n"
+                            + "    exit if x >= 100\n  }\n}\n").getBytes(StandardCharsets.UTF_8);
+        final int copies = 20000;
+        // Generates the copies as they are read, so the program is never in memory.
+        InputStream in = new InputStream() {
+            private int position = 0;
+
+            @Override
+            public int read() {
+                if (position == copies * bug.length) return -1;
+                return bug[position++ % bug.length];
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (position == copies * bug.length) return -1;
+                int n = Math.min(len, bug.length - position % bug.length);
+                System.arraycopy(bug, position % bug.length, b, off, n);
+                position += n;
+                return n;
+            }
+        };
+        long tokens = Recognizer.validate(Channels.newChannel(in));
+        assertEquals(copies * (countTokens(new String(bug, StandardCharsets.UTF_8)) - 1) + 1, tokens);
+    }
+
+//  ----- "Helper" methods
+
+    /**
+     * Asserts that validating the given program fails with the given message.
+     * @param program The program.
+     * @param message The expected message.
+     */
+    private void assertValidateError(String program, String message) {
+        try {
+            Recognizer.validate(channel(program));
+            fail("Validated " + program);
+        }
+        catch (SyntaxException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    /**
+     * Returns a channel from which the given text can be read.
+     * @param text The text.
+     * @return A channel supplying the text in UTF-8.
+     */
+    private ReadableByteChannel channel(String text) {
+        return Channels.newChannel(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Counts the tokens in the given text, including the EOF.
+     * @param text The text.
+     * @return The number of tokens.
+     */
+    private long countTokens(String text) {
+        BugsLexer lexer = new BugsLexer(text);
+        long count = 1;
+        while (lexer.nextType() != Token.Type.EOF) count++;
+        return count;
+    }
+
 //  ----- "Helper" methods
 
     /**
@@ -237,31 +396,11 @@ public class RecognizerTest {
      * @param expectedTokens The Tokens we expect to get from the Tokenizer.
      */
     private void followedBy(Recognizer recognizer, String expectedTokens) {
-        int expectedType;
-        int actualType;
-        StreamTokenizer actual = recognizer.tokenizer;
-
-        Reader reader = new StringReader(expectedTokens);
-        StreamTokenizer expected = new StreamTokenizer(reader);
-        expected.ordinaryChar('-');
-        expected.ordinaryChar('/');
-
-        try {
-            while (true) {
-                expectedType = expected.nextToken();
-                if (expectedType == StreamTokenizer.TT_EOF) break;
-                actualType = actual.nextToken();
-                assertEquals(expectedType, actualType);
-                if (actualType == StreamTokenizer.TT_WORD) {
-                    assertEquals(expected.sval, actual.sval);
-                }
-                else if (actualType == StreamTokenizer.TT_NUMBER) {
-                    assertEquals(expected.nval, actual.nval, 0.001);
-                }
-            }
-        }
-        catch (Exception e) {
-            e.printStackTrace();
+        BugsLexer expected = new BugsLexer(expectedTokens);
+        Token expectedToken = expected.nextToken();
+        while (expectedToken.type != Token.Type.EOF) {
+            assertEquals(expectedToken, recognizer.nextToken());
+            expectedToken = expected.nextToken();
         }
     }
 }
@@ -0,0 +1,80 @@
+package bugs;
+
+/**
+ * Measures what reusing a <code>Parser</code> saves when parsing many
+ * small expressions, from 10 to 100 characters long: each expression is
+ * parsed by a new Parser, and by the thread's Parser from
+ * <code>Parser.forThread</code>, which is reset for each. The
+ * <code>Recognizer</code> is timed the same way. Run it as an
+ * application; the optional argument is the number of expressions
+ * parsed in each round (default 1000000).
+ */
+public class ResetBenchmark {
+    private static final int ROUNDS = 5;
+
+    /** Expressions of 10 to 100 characters. */
+    static final String[] EXPRESSIONS = {
+        "x + 1 * y2",
+        "distance(x, y) >= 100",
+        "-(a.b + f(x, 2 * y)) / 3 - -z",
+        "steps * 15.5 - (angle + 90) / 2 != heading * 3 + 1",
+        "a < b + c * d - e / f + g * (h - i) / j - k * l + m / n - o * p + q",
+        "(x1 - x2) * (x1 - x2) + (y1 - y2) * (y1 - y2) <= r * r + 2 * f(r, other.r) - g(1, 2, 3)",
+    };
+
+    /**
+     * Times the parsers and prints the results.
+     * @param args The number of expressions per round, if given.
+     */
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        for (int round = 0; round < ROUNDS; round++) {
+            boolean last = round == ROUNDS - 1;
+            time("new Parser", count, 0, last);
+            time("Parser.forThread", count, 1, last);
+            time("new Recognizer", count, 2, last);
+            time("Recognizer.forThread", count, 3, last);
+        }
+    }
+
+    /**
+     * Parses the expressions, and prints the time taken and memory
+     * allocated per expression.
+     * @param name The name of the way of parsing.
+     * @param count The number of expressions to parse.
+     * @param way How to parse: 0 to 3, in the order of <code>main</code>.
+     * @param print Whether to print the results.
+     */
+    private static void time(String name, int count, int way, boolean print) {
+        long before = ValidatorBenchmark.allocatedBytes();
+        long start = System.nanoTime();
+        long characters = 0;
+        for (int i = 0; i < count; i++) {
+            String text = EXPRESSIONS[i % EXPRESSIONS.length];
+            characters += text.length();
+            boolean parsed;
+            switch (way) {
+                case 0:
+                    parsed = new Parser(text).isExpression();
+                    break;
+                case 1:
+                    parsed = Parser.forThread(text).isExpression();
+                    break;
+                case 2:
+                    parsed = new Recognizer(text).isExpression();
+                    break;
+                default:
+                    parsed = Recognizer.forThread(text).isExpression();
+                    break;
+            }
+            if (!parsed) throw new AssertionError(text);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = ValidatorBenchmark.allocatedBytes() - before;
+        if (!print) return;
+        System.out.printf("%-21s %7.1f ns/expression %6.1f MB/s", name,
+                          (double) elapsed / count, characters * 1e3 / elapsed);
+        if (before >= 0) System.out.printf(" %7.0f bytes/expression", (double) allocated / count);
+        System.out.println();
+    }
+}
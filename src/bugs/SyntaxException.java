@@ -41,4 +41,18 @@ public class SyntaxException extends RuntimeException {
         super(message, cause);
     }
 
+    /**
+     * Constructor for SyntaxException.
+     * @param message An error message to include.
+     * @param cause The original Exception that occurred.
+     * @param enableSuppression Whether suppression is enabled.
+     * @param writableStackTrace Whether the stack trace should be
+     *        writable; if not, none is recorded, which makes the
+     *        exception much cheaper to create.
+     */
+    protected SyntaxException(String message, Throwable cause,
+                              boolean enableSuppression, boolean writableStackTrace) {
+        super(message, cause, enableSuppression, writableStackTrace);
+    }
+
 }
@@ -0,0 +1,306 @@
+package bugs;
+
+import java.util.Arrays;
+
+import tree.Tree;
+
+/**
+ * A table-driven parser for the Bugs language. Rather than encoding the
+ * grammar in methods, as the <code>Parser</code> does, it follows the
+ * prediction table of a
+ * <code>Grammar</code> (normally the one described in
+ * <code>bugs.ebnf</code>), using an explicit stack of grammar items.
+ * Every choice is made by looking at the next token, so no token is ever
+ * tried and then pushed back.
+ * <p>
+ * The same table drives two modes. <code>recognize</code> only checks
+ * that the tokens follow the grammar; <code>parse</code> also builds the
+ * tree that the grammar describes, which is the same tree the
+ * <code>Parser</code> builds. The <code>Recognizer</code> uses
+ * <code>recognize</code> for each of its rules.
+ * <p>
+ * As with the <code>Parser</code>, the end of the input counts as the
+ * end of a line, so the last line need not end with a newline.
+ */
+public class TableParser {
+    private final Grammar grammar;
+    private final TokenStream tokenizer;
+    /** <code>true</code> if the last token consumed was an EOL (or EOF). */
+    private boolean afterEol = true;
+
+    /** The stack of grammar items still to be matched. */
+    private int[] items = new int[64];
+    private int itemCount = 0;
+
+    // While building a tree, each rule being parsed has a frame. Its
+    // root (or null) is in roots; the trees it has built without a root
+    // are on the node stack, above the frame's base.
+    private final NodeStack nodes = new NodeStack();
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Tree<Token>[] roots = new Tree[16];
+    private int[] bases = new int[16];
+    private int frameCount = 0;
+
+    /**
+     * Constructs a TableParser for the given string, using the Bugs
+     * grammar.
+     * @param text The string to be parsed.
+     */
+    public TableParser(String text) {
+        this(new TokenStream(new BugsLexer(text)), Grammar.bugs());
+    }
+
+    /**
+     * Constructs a TableParser for the given tokens and grammar.
+     * @param tokenizer The source of the tokens.
+     * @param grammar The grammar to follow.
+     */
+    TableParser(TokenStream tokenizer, Grammar grammar) {
+        this.tokenizer = tokenizer;
+        this.grammar = grammar;
+    }
+
+    /**
+     * Tries to recognize the named rule of the grammar, without building
+     * a tree. If the next token cannot begin the rule, nothing is
+     * consumed and <code>false</code> is returned. Otherwise the rule is
+     * matched in full, or a <code>SyntaxException</code> is thrown.
+     * @param rule The name of a rule, such as "program" or "expression".
+     * @return <code>true</code> if the rule is recognized.
+     */
+    public boolean recognize(String rule) {
+        return run(grammar.nonterminal(rule), false);
+    }
+
+    /**
+     * Tries to parse the named rule of the grammar, and returns the tree
+     * built for it. If the next token cannot begin the rule, nothing is
+     * consumed and <code>null</code> is returned. Otherwise the rule is
+     * matched in full, or a <code>SyntaxException</code> is thrown.
+     * @param rule The name of a rule, such as "program" or "expression".
+     * @return The tree for the rule, or <code>null</code>.
+     */
+    public Tree<Token> parse(String rule) {
+        if (!run(grammar.nonterminal(rule), true)) return null;
+        if (nodes.size() != 1) {
+            throw new IllegalStateException("Rule " + rule + " does not build one tree");
+        }
+        return nodes.pop();
+    }
+
+    /**
+     * Starts over, reading the given text, as a new TableParser would,
+     * but keeping the buffers already allocated.
+     * @param text The text to be parsed.
+     */
+    void reset(CharSequence text) {
+        tokenizer.restart(text);
+        afterEol = true;
+    }
+
+    /**
+     * Returns the next Token.
+     * @return The next Token.
+     */
+    Token nextToken() {
+        return consume();
+    }
+
+    //------------------------- Private "helper" methods
+
+    /**
+     * Matches a nonterminal, driven by the prediction table.
+     * @param start The nonterminal to match.
+     * @param build Whether to build a tree.
+     * @return <code>false</code> if the next token cannot begin the
+     *         nonterminal.
+     */
+    private boolean run(int start, boolean build) {
+        if (grammar.predict(start, grammar.terminal(lookahead())) < 0) return false;
+        itemCount = 0;
+        frameCount = 0;
+        nodes.clear();
+        if (build) pushFrame();
+        pushItem(Grammar.item(Grammar.NONTERMINAL, Grammar.KEEP, start));
+        while (itemCount > 0) {
+            int item = items[--itemCount];
+            int mode = Grammar.mode(item);
+            int index = Grammar.index(item);
+            switch (Grammar.kind(item)) {
+                case Grammar.TERMINAL:
+                    if (grammar.terminal(lookahead()) != index) {
+                        error("Expected " + grammar.terminalName(index)
+                              + " but found " + describe(lookahead()));
+                    }
+                    Token token = consume();
+                    if (build && mode != Grammar.DROP) add(new Tree<>(token), mode);
+                    break;
+                case Grammar.NONTERMINAL:
+                    int alternative = grammar.predict(index, grammar.terminal(lookahead()));
+                    if (alternative < 0) {
+                        error("Unexpected " + describe(lookahead()) + " in "
+                              + grammar.ruleName(index));
+                    }
+                    if (build && !grammar.isPart(index)) {
+                        pushFrame();
+                        pushItem(Grammar.item(Grammar.END, mode, index));
+                    }
+                    int[] production = grammar.production(index, alternative);
+                    for (int i = production.length - 1; i >= 0; i--) {
+                        pushItem(production[i]);
+                    }
+                    break;
+                case Grammar.NODE:
+                    if (build) add(new Tree<>(grammar.nodeToken(index)), mode);
+                    break;
+                default: // END
+                    popFrame(mode);
+                    break;
+            }
+        }
+        if (build) popFrame(Grammar.KEEP);
+        return true;
+    }
+
+    /**
+     * Returns the next token without consuming it. At the end of the
+     * input, if the last token was not an EOL, an EOL is returned first.
+     * @return The next token.
+     */
+    private Token lookahead() {
+        Token token = tokenizer.peek(1);
+        if (token.type == Token.Type.EOF && !afterEol) return Token.EOL_TOKEN;
+        return token;
+    }
+
+    /**
+     * Consumes and returns the next token, as given by <code>lookahead</code>.
+     * @return The token consumed.
+     */
+    private Token consume() {
+        Token token = lookahead();
+        if (token.type == Token.Type.EOL && tokenizer.peek(1).type == Token.Type.EOF) {
+            afterEol = true;                // the EOL at the end of the input
+            return token;
+        }
+        tokenizer.consume();
+        afterEol = token.type == Token.Type.EOL || token.type == Token.Type.EOF;
+        return token;
+    }
+
+    /**
+     * Pushes an item onto the item stack.
+     * @param item The item.
+     */
+    private void pushItem(int item) {
+        if (itemCount == items.length) items = Arrays.copyOf(items, 2 * itemCount);
+        items[itemCount++] = item;
+    }
+
+    /**
+     * Starts the tree for a rule.
+     */
+    private void pushFrame() {
+        if (frameCount == roots.length) {
+            roots = Arrays.copyOf(roots, 2 * frameCount);
+            bases = Arrays.copyOf(bases, 2 * frameCount);
+        }
+        roots[frameCount] = null;
+        bases[frameCount] = nodes.size();
+        frameCount++;
+    }
+
+    /**
+     * Finishes the tree for a rule, and adds it to the tree of the rule
+     * that used it. A rule without a root gives all of its trees.
+     * @param mode How to add the tree: KEEP or ROOT.
+     */
+    private void popFrame(int mode) {
+        frameCount--;
+        Tree<Token> root = roots[frameCount];
+        roots[frameCount] = null;
+        if (root != null) {
+            add(root, mode);
+            return;
+        }
+        if (frameCount == 0) return;                // leave the trees on the node stack
+        int base = bases[frameCount];
+        if (mode == Grammar.ROOT) {
+            if (nodes.size() - base != 1) {
+                throw new IllegalStateException("Only a single tree can become a root");
+            }
+            add(nodes.pop(), Grammar.ROOT);
+        }
+        else if (roots[frameCount - 1] != null) {
+            addChildrenFrom(base, roots[frameCount - 1]);
+        }
+        // Otherwise the trees are already where the enclosing rule keeps them.
+    }
+
+    /**
+     * Adds a tree to the rule currently being built.
+     * @param tree The tree to add.
+     * @param mode KEEP to add it as a child, ROOT to make it the root,
+     *        JOIN to join its token to the previous one.
+     */
+    private void add(Tree<Token> tree, int mode) {
+        int frame = frameCount - 1;
+        Tree<Token> root = roots[frame];
+        switch (mode) {
+            case Grammar.ROOT:
+                if (root != null) tree.addChild(root);
+                else addChildrenFrom(bases[frame], tree);
+                roots[frame] = tree;
+                break;
+            case Grammar.JOIN:
+                if (root != null || nodes.size() == bases[frame]) {
+                    throw new IllegalStateException("Nothing to join to");
+                }
+                Token previous = nodes.pop().getValue();
+                nodes.push(new Tree<>(Token.of(previous.getValue() + tree.getValue().getValue())));
+                break;
+            default:
+                if (root != null) root.addChild(tree);
+                else nodes.push(tree);
+                break;
+        }
+    }
+
+    /**
+     * Moves the trees on the node stack, from the given base up, to the
+     * given tree, as its children.
+     * @param base The node stack index of the first tree to move.
+     * @param parent The tree to add them to.
+     */
+    private void addChildrenFrom(int base, Tree<Token> parent) {
+        for (int i = base; i < nodes.size(); i++) {
+            parent.addChild(nodes.get(i));
+        }
+        while (nodes.size() > base) nodes.pop();
+    }
+
+    /**
+     * Describes a token for an error message.
+     * @param token The token.
+     * @return A description.
+     */
+    private static String describe(Token token) {
+        switch (token.type) {
+            case EOL:
+                return "end of line";
+            case EOF:
+                return "end of input";
+            default:
+                return "'" + token.getValue() + "'";
+        }
+    }
+
+    /**
+     * Utility routine to throw a <code>SyntaxException</code> with the
+     * given message.
+     * @param message The text to put in the <code>SyntaxException</code>.
+     */
+    private void error(String message) {
+        throw new SyntaxException("Line " + tokenizer.lineNumber() + ": " + message);
+    }
+}
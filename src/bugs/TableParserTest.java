@@ -0,0 +1,142 @@
+package bugs;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import tree.Tree;
+
+/**
+ * Test class for the table-driven parser. The trees it builds are
+ * compared with those built by the hand-written <code>Parser</code>.
+ */
+public class TableParserTest {
+    private static final String PROGRAM =
+        "// Two bugs\n" +
+        "Allbugs {\n" +
+        "    var total\n" +
+        "    define square using n {\n" +
+        "        return n * n\n" +
+        "    }\n" +
+        "}\n" +
+        "\n" +
+        "Bug sally {\n" +
+        "    var x, y\n" +
+        "    initially {\n" +
+        "        x = -3 + square(2) / (1 - y)\n" +
+        "        color blue\n" +
+        "    }\n" +
+        "    loop {\n" +
+        "        move x\n" +
+        "        turn fred.angle\n" +
+        "        exit if x >= 10\n" +
+        "        switch {\n" +
+        "            case x != y\n" +
+        "                line 0, 0, x, y\n" +
+        "                do report(x)\n" +
+        "            case 1 < 2 = 3 <= 4\n" +
+        "        }\n" +
+        "    }\n" +
+        "    moveto 1, 2\n" +
+        "    turnto 0\n" +
+        "    define report using a, b {\n" +
+        "        do nothing\n" +
+        "    }\n" +
+        "}\n" +
+        "Bug fred {\n" +
+        "    turn 5\n" +
+        "}";
+
+    @Test
+    public void testParseProgram() {
+        Parser parser = new Parser(PROGRAM);
+        assertTrue(parser.isProgram());
+        assertEquals(parser.stack.pop(), new TableParser(PROGRAM).parse("program"));
+    }
+
+    @Test
+    public void testRecognizeProgram() {
+        TableParser tp = new TableParser(PROGRAM);
+        assertTrue(tp.recognize("program"));
+        assertEquals(Token.EOF_TOKEN, tp.nextToken());
+    }
+
+    @Test
+    public void testParseExpressions() {
+        String[] expressions = {
+            "2", "x", "-y", "a.b", "f()", "f(1, 2 + 3)", "2 * (x + y) / 7",
+            "1 - 2 - 3", "a < b", "a <= b = c", "a != -b", "x > y >= z" };
+        for (String expression : expressions) {
+            Parser parser = new Parser(expression);
+            assertTrue(parser.isExpression());
+            assertEquals(expression, parser.stack.pop(),
+                         new TableParser(expression).parse("expression"));
+        }
+    }
+
+    @Test
+    public void testParseLeavesFollowingTokens() {
+        TableParser tp = new TableParser("2 + 2 $");
+        assertEquals(new TreeParser().parse("+(2.0 2.0)"), tp.parse("expression"));
+        assertEquals(Token.of("$"), tp.nextToken());
+    }
+
+    @Test
+    public void testNoMatch() {
+        TableParser tp = new TableParser("move 5\n");
+        assertNull(tp.parse("statement"));
+        assertFalse(tp.recognize("expression"));
+        assertTrue(tp.recognize("action"));
+    }
+
+    @Test
+    public void testParseStatements() {
+        String[] statements = {
+            "x = 5\n", "exit if 1\n", "return x\n", "do f\n", "do f(1, 2)\n",
+            "color none\n", "loop {\n}\n", "switch {\n}\n", "line 1, 2, 3, 4\n" };
+        for (String statement : statements) {
+            Parser parser = new Parser(statement);
+            assertTrue(parser.isCommand());
+            assertEquals(statement, parser.stack.pop(),
+                         new TableParser(statement).parse("command"));
+        }
+    }
+
+    @Test
+    public void testNoFinalNewline() {
+        Tree<Token> tree = new TableParser("Bug a {\n move 1\n}").parse("program");
+        assertEquals(new TreeParser().parse(
+            "list(Allbugs(list list) list(Bug(a list initially(block) block(move(1.0)) list)))"),
+            tree);
+    }
+
+    @Test
+    public void testSyntaxErrors() {
+        assertError("Bug a {\n  move 1\n  turn\n}\n", "Line 3:");
+        assertError("Bug a {\n  move 1 2\n}\n", "Line 2: Unexpected '2.0' in eol");
+        assertError("Bug a {\n  color move\n}\n", "Expected COLOR");
+        assertError("Bug a {\n  x + 1\n}\n", "Expected '='");
+        assertError("Bug a {\n}\n", "Unexpected '}' in commands");
+        assertError("Bug a {\n  move 1\n}\nmove 2\n", "Expected EOF");
+    }
+
+    /**
+     * Asserts that parsing the program fails with a message containing
+     * the given text.
+     * @param program The program.
+     * @param message Part of the expected message.
+     */
+    private void assertError(String program, String message) {
+        for (int mode = 0; mode < 2; mode++) {
+            try {
+                TableParser tp = new TableParser(program);
+                if (mode == 0) tp.parse("program");
+                else tp.recognize("program");
+                fail("No error in " + program);
+            }
+            catch (SyntaxException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains(message));
+            }
+        }
+    }
+}
@@ -3,7 +3,6 @@ package bugs;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.regex.Pattern;
 
 /**
  * Tokens specific to the Bugs language.
@@ -12,9 +11,6 @@ import java.util.regex.Pattern;
  */
 public class Token {
     static enum Type { KEYWORD, NAME, NUMBER, SYMBOL, ERROR, EOL, EOF }
-    private static final Pattern NAME_REGEX = Pattern.compile("[a-zA-Z_]\\w*");
-    private static final Pattern NUMBER_REGEX = Pattern.compile("(\\d+\\.\\d*)|(\\.?\\d+)");
-    private static final Pattern SYMBOL_REGEX = Pattern.compile("[^\\w]+");
 
     private static final String[] KEYWORD_LIST = new String[] {
         "Allbugs", "Bug", "move", "moveto", "turn", "turnto", "line",
@@ -33,6 +29,24 @@ public class Token {
         "magenta", "orange", "pink", "red", "white", "yellow", "brown",
         "purple", "none" };
 
+    /** All the keywords, pseudo keywords, and colors, for fast lookup. */
+    static final KeywordTable KEYWORD_TABLE =
+        new KeywordTable(KEYWORD_LIST, PSEUDO_KEYWORD_LIST, COLOR_LIST);
+
+    // Character classes used by typeOf; characters above 127 are symbols.
+    private static final byte SYMBOL_CHAR = 0;
+    private static final byte LETTER_CHAR = 1;
+    private static final byte DIGIT_CHAR = 2;
+    private static final byte DOT_CHAR = 3;
+    private static final byte[] CHAR_CLASS = new byte[128];
+    static {
+        for (char ch = 'a'; ch <= 'z'; ch++) CHAR_CLASS[ch] = LETTER_CHAR;
+        for (char ch = 'A'; ch <= 'Z'; ch++) CHAR_CLASS[ch] = LETTER_CHAR;
+        for (char ch = '0'; ch <= '9'; ch++) CHAR_CLASS[ch] = DIGIT_CHAR;
+        CHAR_CLASS['_'] = LETTER_CHAR;
+        CHAR_CLASS['.'] = DOT_CHAR;
+    }
+
     /** The set of strings that are considered to be keywords. */
     public static final Set<String> KEYWORDS =
         new HashSet<>(Arrays.asList(KEYWORD_LIST));
@@ -45,20 +59,52 @@ public class Token {
     public static final Set<String> COLORS =
         new HashSet<>(Arrays.asList(COLOR_LIST));
 
+    /** The one EOL Token; all EOL Tokens from the lexer are this one. */
+    static final Token EOL_TOKEN = new Token(Type.EOL, "\n");
+
+    /** The one EOF Token; all EOF Tokens from the lexer are this one. */
+    static final Token EOF_TOKEN = new Token(Type.EOF, "EOF");
+
+    /** Shared Tokens for keywords and pseudo keywords, by ordinal. */
+    private static final Token[] KEYWORD_TOKENS = new Token[KEYWORD_TABLE.size()];
+
+    /** Shared Tokens for single-character symbols, by character. */
+    private static final Token[] SYMBOL_TOKENS = new Token[128];
+
+    static {
+        for (int i = 0; i < KEYWORD_TOKENS.length; i++) {
+            KEYWORD_TOKENS[i] = new Token(Type.KEYWORD, KEYWORD_TABLE.word(i));
+        }
+        for (char ch = '!'; ch < 127; ch++) {
+            if (CHAR_CLASS[ch] == SYMBOL_CHAR || CHAR_CLASS[ch] == DOT_CHAR) {
+                SYMBOL_TOKENS[ch] = new Token(Type.SYMBOL, String.valueOf(ch));
+            }
+        }
+    }
+
     /** The type of this token (name, number, etc.). */
     final Type type;
-    /** The characters that make up this token. */
-    final String value;
+    /**
+     * The characters that make up this token. For a NUMBER token created
+     * from a <code>double</code>, this is not computed until it is needed;
+     * use <code>getValue()</code> rather than reading it directly.
+     */
+    private String value;
+    /** The numeric value of a NUMBER token; NaN for all other tokens. */
+    final double number;
 
     /**
      * Constructor for Tokens.
      * 
      * @param type The type of the token, chosen from the above list.
      * @param value The characters making up the token.
+     * @throws NumberFormatException If the type is NUMBER but the value
+     *         cannot be read as a number.
      */
     public Token(Type type, String value) {
         this.type = type;
         this.value = value;
+        this.number = type == Type.NUMBER ? Double.parseDouble(value) : Double.NaN;
     }
 
     /**
@@ -68,8 +114,112 @@ public class Token {
      * determined from the token.
      */
     public Token(String value) {
-        this.type = typeOf(value);
-        this.value = value;
+        this(typeOf(value), value);
+    }
+
+    /**
+     * Constructor for NUMBER Tokens. The characters making up the token
+     * are not computed unless they are asked for.
+     * 
+     * @param number The numeric value of the token.
+     */
+    public Token(double number) {
+        this.type = Type.NUMBER;
+        this.value = null;
+        this.number = number;
+    }
+
+    /**
+     * Returns the lists of keywords, pseudo keywords and color names as
+     * one string. Any change to the lists changes the string, so it can
+     * be used to tell whether something derived from them is out of date.
+     * @return The lists, as a string.
+     */
+    static String vocabulary() {
+        return Arrays.toString(KEYWORD_LIST) + Arrays.toString(PSEUDO_KEYWORD_LIST)
+               + Arrays.toString(COLOR_LIST);
+    }
+
+    /**
+     * Returns a Token with the given type and value. Tokens whose spelling
+     * is fixed (keywords, pseudo keywords, single-character symbols, EOL
+     * and EOF) are shared: the same instance is returned every time. Other
+     * Tokens are newly created.
+     * 
+     * @param type The type of the token.
+     * @param value The characters making up the token.
+     * @return A Token with the given type and value.
+     */
+    public static Token of(Type type, String value) {
+        switch (type) {
+            case KEYWORD:
+                int ordinal = KEYWORD_TABLE.ordinal(value);
+                if (ordinal >= 0) return KEYWORD_TOKENS[ordinal];
+                break;
+            case SYMBOL:
+                if (value.length() == 1) {
+                    Token token = symbol(value.charAt(0));
+                    if (token != null) return token;
+                }
+                break;
+            case EOL:
+                if (value.equals(EOL_TOKEN.value)) return EOL_TOKEN;
+                break;
+            case EOF:
+                if (EOF_TOKEN.value.equals(value)) return EOF_TOKEN;
+                break;
+            default:
+                break;
+        }
+        return new Token(type, value);
+    }
+
+    /**
+     * Returns a Token with the given value, whose type is determined from
+     * the value. As with <code>of(Type, String)</code>, Tokens whose
+     * spelling is fixed are shared.
+     * 
+     * @param value The characters making up the token.
+     * @return A Token with the given value.
+     */
+    public static Token of(String value) {
+        return value == null ? new Token(value) : of(typeOf(value), value);
+    }
+
+    /**
+     * Returns the shared Token for the keyword or pseudo keyword with the
+     * given ordinal in <code>KEYWORD_TABLE</code>.
+     * 
+     * @param ordinal The ordinal of the keyword.
+     * @return The Token for that keyword.
+     */
+    static Token keyword(int ordinal) {
+        return KEYWORD_TOKENS[ordinal];
+    }
+
+    /**
+     * Returns the shared Token for the given single-character symbol, or
+     * <code>null</code> if there is no shared Token for it.
+     * 
+     * @param ch The symbol.
+     * @return The Token for that symbol, or <code>null</code>.
+     */
+    static Token symbol(char ch) {
+        return ch < 128 ? SYMBOL_TOKENS[ch] : null;
+    }
+
+    /**
+     * Returns the characters that make up this token. For a NUMBER token
+     * created from a <code>double</code>, this is the standard
+     * <code>double</code> representation of its value (such as "12.0").
+     * 
+     * @return The characters making up the token.
+     */
+    public String getValue() {
+        if (value == null && type == Type.NUMBER) {
+            value = Double.toString(number);
+        }
+        return value;
     }
 
     /**
@@ -80,15 +230,73 @@ public class Token {
      */
     public static Token.Type typeOf(String s) {
         if (s == null) return Token.Type.EOF;
-        if (s.equals("\n")) return Token.Type.EOL;
-        if (SYMBOL_REGEX.matcher(s).matches()) return Token.Type.SYMBOL;
-        if (NUMBER_REGEX.matcher(s).matches()) return Token.Type.NUMBER;
-        if (NAME_REGEX.matcher(s).matches()) {
-            if (Token.KEYWORDS.contains(s)) return Token.Type.KEYWORD;
-            if (Token.PSEUDO_KEYWORDS.contains(s)) return Token.Type.KEYWORD;
-            return Token.Type.NAME;
+        int length = s.length();
+        if (length == 0) return Token.Type.ERROR;
+        switch (charClass(s.charAt(0))) {
+            case LETTER_CHAR:
+                for (int i = 1; i < length; i++) {
+                    byte c = charClass(s.charAt(i));
+                    if (c != LETTER_CHAR && c != DIGIT_CHAR) return Token.Type.ERROR;
+                }
+                int flags = KEYWORD_TABLE.flags(KEYWORD_TABLE.ordinal(s));
+                if ((flags & (KeywordTable.KEYWORD | KeywordTable.PSEUDO_KEYWORD)) != 0) {
+                    return Token.Type.KEYWORD;
+                }
+                return Token.Type.NAME;
+            case DIGIT_CHAR:
+                return isNumber(s) ? Token.Type.NUMBER : Token.Type.ERROR;
+            case DOT_CHAR:
+                if (isNumber(s)) return Token.Type.NUMBER;
+                return isSymbol(s) ? Token.Type.SYMBOL : Token.Type.ERROR;
+            default:
+                if (length == 1 && s.charAt(0) == '\n') return Token.Type.EOL;
+                return isSymbol(s) ? Token.Type.SYMBOL : Token.Type.ERROR;
+        }
+    }
+
+    /**
+     * Tests whether the string consists entirely of characters that
+     * cannot be part of a name or number (a decimal point counts as
+     * such a character).
+     * 
+     * @param s The string to test.
+     * @return <code>true</code> if the string is a symbol.
+     */
+    private static boolean isSymbol(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            byte c = charClass(s.charAt(i));
+            if (c != SYMBOL_CHAR && c != DOT_CHAR) return false;
         }
-        return Token.Type.ERROR;
+        return true;
+    }
+
+    /**
+     * Tests whether the string is a number: either digits, optionally
+     * followed by a decimal point and more digits, or a decimal point
+     * followed by at least one digit. A lone decimal point is not a number.
+     * 
+     * @param s The string to test; not empty.
+     * @return <code>true</code> if the string is a number.
+     */
+    private static boolean isNumber(String s) {
+        int length = s.length();
+        int i = 0;
+        while (i < length && charClass(s.charAt(i)) == DIGIT_CHAR) i++;
+        boolean leadingDigits = i > 0;
+        if (i < length && s.charAt(i) == '.') i++;
+        int fractionStart = i;
+        while (i < length && charClass(s.charAt(i)) == DIGIT_CHAR) i++;
+        return i == length && (leadingDigits || i > fractionStart);
+    }
+
+    /**
+     * Returns the class (symbol, letter, digit, or dot) of a character.
+     * 
+     * @param ch The character to classify.
+     * @return The character class.
+     */
+    private static byte charClass(char ch) {
+        return ch < 128 ? CHAR_CLASS[ch] : SYMBOL_CHAR;
     }
 
     /**
@@ -96,9 +304,15 @@ public class Token {
      */
     @Override
     public boolean equals(Object o) {
+        if (this == o) return true;
         if (o instanceof Token) {
             Token that = (Token) o;
-            return this.type == that.type && this.value.equals(that.value);
+            if (this.type != that.type) return false;
+            if (type == Type.NUMBER) {
+                return Double.doubleToLongBits(this.number)
+                    == Double.doubleToLongBits(that.number);
+            }
+            return this.value.equals(that.value);
         }
         return false;
     }
@@ -108,6 +322,10 @@ public class Token {
      */
     @Override
     public int hashCode() {
+        if (type == Type.NUMBER) {
+            long bits = Double.doubleToLongBits(number);
+            return (int) (bits ^ (bits >>> 32));
+        }
         return value.hashCode();
     }
 
@@ -116,7 +334,7 @@ public class Token {
      */
     @Override
     public String toString() {
-        return type + ":" + value;
+        return type + ":" + getValue();
     }
 
     /**
@@ -126,7 +344,23 @@ public class Token {
      * @return <code>true</code> if the argument is a keyword.
      */
     public static boolean isKeyword(String s) {
-        return KEYWORDS.contains(s);
+        int flags = KEYWORD_TABLE.flags(KEYWORD_TABLE.ordinal(s));
+        return (flags & KeywordTable.KEYWORD) != 0;
+    }
+
+    /**
+     * Returns <code>true</code> if the characters of <code>s</code> from
+     * <code>start</code> (inclusive) to <code>end</code> (exclusive) spell
+     * a recognized keyword, <code>false</code> otherwise. No String is
+     * created.
+     * @param s The characters containing the possible keyword.
+     * @param start The index of the first character of the possible keyword.
+     * @param end The index just past the last character of the possible keyword.
+     * @return <code>true</code> if the characters are a keyword.
+     */
+    static boolean isKeyword(char[] s, int start, int end) {
+        int flags = KEYWORD_TABLE.flags(KEYWORD_TABLE.ordinal(s, start, end));
+        return (flags & KeywordTable.KEYWORD) != 0;
     }
 
     /**
@@ -136,6 +370,7 @@ public class Token {
      * @return <code>true</code> if the argument is a keyword.
      */
     public static boolean isColor(String s) {
-        return COLORS.contains(s);
+        int flags = KEYWORD_TABLE.flags(KEYWORD_TABLE.ordinal(s));
+        return (flags & KeywordTable.COLOR) != 0;
     }
 }
\ No newline at end of file
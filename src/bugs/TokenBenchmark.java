@@ -0,0 +1,97 @@
+package bugs;
+
+import java.util.regex.Pattern;
+
+/**
+ * Compares the speed of <code>Token.typeOf</code> with the speed of the
+ * regular-expression version it replaced. Run it as an application;
+ * there are no arguments.
+ */
+public class TokenBenchmark {
+    private static final Pattern NAME_REGEX = Pattern.compile("[a-zA-Z_]\\w*");
+    private static final Pattern NUMBER_REGEX = Pattern.compile("(\\d+\\.\\d*)|(\\.?\\d+)");
+    private static final Pattern SYMBOL_REGEX = Pattern.compile("[^\\w]+");
+
+    /** A mix of words like those found in the text form of a Bugs tree. */
+    private static final String[] WORDS = {
+        "program", "Allbugs", "list", "var", "x", "y", "function", "block",
+        "Bug", "sally", "initially", "assign", "direction", "90.0", "move",
+        "call", "distance", "+", "*", "12.5", "turnto", "loop", "exit", "<=",
+        "counter", "1.0", "switch", "case", "color", "red", "line", "(", ")",
+        "return", "define", "helper", "-", "0.0", "=", "angle" };
+
+    private static final int ROUNDS = 20;
+    private static final int CALLS_PER_ROUND = 2000000;
+
+    /**
+     * Times both implementations and prints the results.
+     * @param args Not used.
+     */
+    public static void main(String[] args) {
+        for (String word : WORDS) {
+            if (Token.typeOf(word) != regexTypeOf(word)) {
+                throw new AssertionError("Disagreement on " + word);
+            }
+        }
+        // Warm up both implementations before measuring either.
+        timeRegex();
+        timeTable();
+        double regex = Double.MAX_VALUE;
+        double table = Double.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            regex = Math.min(regex, timeRegex());
+            table = Math.min(table, timeTable());
+        }
+        System.out.printf("regular expressions: %6.1f ns per call%n", regex);
+        System.out.printf("classifier table:    %6.1f ns per call%n", table);
+        System.out.printf("speedup:             %6.1fx%n", regex / table);
+    }
+
+    /**
+     * Times one round of calls to the regular-expression version.
+     * @return The average time per call, in nanoseconds.
+     */
+    private static double timeRegex() {
+        int checksum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < CALLS_PER_ROUND; i++) {
+            checksum += regexTypeOf(WORDS[i % WORDS.length]).ordinal();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (checksum == 42) System.out.print("");
+        return (double) elapsed / CALLS_PER_ROUND;
+    }
+
+    /**
+     * Times one round of calls to <code>Token.typeOf</code>.
+     * @return The average time per call, in nanoseconds.
+     */
+    private static double timeTable() {
+        int checksum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < CALLS_PER_ROUND; i++) {
+            checksum += Token.typeOf(WORDS[i % WORDS.length]).ordinal();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (checksum == 42) System.out.print("");
+        return (double) elapsed / CALLS_PER_ROUND;
+    }
+
+    /**
+     * The original implementation of <code>Token.typeOf</code>.
+     * @param s The string to classify.
+     * @return The type of the string.
+     */
+    private static Token.Type regexTypeOf(String s) {
+        if (s == null) return Token.Type.EOF;
+        if (s.equals("\n")) return Token.Type.EOL;
+        if (SYMBOL_REGEX.matcher(s).matches()) return Token.Type.SYMBOL;
+        if (NUMBER_REGEX.matcher(s).matches()) return Token.Type.NUMBER;
+        if (NAME_REGEX.matcher(s).matches()) {
+            if (Token.KEYWORDS.contains(s)) return Token.Type.KEYWORD;
+            if (Token.PSEUDO_KEYWORDS.contains(s)) return Token.Type.KEYWORD;
+            return Token.Type.NAME;
+        }
+        return Token.Type.ERROR;
+    }
+}
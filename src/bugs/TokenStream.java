@@ -0,0 +1,291 @@
+package bugs;
+
+import java.util.Arrays;
+
+/**
+ * A stream of Tokens with any amount of lookahead, backed by a ring
+ * buffer. Each token is taken from the lexer, and turned into a
+ * <code>Token</code>, exactly once; looking at it again, rejecting it,
+ * or backing up to it after a <code>reset</code> uses the Token already
+ * in the buffer.
+ * <p>
+ * Tokens are numbered from 0, in the order they appear in the source.
+ * The <em>position</em> of the stream is the number of the next token to
+ * be consumed. <code>peek(1)</code> is the token at the position,
+ * <code>peek(2)</code> the one after it, and so on.
+ * <code>consume()</code> returns <code>peek(1)</code> and advances the
+ * position by one.
+ * <p>
+ * The buffer has a fixed size, which limits how far ahead one can peek,
+ * and normally holds only the most recently consumed token and the
+ * tokens that have been peeked at but not yet consumed. While a
+ * <code>mark()</code> is active, however, every token from the mark on
+ * is kept (the buffer grows if necessary), so that <code>reset</code>
+ * can return to it.
+ */
+public class TokenStream {
+    /** The size of the buffer when none is given. */
+    static final int DEFAULT_CAPACITY = 16;
+
+    private final BugsLexer lexer;
+
+    /** The buffered Tokens; token number n is at index n &amp; mask. */
+    private Token[] tokens;
+    /** The line on which each buffered Token starts. */
+    private int[] lines;
+    /** The column in which each buffered Token starts. */
+    private int[] columns;
+    /** The offset in the source at which each buffered Token starts. */
+    private int[] starts;
+    /** The offset in the source just past each buffered Token. */
+    private int[] ends;
+    /** One less than the (power of two) size of the buffer. */
+    private int mask;
+    /** The number of the oldest buffered token. */
+    private int first = 0;
+    /** The number of the next token to be consumed. */
+    private int position = 0;
+    /** The number of the next token to be taken from the lexer. */
+    private int end = 0;
+
+    /** The active marks, oldest first. */
+    private int[] marks = new int[4];
+    /** The number of active marks. */
+    private int markCount = 0;
+
+    /**
+     * Creates a stream of the tokens produced by the given lexer, able
+     * to look ahead <code>DEFAULT_CAPACITY - 1</code> tokens.
+     * @param lexer The source of the tokens.
+     */
+    public TokenStream(BugsLexer lexer) {
+        this(lexer, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a stream of the tokens produced by the given lexer, able
+     * to look ahead <code>capacity - 1</code> tokens.
+     * @param lexer The source of the tokens.
+     * @param capacity The size of the buffer; it is rounded up to a power
+     *        of two, and must be at least 2.
+     */
+    public TokenStream(BugsLexer lexer, int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Capacity must be at least 2: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.lexer = lexer;
+        this.tokens = new Token[size];
+        this.lines = new int[size];
+        this.columns = new int[size];
+        this.starts = new int[size];
+        this.ends = new int[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Starts over with the tokens of the given text, keeping the buffer
+     * but forgetting all of its tokens and any marks. The lexer is
+     * reset to the text.
+     * @param text The text to be broken into tokens.
+     */
+    public void restart(CharSequence text) {
+        lexer.reset(text);
+        Arrays.fill(tokens, null);
+        first = 0;
+        position = 0;
+        end = 0;
+        markCount = 0;
+    }
+
+    /**
+     * Returns the k-th token after the current position, without
+     * consuming it; <code>peek(1)</code> is the next token.
+     * @param k How far to look ahead; from 1 to one less than the
+     *        capacity.
+     * @return The token.
+     */
+    public Token peek(int k) {
+        if (k < 1 || k >= tokens.length) {
+            throw new IllegalArgumentException("Cannot look ahead " + k + " tokens");
+        }
+        int n = position + k - 1;
+        while (end <= n) lex();
+        return tokens[n & mask];
+    }
+
+    /**
+     * Returns the next token and advances past it.
+     * @return The token that was at the current position.
+     */
+    public Token consume() {
+        Token token = peek(1);
+        position++;
+        return token;
+    }
+
+    /**
+     * Backs up over the most recently consumed token, so that it will be
+     * the next token again. One token can always be pushed back; more can
+     * be only while they are still in the buffer, as they are while a
+     * mark holds them.
+     */
+    public void pushBack() {
+        if (position > first) position--;
+    }
+
+    /**
+     * Marks the current position, so that the stream can later be reset
+     * to it. Every token from the mark on is kept until the mark is
+     * released, either by <code>reset</code> or by <code>release</code>.
+     * Marks must be released in the opposite order to which they were
+     * made.
+     * @return The marked position.
+     */
+    public int mark() {
+        if (markCount == marks.length) marks = Arrays.copyOf(marks, 2 * markCount);
+        marks[markCount++] = position;
+        return position;
+    }
+
+    /**
+     * Returns to a marked position, and releases the mark.
+     * @param mark A value returned by <code>mark()</code>.
+     */
+    public void reset(int mark) {
+        release(mark);
+        position = mark;
+    }
+
+    /**
+     * Releases a mark without changing the position.
+     * @param mark A value returned by <code>mark()</code>.
+     */
+    public void release(int mark) {
+        if (markCount == 0 || marks[markCount - 1] != mark) {
+            throw new IllegalStateException("Mark " + mark + " is not the most recent mark");
+        }
+        markCount--;
+    }
+
+    /**
+     * Returns the current position, that is, the number of tokens
+     * consumed and not pushed back or reset.
+     * @return The number of tokens consumed.
+     */
+    public int consumedCount() {
+        return position;
+    }
+
+    /**
+     * Returns the number of tokens taken from the lexer. Since no token
+     * is ever lexed twice, this exceeds <code>consumedCount()</code> only
+     * by the number of tokens looked at but not (yet) consumed.
+     * @return The number of tokens lexed.
+     */
+    public int lexedCount() {
+        return end;
+    }
+
+    /**
+     * Returns the number of the line currently being processed, that is,
+     * one more than the number of EOL tokens consumed so far.
+     * @return The current line number.
+     */
+    public int lineNumber() {
+        if (position == 0) return end == 0 ? lexer.lineNumber() : lines[0];
+        int i = (position - 1) & mask;
+        return tokens[i].type == Token.Type.EOL ? lines[i] + 1 : lines[i];
+    }
+
+    /**
+     * Returns the line on which the k-th token after the current position
+     * starts; an EOL token is on the line that it ends.
+     * @param k How far to look ahead, as for <code>peek</code>.
+     * @return The line number of the token.
+     */
+    public int lineOf(int k) {
+        peek(k);
+        return lines[(position + k - 1) & mask];
+    }
+
+    /**
+     * Returns the column in which the k-th token after the current
+     * position starts, the first character of a line being in column 1.
+     * @param k How far to look ahead, as for <code>peek</code>.
+     * @return The column number of the token.
+     */
+    public int columnOf(int k) {
+        peek(k);
+        return columns[(position + k - 1) & mask];
+    }
+
+    /**
+     * Returns the offset in the source at which the k-th token after the
+     * current position starts.
+     * @param k How far to look ahead, as for <code>peek</code>.
+     * @return The start offset of the token.
+     */
+    public int startOf(int k) {
+        peek(k);
+        return starts[(position + k - 1) & mask];
+    }
+
+    /**
+     * Returns the offset in the source just past the most recently
+     * consumed token, or 0 if no token has been consumed.
+     * @return The end offset of the last token consumed.
+     */
+    public int endOfConsumed() {
+        return position > first ? ends[(position - 1) & mask] : 0;
+    }
+
+    //------------------------- Private "helper" methods
+
+    /**
+     * Takes one more token from the lexer and adds it to the buffer,
+     * first making room for it.
+     */
+    private void lex() {
+        int keep = position - 1;
+        if (markCount > 0) keep = Math.min(keep, marks[0]);
+        if (end - first == tokens.length) {
+            if (first < keep) first++;
+            else grow();
+        }
+        Token token = lexer.nextToken();
+        int line = lexer.lineNumber();
+        int i = end & mask;
+        tokens[i] = token;
+        lines[i] = token.type == Token.Type.EOL ? line - 1 : line;
+        columns[i] = lexer.columnNumber();
+        starts[i] = lexer.startOffset();
+        ends[i] = lexer.endOffset();
+        end++;
+    }
+
+    /**
+     * Doubles the size of the buffer, keeping every buffered token.
+     */
+    private void grow() {
+        int size = 2 * tokens.length;
+        Token[] newTokens = new Token[size];
+        int[] newLines = new int[size];
+        int[] newColumns = new int[size];
+        int[] newStarts = new int[size];
+        int[] newEnds = new int[size];
+        for (int n = first; n < end; n++) {
+            newTokens[n & (size - 1)] = tokens[n & mask];
+            newLines[n & (size - 1)] = lines[n & mask];
+            newColumns[n & (size - 1)] = columns[n & mask];
+            newStarts[n & (size - 1)] = starts[n & mask];
+            newEnds[n & (size - 1)] = ends[n & mask];
+        }
+        tokens = newTokens;
+        lines = newLines;
+        columns = newColumns;
+        starts = newStarts;
+        ends = newEnds;
+        mask = size - 1;
+    }
+}
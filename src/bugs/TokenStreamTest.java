@@ -0,0 +1,162 @@
+package bugs;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Test class for the lookahead token stream.
+ */
+public class TokenStreamTest {
+
+    @Test
+    public void testPeekAndConsume() {
+        TokenStream tokens = stream("a + 3");
+        assertEquals(new Token(Token.Type.NAME, "a"), tokens.peek(1));
+        assertEquals(new Token(Token.Type.SYMBOL, "+"), tokens.peek(2));
+        assertEquals(new Token(Token.Type.NUMBER, "3.0"), tokens.peek(3));
+        assertSame(tokens.peek(1), tokens.peek(1));
+        assertEquals(new Token(Token.Type.NAME, "a"), tokens.consume());
+        assertEquals(new Token(Token.Type.SYMBOL, "+"), tokens.peek(1));
+        assertEquals(new Token(Token.Type.SYMBOL, "+"), tokens.consume());
+        assertEquals(new Token(Token.Type.NUMBER, "3.0"), tokens.consume());
+        assertSame(Token.EOF_TOKEN, tokens.consume());
+        assertSame(Token.EOF_TOKEN, tokens.peek(1));
+    }
+
+    @Test
+    public void testPeekLimit() {
+        TokenStream tokens = new TokenStream(new BugsLexer("a b c d e"), 4);
+        assertEquals(new Token(Token.Type.NAME, "c"), tokens.peek(3));
+        try {
+            tokens.peek(4);
+            fail();
+        }
+        catch (IllegalArgumentException e) {
+        }
+        try {
+            tokens.peek(0);
+            fail();
+        }
+        catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testOffsets() {
+        TokenStream tokens = stream("x  +\n  y");
+        assertEquals(0, tokens.endOfConsumed());
+        assertEquals(3, tokens.startOf(2));
+        assertEquals(0, tokens.startOf(1));
+        tokens.consume();
+        assertEquals(1, tokens.endOfConsumed());
+        tokens.consume();
+        tokens.consume();
+        assertEquals(5, tokens.endOfConsumed());
+        assertEquals(7, tokens.startOf(1));
+    }
+
+    @Test
+    public void testPushBack() {
+        TokenStream tokens = stream("x y");
+        Token x = tokens.consume();
+        tokens.pushBack();
+        assertSame(x, tokens.consume());
+        Token y = tokens.consume();
+        tokens.pushBack();
+        assertSame(y, tokens.consume());
+        assertSame(Token.EOF_TOKEN, tokens.consume());
+    }
+
+    @Test
+    public void testMarkAndReset() {
+        TokenStream tokens = new TokenStream(new BugsLexer("0 1 2 3 4 5 6 7 8 9"), 2);
+        tokens.consume();
+        int mark = tokens.mark();
+        for (int i = 1; i <= 7; i++) tokens.consume();
+        int inner = tokens.mark();
+        tokens.consume();
+        tokens.reset(inner);
+        assertEquals(8.0, tokens.peek(1).number, 0.0);
+        tokens.reset(mark);
+        for (int i = 1; i <= 9; i++) {
+            assertEquals(i, tokens.consume().number, 0.0);
+        }
+        assertEquals(10, tokens.lexedCount());
+        assertEquals(10, tokens.consumedCount());
+    }
+
+    @Test
+    public void testRelease() {
+        TokenStream tokens = stream("p q r");
+        int outer = tokens.mark();
+        tokens.consume();
+        int inner = tokens.mark();
+        try {
+            tokens.release(outer);
+            fail();
+        }
+        catch (IllegalStateException e) {
+        }
+        tokens.release(inner);
+        tokens.consume();
+        tokens.reset(outer);
+        assertEquals(new Token(Token.Type.NAME, "p"), tokens.consume());
+    }
+
+    @Test
+    public void testCounts() {
+        TokenStream tokens = stream("a b c");
+        assertEquals(0, tokens.lexedCount());
+        tokens.peek(2);
+        assertEquals(2, tokens.lexedCount());
+        assertEquals(0, tokens.consumedCount());
+        tokens.consume();
+        tokens.pushBack();
+        tokens.consume();
+        tokens.consume();
+        assertEquals(2, tokens.lexedCount());
+        assertEquals(2, tokens.consumedCount());
+    }
+
+    @Test
+    public void testLineNumber() {
+        TokenStream tokens = stream("a\nb\n\nc");
+        assertEquals(1, tokens.lineNumber());
+        tokens.peek(4);
+        assertEquals(1, tokens.lineNumber());
+        tokens.consume();                       // a
+        assertEquals(1, tokens.lineNumber());
+        tokens.consume();                       // EOL
+        assertEquals(2, tokens.lineNumber());
+        tokens.pushBack();
+        assertEquals(1, tokens.lineNumber());
+        for (int i = 0; i < 4; i++) tokens.consume();
+        assertEquals(4, tokens.lineNumber());   // c
+    }
+
+    @Test
+    public void testLineAndColumnOf() {
+        TokenStream tokens = stream("a\n  b c\n");
+        assertEquals(1, tokens.lineOf(1));
+        assertEquals(1, tokens.columnOf(1));
+        assertEquals(1, tokens.lineOf(2));      // EOL
+        assertEquals(2, tokens.columnOf(2));
+        assertEquals(2, tokens.lineOf(4));      // c
+        assertEquals(5, tokens.columnOf(4));
+        tokens.consume();
+        tokens.consume();
+        assertEquals(2, tokens.lineOf(1));      // b
+        assertEquals(3, tokens.columnOf(1));
+        assertEquals(2, tokens.consumedCount());
+    }
+
+    /**
+     * Returns a stream of the tokens in the given text.
+     * @param text The text to be broken into tokens.
+     * @return A stream of those tokens.
+     */
+    private TokenStream stream(String text) {
+        return new TokenStream(new BugsLexer(text));
+    }
+}
@@ -2,6 +2,8 @@ package bugs;
 
 import static org.junit.Assert.*;
 
+import java.util.regex.Pattern;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -35,7 +37,7 @@ public class TokenTest {
     public final void testToken_Type_String() {
         Token t = new Token(Token.Type.KEYWORD, "loop");
         assertEquals(t.type, Token.Type.KEYWORD);
-        assertEquals(t.value, "loop");
+        assertEquals(t.getValue(), "loop");
     }
 
     /**
@@ -45,7 +47,7 @@ public class TokenTest {
     public final void testToken_String() {
         Token t = new Token("loop");
         assertEquals(Token.Type.KEYWORD, t.type);
-        assertEquals("loop", t.value);
+        assertEquals("loop", t.getValue());
         Token t2 = new Token("call");
         assertEquals(Token.Type.KEYWORD, t2.type);
     }
@@ -57,10 +59,57 @@ public class TokenTest {
     public final void testToken_NumericString() {
         Token t = new Token("5");
         assertEquals(Token.Type.NUMBER, t.type);
-        assertEquals("5", t.value);
+        assertEquals("5", t.getValue());
         t = new Token("5.0");
         assertEquals(Token.Type.NUMBER, t.type);
-        assertEquals("5.0", t.value);
+        assertEquals("5.0", t.getValue());
+    }
+
+    /**
+     * Test method for {@link bugs.Token#Token(double)}.
+     */
+    @Test
+    public final void testToken_Double() {
+        Token t = new Token(12.5);
+        assertEquals(Token.Type.NUMBER, t.type);
+        assertEquals(12.5, t.number, 0.0);
+        assertEquals("12.5", t.getValue());
+        assertEquals("7.0", new Token(7).getValue());
+        assertEquals(5.0, new Token("5").number, 0.0);
+        assertTrue(Double.isNaN(new Token("five").number));
+    }
+
+    /**
+     * Test method for {@link bugs.Token#of(bugs.Token.Type, java.lang.String)}.
+     */
+    @Test
+    public final void testOf_Type_String() {
+        assertSame(Token.of(Token.Type.KEYWORD, "move"), Token.of(Token.Type.KEYWORD, "move"));
+        assertSame(Token.of(Token.Type.KEYWORD, "call"), Token.of(Token.Type.KEYWORD, "call"));
+        assertSame(Token.of(Token.Type.SYMBOL, "+"), Token.of(Token.Type.SYMBOL, "+"));
+        assertSame(Token.EOL_TOKEN, Token.of(Token.Type.EOL, "\n"));
+        assertSame(Token.EOF_TOKEN, Token.of(Token.Type.EOF, "EOF"));
+        assertEquals(new Token(Token.Type.KEYWORD, "move"), Token.of(Token.Type.KEYWORD, "move"));
+        assertEquals(new Token(Token.Type.SYMBOL, "("), Token.of(Token.Type.SYMBOL, "("));
+
+        assertNotSame(Token.of(Token.Type.NAME, "move"), Token.of(Token.Type.NAME, "move"));
+        assertEquals(Token.Type.NAME, Token.of(Token.Type.NAME, "move").type);
+        assertNotSame(Token.of(Token.Type.NAME, "x"), Token.of(Token.Type.NAME, "x"));
+        assertEquals(new Token(Token.Type.SYMBOL, "<="), Token.of(Token.Type.SYMBOL, "<="));
+    }
+
+    /**
+     * Test method for {@link bugs.Token#of(java.lang.String)}.
+     */
+    @Test
+    public final void testOf_String() {
+        assertSame(Token.of("loop"), Token.of("loop"));
+        assertSame(Token.of("list"), Token.of("list"));
+        assertSame(Token.of(")"), Token.of(")"));
+        assertSame(Token.EOL_TOKEN, Token.of("\n"));
+        assertEquals(new Token("abc"), Token.of("abc"));
+        assertEquals(new Token("12.5"), Token.of("12.5"));
+        assertEquals(Token.Type.EOF, Token.of(null).type);
     }
 
     /**
@@ -95,6 +144,41 @@ public class TokenTest {
         assertEquals(Token.Type.ERROR, Token.typeOf("=7"));
     }
 
+    /**
+     * Test method for {@link bugs.Token#typeOf(java.lang.String)}, checking
+     * it against the regular expressions that define the token types.
+     */
+    @Test
+    public final void testTypeOfAgreesWithRegularExpressions() {
+        String[] samples = {
+            "", ".", "..", "a.b", "1.", ".5.", "5..", "_", "_x1", "x_",
+            "\n", "\n\n", "+\n", "\u00e9t\u00e9", "\u00e9", "-.-", "a-b",
+            "moveto", "Move", "black", "block", "program", "9lives", "0.0",
+            "<=", "!=", "((", "a b", " ", "Allbugs", "allbugs", "using" };
+        for (String s : samples) {
+            assertEquals("typeOf(\"" + s + "\")", regexTypeOf(s), Token.typeOf(s));
+        }
+    }
+
+    /**
+     * Classifies a string the way <code>Token.typeOf</code> originally
+     * did, with regular expressions.
+     * @param s The string to classify.
+     * @return The type of the string.
+     */
+    private static Token.Type regexTypeOf(String s) {
+        if (s == null) return Token.Type.EOF;
+        if (s.equals("\n")) return Token.Type.EOL;
+        if (Pattern.matches("[^\\w]+", s)) return Token.Type.SYMBOL;
+        if (Pattern.matches("(\\d+\\.\\d*)|(\\.?\\d+)", s)) return Token.Type.NUMBER;
+        if (Pattern.matches("[a-zA-Z_]\\w*", s)) {
+            if (Token.KEYWORDS.contains(s)) return Token.Type.KEYWORD;
+            if (Token.PSEUDO_KEYWORDS.contains(s)) return Token.Type.KEYWORD;
+            return Token.Type.NAME;
+        }
+        return Token.Type.ERROR;
+    }
+
     /**
      * Test method for {@link bugs.Token#equals(java.lang.Object)}.
      */
@@ -105,6 +189,11 @@ public class TokenTest {
         assertEquals(new Token("123"), new Token("123"));
         assertEquals(new Token("123"), new Token(Token.Type.NUMBER, "123"));
         assertTrue(new Token("123").equals(new Token("123")));
+        assertEquals(new Token("123"), new Token(123));
+        assertEquals(new Token("123").hashCode(), new Token(123).hashCode());
+        assertEquals(new Token("2.50"), new Token("2.5"));
+        assertFalse(new Token(2.5).equals(new Token(2.25)));
+        assertFalse(new Token(Token.Type.NAME, "x").equals(new Token(Token.Type.KEYWORD, "x")));
     }
 
     /**
@@ -0,0 +1,260 @@
+package bugs;
+
+import java.util.Arrays;
+
+import tree.FlatTree;
+import tree.Tree;
+
+/**
+ * A <code>ParseListener</code> that builds the tree of the program the
+ * Parser recognizes, on a <code>NodeStack</code>. This is the tree the
+ * Parser has always built: keywords and other significant tokens become
+ * nodes, punctuation is dropped, and each production arranges the trees
+ * built within it, normally making the first of them the root of the
+ * rest. A construct abandoned because of a syntax error is replaced by
+ * an ERROR node whose children are whatever had been built of it.
+ * <p>
+ * The same tree can instead be built as a <code>FlatTree</code>, on the
+ * stack of a <code>FlatTree.Builder</code>.
+ */
+public class TreeBuilder implements ParseListener {
+    private final Target stack;
+
+    /** The stack size when each unfinished production was entered. */
+    private int[] marks = new int[32];
+    /** The names of the unfinished productions. */
+    private String[] productions = new String[32];
+    /** The number of unfinished productions. */
+    private int depth = 0;
+
+    /**
+     * Creates a TreeBuilder that builds its trees on the given stack.
+     * @param stack The stack to use.
+     */
+    public TreeBuilder(final NodeStack stack) {
+        this.stack = new Target() {
+            @Override
+            public int size() {
+                return stack.size();
+            }
+
+            @Override
+            public void push(Token token) {
+                stack.push(new Tree<>(token));
+            }
+
+            @Override
+            public void reduce(int n) {
+                stack.reduce(n);
+            }
+
+            @Override
+            public void reduce2(int root, int child) {
+                stack.reduce2(root, child);
+            }
+
+            @Override
+            public void reduce3(int root, int child1, int child2) {
+                stack.reduce3(root, child1, child2);
+            }
+
+            @Override
+            public void collect(Token value, int index) {
+                stack.collect(value, index);
+            }
+        };
+    }
+
+    /**
+     * Creates a TreeBuilder that builds its trees on the stack of the
+     * given FlatTree.Builder; <code>builder.build()</code> then makes a
+     * FlatTree of the tree on top.
+     * @param builder The builder to use.
+     */
+    public TreeBuilder(final FlatTree.Builder<Token> builder) {
+        this.stack = new Target() {
+            @Override
+            public int size() {
+                return builder.size();
+            }
+
+            @Override
+            public void push(Token token) {
+                builder.push(token);
+            }
+
+            @Override
+            public void reduce(int n) {
+                builder.reduce(n);
+            }
+
+            @Override
+            public void reduce2(int root, int child) {
+                builder.reduce2(root, child);
+            }
+
+            @Override
+            public void reduce3(int root, int child1, int child2) {
+                builder.reduce3(root, child1, child2);
+            }
+
+            @Override
+            public void collect(Token value, int index) {
+                builder.collect(value, index);
+            }
+        };
+    }
+
+    /**
+     * Forgets any productions left unfinished, as they are when a parse
+     * ends with a <code>SyntaxException</code>, so that this TreeBuilder
+     * can be used for another parse.
+     */
+    public void reset() {
+        Arrays.fill(productions, 0, depth, null);
+        depth = 0;
+    }
+
+    @Override
+    public void enterProduction(String production) {
+        if (depth == marks.length) {
+            marks = Arrays.copyOf(marks, 2 * depth);
+            productions = Arrays.copyOf(productions, 2 * depth);
+        }
+        // A binary operation begins with the left operand already built.
+        marks[depth] = production.equals("binary_operation") ? stack.size() - 1 : stack.size();
+        productions[depth] = production;
+        depth++;
+    }
+
+    @Override
+    public void exitProduction(String production) {
+        depth--;
+        int mark = marks[depth];
+        productions[depth] = null;
+        switch (production) {
+            case "program":
+            case "bugs":
+            case "var_declarations":
+            case "function_definitions":
+                collect("list", mark);
+                break;
+            case "commands":
+            case "block":
+                collect("block", mark);
+                break;
+            case "parameters":
+            case "parameter_list":
+                collect("var", mark);
+                break;
+            case "no_allbugs_code":
+                push("Allbugs");
+                push("list");
+                push("list");
+                stack.reduce(2);
+                break;
+            case "no_initialization_block":
+                push("initially");
+                push("block");
+                stack.reduce2(2, 1);
+                break;
+            case "assignment_statement":
+                collect("assign", mark);
+                break;
+            case "function_definition":
+                collect("function", mark);
+                break;
+            case "do_statement":
+                if (stack.size() - mark == 1) push("var"); // no parameter list
+                collect("call", mark);
+                break;
+            case "function_call":
+                collect("call", mark);
+                break;
+            case "binary_operation":
+            case "dot_reference":
+                stack.reduce3(2, 3, 1);
+                break;
+            default:
+                // The first tree is the root of the others.
+                stack.reduce(stack.size() - mark - 1);
+                break;
+        }
+    }
+
+    @Override
+    public void token(Token token) {
+        switch (token.type) {
+            case EOL:
+            case EOF:
+                return;
+            case SYMBOL:
+                switch (token.getValue()) {
+                    case "{":
+                    case "}":
+                    case ",":
+                    case "(":
+                    case ")":
+                        return;
+                    case "=":
+                        if (depth > 0 && productions[depth - 1].equals("assignment_statement")) return;
+                        break;
+                    default:
+                        break;
+                }
+                break;
+            case KEYWORD:
+                switch (token.getValue()) {
+                    case "if":
+                    case "do":
+                    case "define":
+                    case "using":
+                        return;
+                    default:
+                        break;
+                }
+                break;
+            default:
+                break;
+        }
+        stack.push(token);
+    }
+
+    @Override
+    public void syntaxError(String message, int unfinished) {
+        int mark = unfinished == 0 ? stack.size() : marks[depth - unfinished];
+        while (unfinished-- > 0) productions[--depth] = null;
+        stack.collect(new Token(Token.Type.ERROR, message), mark);
+    }
+
+    /**
+     * Makes the trees built since the given mark children of a new node,
+     * and replaces them with it.
+     * @param value The value of the new node's token.
+     * @param mark The stack size before the first of the trees.
+     */
+    private void collect(String value, int mark) {
+        stack.collect(Token.of(value), mark);
+    }
+
+    /**
+     * Pushes a new node, with no children, onto the stack.
+     * @param value The value of the node's token.
+     */
+    private void push(String value) {
+        stack.push(Token.of(value));
+    }
+
+    /**
+     * The stack on which the trees are built: a <code>NodeStack</code>
+     * or the stack of a <code>FlatTree.Builder</code>.
+     */
+    private interface Target {
+        int size();
+        void push(Token token);
+        void reduce(int n);
+        void reduce2(int root, int child);
+        void reduce3(int root, int child1, int child2);
+        void collect(Token value, int index);
+    }
+}
@@ -0,0 +1,430 @@
+package bugs;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import tree.Tree;
+
+/**
+ * Reads and writes a <code>Tree&lt;Token&gt;</code> in a compact binary
+ * format, which, unlike the text of <code>Tree.toString()</code>, can be
+ * read without lexing anything, and a piece at a time. A file begins
+ * with a magic number and the version of the format, followed by the
+ * table of the distinct tokens in the tree, and then the nodes, in
+ * preorder. Each node is given by the number of its token in the table,
+ * and, unless it is a leaf, the number of its children and the length in
+ * bytes of their encodings, so that a reader can skip the whole subtree.
+ * Token numbers, counts and lengths are written as varints, seven bits
+ * to a byte, lowest first.
+ * <p>
+ * A tree read from the format is materialized lazily: the children of a
+ * node are decoded only when they are first asked for, so a program can
+ * map a large file and pay only for the parts of the tree it looks at.
+ * Until every node has been materialized, a tree that is read this way
+ * must not be used by more than one thread at a time, and damage to the
+ * encoding of a subtree is found only when the subtree is read, so it is
+ * reported then, by an <code>IllegalStateException</code>.
+ */
+public final class TreeFormat {
+    /** The version of the format, changed whenever it changes. */
+    static final int VERSION = 1;
+    private static final int MAGIC = 0x42756741;        // "BugA"
+    private static final Token.Type[] TYPES = Token.Type.values();
+
+    private TreeFormat() {
+        // static methods only
+    }
+
+    /**
+     * Encodes a tree in the binary format.
+     * @param tree The tree.
+     * @return The encoding.
+     */
+    public static byte[] toBytes(Tree<Token> tree) {
+        // The encoding is written backwards, from its end, so that the
+        // length of each node's children is known when its own header
+        // is written in front of them. The walk visits the children of
+        // each node from the last to the first, and is iterative, as
+        // trees may be very deep.
+        Map<Token, Integer> numbers = new HashMap<>();
+        List<Token> tokens = new ArrayList<>();
+        Output out = new Output();
+        List<Tree<Token>> path = new ArrayList<>();
+        int[] nextChild = new int[16];
+        int[] ends = new int[16];
+        path.add(tree);
+        nextChild[0] = tree.getNumberOfChildren() - 1;
+        ends[0] = out.size();
+        while (!path.isEmpty()) {
+            int depth = path.size() - 1;
+            Tree<Token> node = path.get(depth);
+            if (nextChild[depth] >= 0) {
+                Tree<Token> child = node.getChild(nextChild[depth]--);
+                if (depth + 1 == nextChild.length) {
+                    nextChild = Arrays.copyOf(nextChild, 2 * nextChild.length);
+                    ends = Arrays.copyOf(ends, 2 * ends.length);
+                }
+                path.add(child);
+                nextChild[depth + 1] = child.getNumberOfChildren() - 1;
+                ends[depth + 1] = out.size();
+                continue;
+            }
+            Token token = node.getValue();
+            Integer number = numbers.get(token);
+            if (number == null) {
+                number = tokens.size();
+                numbers.put(token, number);
+                tokens.add(token);
+            }
+            // Most nodes are leaves, so the count and length are left out
+            // for them, and the lowest bit of the token number says so.
+            int childCount = node.getNumberOfChildren();
+            if (childCount > 0) {
+                out.writeNumber(out.size() - ends[depth]);
+                out.writeNumber(childCount);
+            }
+            out.writeNumber(number << 1 | (childCount == 0 ? 0 : 1));
+            path.remove(depth);
+        }
+
+        for (int i = tokens.size() - 1; i >= 0; i--) {
+            Token token = tokens.get(i);
+            if (token.type == Token.Type.NUMBER) {
+                out.writeLong(Double.doubleToRawLongBits(token.number));
+            }
+            else {
+                byte[] value = token.getValue().getBytes(StandardCharsets.UTF_8);
+                out.write(value);
+                out.writeNumber(value.length);
+            }
+            out.writeNumber(token.type.ordinal());
+        }
+        out.writeNumber(tokens.size());
+        out.writeLong(((long) MAGIC << 32) | VERSION);
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes a tree to a file in the binary format.
+     * @param tree The tree.
+     * @param file The file, which is replaced if it exists.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void write(Tree<Token> tree, Path file) throws IOException {
+        Files.write(file, toBytes(tree));
+    }
+
+    /**
+     * Maps a file written in the binary format, and returns its tree,
+     * which is read from the mapped file as it is used.
+     * @param file The file.
+     * @return The tree.
+     * @throws IOException If the file cannot be read, or does not begin
+     *         as a file in this version of the format should.
+     */
+    public static Tree<Token> read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file)) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Returns the tree encoded in the binary format in the given buffer,
+     * from its position to its limit. The header and the table of tokens
+     * are read at once, the nodes only as they are used; the buffer must
+     * not be changed while the tree is in use.
+     * @param buffer The encoding.
+     * @return The tree.
+     * @throws IOException If the encoding does not begin as one in this
+     *         version of the format should.
+     */
+    public static Tree<Token> read(ByteBuffer buffer) throws IOException {
+        ByteBuffer in = buffer.slice();
+        try {
+            if (in.getLong() != (((long) MAGIC << 32) | VERSION)) {
+                throw new IOException("Not a tree in format version " + VERSION);
+            }
+            int tokenCount = readNumber(in);
+            if (tokenCount > in.remaining()) throw new IOException("Bad token count");
+            Token[] tokens = new Token[tokenCount];
+            for (int i = 0; i < tokens.length; i++) {
+                int type = readNumber(in);
+                if (type >= TYPES.length) throw new IOException("Bad token type " + type);
+                if (TYPES[type] == Token.Type.NUMBER) {
+                    tokens[i] = new Token(Double.longBitsToDouble(in.getLong()));
+                }
+                else {
+                    int length = readNumber(in);
+                    if (length > in.remaining()) throw new IOException("Bad token");
+                    byte[] value = new byte[length];
+                    in.get(value);
+                    tokens[i] = Token.of(TYPES[type], new String(value, StandardCharsets.UTF_8));
+                }
+            }
+            Source source = new Source(in, tokens);
+            Tree<Token> root = source.readNode();
+            if (in.hasRemaining()) throw new IOException("Bad tree");
+            return root;
+        }
+        catch (BufferUnderflowException | IllegalStateException e) {
+            throw new IOException("Truncated or damaged tree", e);
+        }
+    }
+
+    //------------------------- Private "helper" methods
+
+    /**
+     * Reads a varint.
+     * @param in Where to read it.
+     * @return The number.
+     * @throws IllegalStateException If it is not a valid varint.
+     */
+    private static int readNumber(ByteBuffer in) {
+        int number = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.get();
+            number |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                if (number < 0) break;
+                return number;
+            }
+        }
+        throw new IllegalStateException("Bad number");
+    }
+
+    /**
+     * The encoding from which a tree is materialized, and its tokens.
+     */
+    private static class Source {
+        private final ByteBuffer in;
+        private final Token[] tokens;
+
+        /**
+         * Creates a Source.
+         * @param in The encoding, positioned at the root of the tree.
+         * @param tokens The table of tokens.
+         */
+        Source(ByteBuffer in, Token[] tokens) {
+            this.in = in;
+            this.tokens = tokens;
+        }
+
+        /**
+         * Reads the header of the node at the current position, and
+         * moves on past its subtree.
+         * @return The node: a Tree if it is a leaf, and otherwise a
+         *         LazyTree whose children have not been read yet.
+         * @throws IllegalStateException If the encoding is damaged.
+         */
+        Tree<Token> readNode() {
+            int token = readNumber(in);
+            if (token >>> 1 >= tokens.length) throw new IllegalStateException("Bad token number");
+            if ((token & 1) == 0) return new Tree<>(tokens[token >>> 1]);
+            int childCount = readNumber(in);
+            int length = readNumber(in);
+            int start = in.position();
+            if (childCount == 0 || length > in.limit() - start) {
+                throw new IllegalStateException("Bad node");
+            }
+            in.position(start + length);
+            return new LazyTree(tokens[token >>> 1], this, childCount, start, start + length);
+        }
+
+        /**
+         * Reads the children of a node.
+         * @param count The number of children.
+         * @param start The offset of the first child.
+         * @param end The offset just past the last child's subtree.
+         * @return The children.
+         * @throws IllegalStateException If the encoding is damaged.
+         */
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Tree<Token>[] readChildren(int count, int start, int end) {
+            Tree<Token>[] children = new Tree[count];
+            try {
+                in.limit(end);
+                in.position(start);
+                for (int i = 0; i < count; i++) {
+                    children[i] = readNode();
+                }
+                if (in.hasRemaining()) throw new IllegalStateException("Bad node");
+            }
+            catch (BufferUnderflowException e) {
+                throw new IllegalStateException("Truncated tree", e);
+            }
+            finally {
+                in.limit(in.capacity());
+            }
+            return children;
+        }
+    }
+
+    /**
+     * A node whose children are read from a Source when first needed.
+     * Every method that looks at the children, or changes them, reads
+     * them first.
+     */
+    private static class LazyTree extends Tree<Token> {
+        /** Where the children are, or <code>null</code> once they are read. */
+        private Source source;
+        private final int childCount;
+        private final int start;
+        private final int end;
+
+        /**
+         * Creates a node whose children have not been read.
+         * @param value The token in the node.
+         * @param source Where to read the children.
+         * @param childCount The number of children.
+         * @param start The offset of the first child.
+         * @param end The offset just past the last child's subtree.
+         */
+        LazyTree(Token value, Source source, int childCount, int start, int end) {
+            super(value);
+            this.source = source;
+            this.childCount = childCount;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int getNumberOfChildren() {
+            return source == null ? super.getNumberOfChildren() : childCount;
+        }
+
+        @Override
+        public Tree<Token> getChild(int index) {
+            if (source != null) load();
+            return super.getChild(index);
+        }
+
+        @Override
+        public Iterator<Tree<Token>> iterator() {
+            if (source != null) load();
+            return super.iterator();
+        }
+
+        @Override
+        public void addChild(int index, Tree<Token> child) {
+            if (source != null) load();
+            super.addChild(index, child);
+        }
+
+        @Override
+        public void addChild(Tree<Token> child) {
+            if (source != null) load();
+            super.addChild(child);
+        }
+
+        @Override
+        public Tree<Token> setChild(int index, Tree<Token> child) {
+            if (source != null) load();
+            return super.setChild(index, child);
+        }
+
+        @Override
+        @SafeVarargs
+        @SuppressWarnings("varargs")        // Tree.addChildren only reads the array
+        public final void addChildren(Tree<Token>... children) {
+            if (source != null) load();
+            super.addChildren(children);
+        }
+
+        /**
+         * Reads the children of this node.
+         */
+        private void load() {
+            Source from = source;
+            source = null;
+            super.addChildren(from.readChildren(childCount, start, end));
+        }
+    }
+
+    /**
+     * A growable array of bytes, written from the end towards the start.
+     */
+    private static class Output {
+        private byte[] bytes = new byte[256];
+        /** The index of the first byte written. */
+        private int start = bytes.length;
+
+        /**
+         * Returns the number of bytes written so far.
+         * @return The number of bytes.
+         */
+        int size() {
+            return bytes.length - start;
+        }
+
+        /**
+         * Writes a varint in front of what has been written.
+         * @param number The number, not negative.
+         */
+        void writeNumber(int number) {
+            int length = 1;
+            for (int rest = number >>> 7; rest != 0; rest >>>= 7) length++;
+            reserve(length);
+            start -= length;
+            for (int i = start; i < start + length - 1; i++) {
+                bytes[i] = (byte) (number | 0x80);
+                number >>>= 7;
+            }
+            bytes[start + length - 1] = (byte) number;
+        }
+
+        /**
+         * Writes eight bytes, most significant first, in front of what has
+         * been written.
+         * @param number The bytes.
+         */
+        void writeLong(long number) {
+            reserve(8);
+            for (int i = 0; i < 8; i++) {
+                bytes[--start] = (byte) number;
+                number >>>= 8;
+            }
+        }
+
+        /**
+         * Writes bytes in front of what has been written.
+         * @param array The bytes.
+         */
+        void write(byte[] array) {
+            reserve(array.length);
+            start -= array.length;
+            System.arraycopy(array, 0, bytes, start, array.length);
+        }
+
+        /**
+         * Returns the bytes written.
+         * @return A copy of the bytes.
+         */
+        byte[] toByteArray() {
+            return Arrays.copyOfRange(bytes, start, bytes.length);
+        }
+
+        /**
+         * Makes room for more bytes at the front.
+         * @param length The number of bytes.
+         */
+        private void reserve(int length) {
+            if (start >= length) return;
+            int size = size();
+            byte[] larger = new byte[Math.max(2 * bytes.length, size + length)];
+            System.arraycopy(bytes, start, larger, larger.length - size, size);
+            start = larger.length - size;
+            bytes = larger;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package bugs;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import tree.Tree;
+
+/**
+ * Compares the ways of loading a program's tree at startup: reading the
+ * source and parsing it; reading a <code>TreeFormat</code> file, just
+ * the root and then every node; and, for scale, only reading the bytes
+ * of that file. The program is made of copies of the Bug in
+ * <code>ParserBenchmark</code>. Run it as an application; the optional
+ * argument is the number of Bugs in the program (default 2000).
+ */
+public class TreeFormatBenchmark {
+    private static final int ROUNDS = 20;
+    private static final int WARM_UP_ROUNDS = 20;
+
+    /**
+     * Times the loads, and prints the results.
+     * @param args The number of Bugs in the program, if given.
+     * @throws IOException If the files cannot be written or read.
+     */
+    public static void main(String[] args) throws IOException {
+        int bugs = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        Path source = Files.createTempFile("program", ".bugs");
+        Path binary = Files.createTempFile("program", ".bin");
+        try {
+            Files.write(source, ParserBenchmark.program(bugs).getBytes(StandardCharsets.UTF_8));
+            Tree<Token> tree = parse(source);
+            TreeFormat.write(tree, binary);
+            if (!tree.equals(TreeFormat.read(binary))) throw new AssertionError();
+
+            double parse = Double.MAX_VALUE;
+            double bytes = Double.MAX_VALUE;
+            double root = Double.MAX_VALUE;
+            double all = Double.MAX_VALUE;
+            for (int i = 0; i < WARM_UP_ROUNDS + ROUNDS; i++) {
+                System.gc();
+                long start = System.nanoTime();
+                parse(source);
+                double parseTime = (System.nanoTime() - start) / 1e6;
+                start = System.nanoTime();
+                Files.readAllBytes(binary);
+                double bytesTime = (System.nanoTime() - start) / 1e6;
+                start = System.nanoTime();
+                Tree<Token> loaded = TreeFormat.read(binary);
+                double rootTime = (System.nanoTime() - start) / 1e6;
+                ParserBenchmark.count(loaded);
+                double allTime = (System.nanoTime() - start) / 1e6;
+                if (i >= WARM_UP_ROUNDS) {
+                    parse = Math.min(parse, parseTime);
+                    bytes = Math.min(bytes, bytesTime);
+                    root = Math.min(root, rootTime);
+                    all = Math.min(all, allTime);
+                }
+            }
+
+            System.out.printf("nodes:              %10d%n", ParserBenchmark.count(tree));
+            System.out.printf("source:             %10.1f KB%n", Files.size(source) / 1e3);
+            System.out.printf("TreeFormat:         %10.1f KB%n", Files.size(binary) / 1e3);
+            System.out.printf("parse source:       %10.2f ms%n", parse);
+            System.out.printf("read bytes:         %10.2f ms%n", bytes);
+            System.out.printf("read root:          %10.2f ms%n", root);
+            System.out.printf("read every node:    %10.2f ms%n", all);
+        }
+        finally {
+            Files.delete(source);
+            Files.delete(binary);
+        }
+    }
+
+    /**
+     * Reads and parses a program.
+     * @param file The program's source.
+     * @return Its tree.
+     * @throws IOException If the file cannot be read.
+     */
+    private static Tree<Token> parse(Path file) throws IOException {
+        return Parser.parseProgram(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+    }
+}
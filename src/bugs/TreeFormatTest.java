@@ -0,0 +1,133 @@
+package bugs;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import tree.Tree;
+
+public class TreeFormatTest {
+    private static final String PROGRAM =
+        "Allbugs {\n    var total\n}\n" +
+        "Bug a {\n    var x\n    x = -2.5 * (x + 1)\n    color red\n    move x\n" +
+        "    define f using n {\n        return n <= 3\n    }\n}\n" +
+        "Bug \u00e9t\u00e9 {\n    turn 12.75\n}\n";
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Tree<Token> tree = Parser.parseProgram(PROGRAM);
+        byte[] bytes = TreeFormat.toBytes(tree);
+        Tree<Token> copy = TreeFormat.read(ByteBuffer.wrap(bytes));
+        assertEquals(tree, copy);
+        assertEquals(tree.toString(), copy.toString());
+        assertSame(Token.of("Allbugs"), copy.getChild(0).getValue());
+        assertEquals(Token.Type.NUMBER, copy.getChild(1).getChild(1).getChild(3)
+                                            .getChild(0).getChild(0).getValue().type);
+
+        Tree<Token> leaf = new Tree<>(Token.of("x"));
+        assertEquals(leaf, TreeFormat.read(ByteBuffer.wrap(TreeFormat.toBytes(leaf))));
+    }
+
+    @Test
+    public void testFile() throws IOException {
+        Tree<Token> tree = Parser.parseProgram(PROGRAM);
+        Path file = Files.createTempFile("tree", ".bin");
+        try {
+            TreeFormat.write(tree, file);
+            assertEquals(tree, TreeFormat.read(file));
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testLazyLoading() throws IOException {
+        Tree<Token> tree = Parser.parseProgram(PROGRAM);
+        byte[] bytes = TreeFormat.toBytes(tree);
+        // Damage the encoding of the last Bug, at the end.
+        Arrays.fill(bytes, bytes.length - 3, bytes.length, (byte) 0xFF);
+        Tree<Token> copy = TreeFormat.read(ByteBuffer.wrap(bytes));
+        assertEquals(2, copy.getNumberOfChildren());
+        Tree<Token> bugs = copy.getChild(1);
+        assertEquals(2, bugs.getNumberOfChildren());
+        assertEquals(tree.getChild(0), copy.getChild(0));
+        assertEquals(tree.getChild(1).getChild(0), bugs.getChild(0));
+        try {
+            bugs.getChild(1).getChild(0);
+            fail();
+        }
+        catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testChangeLazyTree() throws IOException {
+        Tree<Token> tree = Parser.parseProgram(PROGRAM);
+        Tree<Token> copy = TreeFormat.read(ByteBuffer.wrap(TreeFormat.toBytes(tree)));
+        Tree<Token> bugs = copy.getChild(1);
+        bugs.addChild(new Tree<>(Token.of("Bug")));
+        assertEquals(3, bugs.getNumberOfChildren());
+        assertEquals(tree.getChild(1).getChild(1), bugs.getChild(1));
+        Tree<Token> allbugs = copy.getChild(0);
+        assertEquals("KEYWORD:Allbugs(KEYWORD:list(KEYWORD:var(NAME:total)) KEYWORD:list)", allbugs.toString());
+        try {
+            allbugs.getChild(0).addChild(copy);
+            fail();
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testDeepTree() throws IOException {
+        Tree<Token> root = new Tree<>(Token.of("-"));
+        Tree<Token> node = root;
+        for (int i = 0; i < 100000; i++) {
+            Tree<Token> child = new Tree<>(Token.of("-"));
+            node.addChild(child);
+            node = child;
+        }
+        node.addChild(new Tree<>(new Token(1.0)));
+        Tree<Token> copy = TreeFormat.read(ByteBuffer.wrap(TreeFormat.toBytes(root)));
+        int depth = 0;
+        while (copy.getNumberOfChildren() > 0) {
+            assertEquals(1, copy.getNumberOfChildren());
+            copy = copy.getChild(0);
+            depth++;
+        }
+        assertEquals(100001, depth);
+        assertEquals(new Token(1.0), copy.getValue());
+    }
+
+    @Test
+    public void testBadHeader() {
+        byte[] bytes = TreeFormat.toBytes(Parser.parseProgram(PROGRAM));
+        bytes[7]++;
+        assertUnreadable(bytes);
+        assertUnreadable(Arrays.copyOf(bytes, 5));
+        assertUnreadable(Arrays.copyOf(TreeFormat.toBytes(Parser.parseProgram(PROGRAM)), 20));
+    }
+
+    /**
+     * Asserts that the encoding cannot be read.
+     * @param bytes The encoding.
+     */
+    private void assertUnreadable(byte[] bytes) {
+        try {
+            TreeFormat.read(ByteBuffer.wrap(bytes));
+            fail();
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+}
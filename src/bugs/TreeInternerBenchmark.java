@@ -0,0 +1,85 @@
+package bugs;
+
+import tree.Tree;
+import tree.TreeInterner;
+
+/**
+ * Measures what a <code>TreeInterner</code> saves on a program's tree:
+ * the memory the tree occupies with its identical subtrees shared, the
+ * time taken to share them, and the time to compare the tree with an
+ * equal one, and with one that differs in its last token, before and
+ * after. The program is made of copies of the Bug in
+ * <code>ParserBenchmark</code>, so it is very repetitive, as generated
+ * programs are. Run it as an application; the optional argument is the
+ * number of Bugs in the program (default 2000).
+ */
+public class TreeInternerBenchmark {
+    private static final int ROUNDS = 20;
+    private static final int WARM_UP_ROUNDS = 20;
+
+    /**
+     * Measures the trees, and prints the results.
+     * @param args The number of Bugs in the program, if given.
+     */
+    public static void main(String[] args) {
+        int bugs = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        String text = ParserBenchmark.program(bugs);
+        String changed = text.substring(0, text.lastIndexOf("90")) + "91\n}\n";
+
+        long base = ParserBenchmark.usedMemory();
+        Tree<Token> tree = Parser.parseProgram(text);
+        long treeBytes = ParserBenchmark.usedMemory() - base;
+        TreeInterner<Token> interner = new TreeInterner<>();
+        Tree<Token> shared = interner.intern(tree);
+        int distinct = interner.size();
+        interner = null;
+        tree = null;
+        long sharedBytes = ParserBenchmark.usedMemory() - base;
+        tree = Parser.parseProgram(text);
+
+        double intern = Double.MAX_VALUE;
+        double plainEqual = Double.MAX_VALUE;
+        double plainUnequal = Double.MAX_VALUE;
+        double sharedEqual = Double.MAX_VALUE;
+        double sharedUnequal = Double.MAX_VALUE;
+        for (int i = 0; i < WARM_UP_ROUNDS + ROUNDS; i++) {
+            Tree<Token> copy = Parser.parseProgram(text);
+            Tree<Token> other = Parser.parseProgram(changed);
+            System.gc();
+            long start = System.nanoTime();
+            interner = new TreeInterner<>();
+            Tree<Token> sharedCopy = interner.intern(copy);
+            double internTime = (System.nanoTime() - start) / 1e6;
+            Tree<Token> sharedTree = interner.intern(tree);
+            Tree<Token> sharedOther = interner.intern(other);
+            start = System.nanoTime();
+            boolean same = tree.equals(copy);
+            double plainEqualTime = (System.nanoTime() - start) / 1e6;
+            start = System.nanoTime();
+            boolean different = tree.equals(other);
+            double plainUnequalTime = (System.nanoTime() - start) / 1e6;
+            start = System.nanoTime();
+            same &= sharedCopy.equals(sharedTree);
+            double sharedEqualTime = (System.nanoTime() - start) / 1e6;
+            start = System.nanoTime();
+            different |= sharedCopy.equals(sharedOther);
+            double sharedUnequalTime = (System.nanoTime() - start) / 1e6;
+            if (!same || different) throw new AssertionError();
+            if (i >= WARM_UP_ROUNDS) {
+                intern = Math.min(intern, internTime);
+                plainEqual = Math.min(plainEqual, plainEqualTime);
+                plainUnequal = Math.min(plainUnequal, plainUnequalTime);
+                sharedEqual = Math.min(sharedEqual, sharedEqualTime);
+                sharedUnequal = Math.min(sharedUnequal, sharedUnequalTime);
+            }
+        }
+        if (!shared.equals(tree)) throw new AssertionError();
+
+        System.out.printf("nodes:          %10d (%d distinct)%n", ParserBenchmark.count(tree), distinct);
+        System.out.printf("Tree:           %10.2f MB%n", treeBytes / 1e6);
+        System.out.printf("shared:         %10.2f MB%n", sharedBytes / 1e6);
+        System.out.printf("intern:         %10.2f ms%n", intern);
+        System.out.printf("equals, Tree:   %10.2f ms equal, %.2f ms unequal%n", plainEqual, plainUnequal);
+        System.out.printf("equals, shared: %10.4f ms equal, %.4f ms unequal%n", sharedEqual, sharedUnequal);
+    }
+}
@@ -1,5 +1,7 @@
 package bugs;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.StringTokenizer;
 
 import tree.Tree;
@@ -21,38 +23,47 @@ public class TreeParser {
     
     /**
      * Given a PushbackStringTokenizer (which returns Strings),
-     * construct a Tree of Tokens.
+     * construct a Tree of Tokens. The nodes whose children are still
+     * being read are kept on a stack, rather than in recursive calls,
+     * so that a tree of any depth can be read; each node is added to its
+     * parent when it is complete, while the parent has no parent of its
+     * own, so that checking for a circular tree costs nothing.
      * 
      * @param tokenizer The source of the Tokens.
      * @return The tree corresponding to this sequence of Tokens.
      */
     private Tree<Token> makeTree(PushbackStringTokenizer tokenizer) {
         //  <tree> ::= <word> [ "(" <tree> { <tree> } ")" ]
+        Deque<Tree<Token>> open = new ArrayDeque<>();
         Token token;
-        Tree<Token> tree;
-        // Note: A StringTokenizer returns Strings, not Tokens!
-        assert tokenizer.hasNext();
-        Tree<Token> root = new Tree<>(nextActualToken(tokenizer));  // <word>
-        if (!tokenizer.hasNext()) return root;
-        
-        token = nextActualToken(tokenizer);             // [ "("
-        if (!"(".equals(token.value)) {
-            tokenizer.pushBack(token.value);
-            return root;
-        }
-        tree = makeTree(tokenizer);                // <tree>
-        root.addChild(tree);
-        
-        assert tokenizer.hasNext();
-        token = nextActualToken(tokenizer);
-        while (!token.value.equals(")")) {
-            tokenizer.pushBack(token.value);
-            tree = makeTree(tokenizer);            // <tree> }
-            root.addChild(tree);
-            if (!tokenizer.hasNext()) break;
-            token = nextActualToken(tokenizer);
+        while (true) {
+            // Note: A StringTokenizer returns Strings, not Tokens!
+            assert tokenizer.hasNext();
+            Tree<Token> tree = new Tree<>(nextActualToken(tokenizer));  // <word>
+            if (tokenizer.hasNext()) {
+                token = nextActualToken(tokenizer);         // [ "("
+                if ("(".equals(token.getValue())) {
+                    open.push(tree);                        // <tree> { <tree> } ")" ]
+                    continue;
+                }
+                tokenizer.pushBack(token.getValue());
+            }
+            // The tree is complete, and perhaps the trees it ends as well.
+            while (true) {
+                if (open.isEmpty()) return tree;
+                open.peek().addChild(tree);
+                if (!tokenizer.hasNext()) {
+                    tree = open.pop();
+                    continue;
+                }
+                token = nextActualToken(tokenizer);
+                if (!token.getValue().equals(")")) {
+                    tokenizer.pushBack(token.getValue());   // another <tree>
+                    break;
+                }
+                tree = open.pop();
+            }
         }
-        return root;
     }
 
     
@@ -64,7 +75,7 @@ public class TreeParser {
      */
     private static Token nextActualToken(PushbackStringTokenizer tokenizer) {
         String s = tokenizer.next();
-        return new Token(s);
+        return Token.of(s);
     }
 
     
@@ -53,4 +53,33 @@ public class TreeParserTest {
         assertEquals(t1, tp.parse("a"));
     }
 
+    @Test
+    public final void testParseChildren() {
+        Tree<Token> tree = tp.parse("a(b(c d) loop(red 5))");
+        assertEquals("a", tree.getValue().getValue());
+        assertEquals(2, tree.getNumberOfChildren());
+        assertEquals("d", tree.getChild(0).getChild(1).getValue().getValue());
+        assertEquals(5.0, tree.getChild(1).getChild(1).getValue().number, 0.0);
+        assertEquals(tree, tp.parse(tree.toString().replaceAll("[A-Z]+:", "")));
+    }
+
+    @Test
+    public final void testParseDeepTree() {
+        int depth = 100000;
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            text.append("x(");
+        }
+        text.append("y");
+        for (int i = 0; i < depth; i++) {
+            text.append(")");
+        }
+        Tree<Token> tree = tp.parse(text.toString());
+        for (int i = 0; i < depth; i++) {
+            assertEquals(1, tree.getNumberOfChildren());
+            tree = tree.getChild(0);
+        }
+        assertEquals(new Tree<>(Token.of("y")), tree);
+    }
+
 }
@@ -0,0 +1,130 @@
+package bugs;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Measures how fast <code>Recognizer.validate</code> checks a program,
+ * and how much memory it allocates doing so. The program is generated as
+ * it is read, so it can be far larger than the heap. Run it as an
+ * application; the optional argument is the number of Bugs in the
+ * program (default 200000, about 135MB of source).
+ */
+public class ValidatorBenchmark {
+    private static final int ROUNDS = 5;
+
+    /**
+     * Times the validator and prints the results.
+     * @param args The number of Bugs in the program to validate, if given.
+     */
+    public static void main(String[] args) {
+        int bugs = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        byte[] header = "Allbugs {\n    var other\n}\n\n".getBytes(StandardCharsets.UTF_8);
+        byte[] bug = String.format(ParserBenchmark.BUG, "bug").getBytes(StandardCharsets.UTF_8);
+        double megabytes = (header.length + (double) bugs * bug.length) / 1e6;
+
+        validate(new ProgramChannel(header, bug, bugs / 10));   // warm up
+        double best = Double.MAX_VALUE;
+        long tokens = 0;
+        long allocated = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            long before = allocatedBytes();
+            long start = System.nanoTime();
+            tokens = validate(new ProgramChannel(header, bug, bugs));
+            best = Math.min(best, (System.nanoTime() - start) / 1e9);
+            allocated = allocatedBytes() - before;
+        }
+        System.out.printf("program size: %8.1f MB (%d Bugs, %d tokens)%n", megabytes, bugs, tokens);
+        System.out.printf("check time:   %8.1f ms%n", best * 1000);
+        System.out.printf("throughput:   %8.1f MB/s%n", megabytes / best);
+        if (allocated >= 0) {
+            System.out.printf("allocated:    %8d bytes (%.4f per token)%n",
+                              allocated, (double) allocated / tokens);
+        }
+    }
+
+    /**
+     * Validates a program, which must be valid.
+     * @param channel The source of the program.
+     * @return The number of tokens in the program.
+     */
+    private static long validate(ReadableByteChannel channel) {
+        return Recognizer.validate(channel);
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread so
+     * far, if the JVM can tell.
+     * @return The number of bytes, or a negative number if unknown.
+     */
+    static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        try {
+            Method method = Class.forName("com.sun.management.ThreadMXBean")
+                                 .getMethod("getThreadAllocatedBytes", long.class);
+            return (Long) method.invoke(bean, Thread.currentThread().getId());
+        }
+        catch (ReflectiveOperationException | ClassCastException | IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * A channel that supplies a header followed by many copies of a Bug,
+     * generating them as they are read.
+     */
+    private static class ProgramChannel implements ReadableByteChannel {
+        private final byte[] header;
+        private final byte[] bug;
+        private final long size;
+        private long position = 0;
+
+        /**
+         * Creates a channel for a generated program.
+         * @param header The text that begins the program.
+         * @param bug The text of one Bug.
+         * @param copies The number of Bugs.
+         */
+        ProgramChannel(byte[] header, byte[] bug, int copies) {
+            this.header = header;
+            this.bug = bug;
+            this.size = header.length + (long) copies * bug.length;
+        }
+
+        @Override
+        public int read(ByteBuffer destination) {
+            if (position == size) return -1;
+            int count = 0;
+            while (destination.hasRemaining() && position < size) {
+                byte[] source;
+                int offset;
+                if (position < header.length) {
+                    source = header;
+                    offset = (int) position;
+                }
+                else {
+                    source = bug;
+                    offset = (int) ((position - header.length) % bug.length);
+                }
+                int n = Math.min(destination.remaining(), source.length - offset);
+                destination.put(source, offset, n);
+                position += n;
+                count += n;
+            }
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,526 @@
+package tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable tree stored as a few parallel arrays of ints rather than
+ * as one object per node. A node is identified by its number, from 0
+ * (the root) to <code>size() - 1</code>; the nodes are numbered in
+ * preorder, so each subtree occupies a contiguous run of numbers,
+ * starting with its root. Each distinct value (by <code>equals</code>)
+ * is stored only once, in a pool shared by all the nodes holding it.
+ * <p>
+ * The read methods mirror those of <code>Tree</code>, but take the
+ * number of the node to read. The children of a node can be visited
+ * without allocating anything:
+ * <pre>
+ * for (int child = flat.getFirstChild(node); child != FlatTree.NONE;
+ *         child = flat.getNextSibling(child)) { ... }</pre>
+ * A FlatTree can be made from a <code>Tree</code>, or built directly,
+ * from the bottom up, with a <code>FlatTree.Builder</code>.
+ *
+ * @param <V> The type of value that can be held in each node.
+ */
+public final class FlatTree<V> {
+    /** The number given for a child or sibling that does not exist. */
+    public static final int NONE = -1;
+
+    private final int size;
+    private final int[] firstChild;
+    private final int[] nextSibling;
+    private final int[] childCount;
+    /** The index in <code>values</code> of each node's value. */
+    private final int[] valueIndex;
+    private final Object[] values;
+
+    /**
+     * Constructs a FlatTree from its arrays, which it takes over.
+     * @param size The number of nodes.
+     * @param firstChild The first child of each node, or NONE.
+     * @param nextSibling The next sibling of each node, or NONE.
+     * @param childCount The number of children of each node.
+     * @param valueIndex The index of each node's value in the pool.
+     * @param values The pool of values.
+     */
+    private FlatTree(int size, int[] firstChild, int[] nextSibling, int[] childCount,
+                     int[] valueIndex, Object[] values) {
+        this.size = size;
+        this.firstChild = firstChild;
+        this.nextSibling = nextSibling;
+        this.childCount = childCount;
+        this.valueIndex = valueIndex;
+        this.values = values;
+    }
+
+    /**
+     * Makes a FlatTree with the same shape and values as the given Tree.
+     * @param tree The Tree to copy.
+     * @return The FlatTree.
+     */
+    public static <V> FlatTree<V> of(Tree<V> tree) {
+        Builder<V> builder = new Builder<V>();
+        builder.copy(tree);
+        return builder.build();
+    }
+
+    /**
+     * Makes a Tree with the same shape and values as this FlatTree.
+     * @return The Tree.
+     */
+    public Tree<V> toTree() {
+        return toTree(0);
+    }
+
+    /**
+     * Makes a Tree with the same shape and values as the subtree of
+     * this FlatTree rooted at the given node.
+     * @param node The root of the subtree.
+     * @return The Tree.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public Tree<V> toTree(int node) {
+        // The subtree is a run of nodes in preorder, so its nodes can be
+        // made in reverse order, each after its children.
+        int end = node + subtreeSize(node);
+        Tree<V>[] trees = new Tree[end - node];
+        for (int i = end - 1; i >= node; i--) {
+            Tree<V>[] children = new Tree[childCount[i]];
+            int k = 0;
+            for (int child = firstChild[i]; child != NONE; child = nextSibling[child]) {
+                children[k++] = trees[child - node];
+                trees[child - node] = null;
+            }
+            trees[i - node] = new Tree<V>(getValue(i), children);
+        }
+        return trees[0];
+    }
+
+    /**
+     * Returns the number of nodes in this FlatTree.
+     * @return The number of nodes.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the root of this FlatTree, which is always node 0.
+     * @return The root.
+     */
+    public int getRoot() {
+        return 0;
+    }
+
+    /**
+     * Returns the value in the given node.
+     * @param node The node.
+     * @return The value in the node.
+     */
+    @SuppressWarnings("unchecked")
+    public V getValue(int node) {
+        return (V) values[valueIndex[node]];
+    }
+
+    /**
+     * Returns the position of the given node's value in the pool of
+     * values. Nodes have the same index if and only if their values
+     * are equal.
+     * @param node The node.
+     * @return The index of its value, from 0 to
+     *         <code>getNumberOfValues() - 1</code>.
+     */
+    public int getValueIndex(int node) {
+        return valueIndex[node];
+    }
+
+    /**
+     * Returns the number of distinct values in this FlatTree.
+     * @return The size of the pool of values.
+     */
+    public int getNumberOfValues() {
+        return values.length;
+    }
+
+    /**
+     * Returns the value at the given position in the pool of values.
+     * @param index The position.
+     * @return The value.
+     */
+    @SuppressWarnings("unchecked")
+    public V getPooledValue(int index) {
+        return (V) values[index];
+    }
+
+    /**
+     * Returns the number of children of the given node.
+     * @param node The node.
+     * @return A count of the node's immediate children.
+     */
+    public int getNumberOfChildren(int node) {
+        return childCount[node];
+    }
+
+    /**
+     * Returns the <code>index</code>'th child of the given node. This
+     * takes time proportional to <code>index</code>; to visit all the
+     * children, use <code>getFirstChild</code> and
+     * <code>getNextSibling</code>.
+     * @param node The node.
+     * @param index The position of the child that is to be returned.
+     * @return The child at that position.
+     * @throws IndexOutOfBoundsException If the node has no such child.
+     */
+    public int getChild(int node, int index) {
+        if (index < 0 || index >= childCount[node]) {
+            throw new IndexOutOfBoundsException("Index " + index + ", children " + childCount[node]);
+        }
+        int child = firstChild[node];
+        while (index-- > 0) child = nextSibling[child];
+        return child;
+    }
+
+    /**
+     * Returns the first child of the given node.
+     * @param node The node.
+     * @return Its first child, or NONE if it has none.
+     */
+    public int getFirstChild(int node) {
+        return firstChild[node];
+    }
+
+    /**
+     * Returns the child that follows the given node in its parent.
+     * @param node The node.
+     * @return Its next sibling, or NONE if it is the last child or the root.
+     */
+    public int getNextSibling(int node) {
+        return nextSibling[node];
+    }
+
+    /**
+     * Returns the number of nodes in the subtree rooted at the given
+     * node, which are the nodes numbered from <code>node</code> to
+     * <code>node + subtreeSize(node) - 1</code>.
+     * @param node The root of the subtree.
+     * @return The number of nodes in the subtree.
+     */
+    public int subtreeSize(int node) {
+        // In preorder, the last node of the subtree is found by going
+        // down to the last child, again and again.
+        int last = node;
+        while (childCount[last] > 0) {
+            int child = firstChild[last];
+            while (nextSibling[child] != NONE) child = nextSibling[child];
+            last = child;
+        }
+        return last - node + 1;
+    }
+
+    /**
+     * Returns the children of the given node, for use in a for-each
+     * loop. The numbers are boxed; <code>getFirstChild</code> and
+     * <code>getNextSibling</code> avoid that.
+     * @param node The node.
+     * @return The node's immediate children, in order.
+     */
+    public Iterable<Integer> children(final int node) {
+        return new Iterable<Integer>() {
+            @Override
+            public Iterator<Integer> iterator() {
+                return new Iterator<Integer>() {
+                    private int next = firstChild[node];
+
+                    @Override
+                    public boolean hasNext() {
+                        return next != NONE;
+                    }
+
+                    @Override
+                    public Integer next() {
+                        if (next == NONE) throw new NoSuchElementException();
+                        int child = next;
+                        next = nextSibling[child];
+                        return child;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Returns a one-line string representing this tree, in the same form
+     * as <code>Tree.toString()</code>.
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return toTree().toString();
+    }
+
+    //---------------------------------------------------------------------
+
+    /**
+     * Builds a FlatTree from the bottom up, on a stack of subtrees, with
+     * the same operations as a parser's stack of Trees: leaves are
+     * pushed, and the <code>reduce</code> and <code>collect</code>
+     * operations make the top few subtrees children of another. When
+     * the tree is complete, <code>build()</code> lays it out in preorder.
+     * Like a parser's stack, a Builder does not check its arguments.
+     * <p>
+     * Stack positions given to the reduce operations are counted from
+     * the top, the top subtree being 1.
+     *
+     * @param <V> The type of value that can be held in each node.
+     */
+    public static class Builder<V> {
+        private int nodeCount = 0;
+        private int[] firstChild = new int[64];
+        private int[] lastChild = new int[64];
+        private int[] nextSibling = new int[64];
+        private int[] childCount = new int[64];
+        private int[] valueIndex = new int[64];
+
+        private final HashMap<V, Integer> pool = new HashMap<V, Integer>();
+        private final ArrayList<V> values = new ArrayList<V>();
+
+        private int[] stack = new int[32];
+        private int stackSize = 0;
+
+        /**
+         * Returns the number of subtrees on the stack.
+         * @return The size of the stack.
+         */
+        public int size() {
+            return stackSize;
+        }
+
+        /**
+         * Pushes a new leaf onto the stack.
+         * @param value The value of the leaf.
+         */
+        public void push(V value) {
+            if (stackSize == stack.length) stack = Arrays.copyOf(stack, 2 * stackSize);
+            stack[stackSize++] = newNode(value);
+        }
+
+        /**
+         * Makes the subtree at position <code>child</code> a child of the
+         * subtree at position <code>root</code>, and replaces both with
+         * the root.
+         * @param root The position of the root (1 or 2).
+         * @param child The position of the child (2 or 1).
+         */
+        public void reduce2(int root, int child) {
+            int r = stack[stackSize - root];
+            addChild(r, stack[stackSize - child]);
+            stack[stackSize - 2] = r;
+            stackSize--;
+        }
+
+        /**
+         * Makes the subtrees at positions <code>child1</code> and
+         * <code>child2</code>, in that order, children of the subtree at
+         * position <code>root</code>, and replaces all three with the root.
+         * @param root The position of the root (1, 2 or 3).
+         * @param child1 The position of the first child.
+         * @param child2 The position of the second child.
+         */
+        public void reduce3(int root, int child1, int child2) {
+            int r = stack[stackSize - root];
+            addChild(r, stack[stackSize - child1]);
+            addChild(r, stack[stackSize - child2]);
+            stack[stackSize - 3] = r;
+            stackSize -= 2;
+        }
+
+        /**
+         * Makes the top <code>n</code> subtrees on the stack children of
+         * the subtree beneath them, in order from the lowest to the top,
+         * and replaces all of them with that subtree.
+         * @param n The number of children.
+         */
+        public void reduce(int n) {
+            int rootIndex = stackSize - n - 1;
+            int r = stack[rootIndex];
+            for (int i = rootIndex + 1; i < stackSize; i++) {
+                addChild(r, stack[i]);
+            }
+            stackSize = rootIndex + 1;
+        }
+
+        /**
+         * Makes the subtrees from the given index (counting from the
+         * bottom) to the top children of a new node, in order, and
+         * replaces them with that node.
+         * @param value The value of the new node.
+         * @param index The index of its first child; if it is the size
+         *        of the stack, the new node has no children.
+         */
+        public void collect(V value, int index) {
+            int r = newNode(value);
+            for (int i = index; i < stackSize; i++) {
+                addChild(r, stack[i]);
+            }
+            stackSize = index;
+            pushNode(r);
+        }
+
+        /**
+         * Pops the top subtree off the stack and makes a FlatTree of it.
+         * Once the stack is empty, this Builder starts over, and may be
+         * used to build another FlatTree.
+         * @return The FlatTree.
+         * @throws java.util.EmptyStackException If the stack is empty.
+         */
+        public FlatTree<V> build() {
+            if (stackSize == 0) throw new java.util.EmptyStackException();
+            int root = stack[--stackSize];
+
+            // Renumber the nodes of the subtree in preorder.
+            int[] newNumber = new int[nodeCount];
+            int[] order = new int[nodeCount];
+            int n = 0;
+            int[] pending = new int[16];
+            int pendingSize = 0;
+            pending[pendingSize++] = root;
+            while (pendingSize > 0) {
+                int node = pending[--pendingSize];
+                newNumber[node] = n;
+                order[n++] = node;
+                if (pendingSize + childCount[node] > pending.length) {
+                    pending = Arrays.copyOf(pending, 2 * (pendingSize + childCount[node]));
+                }
+                // Push the children last first, so the first is popped first.
+                int end = pendingSize + childCount[node];
+                for (int child = firstChild[node], k = end - 1; child != NONE;
+                        child = nextSibling[child], k--) {
+                    pending[k] = child;
+                }
+                pendingSize = end;
+            }
+
+            int[] flatFirst = new int[n];
+            int[] flatNext = new int[n];
+            int[] flatCount = new int[n];
+            int[] flatValue = new int[n];
+            for (int i = 0; i < n; i++) {
+                int node = order[i];
+                flatFirst[i] = firstChild[node] == NONE ? NONE : newNumber[firstChild[node]];
+                flatNext[i] = nextSibling[node] == NONE ? NONE : newNumber[nextSibling[node]];
+                flatCount[i] = childCount[node];
+                flatValue[i] = valueIndex[node];
+            }
+            FlatTree<V> tree = new FlatTree<V>(n, flatFirst, flatNext, flatCount,
+                                               flatValue, values.toArray());
+            if (stackSize == 0) clear();
+            return tree;
+        }
+
+        /**
+         * Empties the stack and forgets every node and value.
+         */
+        public void clear() {
+            nodeCount = 0;
+            stackSize = 0;
+            pool.clear();
+            values.clear();
+        }
+
+        //------------------------- Private "helper" methods
+
+        /**
+         * Pushes the given node onto the stack.
+         * @param node The node.
+         */
+        private void pushNode(int node) {
+            if (stackSize == stack.length) stack = Arrays.copyOf(stack, 2 * stackSize);
+            stack[stackSize++] = node;
+        }
+
+        /**
+         * Pushes a copy of the given Tree onto the stack.
+         * @param tree The Tree.
+         */
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        void copy(Tree<V> tree) {
+            // Each node is pushed when it is reached, and its children
+            // are collected under it when the last of them is done.
+            Tree<V>[] trees = new Tree[16];
+            int[] next = new int[16];
+            int[] base = new int[16];
+            int depth = 0;
+            trees[0] = tree;
+            base[0] = stackSize;
+            push(tree.getValue());
+            while (depth >= 0) {
+                Tree<V> node = trees[depth];
+                if (next[depth] < node.getNumberOfChildren()) {
+                    Tree<V> child = node.getChild(next[depth]++);
+                    if (++depth == trees.length) {
+                        trees = Arrays.copyOf(trees, 2 * depth);
+                        next = Arrays.copyOf(next, 2 * depth);
+                        base = Arrays.copyOf(base, 2 * depth);
+                    }
+                    trees[depth] = child;
+                    next[depth] = 0;
+                    base[depth] = stackSize;
+                    push(child.getValue());
+                }
+                else {
+                    reduce(stackSize - base[depth] - 1);
+                    trees[depth--] = null;
+                }
+            }
+        }
+
+        /**
+         * Makes a new node, with no children.
+         * @param value The value of the node.
+         * @return The number of the node.
+         */
+        private int newNode(V value) {
+            if (nodeCount == firstChild.length) {
+                int capacity = 2 * nodeCount;
+                firstChild = Arrays.copyOf(firstChild, capacity);
+                lastChild = Arrays.copyOf(lastChild, capacity);
+                nextSibling = Arrays.copyOf(nextSibling, capacity);
+                childCount = Arrays.copyOf(childCount, capacity);
+                valueIndex = Arrays.copyOf(valueIndex, capacity);
+            }
+            Integer index = pool.get(value);
+            if (index == null) {
+                index = values.size();
+                pool.put(value, index);
+                values.add(value);
+            }
+            int node = nodeCount++;
+            firstChild[node] = NONE;
+            lastChild[node] = NONE;
+            nextSibling[node] = NONE;
+            childCount[node] = 0;
+            valueIndex[node] = index;
+            return node;
+        }
+
+        /**
+         * Adds the child as the new last child of the node.
+         * @param node The node.
+         * @param child The new child.
+         */
+        private void addChild(int node, int child) {
+            if (childCount[node] == 0) firstChild[node] = child;
+            else nextSibling[lastChild[node]] = child;
+            lastChild[node] = child;
+            childCount[node]++;
+        }
+    }
+}
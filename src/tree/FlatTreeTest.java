@@ -0,0 +1,138 @@
+package tree;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.EmptyStackException;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FlatTreeTest {
+    Tree<String> tree;
+    FlatTree<String> flat;
+
+    /**
+     * Creates the following Tree, and a FlatTree of it:<pre>
+     *          one
+     *         /   \
+     *       two  three
+     *            /   \
+     *          two   five
+     *               / |  \
+     *              /  |   \
+     *           six seven two</pre>
+     */
+    @Before
+    public void setUp() throws Exception {
+        tree = Tree.parse("one(two three(two five(six seven two)))");
+        flat = FlatTree.of(tree);
+    }
+
+    @Test
+    public final void testOf() {
+        assertEquals(8, flat.size());
+        assertEquals(0, flat.getRoot());
+        String[] preorder = {"one", "two", "three", "two", "five", "six", "seven", "two"};
+        for (int i = 0; i < preorder.length; i++) {
+            assertEquals(preorder[i], flat.getValue(i));
+        }
+        assertEquals(tree, flat.toTree());
+        assertEquals(tree.toString(), flat.toString());
+    }
+
+    @Test
+    public final void testValuePool() {
+        assertEquals(6, flat.getNumberOfValues());
+        assertEquals(flat.getValueIndex(1), flat.getValueIndex(3));
+        assertEquals(flat.getValueIndex(1), flat.getValueIndex(7));
+        assertFalse(flat.getValueIndex(1) == flat.getValueIndex(2));
+        assertEquals("two", flat.getPooledValue(flat.getValueIndex(7)));
+    }
+
+    @Test
+    public final void testChildren() {
+        assertEquals(2, flat.getNumberOfChildren(0));
+        assertEquals(0, flat.getNumberOfChildren(1));
+        assertEquals(1, flat.getChild(0, 0));
+        assertEquals(2, flat.getChild(0, 1));
+        assertEquals(7, flat.getChild(4, 2));
+        assertEquals(1, flat.getFirstChild(0));
+        assertEquals(2, flat.getNextSibling(1));
+        assertEquals(FlatTree.NONE, flat.getNextSibling(2));
+        assertEquals(FlatTree.NONE, flat.getFirstChild(1));
+        assertEquals(FlatTree.NONE, flat.getNextSibling(0));
+        List<String> values = new ArrayList<String>();
+        for (int child : flat.children(4)) values.add(flat.getValue(child));
+        assertEquals("[six, seven, two]", values.toString());
+        assertFalse(flat.children(6).iterator().hasNext());
+    }
+
+    @Test(expected=IndexOutOfBoundsException.class)
+    public final void testGetChildAtIllegalLocation() {
+        flat.getChild(4, 3);
+    }
+
+    @Test
+    public final void testSubtrees() {
+        assertEquals(8, flat.subtreeSize(0));
+        assertEquals(1, flat.subtreeSize(1));
+        assertEquals(6, flat.subtreeSize(2));
+        assertEquals(4, flat.subtreeSize(4));
+        assertEquals(Tree.parse("five(six seven two)"), flat.toTree(4));
+    }
+
+    @Test
+    public final void testBuilder() {
+        FlatTree.Builder<String> builder = new FlatTree.Builder<String>();
+        builder.push("a");
+        builder.push("+");
+        builder.push("b");
+        builder.reduce3(2, 3, 1);
+        builder.push("c");
+        builder.reduce2(1, 2);
+        builder.push("d");
+        builder.push("e");
+        builder.reduce(1);
+        assertEquals(2, builder.size());
+        builder.collect("list", 0);
+        assertEquals(1, builder.size());
+        FlatTree<String> built = builder.build();
+        assertEquals(Tree.parse("list(c(+(a b)) d(e))"), built.toTree());
+        assertEquals(0, builder.size());
+
+        builder.push("x");
+        builder.collect("y", 1);
+        builder.reduce(1);
+        assertEquals(Tree.parse("x(y)"), builder.build().toTree());
+    }
+
+    @Test(expected=EmptyStackException.class)
+    public final void testBuildEmpty() {
+        new FlatTree.Builder<String>().build();
+    }
+
+    @Test
+    public final void testDeepTree() {
+        Tree<String> root = new Tree<String>("root");
+        Tree<String> node = root;
+        for (int i = 0; i < 100000; i++) {
+            Tree<String> child = new Tree<String>("node");
+            node.addChild(child);
+            node = child;
+        }
+        FlatTree<String> deep = FlatTree.of(root);
+        assertEquals(100001, deep.size());
+        assertEquals(2, deep.getNumberOfValues());
+        assertEquals(100000, deep.subtreeSize(1));
+        assertEquals(FlatTree.NONE, deep.getFirstChild(100000));
+        Tree<String> copy = deep.toTree(99990);
+        int depth = 0;
+        while (copy.getNumberOfChildren() > 0) {
+            copy = copy.getChild(0);
+            depth++;
+        }
+        assertEquals(10, depth);
+    }
+}
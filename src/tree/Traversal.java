@@ -0,0 +1,248 @@
+package tree;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * The iterators and the Spliterator that walk all the nodes of a Tree.
+ * None of them is recursive: each keeps the nodes still to be visited
+ * in a stack or queue of its own, so a Tree of any depth can be walked.
+ * They read the Tree as they go, so it should not be changed while
+ * they are in use, and they do not support <code>remove</code>.
+ */
+final class Traversal {
+
+    private Traversal() {
+        // static nested classes only
+    }
+
+    /**
+     * Visits each node before its children, the children in order.
+     *
+     * @param <V> The type of value held in each Tree node.
+     */
+    static class Preorder<V> implements Iterator<Tree<V>> {
+        /** The subtrees still to be visited; the next one is on top. */
+        private Tree<V>[] stack;
+        private int size;
+
+        /**
+         * Constructs an iterator over the given Tree.
+         *
+         * @param root The root of the Tree.
+         */
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Preorder(Tree<V> root) {
+            stack = new Tree[16];
+            stack[size++] = root;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return size > 0;
+        }
+
+        @Override
+        public Tree<V> next() {
+            if (size == 0) throw new NoSuchElementException();
+            Tree<V> node = stack[--size];
+            stack[size] = null;
+            int count = node.getNumberOfChildren();
+            if (size + count > stack.length) {
+                stack = Arrays.copyOf(stack, Math.max(size + count, 2 * stack.length));
+            }
+            for (int i = count - 1; i >= 0; i--) {
+                stack[size++] = node.getChild(i);
+            }
+            return node;
+        }
+    }
+
+    /**
+     * Visits each node after its children, the children in order.
+     *
+     * @param <V> The type of value held in each Tree node.
+     */
+    static class Postorder<V> implements Iterator<Tree<V>> {
+        /** The root and the ancestors of the next node; it is on top. */
+        private Tree<V>[] nodes;
+        /** For each of those, the index of the next child to visit. */
+        private int[] next;
+        private int size;
+
+        /**
+         * Constructs an iterator over the given Tree.
+         *
+         * @param root The root of the Tree.
+         */
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Postorder(Tree<V> root) {
+            nodes = new Tree[16];
+            next = new int[16];
+            nodes[size++] = root;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return size > 0;
+        }
+
+        @Override
+        public Tree<V> next() {
+            if (size == 0) throw new NoSuchElementException();
+            while (true) {
+                Tree<V> node = nodes[size - 1];
+                int index = next[size - 1];
+                if (index == node.getNumberOfChildren()) {
+                    nodes[--size] = null;
+                    return node;
+                }
+                next[size - 1] = index + 1;
+                if (size == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, 2 * size);
+                    next = Arrays.copyOf(next, 2 * size);
+                }
+                nodes[size] = node.getChild(index);
+                next[size++] = 0;
+            }
+        }
+    }
+
+    /**
+     * Visits the nodes a level at a time, from the root down, each level
+     * from left to right.
+     *
+     * @param <V> The type of value held in each Tree node.
+     */
+    static class BreadthFirst<V> implements Iterator<Tree<V>> {
+        private final ArrayDeque<Tree<V>> queue = new ArrayDeque<Tree<V>>();
+
+        /**
+         * Constructs an iterator over the given Tree.
+         *
+         * @param root The root of the Tree.
+         */
+        BreadthFirst(Tree<V> root) {
+            queue.add(root);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public Tree<V> next() {
+            Tree<V> node = queue.remove();
+            int count = node.getNumberOfChildren();
+            for (int i = 0; i < count; i++) {
+                queue.add(node.getChild(i));
+            }
+            return node;
+        }
+    }
+
+    /**
+     * Visits the nodes of a Tree in preorder, and splits by handing over
+     * whole subtrees: the earlier half of those still to be visited goes
+     * to the new Spliterator. When only one subtree is left it is
+     * opened, so that its children can be split between the two.
+     *
+     * @param <V> The type of value held in each Tree node.
+     */
+    static class Subtrees<V> implements Spliterator<Tree<V>> {
+        /** A node to be visited before the subtrees, without its children. */
+        private Tree<V> head;
+        /** The subtrees still to be visited; the next one is on top. */
+        private Tree<V>[] stack;
+        private int size;
+
+        /**
+         * Constructs a Spliterator over the given Tree.
+         *
+         * @param root The root of the Tree.
+         */
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Subtrees(Tree<V> root) {
+            this(null, new Tree[16], 0);
+            stack[size++] = root;
+        }
+
+        /**
+         * Constructs a Spliterator over the given node and subtrees.
+         *
+         * @param head A node to visit first, or <code>null</code>.
+         * @param stack The subtrees, the first to be visited last.
+         * @param size The number of subtrees in the stack.
+         */
+        private Subtrees(Tree<V> head, Tree<V>[] stack, int size) {
+            this.head = head;
+            this.stack = stack;
+            this.size = size;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Tree<V>> action) {
+            Tree<V> node = head;
+            if (node != null) {
+                head = null;
+            }
+            else if (size > 0) {
+                node = stack[--size];
+                stack[size] = null;
+                push(node);
+            }
+            else {
+                return false;
+            }
+            action.accept(node);
+            return true;
+        }
+
+        @Override
+        public Spliterator<Tree<V>> trySplit() {
+            if (size == 1 && head == null && stack[0].getNumberOfChildren() > 1) {
+                head = stack[0];
+                stack[--size] = null;
+                push(head);
+            }
+            if (size < 2) return null;
+            int half = size / 2;
+            Spliterator<Tree<V>> prefix =
+                new Subtrees<V>(head, Arrays.copyOfRange(stack, size - half, size), half);
+            head = null;
+            Arrays.fill(stack, size - half, size, null);
+            size -= half;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return size == 0 ? (head == null ? 0 : 1) : Long.MAX_VALUE;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL;
+        }
+
+        /**
+         * Pushes the children of a node onto the stack, the first on top.
+         *
+         * @param node The node.
+         */
+        private void push(Tree<V> node) {
+            int count = node.getNumberOfChildren();
+            if (size + count > stack.length) {
+                stack = Arrays.copyOf(stack, Math.max(size + count, 2 * stack.length));
+            }
+            for (int i = count - 1; i >= 0; i--) {
+                stack[size++] = node.getChild(i);
+            }
+        }
+    }
+}
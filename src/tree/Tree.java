@@ -1,7 +1,16 @@
 package tree;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
 import java.util.StringTokenizer;
 
 /**
@@ -12,23 +21,66 @@ import java.util.StringTokenizer;
  * @param <V> The type of value that can be held in each Tree node.
  */
 public class Tree<V> implements Iterable<Tree<V>> {
+    /**
+     * The parent of a node that is the child of more than one node (or
+     * more than once the child of one node), whose ancestors therefore
+     * cannot be found by following parent links.
+     */
+    private static final Tree<Object> SHARED = new Tree<Object>(null);
+    
     private V value;
-    private ArrayList<Tree<V>> children;
+    /**
+     * The children of this node: <code>null</code> if there are none,
+     * the child itself if there is only one, and otherwise an array,
+     * which may have unused elements, all <code>null</code>, at the end.
+     * Most nodes are leaves, so most need nothing but the node itself.
+     */
+    private Object children;
+    /** The node of which this is a child, <code>null</code>, or SHARED. */
+    private Tree<V> parent;
+    /**
+     * The structural hash of this Tree, or 0 if it is not known. It is
+     * forgotten whenever this node or one of its descendants changes.
+     */
+    private int hash;
     
     /**
      * Constructs a Tree with the given value in the root node,
-     * having the given children.
+     * having the given children. This can never create a circular
+     * Tree, since none of the children can contain a node that does
+     * not exist yet, so no check is needed.
      * 
      * @param value The value to be put in the root.
      * @param children The immediate children of the root.
-     * @throws IllegalArgumentException
-     *         If the operation would create a circular Tree.
      */
+    @SafeVarargs
+    @SuppressWarnings("varargs")            // the children are copied
     public Tree(V value, Tree<V>... children) {
+        this(value, children, true);
+    }
+    
+    /**
+     * Constructs a Tree with the given value in the root node, having
+     * the given children, and records it as their parent unless told not
+     * to. A node that can never change is never the parent that a parent
+     * link is followed to, so its children need no link to it.
+     * 
+     * @param value The value to be put in the root.
+     * @param children The immediate children of the root.
+     * @param adopt Whether to record this node as their parent.
+     */
+    Tree(V value, Tree<V>[] children, boolean adopt) {
         this.value = value;
-        this.children = new ArrayList<Tree<V>>(children.length);
-        for (Tree<V> child : children) {
-            this.children.add(child);
+        if (children.length == 1) {
+            this.children = children[0];
+        }
+        else if (children.length > 1) {
+            this.children = Arrays.copyOf(children, children.length, Object[].class);
+        }
+        if (adopt) {
+            for (Tree<V> child : children) {
+                adopt(child);
+            }
         }
     }
     
@@ -39,6 +91,7 @@ public class Tree<V> implements Iterable<Tree<V>> {
      */
     public void setValue(V value) {
         this.value = value;
+        changed();
     }
     
     /**
@@ -61,21 +114,43 @@ public class Tree<V> implements Iterable<Tree<V>> {
      *         If the operation would create a circular Tree.
      */
     public void addChild(int index, Tree<V> child) {
-        if (child.contains(this)) {
-            throw new IllegalArgumentException("Circular Tree");
-        }
-        children.add(index, child);
+        checkNotAncestor(child);
+        insert(index, child);
+        adopt(child);
     }
     
     /**
      * Adds the child as the new last child of this node.
      * @param child The child to be added to this node.
+     * @throws IllegalArgumentException
+     *         If the operation would create a circular Tree.
      */
     public void addChild(Tree<V> child) {
-        if (child.contains(this)) {
-            throw new IllegalArgumentException("Circular Tree");
-        }
-        children.add(child);
+        checkNotAncestor(child);
+        insert(getNumberOfChildren(), child);
+        adopt(child);
+    }
+
+    /**
+     * Replaces the <code>index</code>'th child of this node with the
+     * given child.
+     * 
+     * @param index The position of the child to be replaced.
+     * @param child The new child.
+     * @return The child that was replaced.
+     * @throws IllegalArgumentException
+     *         If the operation would create a circular Tree.
+     * @throws IndexOutOfBoundsException If there is no such child.
+     */
+    public Tree<V> setChild(int index, Tree<V> child) {
+        Tree<V> old = getChild(index);
+        checkNotAncestor(child);
+        if (children instanceof Tree) children = child;
+        else ((Object[]) children)[index] = child;
+        if (old.parent == this) old.parent = null;
+        adopt(child);
+        changed();
+        return old;
     }
 
     /**
@@ -86,11 +161,14 @@ public class Tree<V> implements Iterable<Tree<V>> {
      *         If the operation would create a circular Tree.
      */
     public void addChildren(Tree<V>... children) {
+        int count = getNumberOfChildren();
+        if (count + children.length > 1) {
+            ensureCapacity(count + children.length);
+        }
         for (Tree<V> child : children) {
-            if (child.contains(this)) {
-                throw new IllegalArgumentException("Circular Tree");
-            }
-            this.children.add(child);
+            checkNotAncestor(child);
+            insert(count++, child);
+            adopt(child);
         }
     }
     
@@ -100,7 +178,10 @@ public class Tree<V> implements Iterable<Tree<V>> {
      * @return A count of this node's immediate children.
      */
     public int getNumberOfChildren() {
-        return children.size();
+        Object children = this.children;
+        if (children == null) return 0;
+        if (children instanceof Tree) return 1;
+        return usedLength((Object[]) children);
     }
     
     /**
@@ -111,8 +192,12 @@ public class Tree<V> implements Iterable<Tree<V>> {
      * @throws IndexOutOfBoundsException If <code>index</code> is negative or
      *     is greater than or equal to the current number of children of this node.
      */
+    @SuppressWarnings("unchecked")
     public Tree<V> getChild(int index) {
-        return children.get(index);
+        // Kept small, so that it can be inlined even into recursive methods.
+        Object children = this.children;
+        if (children instanceof Tree && index == 0) return (Tree<V>) children;
+        return getChild(children, index);
     }
     
     /**
@@ -121,7 +206,338 @@ public class Tree<V> implements Iterable<Tree<V>> {
      * @return An iterator for this node's immediate children.
      */
     public Iterator<Tree<V>> iterator() {
-        return children.iterator();
+        return new Iterator<Tree<V>>() {
+            private int next = 0;
+            private int last = -1;
+            
+            @Override
+            public boolean hasNext() {
+                return next < getNumberOfChildren();
+            }
+            
+            @Override
+            public Tree<V> next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                last = next;
+                return getChild(next++);
+            }
+            
+            @Override
+            public void remove() {
+                if (last < 0) throw new IllegalStateException();
+                removeChild(last);
+                next = last;
+                last = -1;
+            }
+        };
+    }
+    
+    /**
+     * Returns the nodes of this Tree in preorder: each node before its
+     * children, starting with this one.
+     * 
+     * @return The nodes of this Tree, in preorder.
+     */
+    public Iterable<Tree<V>> preorder() {
+        return new Iterable<Tree<V>>() {
+            @Override
+            public Iterator<Tree<V>> iterator() {
+                return new Traversal.Preorder<V>(Tree.this);
+            }
+        };
+    }
+    
+    /**
+     * Returns the nodes of this Tree in postorder: each node after its
+     * children, ending with this one.
+     * 
+     * @return The nodes of this Tree, in postorder.
+     */
+    public Iterable<Tree<V>> postorder() {
+        return new Iterable<Tree<V>>() {
+            @Override
+            public Iterator<Tree<V>> iterator() {
+                return new Traversal.Postorder<V>(Tree.this);
+            }
+        };
+    }
+    
+    /**
+     * Returns the nodes of this Tree in breadth-first order: this one,
+     * then its children, then their children, and so on.
+     * 
+     * @return The nodes of this Tree, a level at a time.
+     */
+    public Iterable<Tree<V>> breadthFirst() {
+        return new Iterable<Tree<V>>() {
+            @Override
+            public Iterator<Tree<V>> iterator() {
+                return new Traversal.BreadthFirst<V>(Tree.this);
+            }
+        };
+    }
+    
+    /**
+     * Returns a Spliterator over all the nodes of this Tree, in preorder.
+     * Unlike <code>iterator()</code>, which gives only the children of
+     * this node, it covers the whole Tree, and it splits by handing over
+     * whole subtrees, so that
+     * <code>StreamSupport.stream(tree.spliterator(), true)</code> can
+     * work on a large Tree in parallel.
+     * 
+     * @return A Spliterator over the nodes of this Tree.
+     */
+    @Override
+    public Spliterator<Tree<V>> spliterator() {
+        return new Traversal.Subtrees<V>(this);
+    }
+    
+    /**
+     * Walks this Tree depth first, calling <code>visitor.enter</code> for
+     * each node before its children and <code>visitor.leave</code> after
+     * them. The walk keeps its own stack, so a Tree of any depth can be
+     * walked.
+     * 
+     * @param visitor What to do at each node.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void accept(TreeVisitor<V> visitor) {
+        if (!visitor.enter(this, 0)) {
+            visitor.leave(this, 0);
+            return;
+        }
+        // The nodes entered and not yet left, and for each the index of
+        // the next child to visit.
+        Tree<V>[] nodes = new Tree[16];
+        int[] next = new int[16];
+        nodes[0] = this;
+        int depth = 0;
+        while (depth >= 0) {
+            Tree<V> node = nodes[depth];
+            int index = next[depth];
+            if (index == node.getNumberOfChildren()) {
+                nodes[depth] = null;
+                visitor.leave(node, depth--);
+                continue;
+            }
+            next[depth] = index + 1;
+            Tree<V> child = node.getChild(index);
+            if (!visitor.enter(child, depth + 1)) {
+                visitor.leave(child, depth + 1);
+                continue;
+            }
+            if (++depth == nodes.length) {
+                nodes = Arrays.copyOf(nodes, 2 * depth);
+                next = Arrays.copyOf(next, 2 * depth);
+            }
+            nodes[depth] = child;
+            next[depth] = 0;
+        }
+    }
+    
+    /**
+     * Inserts the child at the given position, moving the children from
+     * there on over to make room.
+     * 
+     * @param index The position for the new child.
+     * @param child The new child.
+     * @throws IndexOutOfBoundsException If the position is not valid.
+     */
+    private void insert(int index, Tree<V> child) {
+        int count = getNumberOfChildren();
+        if (index < 0 || index > count) throw outOfBounds(index);
+        changed();
+        if (count == 0) {
+            children = child;
+            return;
+        }
+        Object[] array = ensureCapacity(count + 1);
+        System.arraycopy(array, index, array, index + 1, count - index);
+        array[index] = child;
+    }
+    
+    /**
+     * Returns the <code>index</code>'th child of this node, unless it is
+     * the only child.
+     * 
+     * @param children The children of this node.
+     * @param index The position of the child that is to be returned.
+     * @return The child at that position.
+     * @throws IndexOutOfBoundsException If there is no such child.
+     */
+    @SuppressWarnings("unchecked")
+    private Tree<V> getChild(Object children, int index) {
+        if (children instanceof Object[]) {
+            Object child = ((Object[]) children)[index];
+            if (child != null) return (Tree<V>) child;
+        }
+        throw outOfBounds(index);
+    }
+    
+    /**
+     * Returns the number of children in an array, which may have unused
+     * elements at the end.
+     * 
+     * @param array The array of children.
+     * @return The number of elements in use.
+     */
+    private static int usedLength(Object[] array) {
+        if (array[array.length - 1] != null) return array.length;
+        int low = 0;
+        int high = array.length - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (array[middle] == null) high = middle;
+            else low = middle + 1;
+        }
+        return low;
+    }
+    
+    /**
+     * Makes the exception for an attempt to get a child that this node
+     * does not have.
+     * 
+     * @param index The position of the child.
+     * @return The exception, to be thrown.
+     */
+    private IndexOutOfBoundsException outOfBounds(int index) {
+        return new IndexOutOfBoundsException("Index: " + index + ", Size: " + getNumberOfChildren());
+    }
+    
+    /**
+     * Removes the child at the given position, moving the children after
+     * it over to close the gap.
+     * 
+     * @param index The position of the child.
+     * @throws IndexOutOfBoundsException If there is no such child.
+     */
+    private void removeChild(int index) {
+        Tree<V> old = getChild(index);
+        int count = getNumberOfChildren();
+        if (count == 1) {
+            children = null;
+        }
+        else {
+            Object[] array = (Object[]) children;
+            System.arraycopy(array, index + 1, array, index, count - index - 1);
+            array[count - 1] = null;
+            if (count == 2) children = array[0];
+        }
+        if (old.parent == this) old.parent = null;
+        changed();
+    }
+    
+    /**
+     * Puts the children in an array with room for at least the given
+     * number of them, unless they already are. An array that must grow
+     * grows by half, so that adding many children one at a time takes
+     * linear time.
+     * 
+     * @param capacity The number of children to make room for, at least 2.
+     * @return The array of children.
+     */
+    private Object[] ensureCapacity(int capacity) {
+        Object[] array;
+        if (children instanceof Object[]) {
+            array = (Object[]) children;
+            if (array.length >= capacity) return array;
+            array = Arrays.copyOf(array, Math.max(capacity, array.length + (array.length >> 1)));
+        }
+        else {
+            array = new Object[capacity];
+            array[0] = children;
+        }
+        children = array;
+        return array;
+    }
+    
+    /**
+     * Throws an exception if making <code>node</code> a child of this
+     * node would create a circular Tree, that is, if <code>node</code> is
+     * this node or one of its ancestors. The parent links are followed
+     * up from this node while <code>node</code> is searched for this one,
+     * a step of each at a time, and the check ends as soon as either is
+     * done; so it takes time proportional to the depth of this node or
+     * the size of <code>node</code>, whichever is less, and a leaf is
+     * checked at once. Once the walk up reaches a node with more than
+     * one parent, whose ancestors are not all known, only the search goes
+     * on. The search reads the <code>children</code> fields, so children
+     * a subclass has not yet loaded are not loaded for it.
+     * 
+     * @param node The node that is to become a child of this one.
+     * @throws IllegalArgumentException If it would create a circular Tree.
+     */
+    @SuppressWarnings("unchecked")
+    private void checkNotAncestor(Tree<V> node) {
+        if (node == this) {
+            throw new IllegalArgumentException("Circular Tree");
+        }
+        if (node.children == null) return;
+        Tree<V> ancestor = parent;
+        ArrayDeque<Tree<V>> unsearched = new ArrayDeque<Tree<V>>();
+        unsearched.push(node);
+        while (!unsearched.isEmpty()) {
+            if (ancestor == null) return;
+            Tree<V> next = unsearched.pop();
+            if (ancestor == node || next == this) {
+                throw new IllegalArgumentException("Circular Tree");
+            }
+            Object children = next.children;
+            if (children instanceof Tree) {
+                unsearched.push((Tree<V>) children);
+            }
+            else if (children != null) {
+                Object[] array = (Object[]) children;
+                for (int i = usedLength(array) - 1; i >= 0; i--) {
+                    unsearched.push((Tree<V>) array[i]);
+                }
+            }
+            if (ancestor != SHARED) ancestor = ancestor.parent;
+        }
+    }
+    
+    /**
+     * Records that the child has just been made a child of this node.
+     * A child that already had a parent now has more than one, and the
+     * hashes of its ancestors will no longer be forgotten when it
+     * changes, so those it had are forgotten now.
+     * 
+     * @param child The new child.
+     */
+    @SuppressWarnings("unchecked")
+    private void adopt(Tree<V> child) {
+        Tree<V> old = child.parent;
+        if (old == null) {
+            child.parent = this;
+            return;
+        }
+        if (old != SHARED && !child.isImmutable()) old.changed();
+        child.parent = (Tree<V>) (Tree<?>) SHARED;
+    }
+    
+    /**
+     * Tells whether this node can never change. Only such a node can be
+     * shared by several parents without keeping them from caching their
+     * hashes.
+     * 
+     * @return <code>true</code> if this node can never change.
+     */
+    boolean isImmutable() {
+        return false;
+    }
+    
+    /**
+     * Forgets the hashes of this node and its ancestors, which change
+     * with it. The walk up stops at a node whose hash is not known,
+     * since then none of its ancestors' hashes is known either, and at a
+     * node with more than one parent, since no ancestor of such a node
+     * keeps its hash.
+     */
+    private void changed() {
+        for (Tree<V> node = this; node.hash != 0; node = node.parent) {
+            node.hash = 0;
+            if (node.parent == null || node.parent == SHARED) return;
+        }
     }
     
     /**
@@ -132,9 +548,8 @@ public class Tree<V> implements Iterable<Tree<V>> {
      * @return <code>true</code> iff the node is found.
      */
     boolean contains(Tree<V> node) {
-        if (this == node) return true;
-        for (Tree<V> child : children) {
-            if (child.contains(node)) return true;
+        for (Tree<V> each : preorder()) {
+            if (each == node) return true;
         }
         return false;
     }
@@ -145,37 +560,109 @@ public class Tree<V> implements Iterable<Tree<V>> {
      * <code>value(child, child, ..., child)</code>.
      * 
      * @see java.lang.Object#toString()
+     * @see #writeTo(Appendable)
      */
     @Override
     public String toString() {
-        if (children.size() == 0) {
-            return value.toString();
+        StringBuilder builder = new StringBuilder();
+        try {
+            writeTo(builder);
         }
-        String result = value + "(" + children.get(0);
-        for (int i = 1; i < children.size(); i++) {
-            result += " " + children.get(i);
+        catch (IOException e) {
+            throw new AssertionError(e);    // a StringBuilder never throws it
+        }
+        return builder.toString();
+    }
+    
+    /**
+     * Writes this tree to <code>out</code> in the one-line form returned
+     * by <code>toString()</code>, appending each value and parenthesis as
+     * it goes, so that the time taken is proportional to the length of
+     * the output.
+     * 
+     * @param out Where to write the tree.
+     * @throws IOException If <code>out</code> throws it.
+     */
+    public void writeTo(final Appendable out) throws IOException {
+        try {
+            accept(new TreeVisitor<V>() {
+                /** Whether the next node is the first child of its parent. */
+                private boolean first = true;
+                
+                @Override
+                public boolean enter(Tree<V> node, int depth) {
+                    try {
+                        if (!first) out.append(' ');
+                        out.append(String.valueOf(node.value));
+                        first = node.getNumberOfChildren() > 0;
+                        if (first) out.append('(');
+                        return true;
+                    }
+                    catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                
+                @Override
+                public void leave(Tree<V> node, int depth) {
+                    try {
+                        if (node.getNumberOfChildren() > 0) out.append(')');
+                        first = false;
+                    }
+                    catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
         }
-        return result + ")";
     }
     
     /**
      * Prints this tree as an indented structure.
      */
     public void print() {
-        print(this, "");
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+        try {
+            printTo(out, "   ");
+            out.flush();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
     }   
     
     /**
-     * Prints the given tree as an indented structure, with the
-     * given node indented by the given amount.
-     * @param node The root of the tree or subtree to be printed.
-     * @param indent The amount to indent the root.
+     * Writes this tree to <code>out</code> as an indented structure, one
+     * node per line, each node indented once more than its parent.
+     * 
+     * @param out Where to write the tree.
+     * @param indentUnit The indentation for each level of the tree.
+     * @throws IOException If <code>out</code> throws it.
      */
-    private static void print(Tree<?> node, String indent) {
-        if (node == null) return;
-        System.out.println(indent + node.value);
-        for (int i = 0; i < node.getNumberOfChildren(); i++) {
-            print(node.getChild(i), indent + "   ");
+    public void printTo(final Appendable out, final String indentUnit) throws IOException {
+        final String newline = System.getProperty("line.separator");
+        try {
+            accept(new TreeVisitor<V>() {
+                @Override
+                public boolean enter(Tree<V> node, int depth) {
+                    try {
+                        for (int i = 0; i < depth; i++) {
+                            out.append(indentUnit);
+                        }
+                        out.append(String.valueOf(node.value)).append(newline);
+                        return true;
+                    }
+                    catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
         }
     }
     
@@ -190,14 +677,49 @@ public class Tree<V> implements Iterable<Tree<V>> {
     @Override
     public boolean equals(Object obj) {
         if (!(obj instanceof Tree)) return false;
-        Tree<?> that = (Tree<?>) obj;
-        if (!equals(this.value, that.value)) return false;
-        if (!equals(this.getNumberOfChildren(),
-                    that.getNumberOfChildren())) return false;
-        for (int i = 0; i < getNumberOfChildren(); i++) {
-            if (!(this.getChild(i).equals(that.getChild(i)))) return false;
+        // Pairs of nodes still to be compared, each pair's node from this
+        // Tree on top of its node from the other.
+        ArrayDeque<Tree<?>> pending = new ArrayDeque<Tree<?>>();
+        Tree<?> mine = this;
+        Tree<?> theirs = (Tree<?>) obj;
+        while (true) {
+            if (mine != theirs) {
+                if (mine.hash != theirs.hash && mine.hash != 0 && theirs.hash != 0) {
+                    return false;
+                }
+                if (!equals(mine.value, theirs.value)) return false;
+                int count = mine.getNumberOfChildren();
+                if (count != theirs.getNumberOfChildren()) return false;
+                for (int i = count - 1; i >= 0; i--) {
+                    pending.push(theirs.getChild(i));
+                    pending.push(mine.getChild(i));
+                }
+            }
+            if (pending.isEmpty()) return true;
+            mine = pending.pop();
+            theirs = pending.pop();
         }
-        return true;
+    }
+    
+    /**
+     * Returns a hash code for this Tree, computed from the values and the
+     * shape of the whole Tree, so that equal Trees have equal hash codes.
+     * The hash of each node is kept until the node or one of its
+     * descendants changes, so asking again costs nothing, and after a
+     * change only the changed nodes and their ancestors are hashed
+     * again. A node below a mutable node that has more than one parent
+     * cannot tell when that node changes, so it hashes it every time.
+     * 
+     * @return The structural hash code of this Tree.
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        int hash = this.hash;
+        if (hash != 0) return hash;
+        Hasher<V> hasher = new Hasher<V>();
+        accept(hasher);
+        return hasher.hashes[0];
     }
     
     /**
@@ -245,23 +767,32 @@ public class Tree<V> implements Iterable<Tree<V>> {
         final String OPEN_PAREN = "(";
         final String CLOSE_PAREN = ")";
         
-        String value = getWord(tokenizer);
-        // if ( or ) push it back, return null
-        if (value == null) return null;
-        
-        Tree<String> root = new Tree<String>(value);
-        
-        if (isSymbol(tokenizer, OPEN_PAREN)) {
-            Tree<String> child = getTree(tokenizer);
-            while (child != null) {
-                root.addChildren(child);
-                child = getTree(tokenizer);
+        // The nodes whose children are being read, the innermost on top.
+        // Each child is added when it is complete, so that the node it
+        // is added to has no parent yet and the check for a circular
+        // Tree costs nothing.
+        ArrayDeque<Tree<String>> open = new ArrayDeque<Tree<String>>();
+        while (true) {
+            Tree<String> tree;
+            String value = getWord(tokenizer);
+            if (value == null) {
+                // if ( or ) it was pushed back
+                if (open.isEmpty()) return null;
+                if (!isSymbol(tokenizer, CLOSE_PAREN)) {
+                    throw new IllegalArgumentException("Unbalanced parentheses");
+                }
+                tree = open.pop();
             }
-            if (!isSymbol(tokenizer, CLOSE_PAREN)) {
-                throw new IllegalArgumentException("Unbalanced parentheses");
+            else {
+                tree = new Tree<String>(value);
+                if (isSymbol(tokenizer, OPEN_PAREN)) {
+                    open.push(tree);
+                    continue;
+                }
             }
+            if (open.isEmpty()) return tree;
+            open.peek().addChildren(tree);
         }
-        return root;
     }
 
     /**
@@ -301,6 +832,125 @@ public class Tree<V> implements Iterable<Tree<V>> {
     
     //---------------------------------------------------------------------
     
+    /**
+     * Computes the hashes of the nodes of a Tree after their children,
+     * skipping the subtrees whose hashes are known, and keeps those that
+     * will be forgotten when they change.
+     * 
+     * @param <V> The type of value that can be held in each Tree node.
+     */
+    private static class Hasher<V> implements TreeVisitor<V> {
+        /** The hashes of the subtrees whose parents have not been left. */
+        int[] hashes = new int[16];
+        /**
+         * For each of those subtrees, whether its hash is kept and its
+         * parent will hear of any change to it, so that the parent may
+         * keep its own hash.
+         */
+        boolean[] lasting = new boolean[16];
+        int size;
+        
+        @Override
+        public boolean enter(Tree<V> node, int depth) {
+            return node.hash == 0;
+        }
+        
+        @Override
+        public void leave(Tree<V> node, int depth) {
+            int hash = node.hash;
+            if (hash == 0) {
+                int count = node.getNumberOfChildren();
+                size -= count;
+                boolean keep = true;
+                hash = node.value == null ? 0 : node.value.hashCode();
+                for (int i = size; i < size + count; i++) {
+                    hash = 31 * hash + hashes[i];
+                    keep &= lasting[i];
+                }
+                if (hash == 0) hash = 1;    // 0 means "not known"
+                if (keep) node.hash = hash;
+            }
+            if (size == hashes.length) {
+                hashes = Arrays.copyOf(hashes, 2 * size);
+                lasting = Arrays.copyOf(lasting, 2 * size);
+            }
+            hashes[size] = hash;
+            lasting[size++] = node.hash != 0 && (node.parent != SHARED || node.isImmutable());
+        }
+    }
+    
+    //---------------------------------------------------------------------
+    
+    /**
+     * Builds a Tree from the bottom up: the children are collected first,
+     * each of them already complete, and the node is made last. Since the
+     * node does not exist while the children are added, no child can
+     * contain it, and nothing is checked; this is the way for parsers to
+     * build large trees. The Builder may be reused after
+     * <code>build()</code>.
+     * 
+     * @param <V> The type of value that can be held in each Tree node.
+     */
+    public static class Builder<V> {
+        private V value;
+        private final ArrayList<Tree<V>> children = new ArrayList<Tree<V>>();
+        
+        /**
+         * Constructs a Builder for a node with the given value.
+         * 
+         * @param value The value to be put in the node.
+         */
+        public Builder(V value) {
+            this.value = value;
+        }
+        
+        /**
+         * Sets the value to be put in the node.
+         * 
+         * @param value The value to be put in the node.
+         * @return This Builder.
+         */
+        public Builder<V> setValue(V value) {
+            this.value = value;
+            return this;
+        }
+        
+        /**
+         * Adds the child as the new last child of the node.
+         * 
+         * @param child The child to be added.
+         * @return This Builder.
+         */
+        public Builder<V> addChild(Tree<V> child) {
+            children.add(child);
+            return this;
+        }
+        
+        /**
+         * Makes the node, with the value and the children given so far,
+         * and starts over with no children.
+         * 
+         * @return The new node.
+         */
+        public Tree<V> build() {
+            Tree<V> node = new Tree<V>(value);
+            int count = children.size();
+            if (count == 1) {
+                node.children = children.get(0);
+            }
+            else if (count > 1) {
+                node.children = children.toArray();
+            }
+            for (Tree<V> child : children) {
+                node.adopt(child);
+            }
+            children.clear();
+            return node;
+        }
+    }
+    
+    //---------------------------------------------------------------------
+    
     /**
      * A Tokenizer that returns one of four things: a left parenthesis, a
      * right parenthesis, a sequence of non-whitespace, non-parenthesis
@@ -0,0 +1,181 @@
+package tree;
+
+/**
+ * Measures the cost of building large Trees with the check for circular
+ * Trees done two ways: the way <code>addChild</code> used to do it,
+ * searching the whole subtree of the new child, and the way it does it
+ * now, following the parent links up from the new parent. Three shapes
+ * are built, each from the bottom up, as a parser builds them, and from
+ * the top down:
+ * <ul>
+ * <li><i>chain</i>, like a long left-associative expression, each node
+ *     having the previous one and a leaf as children;</li>
+ * <li><i>bushy</i>, a complete tree with four children per node;</li>
+ * <li><i>top-down</i>, the same bushy tree, each leaf added to a node
+ *     that is already in the tree.</li>
+ * </ul>
+ * The bushy tree is also built with a <code>Tree.Builder</code>, which
+ * checks nothing. Building a chain the old way takes time quadratic in
+ * its size, so it is timed only for smaller chains. Run it as an
+ * application; the optional argument is the number of nodes (default
+ * 1,000,000).
+ */
+public class TreeBenchmark {
+    private static final int ROUNDS = 5;
+    private static final int WARM_UP_ROUNDS = 2;
+    /** The largest chain built the old way. */
+    private static final int MAX_OLD_CHAIN = 100000;
+
+    /** The ways of building a tree that are timed. */
+    private enum Way { OLD, NEW, BUILDER }
+
+    /**
+     * Times the building of the trees, and prints the results.
+     * @param args The number of nodes, if given.
+     * @throws InterruptedException If interrupted.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        final int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        // Trees were once walked recursively, and a deep chain needed a
+        // big stack; it is kept so that older versions can be compared.
+        Thread thread = new Thread(null, new Runnable() {
+            @Override
+            public void run() {
+                System.out.printf("%-10s %10s %12s %12s %12s%n",
+                                  "shape", "nodes", "old (ms)", "new (ms)", "builder (ms)");
+                for (int n = 1000; n < nodes; n *= 10) {
+                    report("chain", n, time("chain", n, Way.OLD), time("chain", n, Way.NEW), -1);
+                }
+                double old = nodes <= MAX_OLD_CHAIN ? time("chain", nodes, Way.OLD) : -1;
+                report("chain", nodes, old, time("chain", nodes, Way.NEW), -1);
+                report("bushy", nodes, time("bushy", nodes, Way.OLD),
+                       time("bushy", nodes, Way.NEW), time("bushy", nodes, Way.BUILDER));
+                report("top-down", nodes, time("top-down", nodes, Way.OLD),
+                       time("top-down", nodes, Way.NEW), -1);
+            }
+        }, "benchmark", 1L << 30);
+        thread.start();
+        thread.join();
+    }
+
+    /**
+     * Prints one line of results.
+     * @param shape The shape of the tree.
+     * @param nodes The number of nodes.
+     * @param old The time taken the old way, in ms, or -1.
+     * @param now The time taken the new way, in ms.
+     * @param builder The time taken by a Builder, in ms, or -1.
+     */
+    private static void report(String shape, int nodes, double old, double now, double builder) {
+        System.out.printf("%-10s %10d %12s %12.1f %12s%n", shape, nodes,
+                          old < 0 ? "-" : String.format("%.1f", old), now,
+                          builder < 0 ? "-" : String.format("%.1f", builder));
+    }
+
+    /**
+     * Returns the best time taken to build a tree.
+     * @param shape The shape of the tree.
+     * @param nodes The number of nodes, roughly.
+     * @param way How to build it.
+     * @return The best time, in ms.
+     */
+    private static double time(String shape, int nodes, Way way) {
+        int rounds = WARM_UP_ROUNDS + ROUNDS;
+        if (way == Way.OLD && nodes > MAX_OLD_CHAIN / 10) rounds = 1;
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < rounds; i++) {
+            System.gc();
+            long start = System.nanoTime();
+            Tree<Integer> tree;
+            if (shape.equals("chain")) tree = chain(nodes, way);
+            else if (shape.equals("bushy")) tree = bushy(nodes, way);
+            else tree = topDown(nodes, way);
+            double time = (System.nanoTime() - start) / 1e6;
+            if (tree.getNumberOfChildren() == 0) throw new AssertionError();
+            if (i >= rounds - ROUNDS || rounds == 1) best = Math.min(best, time);
+        }
+        return best;
+    }
+
+    /**
+     * Builds a chain from the bottom up.
+     * @param nodes The number of nodes.
+     * @param way How to build it.
+     * @return The chain.
+     */
+    private static Tree<Integer> chain(int nodes, Way way) {
+        Tree<Integer> tree = new Tree<Integer>(0);
+        for (int i = 1; i + 1 < nodes; i += 2) {
+            Tree<Integer> root = new Tree<Integer>(i);
+            add(root, tree, way);
+            add(root, new Tree<Integer>(i + 1), way);
+            tree = root;
+        }
+        return tree;
+    }
+
+    /**
+     * Builds a bushy tree from the bottom up, a level at a time.
+     * @param nodes The number of nodes, roughly.
+     * @param way How to build it.
+     * @return The tree.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Tree<Integer> bushy(int nodes, Way way) {
+        int leaves = Math.max(4, nodes * 3 / 4);
+        Tree<Integer>[] level = new Tree[leaves];
+        for (int i = 0; i < leaves; i++) level[i] = new Tree<Integer>(i);
+        Tree.Builder<Integer> builder = new Tree.Builder<Integer>(0);
+        while (level.length > 1) {
+            Tree<Integer>[] next = new Tree[(level.length + 3) / 4];
+            for (int i = 0; i < next.length; i++) {
+                if (way == Way.BUILDER) {
+                    builder.setValue(i);
+                    for (int j = 4 * i; j < 4 * i + 4 && j < level.length; j++) {
+                        builder.addChild(level[j]);
+                    }
+                    next[i] = builder.build();
+                }
+                else {
+                    next[i] = new Tree<Integer>(i);
+                    for (int j = 4 * i; j < 4 * i + 4 && j < level.length; j++) {
+                        add(next[i], level[j], way);
+                    }
+                }
+            }
+            level = next;
+        }
+        return level[0];
+    }
+
+    /**
+     * Builds a bushy tree from the top down, in breadth-first order.
+     * @param nodes The number of nodes.
+     * @param way How to build it.
+     * @return The tree.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Tree<Integer> topDown(int nodes, Way way) {
+        Tree<Integer>[] all = new Tree[nodes];
+        all[0] = new Tree<Integer>(0);
+        for (int i = 1; i < nodes; i++) {
+            all[i] = new Tree<Integer>(i);
+            add(all[(i - 1) / 4], all[i], way);
+        }
+        return all[0];
+    }
+
+    /**
+     * Adds a child to a node, checking for a circular Tree.
+     * @param parent The node.
+     * @param child The new child.
+     * @param way How to check: the old way searches the child's subtree
+     *        before <code>addChild</code> does its own check.
+     */
+    private static void add(Tree<Integer> parent, Tree<Integer> child, Way way) {
+        if (way == Way.OLD && child.contains(parent)) {
+            throw new IllegalArgumentException("Circular Tree");
+        }
+        parent.addChild(child);
+    }
+}
@@ -0,0 +1,201 @@
+package tree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Makes Trees in which identical subtrees are shared: however many
+ * times the same subtree, such as <code>move(10)</code> or
+ * <code>x + 1</code>, occurs in the Trees made by one TreeInterner, it
+ * is the same object. The nodes it makes can never change, which is
+ * what makes sharing them safe; any attempt to change one throws an
+ * <code>UnsupportedOperationException</code>. Two such Trees are equal
+ * only if they are the same object, so <code>equals</code> finds out at
+ * once that they are, and a differing hash soon tells it that they are
+ * not.
+ * <p>
+ * A TreeInterner keeps every distinct node it has made, until
+ * <code>clear</code> is called or it is itself discarded; the Trees it
+ * made remain shared. It is not safe to use from more than one thread
+ * at a time.
+ *
+ * @param <V> The type of value held in each Tree node.
+ */
+public class TreeInterner<V> {
+    /** Each distinct node made, as both key and value. */
+    private final HashMap<Tree<V>, Tree<V>> nodes = new HashMap<Tree<V>, Tree<V>>();
+
+    /**
+     * Returns a Tree equal to the given one, made of shared nodes that
+     * cannot change. A Tree made by this TreeInterner is returned as it
+     * is. The given Tree is not changed.
+     *
+     * @param tree The Tree.
+     * @return The shared Tree equal to it.
+     */
+    public Tree<V> intern(Tree<V> tree) {
+        if (isInterned(tree)) return tree;
+        // The shared nodes made for the subtrees whose parents have not
+        // yet been left, in order.
+        final List<Tree<V>> done = new ArrayList<Tree<V>>();
+        tree.accept(new TreeVisitor<V>() {
+            @Override
+            public boolean enter(Tree<V> node, int depth) {
+                return !isInterned(node);
+            }
+
+            @Override
+            public void leave(Tree<V> node, int depth) {
+                if (isInterned(node)) {
+                    done.add(node);
+                    return;
+                }
+                List<Tree<V>> children =
+                    done.subList(done.size() - node.getNumberOfChildren(), done.size());
+                @SuppressWarnings({"unchecked", "rawtypes"})
+                Tree<V>[] array = children.toArray(new Tree[children.size()]);
+                children.clear();
+                done.add(share(node.getValue(), array));
+            }
+        });
+        return done.get(0);
+    }
+
+    /**
+     * Returns a shared node with the given value and children. The
+     * children are interned first, unless they already are.
+     *
+     * @param value The value in the node.
+     * @param children The children of the node.
+     * @return The shared node.
+     */
+    @SafeVarargs
+    @SuppressWarnings("varargs")            // the array is only copied
+    public final Tree<V> make(V value, Tree<V>... children) {
+        children = children.clone();
+        for (int i = 0; i < children.length; i++) {
+            children[i] = intern(children[i]);
+        }
+        return share(value, children);
+    }
+
+    /**
+     * Returns the number of distinct nodes that this TreeInterner keeps.
+     *
+     * @return The number of nodes.
+     */
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Forgets all the nodes made so far. The Trees made from them remain
+     * as they are, but are not shared with those made after.
+     */
+    public void clear() {
+        nodes.clear();
+    }
+
+    /**
+     * Tells whether a node was made by this TreeInterner.
+     *
+     * @param node The node.
+     * @return <code>true</code> if it is one of the nodes kept here.
+     */
+    private boolean isInterned(Tree<V> node) {
+        return node.isImmutable() && nodes.get(node) == node;
+    }
+
+    /**
+     * Returns the node with the given value and children, making it if
+     * there is none yet. Since the children are shared, comparing a new
+     * node with those kept compares them by identity, and costs time
+     * proportional to the number of children only.
+     *
+     * @param value The value in the node.
+     * @param children The children of the node, all interned.
+     * @return The shared node.
+     */
+    private Tree<V> share(V value, Tree<V>[] children) {
+        Tree<V> node = new Frozen<V>(value, children);
+        Tree<V> existing = nodes.get(node);
+        if (existing != null) return existing;
+        nodes.put(node, node);
+        return node;
+    }
+
+    //---------------------------------------------------------------------
+
+    /**
+     * A node that cannot be changed. Its children are all Frozen too, and
+     * do not link back to it, as they may have any number of parents.
+     *
+     * @param <V> The type of value held in each Tree node.
+     */
+    private static class Frozen<V> extends Tree<V> {
+
+        /**
+         * Constructs a node with the given value and children.
+         *
+         * @param value The value in the node.
+         * @param children The children of the node.
+         */
+        Frozen(V value, Tree<V>[] children) {
+            super(value, children, false);
+        }
+
+        @Override
+        boolean isImmutable() {
+            return true;
+        }
+
+        @Override
+        public void setValue(V value) {
+            throw new UnsupportedOperationException("Shared Trees cannot be changed");
+        }
+
+        @Override
+        public void addChild(int index, Tree<V> child) {
+            throw new UnsupportedOperationException("Shared Trees cannot be changed");
+        }
+
+        @Override
+        public void addChild(Tree<V> child) {
+            throw new UnsupportedOperationException("Shared Trees cannot be changed");
+        }
+
+        @Override
+        public Tree<V> setChild(int index, Tree<V> child) {
+            throw new UnsupportedOperationException("Shared Trees cannot be changed");
+        }
+
+        @SafeVarargs
+        @Override
+        public final void addChildren(Tree<V>... children) {
+            throw new UnsupportedOperationException("Shared Trees cannot be changed");
+        }
+
+        @Override
+        public Iterator<Tree<V>> iterator() {
+            final Iterator<Tree<V>> iterator = super.iterator();
+            return new Iterator<Tree<V>>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Tree<V> next() {
+                    return iterator.next();
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException("Shared Trees cannot be changed");
+                }
+            };
+        }
+    }
+}
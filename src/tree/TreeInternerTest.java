@@ -0,0 +1,115 @@
+package tree;
+
+import static org.junit.Assert.*;
+
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TreeInternerTest {
+    private TreeInterner<String> interner;
+    private Tree<String> tree;
+
+    @Before
+    public void setUp() throws Exception {
+        interner = new TreeInterner<String>();
+        tree = Tree.parse("block(move(+(x 1)) turn(+(x 1)) move(+(x 1)) move(+(x 2)))");
+    }
+
+    @Test
+    public void testIntern() {
+        Tree<String> shared = interner.intern(tree);
+        assertEquals(tree, shared);
+        assertEquals(tree.hashCode(), shared.hashCode());
+        assertEquals(tree.toString(), shared.toString());
+        assertSame(shared.getChild(0), shared.getChild(2));
+        assertSame(shared.getChild(0).getChild(0), shared.getChild(1).getChild(0));
+        assertNotSame(shared.getChild(0), shared.getChild(1));
+        assertSame(shared.getChild(0).getChild(0).getChild(0),
+                   shared.getChild(3).getChild(0).getChild(0));
+        // block, two moves, turn, +(x 1), +(x 2), x, 1 and 2
+        assertEquals(9, interner.size());
+        assertSame(shared, interner.intern(shared));
+        assertSame(shared, interner.intern(Tree.parse(tree.toString())));
+        assertSame(shared.getChild(3), interner.intern(tree.getChild(3)));
+        assertEquals(9, interner.size());
+        assertEquals("block(move(+(x 1)) turn(+(x 1)) move(+(x 1)) move(+(x 2)))",
+                     tree.toString());
+    }
+
+    @Test
+    public void testMake() {
+        Tree<String> x = interner.make("x");
+        Tree<String> sum = interner.make("+", x, new Tree<String>("1"));
+        assertSame(x, sum.getChild(0));
+        assertSame(sum, interner.make("+", interner.make("x"), interner.make("1")));
+        assertSame(interner.intern(tree).getChild(0), interner.make("move", sum));
+        assertEquals(Tree.parse("+(x 1)"), sum);
+    }
+
+    @Test
+    public void testSharedTreesCannotChange() {
+        Tree<String> shared = interner.intern(tree);
+        Tree<String> move = shared.getChild(0);
+        try {
+            move.setValue("turn");
+            fail();
+        }
+        catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            move.addChild(new Tree<String>("y"));
+            fail();
+        }
+        catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            shared.setChild(0, new Tree<String>("y"));
+            fail();
+        }
+        catch (UnsupportedOperationException e) {
+            // expected
+        }
+        Iterator<Tree<String>> iterator = shared.iterator();
+        iterator.next();
+        try {
+            iterator.remove();
+            fail();
+        }
+        catch (UnsupportedOperationException e) {
+            // expected
+        }
+        assertEquals(tree, shared);
+    }
+
+    @Test
+    public void testSharedSubtreesInMutableTree() {
+        Tree<String> move = interner.intern(tree).getChild(0);
+        Tree<String> block = new Tree<String>("block", move, move);
+        int hash = block.hashCode();
+        block.addChild(move);
+        assertFalse(hash == block.hashCode());
+        block.setChild(2, new Tree<String>("stop"));
+        assertEquals(Tree.parse("block(move(+(x 1)) move(+(x 1)) stop)"), block);
+        try {
+            block.addChild(0, block);
+            fail();
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testClear() {
+        Tree<String> shared = interner.intern(tree);
+        interner.clear();
+        assertEquals(0, interner.size());
+        Tree<String> again = interner.intern(tree);
+        assertEquals(shared, again);
+        assertNotSame(shared, again);
+    }
+}
@@ -2,7 +2,15 @@ package tree;
 
 import static org.junit.Assert.*;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -108,6 +116,85 @@ public class TreeTest {
         three.addChild(3, two);
     }
 
+    @Test
+    public final void testSetChild() {
+        Tree<String> x = new Tree<String>("x");
+        assertSame(two, one.setChild(0, x));
+        assertChildValues(one, "x", "three");
+        assertSame(x, one.getChild(0));
+        assertSame(five, three.setChild(1, two));
+        assertChildValues(three, "four", "two");
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public final void testSetChildToMakeCircularTree() {
+        five.setChild(1, three);
+    }
+
+    @Test(expected=IndexOutOfBoundsException.class)
+    public final void testSetChildAtIllegalLocation() {
+        three.setChild(2, two);
+    }
+
+    @Test
+    public final void testCircularTreeThroughDeepPath() {
+        Tree<String> root = new Tree<String>("root");
+        Tree<String> node = root;
+        for (int i = 0; i < 1000; i++) {
+            Tree<String> child = new Tree<String>("node");
+            node.addChild(child);
+            node = child;
+        }
+        node.addChild(new Tree<String>("leaf"));
+        try {
+            node.addChild(root);
+            fail();
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public final void testCircularTreeThroughSharedNode() {
+        Tree<String> x = new Tree<String>("x");
+        Tree<String> p = new Tree<String>("p", x);
+        Tree<String> q = new Tree<String>("q");
+        q.addChild(x);
+        Tree<String> r = new Tree<String>("r", q);
+        x.addChild(new Tree<String>("y", new Tree<String>("z")));  // fine
+        x.addChild(r);  // r is an ancestor through the second parent
+    }
+
+    @Test
+    public final void testReplacedChildIsDetached() {
+        Tree<String> a = new Tree<String>("a");
+        Tree<String> b = new Tree<String>("b");
+        a.addChild(b);
+        a.setChild(0, new Tree<String>("c"));
+        b.addChild(a);
+        assertChildValues(b, "a");
+        assertChildValues(a, "c");
+    }
+
+    @Test
+    public final void testBuilder() {
+        Tree.Builder<String> builder = new Tree.Builder<String>("x");
+        Tree<String> y = builder.setValue("y").addChild(two).addChild(three).build();
+        assertEquals(Tree.parse("y(two three(four five(six seven eight)))"), y);
+        Tree<String> z = builder.setValue("z").build();
+        assertEquals(0, z.getNumberOfChildren());
+        Tree<String> w = builder.setValue("w").addChild(y).build();
+        assertChildValues(w, "y");
+        try {
+            y.addChild(w);
+            fail();
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
     @Test
     public final void testAddChildren() {
         assertChildValues(one, "two", "three");
@@ -152,6 +239,53 @@ public class TreeTest {
         assertFalse(iter.hasNext());
     }
 
+    @Test
+    public final void testManyChildren() {
+        Tree<String> root = new Tree<String>("root");
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, root.getNumberOfChildren());
+            root.addChild(new Tree<String>("" + i));
+        }
+        root.addChild(0, new Tree<String>("first"));
+        root.addChild(50, new Tree<String>("middle"));
+        assertEquals(102, root.getNumberOfChildren());
+        assertEquals("first", root.getChild(0).getValue());
+        assertEquals("48", root.getChild(49).getValue());
+        assertEquals("middle", root.getChild(50).getValue());
+        assertEquals("99", root.getChild(101).getValue());
+        try {
+            root.getChild(102);
+            fail();
+        }
+        catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public final void testIteratorRemove() {
+        Iterator<Tree<String>> iter = five.iterator();
+        iter.next();
+        iter.remove();
+        assertChildValues(five, "seven", "eight");
+        iter.next();
+        iter.next();
+        iter.remove();
+        assertChildValues(five, "seven");
+        iter = five.iterator();
+        iter.next();
+        iter.remove();
+        assertEquals(0, five.getNumberOfChildren());
+        assertFalse(iter.hasNext());
+        five.addChild(eight);
+        assertChildValues(five, "eight");
+    }
+
+    @Test(expected=IndexOutOfBoundsException.class)
+    public final void testGetChildOfLeaf() {
+        two.getChild(0);
+    }
+
     @Test
     public final void testContains() {
         assertTrue(one.contains(one));
@@ -217,6 +351,169 @@ public class TreeTest {
                      squeezeOutUnnecessaryBlanks(tree.toString()));
     }
     
+    @Test
+    public final void testWriteTo() throws IOException {
+        StringBuilder out = new StringBuilder("tree: ");
+        one.writeTo(out);
+        assertEquals("tree: one(two three(four five(six seven eight)))", out.toString());
+        StringWriter writer = new StringWriter();
+        five.writeTo(writer);
+        assertEquals("five(six seven eight)", writer.toString());
+    }
+
+    @Test
+    public final void testPrintTo() throws IOException {
+        StringBuilder out = new StringBuilder();
+        three.printTo(out, "  ");
+        String n = System.getProperty("line.separator");
+        assertEquals("three" + n + "  four" + n + "  five" + n + "    six" + n
+                     + "    seven" + n + "    eight" + n, out.toString());
+    }
+
+    @Test
+    public final void testHashCode() {
+        assertEquals(tree1.hashCode(), tree2.hashCode());
+        assertEquals(one.hashCode(), Tree.parse(one.toString()).hashCode());
+        assertFalse(one.hashCode() == three.hashCode());
+        assertFalse(Tree.parse("a(b c)").hashCode() == Tree.parse("a(c b)").hashCode());
+        assertFalse(Tree.parse("a(b(c))").hashCode() == Tree.parse("a(b c)").hashCode());
+        assertEquals(0, new Tree<String>(null).hashCode() - new Tree<String>(null).hashCode());
+        Set<Tree<String>> set = new HashSet<Tree<String>>();
+        set.add(one);
+        assertTrue(set.contains(Tree.parse("one(two three(four five(six seven eight)))")));
+        assertFalse(set.contains(three));
+    }
+
+    @Test
+    public final void testHashChangesWithTree() {
+        Tree<String> copy = Tree.parse(one.toString());
+        int hash = one.hashCode();
+        six.setValue("SIX");
+        assertFalse(hash == one.hashCode());
+        assertFalse(one.equals(copy));
+        six.setValue("six");
+        assertEquals(hash, one.hashCode());
+        assertEquals(one, copy);
+        five.addChild(new Tree<String>("nine"));
+        assertFalse(hash == one.hashCode());
+        Iterator<Tree<String>> iterator = five.iterator();
+        for (int i = 0; i < 4; i++) iterator.next();
+        iterator.remove();
+        assertEquals(hash, one.hashCode());
+        Tree<String> old = three.setChild(0, new Tree<String>("FOUR"));
+        assertFalse(hash == one.hashCode());
+        three.setChild(0, old);
+        assertEquals(hash, one.hashCode());
+
+        // A node with two parents tells neither of them that it changed.
+        Tree<String> other = new Tree<String>("other", five);
+        int otherHash = other.hashCode();
+        hash = one.hashCode();
+        seven.setValue("SEVEN");
+        assertFalse(hash == one.hashCode());
+        assertFalse(otherHash == other.hashCode());
+        seven.setValue("seven");
+        assertEquals(hash, one.hashCode());
+        assertEquals(otherHash, other.hashCode());
+        five.setValue("FIVE");
+        assertFalse(hash == one.hashCode());
+        assertFalse(otherHash == other.hashCode());
+    }
+
+    @Test
+    public final void testEqualsComparesHashes() {
+        Tree<String> copy = Tree.parse(one.toString());
+        copy.hashCode();
+        one.hashCode();
+        assertEquals(one, copy);
+        copy.getChild(1).getChild(1).getChild(2).setValue("EIGHT");
+        copy.hashCode();
+        assertFalse(one.equals(copy));
+        assertFalse(copy.equals(one));
+    }
+
+    @Test
+    public final void testTraversals() {
+        assertEquals("one two three four five six seven eight", values(one.preorder()));
+        assertEquals("two four six seven eight five three one", values(one.postorder()));
+        assertEquals("one two three four five six seven eight", values(one.breadthFirst()));
+        assertEquals("five six seven eight", values(five.breadthFirst()));
+        Tree<String> tree = Tree.parse("a(b(c d) e(f))");
+        assertEquals("a b e c d f", values(tree.breadthFirst()));
+        assertEquals("c d b f e a", values(tree.postorder()));
+        assertEquals("six", values(six.postorder()));
+    }
+
+    @Test
+    public final void testAccept() {
+        final StringBuilder out = new StringBuilder();
+        one.accept(new TreeVisitor<String>() {
+            @Override
+            public boolean enter(Tree<String> node, int depth) {
+                out.append("<" + node.getValue() + depth);
+                return node != five;
+            }
+
+            @Override
+            public void leave(Tree<String> node, int depth) {
+                out.append(">");
+            }
+        });
+        assertEquals("<one0<two1><three1<four2><five2>>>", out.toString());
+    }
+
+    @Test
+    public final void testSpliterator() {
+        Tree<Integer> root = new Tree<Integer>(0);
+        List<Integer> expected = new ArrayList<Integer>();
+        expected.add(0);
+        int value = 1;
+        for (int i = 0; i < 100; i++) {
+            Tree<Integer> child = new Tree<Integer>(value);
+            expected.add(value++);
+            root.addChild(child);
+            for (int j = 0; j < i % 7; j++) {
+                child.addChild(new Tree<Integer>(value));
+                expected.add(value++);
+            }
+        }
+        List<Integer> values = StreamSupport.stream(root.spliterator(), true)
+                                            .map(node -> node.getValue())
+                                            .collect(Collectors.toList());
+        assertEquals(expected, values);
+        assertEquals(expected.size(),
+                     StreamSupport.stream(root.spliterator(), true).count());
+        assertNull(new Tree<Integer>(1).spliterator().trySplit());
+    }
+
+    @Test
+    public final void testDeepTree() {
+        int depth = 100000;
+        Tree<String> deep = new Tree<String>("x");
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            deep = new Tree<String>("x", deep);
+            text.append("x(");
+        }
+        text.append("x");
+        for (int i = 0; i < depth; i++) {
+            text.append(")");
+        }
+        assertEquals(text.toString(), deep.toString());
+        Tree<String> copy = Tree.parse(text.toString());
+        assertEquals(deep, copy);
+        assertEquals(deep.hashCode(), copy.hashCode());
+        copy.setChild(0, new Tree<String>("y"));
+        assertFalse(deep.equals(copy));
+        Tree<String> leaf = deep;
+        for (Tree<String> node : deep.postorder()) {
+            leaf = node;
+            break;
+        }
+        assertTrue(deep.contains(leaf));
+        assertFalse(copy.contains(leaf));
+    }
+
     /**
      * Tests whether the children of the node <code>actual</code> have
      * the expected values. Because varargs are used, the actual value
@@ -231,6 +528,21 @@ public class TreeTest {
         }
     }
     
+    /**
+     * Returns the values of some nodes, separated by blanks.
+     * 
+     * @param nodes The nodes.
+     * @return Their values.
+     */
+    private String values(Iterable<Tree<String>> nodes) {
+        StringBuilder values = new StringBuilder();
+        for (Tree<String> node : nodes) {
+            if (values.length() > 0) values.append(' ');
+            values.append(node.getValue());
+        }
+        return values.toString();
+    }
+    
     /**
      * Removes blanks before and after parentheses and at the beginning
      * and end of the input string, and reduces other sequences of blanks
@@ -0,0 +1,36 @@
+package tree;
+
+/**
+ * Does something at each node of a Tree, as <code>Tree.accept</code>
+ * walks it in depth-first order. Each node is entered before any of its
+ * children and left after all of them, so the calls nest as the Tree
+ * does; the walk keeps its own stack, so a Tree of any depth can be
+ * visited.
+ *
+ * @param <V> The type of value held in each Tree node.
+ */
+public interface TreeVisitor<V> {
+
+    /**
+     * Called when the walk reaches a node, before any of its children.
+     *
+     * @param node The node.
+     * @param depth The number of nodes between the node and the root of
+     *        the walk, which has depth 0.
+     * @return <code>true</code> to visit the children of the node,
+     *         <code>false</code> to skip them.
+     */
+    boolean enter(Tree<V> node, int depth);
+
+    /**
+     * Called when the walk leaves a node, after its children, or just
+     * after <code>enter</code> if they were skipped. Does nothing unless
+     * overridden.
+     *
+     * @param node The node.
+     * @param depth The depth of the node.
+     */
+    default void leave(Tree<V> node, int depth) {
+        // nothing to do
+    }
+}